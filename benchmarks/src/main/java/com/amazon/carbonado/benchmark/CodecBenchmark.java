@@ -0,0 +1,177 @@
+/*
+ * Copyright 2006-2012 Amazon Technologies, Inc. or its affiliates.
+ * Amazon, Amazon.com and Carbonado are trademarks or registered trademarks
+ * of Amazon Technologies, Inc. or its affiliates.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.carbonado.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.amazon.carbonado.CorruptEncodingException;
+import com.amazon.carbonado.FetchException;
+import com.amazon.carbonado.PersistException;
+import com.amazon.carbonado.Repository;
+import com.amazon.carbonado.Trigger;
+
+import com.amazon.carbonado.lob.Blob;
+import com.amazon.carbonado.lob.Clob;
+
+import com.amazon.carbonado.raw.GenericStorableCodec;
+import com.amazon.carbonado.raw.GenericStorableCodecFactory;
+import com.amazon.carbonado.raw.RawSupport;
+
+import com.amazon.carbonado.sequence.SequenceValueProducer;
+
+/**
+ * Measures encoding and decoding of storables by {@link GenericStorableCodec}.
+ * Encoding is performed by inserting into a storage layer which just captures
+ * the encoded key and value.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+@State(Scope.Thread)
+public class CodecBenchmark {
+    private GenericStorableCodec<Record> mCodec;
+    private CaptureSupport mSupport;
+    private Record mRecord;
+    private byte[] mKey;
+    private byte[] mValue;
+
+    @Setup
+    public void setup() throws Exception {
+        mSupport = new CaptureSupport();
+        mCodec = new GenericStorableCodecFactory()
+            .createCodec(Record.class, null, false, null, mSupport);
+        mRecord = mCodec.instantiate(mSupport);
+        Records.fill(mRecord, 12345, Records.random(0));
+        mRecord.insert();
+        mKey = mSupport.mCapturedKey;
+        mValue = mSupport.mCapturedValue;
+    }
+
+    @Benchmark
+    public byte[] encodeKey() {
+        return mCodec.encodePrimaryKey(mRecord);
+    }
+
+    @Benchmark
+    public byte[] encode() throws PersistException {
+        mRecord.insert();
+        return mSupport.mCapturedValue;
+    }
+
+    @Benchmark
+    public Record decode() throws FetchException {
+        return mCodec.instantiate(mSupport, mKey, mValue);
+    }
+
+    /**
+     * Storage layer which only captures encoded storables.
+     */
+    private class CaptureSupport implements RawSupport<Record> {
+        byte[] mCapturedKey;
+        byte[] mCapturedValue;
+
+        public Repository getRootRepository() {
+            return null;
+        }
+
+        public boolean isPropertySupported(String propertyName) {
+            return true;
+        }
+
+        public Trigger<? super Record> getInsertTrigger() {
+            return null;
+        }
+
+        public Trigger<? super Record> getUpdateTrigger() {
+            return null;
+        }
+
+        public Trigger<? super Record> getDeleteTrigger() {
+            return null;
+        }
+
+        public Trigger<? super Record> getLoadTrigger() {
+            return null;
+        }
+
+        public void locallyDisableLoadTrigger() {
+        }
+
+        public void locallyEnableLoadTrigger() {
+        }
+
+        public SequenceValueProducer getSequenceValueProducer(String name) {
+            throw new UnsupportedOperationException();
+        }
+
+        public byte[] tryLoad(Record storable, byte[] key) {
+            return mCapturedValue;
+        }
+
+        public boolean tryInsert(Record storable, byte[] key, byte[] value) {
+            mCapturedKey = key;
+            mCapturedValue = value;
+            return true;
+        }
+
+        public void store(Record storable, byte[] key, byte[] value) {
+            mCapturedKey = key;
+            mCapturedValue = value;
+        }
+
+        public boolean tryDelete(Record storable, byte[] key) {
+            return false;
+        }
+
+        public Blob getBlob(Record storable, String name, long locator) {
+            throw new UnsupportedOperationException();
+        }
+
+        public long getLocator(Blob blob) {
+            throw new UnsupportedOperationException();
+        }
+
+        public Clob getClob(Record storable, String name, long locator) {
+            throw new UnsupportedOperationException();
+        }
+
+        public long getLocator(Clob clob) {
+            throw new UnsupportedOperationException();
+        }
+
+        public void decode(Record dest, int generation, byte[] data)
+            throws CorruptEncodingException
+        {
+            mCodec.decode(dest, generation, data);
+        }
+    }
+}
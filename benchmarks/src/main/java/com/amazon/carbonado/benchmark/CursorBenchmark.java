@@ -0,0 +1,145 @@
+/*
+ * Copyright 2006-2012 Amazon Technologies, Inc. or its affiliates.
+ * Amazon, Amazon.com and Carbonado are trademarks or registered trademarks
+ * of Amazon Technologies, Inc. or its affiliates.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.carbonado.benchmark;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.amazon.carbonado.FetchException;
+import com.amazon.carbonado.Repository;
+import com.amazon.carbonado.RepositoryException;
+import com.amazon.carbonado.Storage;
+
+import com.amazon.carbonado.cursor.ArraySortBuffer;
+import com.amazon.carbonado.cursor.FilteredCursor;
+import com.amazon.carbonado.cursor.IntersectionCursor;
+import com.amazon.carbonado.cursor.IteratorCursor;
+import com.amazon.carbonado.cursor.MergeSortBuffer;
+import com.amazon.carbonado.cursor.SortedCursor;
+import com.amazon.carbonado.cursor.UnionCursor;
+
+import com.amazon.carbonado.filter.Filter;
+import com.amazon.carbonado.filter.FilterValues;
+
+import com.amazon.carbonado.repo.map.MapRepositoryBuilder;
+
+/**
+ * Measures the cursors which filter, sort and merge results in memory. Each
+ * operation consumes all the results of a cursor over the given amount of
+ * records.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+@State(Scope.Benchmark)
+public class CursorBenchmark {
+    @Param({"1000", "100000"})
+    public int size;
+
+    private Repository mRepository;
+    private Storage<Record> mStorage;
+
+    private List<Record> mRecords;
+    private List<Record> mEvenRecords;
+    private List<Record> mThirdRecords;
+    private Comparator<Record> mIdOrder;
+
+    private Filter<Record> mFilter;
+    private FilterValues<Record> mFilterValues;
+
+    @Setup
+    public void setup() throws RepositoryException {
+        mRepository = MapRepositoryBuilder.newRepository();
+        mStorage = mRepository.storageFor(Record.class);
+
+        mRecords = Records.prepare(mStorage, size);
+        mEvenRecords = new ArrayList<Record>();
+        mThirdRecords = new ArrayList<Record>();
+        for (Record record : mRecords) {
+            if (record.getId() % 2 == 0) {
+                mEvenRecords.add(record);
+            }
+            if (record.getId() % 3 == 0) {
+                mThirdRecords.add(record);
+            }
+        }
+        mIdOrder = SortedCursor.createComparator(Record.class, "id");
+
+        mFilter = Filter.filterFor(Record.class, "score < ? & groupId = ?").bind();
+        mFilterValues = mFilter.initialFilterValues()
+            .with(Records.MAX_SCORE / 2).with(Records.GROUPS / 2);
+    }
+
+    @TearDown
+    public void tearDown() {
+        mRepository.close();
+    }
+
+    @Benchmark
+    public int filtered(Blackhole bh) throws FetchException {
+        return Records.consume(FilteredCursor.applyFilter
+                               (mFilter, mFilterValues, new IteratorCursor<Record>(mRecords)), bh);
+    }
+
+    @Benchmark
+    public int sortedInArray(Blackhole bh) throws FetchException {
+        return Records.consume(new SortedCursor<Record>
+                               (new IteratorCursor<Record>(mRecords),
+                                new ArraySortBuffer<Record>(), Record.class, "score"), bh);
+    }
+
+    @Benchmark
+    public int sortedInMergeBuffer(Blackhole bh) throws FetchException {
+        return Records.consume(new SortedCursor<Record>
+                               (new IteratorCursor<Record>(mRecords),
+                                new MergeSortBuffer<Record>(mStorage), Record.class, "score"), bh);
+    }
+
+    @Benchmark
+    public int union(Blackhole bh) throws FetchException {
+        return Records.consume(new UnionCursor<Record>
+                               (new IteratorCursor<Record>(mEvenRecords),
+                                new IteratorCursor<Record>(mThirdRecords), mIdOrder), bh);
+    }
+
+    @Benchmark
+    public int intersection(Blackhole bh) throws FetchException {
+        return Records.consume(new IntersectionCursor<Record>
+                               (new IteratorCursor<Record>(mEvenRecords),
+                                new IteratorCursor<Record>(mThirdRecords), mIdOrder), bh);
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2006-2012 Amazon Technologies, Inc. or its affiliates.
+ * Amazon, Amazon.com and Carbonado are trademarks or registered trademarks
+ * of Amazon Technologies, Inc. or its affiliates.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.carbonado.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.amazon.carbonado.raw.DataDecoder;
+import com.amazon.carbonado.raw.DataEncoder;
+import com.amazon.carbonado.raw.KeyDecoder;
+import com.amazon.carbonado.raw.KeyEncoder;
+
+/**
+ * Measures round trips through the key and data encoders.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+@State(Scope.Thread)
+public class EncodingBenchmark {
+    // Fields are not final, to prevent constant folding.
+    private int mInt = -123456789;
+    private long mLong = 0x0123456789abcdefL;
+    private String mString = "carbonado-benchmark-\u00e9\u4e2d";
+
+    private final byte[] mBuffer = new byte[64];
+    private final String[] mStringRef = new String[1];
+
+    @Benchmark
+    public int dataInt() throws Exception {
+        DataEncoder.encode(mInt, mBuffer, 0);
+        return DataDecoder.decodeInt(mBuffer, 0);
+    }
+
+    @Benchmark
+    public long dataLong() throws Exception {
+        DataEncoder.encode(mLong, mBuffer, 0);
+        return DataDecoder.decodeLong(mBuffer, 0);
+    }
+
+    @Benchmark
+    public String dataString() throws Exception {
+        DataEncoder.encode(mString, mBuffer, 0);
+        DataDecoder.decodeString(mBuffer, 0, mStringRef);
+        return mStringRef[0];
+    }
+
+    @Benchmark
+    public int keyIntDescending() throws Exception {
+        KeyEncoder.encodeDesc(mInt, mBuffer, 0);
+        return KeyDecoder.decodeIntDesc(mBuffer, 0);
+    }
+
+    @Benchmark
+    public long keyLongDescending() throws Exception {
+        KeyEncoder.encodeDesc(mLong, mBuffer, 0);
+        return KeyDecoder.decodeLongDesc(mBuffer, 0);
+    }
+
+    @Benchmark
+    public String keyString() throws Exception {
+        KeyEncoder.encode(mString, mBuffer, 0);
+        KeyDecoder.decodeString(mBuffer, 0, mStringRef);
+        return mStringRef[0];
+    }
+
+    @Benchmark
+    public String keyStringDescending() throws Exception {
+        KeyEncoder.encodeDesc(mString, mBuffer, 0);
+        KeyDecoder.decodeStringDesc(mBuffer, 0, mStringRef);
+        return mStringRef[0];
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2006-2012 Amazon Technologies, Inc. or its affiliates.
+ * Amazon, Amazon.com and Carbonado are trademarks or registered trademarks
+ * of Amazon Technologies, Inc. or its affiliates.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.carbonado.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.amazon.carbonado.filter.Filter;
+import com.amazon.carbonado.filter.FilterValues;
+
+/**
+ * Measures binding of filter parameters. Run with "-prof gc" to compare the
+ * allocation rate of primitive and boxed parameters.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+@State(Scope.Thread)
+public class FilterValuesBenchmark {
+    private Filter<Record> mFilter;
+
+    // Values chosen outside the range of the boxed value caches.
+    private long mScore = 500000;
+    private int mGroupId = 1000;
+    private double mRatio = 0.5;
+
+    @Setup
+    public void setup() {
+        mFilter = Filter.filterFor(Record.class, "score < ? & groupId = ? & ratio > ?").bind();
+    }
+
+    @Benchmark
+    public FilterValues<Record> bindPrimitive() {
+        return mFilter.initialFilterValues().with(mScore).with(mGroupId).with(mRatio);
+    }
+
+    @Benchmark
+    public FilterValues<Record> bindObject() {
+        return mFilter.initialFilterValues()
+            .with((Object) mScore).with((Object) mGroupId).with((Object) mRatio);
+    }
+
+    @Benchmark
+    public Object[] bindPrimitiveAndGetValues() {
+        return bindPrimitive().getValues();
+    }
+}
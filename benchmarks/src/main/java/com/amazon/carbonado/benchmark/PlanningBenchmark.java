@@ -0,0 +1,102 @@
+/*
+ * Copyright 2006-2012 Amazon Technologies, Inc. or its affiliates.
+ * Amazon, Amazon.com and Carbonado are trademarks or registered trademarks
+ * of Amazon Technologies, Inc. or its affiliates.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.carbonado.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.amazon.carbonado.Repository;
+import com.amazon.carbonado.RepositoryException;
+
+import com.amazon.carbonado.filter.Filter;
+
+import com.amazon.carbonado.qe.IndexedQueryAnalyzer;
+import com.amazon.carbonado.qe.OrderingList;
+import com.amazon.carbonado.qe.QueryHints;
+import com.amazon.carbonado.qe.RepositoryAccess;
+import com.amazon.carbonado.qe.UnionQueryAnalyzer;
+
+import com.amazon.carbonado.repo.map.MapRepositoryBuilder;
+
+/**
+ * Measures the time taken to select indexes for queries. Query executors
+ * are normally cached, and so this cost is mostly paid when queries are
+ * first used.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+@State(Scope.Benchmark)
+public class PlanningBenchmark {
+    private Repository mRepository;
+
+    private IndexedQueryAnalyzer<IndexedRecord> mIndexedAnalyzer;
+    private UnionQueryAnalyzer<IndexedRecord> mUnionAnalyzer;
+
+    private Filter<IndexedRecord> mRangeFilter;
+    private Filter<IndexedRecord> mOrFilter;
+    private OrderingList<IndexedRecord> mOrdering;
+    private QueryHints mHints;
+
+    @Setup
+    public void setup() throws RepositoryException {
+        mRepository = MapRepositoryBuilder.newRepository();
+        // Ensure that indexes exist.
+        mRepository.storageFor(IndexedRecord.class);
+
+        RepositoryAccess access = (RepositoryAccess) mRepository;
+        mIndexedAnalyzer = new IndexedQueryAnalyzer<IndexedRecord>(IndexedRecord.class, access);
+        mUnionAnalyzer = new UnionQueryAnalyzer<IndexedRecord>(IndexedRecord.class, access);
+
+        mRangeFilter = Filter.filterFor
+            (IndexedRecord.class, "groupId = ? & score >= ? & score < ? & ratio > ?").bind();
+        mOrFilter = Filter.filterFor
+            (IndexedRecord.class, "(groupId = ? & score > ?) | score = ? | name = ?").bind();
+        mOrdering = OrderingList.get(IndexedRecord.class, "score");
+        mHints = QueryHints.emptyHints();
+    }
+
+    @TearDown
+    public void tearDown() {
+        mRepository.close();
+    }
+
+    @Benchmark
+    public IndexedQueryAnalyzer<IndexedRecord>.Result indexed() throws RepositoryException {
+        return mIndexedAnalyzer.analyze(mRangeFilter, mOrdering, mHints);
+    }
+
+    @Benchmark
+    public UnionQueryAnalyzer<IndexedRecord>.Result union() throws RepositoryException {
+        return mUnionAnalyzer.analyze(mOrFilter, mOrdering, mHints);
+    }
+}
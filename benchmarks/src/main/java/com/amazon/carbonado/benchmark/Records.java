@@ -0,0 +1,111 @@
+/*
+ * Copyright 2006-2012 Amazon Technologies, Inc. or its affiliates.
+ * Amazon, Amazon.com and Carbonado are trademarks or registered trademarks
+ * of Amazon Technologies, Inc. or its affiliates.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.carbonado.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.amazon.carbonado.Cursor;
+import com.amazon.carbonado.FetchException;
+import com.amazon.carbonado.PersistException;
+import com.amazon.carbonado.Storable;
+import com.amazon.carbonado.Storage;
+
+/**
+ * Generates the benchmark data set. All values are derived from a fixed seed,
+ * and so results are comparable between runs and between commits.
+ */
+class Records {
+    static final long SEED = 0x5eedcabba6e5L;
+
+    static final int GROUPS = 100;
+    static final int MAX_SCORE = 1000000;
+
+    /**
+     * Returns a random number generator for the given stream, which is
+     * typically a thread index.
+     */
+    static Random random(int stream) {
+        return new Random(SEED + stream);
+    }
+
+    /**
+     * Fills in all the properties of the given record.
+     */
+    static void fill(RecordProperties record, int id, Random rnd) {
+        record.setId(id);
+        record.setScore(rnd.nextInt(MAX_SCORE));
+        record.setGroupId(rnd.nextInt(GROUPS));
+        record.setRatio(rnd.nextDouble());
+        record.setName("name-" + rnd.nextInt(10000));
+    }
+
+    /**
+     * Prepares the given amount of records, in primary key order, without
+     * inserting them.
+     */
+    static <S extends Storable> List<S> prepare(Storage<S> storage, int count) {
+        Random rnd = random(0);
+        List<S> list = new ArrayList<S>(count);
+        for (int i=0; i<count; i++) {
+            S record = storage.prepare();
+            fill((RecordProperties) record, i, rnd);
+            list.add(record);
+        }
+        return list;
+    }
+
+    /**
+     * Inserts the given amount of records, with primary keys starting at zero.
+     */
+    static void insert(Storage<? extends Storable> storage, int count)
+        throws PersistException
+    {
+        Random rnd = random(0);
+        for (int i=0; i<count; i++) {
+            Storable record = storage.prepare();
+            fill((RecordProperties) record, i, rnd);
+            record.insert();
+        }
+    }
+
+    /**
+     * Fully consumes and closes the given cursor.
+     *
+     * @return amount of elements consumed
+     */
+    static int consume(Cursor<?> cursor, Blackhole bh) throws FetchException {
+        try {
+            int count = 0;
+            while (cursor.hasNext()) {
+                bh.consume(cursor.next());
+                count++;
+            }
+            return count;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private Records() {
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright 2006-2012 Amazon Technologies, Inc. or its affiliates.
+ * Amazon, Amazon.com and Carbonado are trademarks or registered trademarks
+ * of Amazon Technologies, Inc. or its affiliates.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.carbonado.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.infra.ThreadParams;
+
+import com.amazon.carbonado.FetchException;
+import com.amazon.carbonado.PersistException;
+import com.amazon.carbonado.Repository;
+import com.amazon.carbonado.RepositoryException;
+import com.amazon.carbonado.Storable;
+import com.amazon.carbonado.Storage;
+
+import com.amazon.carbonado.repo.map.MapRepositoryBuilder;
+
+/**
+ * Measures inserts, loads and queries against a volatile repository, with
+ * and without secondary indexes, at several thread counts. A repository
+ * built by {@link MapRepositoryBuilder} always supports indexes, and so
+ * without them, the indexed repository layer just passes through to the map
+ * repository.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+public class RepositoryBenchmark {
+    static Class<? extends Storable> recordType(boolean indexed) {
+        return indexed ? IndexedRecord.class : Record.class;
+    }
+
+    /**
+     * Repository which is populated once for all the load and query benchmarks.
+     */
+    @State(Scope.Benchmark)
+    public static class Populated {
+        @Param({"false", "true"})
+        public boolean indexed;
+
+        @Param({"100000"})
+        public int size;
+
+        Repository mRepository;
+        Storage<? extends Storable> mStorage;
+
+        @Setup
+        public void setup() throws RepositoryException {
+            mRepository = MapRepositoryBuilder.newRepository();
+            mStorage = mRepository.storageFor(recordType(indexed));
+            Records.insert(mStorage, size);
+        }
+
+        @TearDown
+        public void tearDown() {
+            mRepository.close();
+        }
+    }
+
+    /**
+     * Repository which starts empty for each iteration of the insert benchmarks.
+     */
+    @State(Scope.Benchmark)
+    public static class Empty {
+        @Param({"false", "true"})
+        public boolean indexed;
+
+        Repository mRepository;
+        Storage<? extends Storable> mStorage;
+        final AtomicInteger mNextId = new AtomicInteger();
+
+        @Setup(Level.Iteration)
+        public void setup() throws RepositoryException {
+            mRepository = MapRepositoryBuilder.newRepository();
+            mStorage = mRepository.storageFor(recordType(indexed));
+            mNextId.set(0);
+        }
+
+        @TearDown(Level.Iteration)
+        public void tearDown() {
+            mRepository.close();
+        }
+    }
+
+    /**
+     * Per-thread random numbers, seeded by thread index.
+     */
+    @State(Scope.Thread)
+    public static class ThreadRandom {
+        Random mRandom;
+
+        @Setup
+        public void setup(ThreadParams params) {
+            mRandom = Records.random(params.getThreadIndex() + 1);
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void insert_01(Empty state, ThreadRandom rnd) throws PersistException {
+        insert(state, rnd);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void insert_04(Empty state, ThreadRandom rnd) throws PersistException {
+        insert(state, rnd);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public boolean load_01(Populated state, ThreadRandom rnd) throws FetchException {
+        return load(state, rnd);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public boolean load_04(Populated state, ThreadRandom rnd) throws FetchException {
+        return load(state, rnd);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public int query_01(Populated state, ThreadRandom rnd, Blackhole bh) throws FetchException {
+        return query(state, rnd, bh);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public int query_04(Populated state, ThreadRandom rnd, Blackhole bh) throws FetchException {
+        return query(state, rnd, bh);
+    }
+
+    private static void insert(Empty state, ThreadRandom rnd) throws PersistException {
+        Storable record = state.mStorage.prepare();
+        Records.fill((RecordProperties) record, state.mNextId.getAndIncrement(), rnd.mRandom);
+        record.insert();
+    }
+
+    private static boolean load(Populated state, ThreadRandom rnd) throws FetchException {
+        Storable record = state.mStorage.prepare();
+        ((RecordProperties) record).setId(rnd.mRandom.nextInt(state.size));
+        return record.tryLoad();
+    }
+
+    /**
+     * Queries by group and a narrow score range, which selects a few records.
+     */
+    private static int query(Populated state, ThreadRandom rnd, Blackhole bh)
+        throws FetchException
+    {
+        Random random = rnd.mRandom;
+        long score = random.nextInt(Records.MAX_SCORE);
+        return Records.consume(state.mStorage.query("groupId = ? & score >= ? & score < ?")
+                               .with(random.nextInt(Records.GROUPS))
+                               .with(score).with(score + 100000)
+                               .fetch(), bh);
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2006-2012 Amazon Technologies, Inc. or its affiliates.
+ * Amazon, Amazon.com and Carbonado are trademarks or registered trademarks
+ * of Amazon Technologies, Inc. or its affiliates.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.amazon.carbonado;
+
+/**
+ * Describes when the changes of a committed transaction are forced to
+ * durable storage. Repositories which cannot relax durability treat all
+ * levels as {@code SYNC}.
+ *
+ * @see Transaction#setDurability
+ */
+public enum Durability {
+    /**
+     * Commit returns once the changes are durable. This is the default.
+     */
+    SYNC,
+
+    /**
+     * Commit waits for a shared flush, which is performed a few milliseconds
+     * later for all transactions committed in the meantime. Changes are
+     * durable when commit returns, but concurrent commits share the cost of
+     * the flush.
+     */
+    GROUP,
+
+    /**
+     * Commit returns without waiting for the changes to be durable, and they
+     * are flushed within about a second. Changes can be lost if the process
+     * or system fails before then. Call {@link
+     * Transaction#getDurabilityFuture} to wait for the flush.
+     */
+    ASYNC;
+}
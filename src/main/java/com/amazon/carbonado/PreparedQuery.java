@@ -0,0 +1,118 @@
+/*
+ * Copyright 2006-2012 Amazon Technologies, Inc. or its affiliates.
+ * Amazon, Amazon.com and Carbonado are trademarks or registered trademarks
+ * of Amazon Technologies, Inc. or its affiliates.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.amazon.carbonado;
+
+/**
+ * A query which has been prepared for repeated execution, with different
+ * values supplied for its blank parameters on each call. Values are supplied
+ * in the same order as they would be to {@link Query#withValues
+ * Query.withValues}. To obtain a PreparedQuery, call {@link Query#prepare}.
+ *
+ * <pre>
+ * PreparedQuery&lt;Order&gt; pq = storage.query("customerId = ? &amp; status = ?").prepare();
+ * ...
+ * Cursor&lt;Order&gt; cursor = pq.fetch(customerId, status);
+ * </pre>
+ *
+ * @see Query#prepare
+ */
+public interface PreparedQuery<S extends Storable> {
+    /**
+     * Returns the specific type of Storable managed by this object.
+     */
+    Class<S> getStorableType();
+
+    /**
+     * Returns the query which was prepared, which may have blank parameters.
+     */
+    Query<S> getQuery();
+
+    /**
+     * Returns the number of values which must be supplied on each call.
+     */
+    int getBlankParameterCount();
+
+    /**
+     * Fetches results for this query, with the given values filled in.
+     *
+     * @param values values to fill in for blank parameters
+     * @return fetch results
+     * @throws IllegalStateException if any blank parameters remain, or if too
+     * many values are supplied
+     * @throws IllegalArgumentException if a value type doesn't match
+     * @throws FetchException if storage layer throws an exception
+     */
+    Cursor<S> fetch(Object... values) throws FetchException;
+
+    /**
+     * Attempts to load exactly one matching object, with the given values
+     * filled in. If the number of matching records is zero or exceeds one,
+     * then an exception is thrown instead.
+     *
+     * @param values values to fill in for blank parameters
+     * @return a single fetched object
+     * @throws IllegalStateException if any blank parameters remain, or if too
+     * many values are supplied
+     * @throws IllegalArgumentException if a value type doesn't match
+     * @throws FetchNoneException if no matching record found
+     * @throws FetchMultipleException if more than one matching record found
+     * @throws FetchException if storage layer throws an exception
+     */
+    S loadOne(Object... values) throws FetchException;
+
+    /**
+     * Tries to load one record, with the given values filled in, but returns
+     * null if nothing was found. Throws exception if record count is more
+     * than one.
+     *
+     * @param values values to fill in for blank parameters
+     * @return null or a single fetched object
+     * @throws IllegalStateException if any blank parameters remain, or if too
+     * many values are supplied
+     * @throws IllegalArgumentException if a value type doesn't match
+     * @throws FetchMultipleException if more than one matching record found
+     * @throws FetchException if storage layer throws an exception
+     */
+    S tryLoadOne(Object... values) throws FetchException;
+
+    /**
+     * Returns a count of all results matched by this query, with the given
+     * values filled in.
+     *
+     * @param values values to fill in for blank parameters
+     * @return count of matches
+     * @throws IllegalStateException if any blank parameters remain, or if too
+     * many values are supplied
+     * @throws IllegalArgumentException if a value type doesn't match
+     * @throws FetchException if storage layer throws an exception
+     */
+    long count(Object... values) throws FetchException;
+
+    /**
+     * Returns true if any results are matched by this query, with the given
+     * values filled in.
+     *
+     * @param values values to fill in for blank parameters
+     * @return true if any matches
+     * @throws IllegalStateException if any blank parameters remain, or if too
+     * many values are supplied
+     * @throws IllegalArgumentException if a value type doesn't match
+     * @throws FetchException if storage layer throws an exception
+     */
+    boolean exists(Object... values) throws FetchException;
+}
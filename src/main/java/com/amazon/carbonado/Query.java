@@ -545,6 +545,17 @@ public interface Query<S extends Storable> {
      */
     boolean exists(Controller controller) throws FetchException;
 
+    /**
+     * Returns a handle which runs this query repeatedly, supplying the blank
+     * parameters on each call. A prepared query avoids creating a new Query
+     * instance for each set of values, and it avoids looking up the query
+     * plan each time. Prepared queries are thread-safe.
+     *
+     * @return prepared form of this query
+     * @throws FetchException if storage layer throws an exception
+     */
+    PreparedQuery<S> prepare() throws FetchException;
+
     /**
      * Print the native query to standard out, which is useful for performance
      * analysis. Not all repositories have a native query format. An example
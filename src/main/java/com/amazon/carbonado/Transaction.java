@@ -18,6 +18,7 @@
 
 package com.amazon.carbonado;
 
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -113,6 +114,35 @@ public interface Transaction {
      */
     void setDesiredLockTimeout(int timeout, TimeUnit unit);
 
+    /**
+     * Specify when committed changes are forced to durable storage. Calling
+     * this method may have no effect at all, if the repository does not
+     * support relaxed durability. Durability only applies to top-level
+     * transactions, since the changes of a nested transaction are durable
+     * only once the top-level transaction commits.
+     *
+     * <p>Nested transactions inherit the durability of their parent. Top
+     * transactions always begin with {@link Durability#SYNC SYNC} durability.
+     *
+     * @param durability desired durability; if null, revert to default
+     */
+    void setDurability(Durability durability);
+
+    /**
+     * Returns the durability of this transaction, which is adjusted by
+     * calling {@link #setDurability}.
+     */
+    Durability getDurability();
+
+    /**
+     * Returns a Future which completes when the changes of the last commit
+     * are durable. If the commit did not relax durability, or if nothing has
+     * been committed yet, the Future is already complete. If flushing the
+     * changes failed, the Future throws an ExecutionException which wraps a
+     * PersistException. The Future cannot be cancelled.
+     */
+    Future<Void> getDurabilityFuture();
+
     /**
      * Returns the isolation level of this transaction.
      */
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2006-2012 Amazon Technologies, Inc. or its affiliates.
+ * Amazon, Amazon.com and Carbonado are trademarks or registered trademarks
+ * of Amazon Technologies, Inc. or its affiliates.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.carbonado.capability;
+
+import com.amazon.carbonado.Cursor;
+import com.amazon.carbonado.RepositoryException;
+import com.amazon.carbonado.Storable;
+
+/**
+ * Capability for repositories which can efficiently load large amounts of
+ * storables into a storage, bypassing the per-storable overhead of ordinary
+ * inserts. A bulk load is intended for the initial population of a storage,
+ * but it may also be used to add storables to a storage which is not empty.
+ *
+ * <p>Loaded storables are first sorted by primary key, and then they are
+ * appended in key order. Any indexes are built after all the storables have
+ * been loaded. If the storage is empty when the load begins, storables are
+ * appended without checking if they already exist, and so concurrent inserts
+ * into the same storage might be overwritten.
+ *
+ * <p><b>Insert triggers are not run for loaded storables</b>, including
+ * triggers added by the application and those which capture changes. Only the
+ * triggers which are internally required by the repository for managing large
+ * objects are run. Applications which depend on triggers to maintain derived
+ * state must update it separately after a bulk load.
+ *
+ * <p>A bulk load is not atomic. It commits in batches, and so if it fails, a
+ * subset of the storables may have been loaded.
+ */
+public interface BulkLoadCapability extends Capability {
+    /**
+     * Loads all the storables provided by the given cursor, which need not be
+     * sorted. The cursor is always closed by this method. This call must not
+     * be made within a transaction scope. Insert triggers are not run.
+     *
+     * @param type type of storable to load
+     * @param source supplies the storables to load, which are copied
+     * @return amount of storables loaded
+     * @throws com.amazon.carbonado.UniqueConstraintException if any storable
+     * has the same primary key as another storable, or if it already exists
+     */
+    <S extends Storable> long bulkLoad(Class<S> type, Cursor<? extends S> source)
+        throws RepositoryException;
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2006-2012 Amazon Technologies, Inc. or its affiliates.
+ * Amazon, Amazon.com and Carbonado are trademarks or registered trademarks
+ * of Amazon Technologies, Inc. or its affiliates.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.amazon.carbonado.capability;
+
+import com.amazon.carbonado.RepositoryException;
+import com.amazon.carbonado.Storable;
+
+/**
+ * Capability of repositories which record changes to storables in a log, to
+ * be processed by consumers outside of the writing transaction. Capture is
+ * enabled per storable type, and it remains enabled when the repository is
+ * reopened. Each insert, update and delete is recorded within the same
+ * transaction as the change itself, and so consumers only observe committed
+ * changes.
+ *
+ * <p>Recording a change doesn't lock the change log, and so concurrent writes
+ * to a captured type aren't serialized by it. A change is observable only
+ * once every change to the same type with a lower sequence has committed or
+ * rolled back. Consumers therefore see changes in sequence order, and never
+ * observe a change after one with a higher sequence.
+ *
+ * @see ChangeLog
+ */
+public interface ChangeCaptureCapability extends Capability {
+    /**
+     * Returns the change log for the given type, enabling capture if not
+     * already enabled. Changes made before capture was enabled are not
+     * recorded.
+     *
+     * @throws com.amazon.carbonado.SupportException if the type has properties
+     * which cannot be encoded, such as Lobs
+     */
+    <S extends Storable> ChangeLog<S> changeLogFor(Class<S> type) throws RepositoryException;
+
+    /**
+     * Returns true if changes to the given type are being captured.
+     */
+    boolean isCaptureEnabled(Class<? extends Storable> type) throws RepositoryException;
+
+    /**
+     * Stops capturing changes to the given type, and discards its change log
+     * and all consumer positions.
+     */
+    void disableCapture(Class<? extends Storable> type) throws RepositoryException;
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2006-2012 Amazon Technologies, Inc. or its affiliates.
+ * Amazon, Amazon.com and Carbonado are trademarks or registered trademarks
+ * of Amazon Technologies, Inc. or its affiliates.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.amazon.carbonado.capability;
+
+import com.amazon.carbonado.FetchException;
+import com.amazon.carbonado.Storable;
+
+/**
+ * Committed change to a storable, as recorded in a {@link ChangeLog}. Images
+ * of the storable are encoded as by {@link Storable#writeTo}.
+ */
+public interface ChangeEvent<S extends Storable> {
+    enum Type {
+        INSERT, UPDATE, DELETE
+    }
+
+    /**
+     * Returns the position of this event in the change log.
+     */
+    long getSequence();
+
+    Type getType();
+
+    /**
+     * Returns the time the change was made, in milliseconds.
+     */
+    long getTime();
+
+    /**
+     * Returns the encoded storable as it was before the change, or null if
+     * inserted.
+     */
+    byte[] getBeforeImage();
+
+    /**
+     * Returns the encoded storable as it was after the change, or null if
+     * deleted.
+     */
+    byte[] getAfterImage();
+
+    /**
+     * Returns a new storable decoded from the before image, or null if none.
+     */
+    S getBefore() throws FetchException;
+
+    /**
+     * Returns a new storable decoded from the after image, or null if none.
+     */
+    S getAfter() throws FetchException;
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2006-2012 Amazon Technologies, Inc. or its affiliates.
+ * Amazon, Amazon.com and Carbonado are trademarks or registered trademarks
+ * of Amazon Technologies, Inc. or its affiliates.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.amazon.carbonado.capability;
+
+import java.util.List;
+
+import java.util.concurrent.TimeUnit;
+
+import com.amazon.carbonado.FetchException;
+import com.amazon.carbonado.PersistException;
+import com.amazon.carbonado.RepositoryException;
+import com.amazon.carbonado.Storable;
+
+/**
+ * Ordered log of committed changes to one type of storable. Each change is
+ * assigned an increasing sequence number, starting at one. Changes which are
+ * rolled back leave gaps in the sequence. Events can be read again from any
+ * sequence which hasn't been discarded.
+ *
+ * <p>Consumers are identified by name, and each has an acknowledged sequence
+ * which is stored in the repository. Events are discarded once all consumers
+ * have acknowledged them. If no consumers exist, events are retained until
+ * explicitly {@link #truncate truncated}.
+ *
+ * @see ChangeCaptureCapability
+ */
+public interface ChangeLog<S extends Storable> {
+    Class<S> getStorableType();
+
+    /**
+     * Returns the highest sequence which can be observed, or zero if none.
+     * Events up to this sequence have all committed or rolled back.
+     */
+    long getLastSequence() throws FetchException;
+
+    /**
+     * Returns events in sequence order, starting after the given sequence.
+     *
+     * @param afterSequence read events with a greater sequence than this
+     * @param maxEvents maximum number of events to return
+     * @return list of events, which is empty if none
+     */
+    List<ChangeEvent<S>> read(long afterSequence, int maxEvents) throws FetchException;
+
+    /**
+     * Returns events after the sequence which the given consumer has
+     * acknowledged, waiting for events to be recorded if none are available.
+     * If the consumer doesn't exist, it is created, starting at the first
+     * retained event. Events are returned again by subsequent calls until
+     * they are acknowledged.
+     *
+     * @param consumer name of consumer
+     * @param maxEvents maximum number of events to return
+     * @param timeout maximum time to wait for events
+     * @param unit time unit for timeout
+     * @return list of events, which is empty if timed out
+     */
+    List<ChangeEvent<S>> poll(String consumer, int maxEvents, long timeout, TimeUnit unit)
+        throws RepositoryException;
+
+    /**
+     * Returns the sequence which the given consumer has acknowledged, or
+     * zero if the consumer doesn't exist.
+     */
+    long getAcknowledged(String consumer) throws FetchException;
+
+    /**
+     * Records that the given consumer has processed all events up to and
+     * including the given sequence, creating the consumer if it doesn't
+     * exist. Events which all consumers have acknowledged are discarded.
+     */
+    void acknowledge(String consumer, long sequence) throws PersistException;
+
+    /**
+     * Removes the given consumer, allowing events to be discarded which it
+     * hadn't acknowledged.
+     */
+    void removeConsumer(String consumer) throws PersistException;
+
+    /**
+     * Discards all events up to and including the given sequence, even if
+     * consumers haven't acknowledged them.
+     */
+    void truncate(long sequence) throws PersistException;
+}
@@ -65,6 +65,67 @@ public interface ResyncCapability extends Capability {
                                      Object... filterValues)
         throws RepositoryException;
 
+    /**
+     * Re-synchronizes replicated storables against the master repository,
+     * splitting the work into ranges which are re-sync'd concurrently. Ranges
+     * are defined over the first property of the natural ordering, which must
+     * be a primitive integer type. If it is not, a single range is re-sync'd.
+     *
+     * <p>Each range is re-sync'd with its own transactions, and completed
+     * ranges are recorded in the replica repository. If the operation is
+     * interrupted or fails, calling this method again with the same type and
+     * filter resumes with the recorded ranges which didn't complete.
+     * Listener callbacks may be invoked by several threads concurrently.
+     *
+     * @param type type of storable to re-sync
+     * @param listener optional listener which gets notified as storables are re-sync'd
+     * @param desiredSpeed throttling parameter for each range - 1.0 = full
+     * speed, 0.5 = half speed, 0.1 = one-tenth speed, etc
+     * @param rangeCount maximum number of ranges to split the work into
+     * @param parallelism maximum number of ranges to re-sync concurrently
+     * @param filter optional query filter to limit which objects get re-sync'ed
+     * @param filterValues filter values for optional filter
+     * @throws IllegalArgumentException if range count or parallelism is less than one
+     */
+    <S extends Storable> void resync(Class<S> type,
+                                     Listener<? super S> listener,
+                                     double desiredSpeed,
+                                     int rangeCount,
+                                     int parallelism,
+                                     String filter,
+                                     Object... filterValues)
+        throws RepositoryException;
+
+    /**
+     * Re-synchronizes replicated storables against the master repository, but
+     * only fully compares the ranges which are found to differ. Both
+     * repositories compute digests of their storables over ranges of the
+     * first property of the natural ordering, and ranges with differing
+     * digests are split and compared again, until they are small enough to be
+     * re-sync'd. If the master repository supports {@link
+     * RemoteProcedureCapability}, its digests are computed remotely.
+     *
+     * <p>Ranges can only be defined over a primitive integer property. If the
+     * natural ordering doesn't start with one, all storables are re-sync'd as
+     * a single range. Digests don't include {@link com.amazon.carbonado.lob.Lob
+     * Lob}, join, derived or independent properties.
+     *
+     * @param type type of storable to re-sync
+     * @param listener optional listener which gets notified as storables are re-sync'd
+     * @param desiredSpeed throttling parameter for re-syncing ranges - 1.0 =
+     * full speed, 0.5 = half speed, 0.1 = one-tenth speed, etc
+     * @param filter optional query filter to limit which objects get re-sync'ed
+     * @param filterValues filter values for optional filter, which must be
+     * serializable
+     * @return number of ranges which differed and were re-sync'd
+     */
+    <S extends Storable> int resyncByDigest(Class<S> type,
+                                            Listener<? super S> listener,
+                                            double desiredSpeed,
+                                            String filter,
+                                            Object... filterValues)
+        throws RepositoryException;
+
     /**
      * Returns the immediate master Repository, for manual comparison. Direct
      * updates to the master will likely create inconsistencies.
@@ -202,5 +263,15 @@ public interface ResyncCapability extends Capability {
         @Override
         public void failedDelete(S oldStorable, Object state) {
         }
+
+        /**
+         * Called after a range of a partitioned re-sync has completed, and
+         * its completion has been recorded.
+         *
+         * @param rangeNumber zero-based number of the completed range
+         * @param rangeCount total number of ranges
+         */
+        public void rangeCompleted(int rangeNumber, int rangeCount) {
+        }
     }
 }
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2006-2012 Amazon Technologies, Inc. or its affiliates.
+ * Amazon, Amazon.com and Carbonado are trademarks or registered trademarks
+ * of Amazon Technologies, Inc. or its affiliates.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.carbonado.capability;
+
+import java.util.concurrent.TimeUnit;
+
+import com.amazon.carbonado.RepositoryException;
+
+/**
+ * Capability of replicating repositories which apply writes to the master
+ * asynchronously. Writes commit against the local replica and are recorded in
+ * a durable queue, which a background thread applies to the master in
+ * order. Repeated writes to the same storable are coalesced while queued.
+ *
+ * <p>Readers of the master observe writes late, and a write which the master
+ * rejects is only logged. Use {@link ResyncCapability} to repair the replica
+ * if this happens.
+ */
+public interface WriteBehindCapability extends Capability {
+    /**
+     * Returns the number of storables with writes which have not yet been
+     * applied to the master, excluding those which have failed.
+     */
+    long getPendingCount() throws RepositoryException;
+
+    /**
+     * Returns the number of storables with writes which the master
+     * repeatedly failed to apply. These are not retried unless the storable
+     * is written again.
+     */
+    long getFailedCount() throws RepositoryException;
+
+    /**
+     * Returns the age, in milliseconds, of the oldest write which has not yet
+     * been applied to the master, or zero if none.
+     */
+    long getOldestPendingAge() throws RepositoryException;
+
+    /**
+     * Returns the total number of writes applied to the master.
+     */
+    long getAppliedCount();
+
+    /**
+     * Returns the total number of writes which were merged into a write
+     * already queued for the same storable.
+     */
+    long getCoalescedCount();
+
+    /**
+     * Returns the total number of times a batch of writes failed to apply to
+     * the master and was retried.
+     */
+    long getRetryCount();
+
+    /**
+     * Waits for all queued writes to be applied to the master, or to fail.
+     *
+     * @return false if timed out before all writes were applied
+     */
+    boolean flush(long timeout, TimeUnit unit) throws RepositoryException;
+}
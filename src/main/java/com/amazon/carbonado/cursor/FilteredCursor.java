@@ -83,8 +83,11 @@ public abstract class FilteredCursor<S> extends AbstractCursor<S> {
         // Make sure the filter is the same one that filterValues should be using.
         filter = filter.bind();
 
-        Object[] values = filterValues == null ? null : filterValues.getValuesFor(filter);
-        return FilteredCursorGenerator.getFactory(filter).newFilteredCursor(cursor, values);
+        FilteredCursorGenerator.Factory<S> factory = FilteredCursorGenerator.getFactory(filter);
+        if (filterValues == null) {
+            return factory.newFilteredCursor(cursor, (Object[]) null);
+        }
+        return factory.newFilteredCursor(cursor, filterValues);
     }
 
     private final Cursor<S> mCursor;
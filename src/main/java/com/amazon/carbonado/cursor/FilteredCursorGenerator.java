@@ -52,6 +52,7 @@ import com.amazon.carbonado.filter.AndFilter;
 import com.amazon.carbonado.filter.ExistsFilter;
 import com.amazon.carbonado.filter.OrFilter;
 import com.amazon.carbonado.filter.Filter;
+import com.amazon.carbonado.filter.FilterValues;
 import com.amazon.carbonado.filter.PropertyFilter;
 import com.amazon.carbonado.filter.RelOp;
 import com.amazon.carbonado.filter.Visitor;
@@ -142,6 +143,19 @@ class FilteredCursorGenerator {
             ctorBuilder.invokeSuperConstructor(new TypeDesc[] {cursorType});
         }
 
+        // Begin definition of constructor which accepts FilterValues. It reads
+        // primitive values directly, avoiding boxing them.
+        CodeBuilder valuesCtorBuilder;
+        {
+            TypeDesc cursorType = TypeDesc.forClass(Cursor.class);
+            TypeDesc[] params = {cursorType, TypeDesc.forClass(FilterValues.class)};
+            MethodInfo ctor = cf.addConstructor(Modifiers.PUBLIC, params);
+            valuesCtorBuilder = new CodeBuilder(ctor);
+            valuesCtorBuilder.loadThis();
+            valuesCtorBuilder.loadLocal(valuesCtorBuilder.getParameter(0));
+            valuesCtorBuilder.invokeSuperConstructor(new TypeDesc[] {cursorType});
+        }
+
         // Begin isAllowed method definition.
         CodeBuilder isAllowedBuilder;
         LocalVariable storableVar;
@@ -179,13 +193,14 @@ class FilteredCursorGenerator {
         filter = ShortCircuitOptimizer.optimize(filter);
 
         CodeGen<S> cg = new CodeGen<S>
-            (propertyOrdinalMap, cf, ctorBuilder, isAllowedBuilder, storableVar);
+            (propertyOrdinalMap, cf, ctorBuilder, valuesCtorBuilder, isAllowedBuilder, storableVar);
         filter.accept(cg, null);
 
         List<Filter> subFilters = cg.finishSubFilterInit();
 
-        // Finish constructor.
+        // Finish constructors.
         ctorBuilder.returnVoid();
+        valuesCtorBuilder.returnVoid();
 
         Class generated = ci.defineClass(cf);
 
@@ -208,6 +223,12 @@ class FilteredCursorGenerator {
          * @param filterValues values corresponding to original filter used to create this factory
          */
         Cursor<S> newFilteredCursor(Cursor<S> cursor, Object... filterValues);
+
+        /**
+         * @param cursor cursor to wrap and filter
+         * @param filterValues values for original filter used to create this factory
+         */
+        Cursor<S> newFilteredCursor(Cursor<S> cursor, FilterValues<S> filterValues);
     }
 
     /**
@@ -273,6 +294,7 @@ class FilteredCursorGenerator {
         private final Map<PropertyFilter, Integer> mPropertyOrdinalMap;
         private final ClassFile mClassFile;
         private final CodeBuilder mCtorBuilder;
+        private final CodeBuilder mValuesCtorBuilder;
         private final CodeBuilder mIsAllowedBuilder;
         private final LocalVariable mStorableVar;
 
@@ -290,12 +312,14 @@ class FilteredCursorGenerator {
         CodeGen(Map<PropertyFilter, Integer> propertyOrdinalMap,
                 ClassFile cf,
                 CodeBuilder ctorBuilder,
+                CodeBuilder valuesCtorBuilder,
                 CodeBuilder isAllowedBuilder,
                 LocalVariable storableVar)
         {
             mPropertyOrdinalMap = propertyOrdinalMap;
             mClassFile = cf;
             mCtorBuilder = ctorBuilder;
+            mValuesCtorBuilder = valuesCtorBuilder;
             mIsAllowedBuilder = isAllowedBuilder;
             mStorableVar = storableVar;
             mScopeStack = new Stack<Scope>();
@@ -434,6 +458,34 @@ class FilteredCursorGenerator {
                 b.storeField(fieldName, fieldType);
             }
 
+            // Add code to FilterValues constructor to store value into field.
+            {
+                TypeDesc propFilterType = TypeDesc.forClass(PropertyFilter.class);
+                String propFilterFieldName = addStaticFilterField(filter);
+
+                CodeBuilder b = mValuesCtorBuilder;
+                b.loadThis();
+                b.loadLocal(b.getParameter(1));
+                b.loadStaticField(propFilterFieldName, TypeDesc.forClass(Filter.class));
+                b.checkCast(propFilterType);
+                TypeDesc[] params = {propFilterType};
+                TypeDesc filterValuesType = TypeDesc.forClass(FilterValues.class);
+                if (type.isPrimitive()) {
+                    String name = type.getRootName();
+                    name = "get" + Character.toUpperCase(name.charAt(0)) + name.substring(1)
+                        + "Value";
+                    b.invokeVirtual(filterValuesType, name, type, params);
+                    convertProperty(b, type, fieldType);
+                } else {
+                    b.invokeVirtual(filterValuesType, "getAssignedValue", OBJECT, params);
+                    if (type != OBJECT) {
+                        b.checkCast(type);
+                        convertProperty(b, type, fieldType);
+                    }
+                }
+                b.storeField(fieldName, fieldType);
+            }
+
             mGeneratedPropertyFilters.put(filter, filter);
             return fieldName;
         }
@@ -0,0 +1,217 @@
+/*
+ * Copyright 2006-2012 Amazon Technologies, Inc. or its affiliates.
+ * Amazon, Amazon.com and Carbonado are trademarks or registered trademarks
+ * of Amazon Technologies, Inc. or its affiliates.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.amazon.carbonado.cursor;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+import com.amazon.carbonado.Cursor;
+import com.amazon.carbonado.FetchException;
+import com.amazon.carbonado.FetchInterruptedException;
+import com.amazon.carbonado.Storable;
+
+import com.amazon.carbonado.filter.Filter;
+import com.amazon.carbonado.filter.FilterValues;
+
+/**
+ * Wraps another cursor and applies a filter using threads supplied by an
+ * {@link Executor}. The wrapped cursor is read in batches by the consumer's
+ * thread, and each batch is filtered by a separate task. Results are
+ * returned in the same order as the wrapped cursor.
+ *
+ * <p>The filter is evaluated outside the consumer's transaction, and so it
+ * should not refer to any joined properties.
+ *
+ * @see FilteredCursor
+ */
+public class ParallelFilteredCursor<S extends Storable> extends AbstractCursor<S> {
+    private final Executor mExecutor;
+    private final Filter<S> mFilter;
+    private final FilterValues<S> mFilterValues;
+    private final int mMaxTasks;
+    private final int mBatchSize;
+
+    private Cursor<S> mCursor;
+    private final ArrayDeque<FutureTask<List<S>>> mTasks;
+
+    private List<S> mResults;
+    private int mResultPos;
+
+    /**
+     * @param executor supplies threads for filtering; if execution is
+     * rejected, the consumer's thread filters instead
+     * @param parallelism maximum number of batches to filter concurrently
+     * @param batchSize number of records to read for each batch
+     * @param filter filter to apply
+     * @param filterValues values for filter, which may be null if filter has no parameters
+     * @param cursor cursor to wrap
+     * @throws IllegalArgumentException if any required argument is null, or if
+     * parallelism or batch size is less than one
+     */
+    public ParallelFilteredCursor(Executor executor, int parallelism, int batchSize,
+                                  Filter<S> filter, FilterValues<S> filterValues,
+                                  Cursor<S> cursor)
+    {
+        if (executor == null || filter == null || cursor == null
+            || parallelism < 1 || batchSize < 1)
+        {
+            throw new IllegalArgumentException();
+        }
+        mExecutor = executor;
+        mFilter = filter;
+        mFilterValues = filterValues;
+        // Keep the next batches ready while the consumer waits for the first.
+        mMaxTasks = parallelism * 2;
+        mBatchSize = batchSize;
+        mCursor = cursor;
+        mTasks = new ArrayDeque<FutureTask<List<S>>>(mMaxTasks);
+    }
+
+    public void close() throws FetchException {
+        mResults = null;
+        // Tasks only operate on batches which have already been read, and so
+        // they need not finish before the wrapped cursor is closed.
+        FutureTask<List<S>> task;
+        while ((task = mTasks.poll()) != null) {
+            task.cancel(false);
+        }
+        Cursor<S> cursor = mCursor;
+        if (cursor != null) {
+            mCursor = null;
+            cursor.close();
+        }
+    }
+
+    public boolean hasNext() throws FetchException {
+        try {
+            while (true) {
+                List<S> results = mResults;
+                if (results != null && mResultPos < results.size()) {
+                    return true;
+                }
+                mResults = null;
+
+                schedule();
+
+                FutureTask<List<S>> task = mTasks.poll();
+                if (task == null) {
+                    return false;
+                }
+
+                mResults = get(task);
+                mResultPos = 0;
+            }
+        } catch (FetchException e) {
+            try {
+                close();
+            } catch (Exception e2) {
+                // Don't care.
+            }
+            throw e;
+        }
+    }
+
+    public S next() throws FetchException {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        List<S> results = mResults;
+        int pos = mResultPos++;
+        S next = results.get(pos);
+        results.set(pos, null);
+        return next;
+    }
+
+    /**
+     * Reads batches from the wrapped cursor and schedules filter tasks for
+     * them, until enough tasks are pending or the wrapped cursor is exhausted.
+     */
+    private void schedule() throws FetchException {
+        Cursor<S> cursor = mCursor;
+        while (cursor != null && mTasks.size() < mMaxTasks) {
+            final List<S> batch = new ArrayList<S>(mBatchSize);
+            while (batch.size() < mBatchSize && cursor.hasNext()) {
+                batch.add(cursor.next());
+            }
+
+            if (batch.size() < mBatchSize) {
+                mCursor = null;
+                cursor.close();
+                cursor = null;
+                if (batch.isEmpty()) {
+                    break;
+                }
+            }
+
+            FutureTask<List<S>> task = new FutureTask<List<S>>(new Callable<List<S>>() {
+                public List<S> call() throws FetchException {
+                    return filter(batch);
+                }
+            });
+
+            mTasks.add(task);
+
+            try {
+                mExecutor.execute(task);
+            } catch (RejectedExecutionException e) {
+                task.run();
+            }
+        }
+    }
+
+    /**
+     * Called by a filter task.
+     */
+    private List<S> filter(List<S> batch) throws FetchException {
+        Cursor<S> cursor = FilteredCursor.applyFilter
+            (mFilter, mFilterValues, new IteratorCursor<S>(batch));
+        List<S> results = new ArrayList<S>(batch.size());
+        while (cursor.hasNext()) {
+            results.add(cursor.next());
+        }
+        return results;
+    }
+
+    private List<S> get(FutureTask<List<S>> task) throws FetchException {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            throw new FetchInterruptedException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof FetchException) {
+                throw (FetchException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new FetchException(cause);
+        }
+    }
+}
@@ -0,0 +1,217 @@
+/*
+ * Copyright 2006-2012 Amazon Technologies, Inc. or its affiliates.
+ * Amazon, Amazon.com and Carbonado are trademarks or registered trademarks
+ * of Amazon Technologies, Inc. or its affiliates.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.carbonado.cursor;
+
+import java.util.NoSuchElementException;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+import com.amazon.carbonado.Cursor;
+import com.amazon.carbonado.FetchException;
+import com.amazon.carbonado.FetchInterruptedException;
+
+/**
+ * Cursor implementation which opens and reads from a source cursor using
+ * threads supplied by an {@link Executor}. The source is read in batches, and
+ * at most one batch is read ahead while the current batch is consumed.
+ * Fetch tasks never wait for the consumer, and so a small shared thread pool
+ * can safely serve many read-ahead cursors.
+ *
+ * <p>The source cursor is never accessed by more than one thread at a time,
+ * but it is opened and read by threads other than the consumer. It therefore
+ * does not participate in the consumer's transaction.
+ *
+ * @see FetchAheadCursor
+ */
+public class ReadAheadCursor<S> extends AbstractCursor<S> {
+    /**
+     * Opens the source cursor, from a thread supplied by the Executor.
+     */
+    public static interface Source<S> {
+        Cursor<S> open() throws FetchException;
+    }
+
+    private final Executor mExecutor;
+    private final Source<S> mSource;
+    private final int mBatchSize;
+
+    // Only accessed by the fetch task, or by the consumer once the task is done.
+    private Cursor<S> mCursor;
+    private boolean mExhausted;
+
+    private FutureTask<Object[]> mTask;
+    private Object[] mBatch;
+    private int mBatchPos;
+
+    /**
+     * Immediately schedules the source to be opened and the first batch to
+     * be read.
+     *
+     * @param executor supplies threads for reading from the source; if
+     * execution is rejected, the consumer's thread reads instead
+     * @param source opens the source cursor
+     * @param batchSize maximum number of records to read in each batch
+     * @throws IllegalArgumentException if executor or source is null, or if
+     * batch size is less than one
+     */
+    public ReadAheadCursor(Executor executor, Source<S> source, int batchSize) {
+        if (executor == null || source == null || batchSize < 1) {
+            throw new IllegalArgumentException();
+        }
+        mExecutor = executor;
+        mSource = source;
+        mBatchSize = batchSize;
+        schedule();
+    }
+
+    public void close() throws FetchException {
+        mBatch = null;
+        FutureTask<Object[]> task = mTask;
+        if (task != null) {
+            mTask = null;
+            // Must wait for the fetch task to finish before its cursor can be
+            // closed.
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    task.get();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    // Don't care.
+                    break;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        Cursor<S> cursor = mCursor;
+        if (cursor != null) {
+            mCursor = null;
+            cursor.close();
+        }
+    }
+
+    public boolean hasNext() throws FetchException {
+        Object[] batch = mBatch;
+        if (batch != null && mBatchPos < batch.length && batch[mBatchPos] != null) {
+            return true;
+        }
+
+        FutureTask<Object[]> task = mTask;
+        if (task == null) {
+            return false;
+        }
+
+        try {
+            try {
+                batch = task.get();
+            } catch (InterruptedException e) {
+                throw new FetchInterruptedException(e);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof FetchException) {
+                    throw (FetchException) cause;
+                }
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw new FetchException(cause);
+            }
+        } catch (FetchException e) {
+            try {
+                close();
+            } catch (Exception e2) {
+                // Don't care.
+            }
+            throw e;
+        }
+
+        mTask = null;
+        mBatch = batch;
+        mBatchPos = 0;
+
+        if (!mExhausted) {
+            // Read ahead the next batch while this one is consumed.
+            schedule();
+        }
+
+        return batch.length > 0 && batch[0] != null;
+    }
+
+    public S next() throws FetchException {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Object[] batch = mBatch;
+        int pos = mBatchPos++;
+        S next = (S) batch[pos];
+        batch[pos] = null;
+        return next;
+    }
+
+    private void schedule() {
+        FutureTask<Object[]> task = new FutureTask<Object[]>(new Callable<Object[]>() {
+            public Object[] call() throws FetchException {
+                return fetchBatch();
+            }
+        });
+
+        mTask = task;
+
+        try {
+            mExecutor.execute(task);
+        } catch (RejectedExecutionException e) {
+            task.run();
+        }
+    }
+
+    /**
+     * Called by the fetch task.
+     */
+    private Object[] fetchBatch() throws FetchException {
+        Cursor<S> cursor = mCursor;
+        if (cursor == null) {
+            mCursor = cursor = mSource.open();
+        }
+
+        Object[] batch = new Object[mBatchSize];
+        int size = 0;
+        while (size < batch.length && cursor.hasNext()) {
+            batch[size++] = cursor.next();
+        }
+
+        if (size < batch.length) {
+            mExhausted = true;
+            mCursor = null;
+            cursor.close();
+        }
+
+        return batch;
+    }
+}
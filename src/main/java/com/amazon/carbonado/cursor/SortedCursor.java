@@ -19,6 +19,7 @@
 package com.amazon.carbonado.cursor;
 
 import java.lang.reflect.UndeclaredThrowableException;
+import java.util.Arrays;
 import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
@@ -50,9 +51,25 @@ import com.amazon.carbonado.util.Comparators;
  * in smaller chunks rather than sorting the entire set. The handled comparator
  * can represent ascending or descending order of source elements.
  *
+ * <p>Chunks no larger than {@code maxInPlaceChunkSize} are sorted in place
+ * within a small reusable array, and only larger chunks are passed to the
+ * sort buffer, which may spill to temporary files. Each chunk is returned
+ * before the next one is read from the wrapped cursor.
+ *
  * @author Brian S O'Neill
  */
 public class SortedCursor<S> extends AbstractCursor<S> {
+    // Bigger means fewer chunks are passed to the sort buffer, but more memory is used.
+    private static final int MAX_IN_PLACE_CHUNK_SIZE;
+    private static final int DEFAULT_MAX_IN_PLACE_CHUNK_SIZE = 1000;
+
+    static {
+        // In-place array must hold at least the first storable of a chunk.
+        MAX_IN_PLACE_CHUNK_SIZE = Math.max(1, Integer.getInteger
+            (SortedCursor.class.getName() + ".maxInPlaceChunkSize",
+             DEFAULT_MAX_IN_PLACE_CHUNK_SIZE));
+    }
+
     /**
      * Convenience method to create a comparator which orders storables by the
      * given order-by properties. The property names may be prefixed with '+'
@@ -229,9 +246,15 @@ public class SortedCursor<S> extends AbstractCursor<S> {
     /** Comparator to use for sorting chunks */
     private final Comparator<S> mChunkSorter;
 
-    /** Iteration over current contents in mChunkBuffer */
+    /** Iteration over current contents in mChunkBuffer or mSmallChunk */
     private Iterator<S> mChunkIterator;
 
+    /** Reusable array for sorting small chunks in place, created lazily */
+    private S[] mSmallChunk;
+
+    /** Is true when mChunkBuffer holds elements which must be cleared */
+    private boolean mBufferInUse;
+
     /**
      * First record in a chunk, according to chunk matcher. In order to tell if
      * the next chunk has been reached, a record has to be read from the
@@ -382,41 +405,17 @@ public class SortedCursor<S> extends AbstractCursor<S> {
 
         try {
             mChunkIterator = null;
-            buffer.prepare(mChunkSorter);
 
-            fill: {
-                if (matcher == null) {
-                    // Buffer up entire results and sort.
-                    while (cursor.hasNext()) {
-                        buffer.add(cursor.next());
-                    }
-                    break fill;
-                }
-
-                // Read a chunk into the buffer. First record is compared against
-                // subsequent records, to determine when the chunk end is reached.
-
-                S chunkStart;
-                if (mNextChunkStart != null) {
-                    chunkStart = mNextChunkStart;
-                    mNextChunkStart = null;
-                } else if (cursor.hasNext()) {
-                    chunkStart = cursor.next();
-                } else {
-                    break fill;
-                }
-
-                buffer.add(chunkStart);
+            if (matcher != null) {
+                // Read a chunk, which is sorted in place if small enough.
+                prepareNextSmallChunk(cursor, buffer, matcher);
+                return;
+            }
 
-                while (cursor.hasNext()) {
-                    S next = cursor.next();
-                    if (matcher.compare(chunkStart, next) != 0) {
-                        // Save for reading next chunk later.
-                        mNextChunkStart = next;
-                        break;
-                    }
-                    buffer.add(next);
-                }
+            // Buffer up entire results and sort.
+            buffer.prepare(mChunkSorter);
+            while (cursor.hasNext()) {
+                buffer.add(cursor.next());
             }
 
             if (buffer.size() > 1) {
@@ -429,6 +428,96 @@ public class SortedCursor<S> extends AbstractCursor<S> {
         }
     }
 
+    /**
+     * Reads the next chunk into the small chunk array, sorting it in place. If
+     * the chunk is too large, it is passed to the sort buffer instead.
+     */
+    private void prepareNextSmallChunk(Cursor<S> cursor, SortBuffer<S> buffer,
+                                       Comparator<S> matcher)
+        throws FetchException
+    {
+        if (mBufferInUse) {
+            // Release any temporary files used by the previous chunk.
+            buffer.clear();
+            mBufferInUse = false;
+        }
+
+        S chunkStart;
+        if (mNextChunkStart != null) {
+            chunkStart = mNextChunkStart;
+            mNextChunkStart = null;
+        } else if (cursor.hasNext()) {
+            chunkStart = cursor.next();
+        } else {
+            mChunkIterator = new ChunkIterator<S>(null, 0);
+            return;
+        }
+
+        S[] chunk = mSmallChunk;
+        if (chunk == null) {
+            mSmallChunk = chunk = (S[]) new Object[Math.min(16, MAX_IN_PLACE_CHUNK_SIZE + 1)];
+        }
+
+        chunk[0] = chunkStart;
+        int size = 1;
+
+        while (cursor.hasNext()) {
+            S next = cursor.next();
+            if (matcher.compare(chunkStart, next) != 0) {
+                // Save for reading next chunk later.
+                mNextChunkStart = next;
+                break;
+            }
+            if (size >= chunk.length) {
+                if (size >= MAX_IN_PLACE_CHUNK_SIZE) {
+                    // Chunk is too large to sort in place.
+                    prepareNextLargeChunk(cursor, buffer, matcher, chunk, size, next);
+                    return;
+                }
+                S[] newChunk = (S[]) new Object[Math.min(size << 1, MAX_IN_PLACE_CHUNK_SIZE)];
+                System.arraycopy(chunk, 0, newChunk, 0, size);
+                mSmallChunk = chunk = newChunk;
+            }
+            chunk[size++] = next;
+        }
+
+        if (size > 1) {
+            Arrays.sort(chunk, 0, size, mChunkSorter);
+        }
+
+        mChunkIterator = new ChunkIterator<S>(chunk, size);
+    }
+
+    private void prepareNextLargeChunk(Cursor<S> cursor, SortBuffer<S> buffer,
+                                       Comparator<S> matcher, S[] chunk, int size, S next)
+        throws FetchException
+    {
+        buffer.prepare(mChunkSorter);
+        mBufferInUse = true;
+
+        for (int i=0; i<size; i++) {
+            buffer.add(chunk[i]);
+            chunk[i] = null;
+        }
+
+        S chunkStart = next;
+        buffer.add(next);
+
+        while (cursor.hasNext()) {
+            next = cursor.next();
+            if (matcher.compare(chunkStart, next) != 0) {
+                // Save for reading next chunk later.
+                mNextChunkStart = next;
+                break;
+            }
+            buffer.add(next);
+        }
+
+        buffer.sort();
+
+        mChunkIterator = buffer.iterator();
+    }
+
     private FetchException toFetchException(UndeclaredThrowableException e) {
         Throwable cause = e.getCause();
         if (cause == null) {
@@ -439,4 +528,35 @@ public class SortedCursor<S> extends AbstractCursor<S> {
         }
         return new FetchException(null, cause);
     }
+
+    /**
+     * Iterates over the small chunk array, clearing references as it goes.
+     */
+    private static class ChunkIterator<E> implements Iterator<E> {
+        private final E[] mElements;
+        private final int mEnd;
+        private int mIndex;
+
+        ChunkIterator(E[] elements, int end) {
+            mElements = elements;
+            mEnd = end;
+        }
+
+        public boolean hasNext() {
+            return mIndex < mEnd;
+        }
+
+        public E next() {
+            if (mIndex >= mEnd) {
+                throw new NoSuchElementException();
+            }
+            E e = mElements[mIndex];
+            mElements[mIndex++] = null;
+            return e;
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
 }
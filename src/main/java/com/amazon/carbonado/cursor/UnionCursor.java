@@ -19,17 +19,19 @@
 package com.amazon.carbonado.cursor;
 
 import java.util.Comparator;
+import java.util.List;
 import java.util.NoSuchElementException;
 
 import com.amazon.carbonado.FetchException;
 import com.amazon.carbonado.Cursor;
 
 /**
- * Wraps two Cursors and performs a <i>set union</i> operation. In boolean
- * logic, this is an <i>or</i> operation.
+ * Wraps two or more Cursors and performs a <i>set union</i> operation. In
+ * boolean logic, this is an <i>or</i> operation.
  *
- * <p>Both cursors must return results in the same order. Ordering is preserved
- * by the union.
+ * <p>All cursors must return results in the same order. Ordering is preserved
+ * by the union. Cursors are merged using a binary heap, and so each result
+ * costs O(log n) comparisons for n cursors.
  *
  * @author Brian S O'Neill
  * @see IntersectionCursor
@@ -37,12 +39,19 @@ import com.amazon.carbonado.Cursor;
  * @see SymmetricDifferenceCursor
  */
 public class UnionCursor<S> extends AbstractCursor<S> {
-    private final Cursor<S> mLeftCursor;
-    private final Cursor<S> mRightCursor;
+    private final Cursor<S>[] mCursors;
     private final Comparator<S> mOrder;
 
-    private S mNextLeft;
-    private S mNextRight;
+    // Next element from each cursor, or null if not fetched or exhausted.
+    private final S[] mNext;
+
+    // Binary min-heap of cursor positions which have a next element.
+    private final int[] mHeap;
+    private int mHeapSize;
+
+    // Positions of cursors which need to be advanced before the heap is complete.
+    private final int[] mPending;
+    private int mPendingSize;
 
     /**
      * @param left cursor to wrap
@@ -51,28 +60,68 @@ public class UnionCursor<S> extends AbstractCursor<S> {
      * a total ordering
      */
     public UnionCursor(Cursor<S> left, Cursor<S> right, Comparator<S> order) {
-        if (left == null || right == null || order == null) {
+        this(new Cursor[] {left, right}, order);
+    }
+
+    /**
+     * @param cursors cursors to wrap
+     * @param order describes sort ordering of wrapped cursors, which must be
+     * a total ordering
+     */
+    public UnionCursor(List<Cursor<S>> cursors, Comparator<S> order) {
+        this(cursors == null ? null : cursors.toArray(new Cursor[cursors.size()]), order);
+    }
+
+    private UnionCursor(Cursor<S>[] cursors, Comparator<S> order) {
+        if (cursors == null || cursors.length == 0 || order == null) {
             throw new IllegalArgumentException();
         }
-        mLeftCursor = left;
-        mRightCursor = right;
+        for (Cursor<S> cursor : cursors) {
+            if (cursor == null) {
+                throw new IllegalArgumentException();
+            }
+        }
+        int length = cursors.length;
+        mCursors = cursors;
         mOrder = order;
+        mNext = (S[]) new Object[length];
+        mHeap = new int[length];
+        mPending = new int[length];
+        for (int i=0; i<length; i++) {
+            mPending[i] = i;
+        }
+        mPendingSize = length;
     }
 
     public void close() throws FetchException {
-        mLeftCursor.close();
-        mRightCursor.close();
-        mNextLeft = null;
-        mNextRight = null;
+        mHeapSize = 0;
+        mPendingSize = 0;
+        FetchException error = null;
+        for (int i=0; i<mCursors.length; i++) {
+            mNext[i] = null;
+            try {
+                mCursors[i].close();
+            } catch (FetchException e) {
+                if (error == null) {
+                    error = e;
+                }
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
     }
 
     public boolean hasNext() throws FetchException {
         try {
-            if (mNextLeft == null && mLeftCursor.hasNext()) {
-                mNextLeft = mLeftCursor.next();
-            }
-            if (mNextRight == null && mRightCursor.hasNext()) {
-                mNextRight = mRightCursor.next();
+            while (mPendingSize > 0) {
+                int pos = mPending[mPendingSize - 1];
+                Cursor<S> cursor = mCursors[pos];
+                if (cursor.hasNext()) {
+                    mNext[pos] = cursor.next();
+                    push(pos);
+                }
+                mPendingSize--;
             }
         } catch (NoSuchElementException e) {
             return false;
@@ -84,32 +133,16 @@ public class UnionCursor<S> extends AbstractCursor<S> {
             }
             throw e;
         }
-        return mNextLeft != null || mNextRight != null;
+        return mHeapSize > 0;
     }
 
     public S next() throws FetchException {
         try {
             if (hasNext()) {
-                S next;
-                if (mNextLeft == null) {
-                    next = mNextRight;
-                    mNextRight = null;
-                } else if (mNextRight == null) {
-                    next = mNextLeft;
-                    mNextLeft = null;
-                } else {
-                    int result = mOrder.compare(mNextLeft, mNextRight);
-                    if (result < 0) {
-                        next = mNextLeft;
-                        mNextLeft = null;
-                    } else if (result > 0) {
-                        next = mNextRight;
-                        mNextRight = null;
-                    } else {
-                        next = mNextLeft;
-                        mNextLeft = null;
-                        mNextRight = null;
-                    }
+                S next = pop();
+                // Eliminate duplicates from the other cursors.
+                while (mHeapSize > 0 && mOrder.compare(mNext[mHeap[0]], next) == 0) {
+                    pop();
                 }
                 return next;
             }
@@ -123,4 +156,74 @@ public class UnionCursor<S> extends AbstractCursor<S> {
         }
         throw new NoSuchElementException();
     }
+
+    private void push(int pos) {
+        int[] heap = mHeap;
+        S element = mNext[pos];
+        int i = mHeapSize++;
+        while (i > 0) {
+            int parent = (i - 1) >> 1;
+            int parentPos = heap[parent];
+            if (compare(element, pos, mNext[parentPos], parentPos) >= 0) {
+                break;
+            }
+            heap[i] = parentPos;
+            i = parent;
+        }
+        heap[i] = pos;
+    }
+
+    /**
+     * Removes the smallest element from the heap, and marks its cursor as
+     * needing to be advanced.
+     */
+    private S pop() {
+        int[] heap = mHeap;
+        int topPos = heap[0];
+        S top = mNext[topPos];
+        mNext[topPos] = null;
+        mPending[mPendingSize++] = topPos;
+
+        int size = --mHeapSize;
+        if (size > 0) {
+            int pos = heap[size];
+            S element = mNext[pos];
+            int i = 0;
+            while (true) {
+                int child = (i << 1) + 1;
+                if (child >= size) {
+                    break;
+                }
+                int childPos = heap[child];
+                int right = child + 1;
+                if (right < size) {
+                    int rightPos = heap[right];
+                    if (compare(mNext[rightPos], rightPos, mNext[childPos], childPos) < 0) {
+                        child = right;
+                        childPos = rightPos;
+                    }
+                }
+                if (compare(element, pos, mNext[childPos], childPos) <= 0) {
+                    break;
+                }
+                heap[i] = childPos;
+                i = child;
+            }
+            heap[i] = pos;
+        }
+
+        return top;
+    }
+
+    /**
+     * Compares elements, breaking ties by cursor position. Equal elements are
+     * therefore always produced by the first cursor which has them.
+     */
+    private int compare(S a, int aPos, S b, int bPos) {
+        int result = mOrder.compare(a, b);
+        if (result == 0) {
+            result = aPos < bPos ? -1 : (aPos > bPos ? 1 : 0);
+        }
+        return result;
+    }
 }
@@ -50,7 +50,21 @@ public class FilterValues<S extends Storable> implements Serializable, Appender
         create(Filter<S> filter, PropertyFilterList<S> propFilterList,
                FilterValues<S> prevValues, Object prevValue)
     {
-        FilterValues<S> fv = new FilterValues<S>(filter, propFilterList, prevValues, prevValue);
+        return addConstants(filter, propFilterList,
+                            new FilterValues<S>(filter, propFilterList, prevValues, prevValue));
+    }
+
+    private static <S extends Storable> FilterValues<S>
+        create(Filter<S> filter, PropertyFilterList<S> propFilterList,
+               FilterValues<S> prevValues, long prevBits)
+    {
+        return addConstants(filter, propFilterList,
+                            new FilterValues<S>(filter, propFilterList, prevValues, prevBits));
+    }
+
+    private static <S extends Storable> FilterValues<S>
+        addConstants(Filter<S> filter, PropertyFilterList<S> propFilterList, FilterValues<S> fv)
+    {
         PropertyFilter<S> propFilter;
         while (propFilterList != null
                && (propFilter = propFilterList.getPropertyFilter()).isConstant())
@@ -66,7 +80,15 @@ public class FilterValues<S extends Storable> implements Serializable, Appender
     private final transient FilterValues<S> mPrevValues;
     private final transient Object mPrevValue;
 
-    private transient volatile Map<PropertyFilter<S>, Object> mValueMap;
+    // When true, the previous value is a primitive which is held in mPrevBits
+    // instead of mPrevValue. Floating point values are held as double bits.
+    private final transient boolean mPrevUnboxed;
+    private final transient long mPrevBits;
+
+    // Boxed form of mPrevBits, created on demand. Races to create it are harmless.
+    private transient Object mPrevBoxed;
+
+    private transient volatile Map<PropertyFilter<S>, FilterValues<S>> mValueMap;
 
     private FilterValues(Filter<S> filter,
                          PropertyFilterList<S> propFilterList,
@@ -77,6 +99,21 @@ public class FilterValues<S extends Storable> implements Serializable, Appender
         mCurrentProperty = propFilterList;
         mPrevValues = prevValues;
         mPrevValue = prevValue;
+        mPrevUnboxed = false;
+        mPrevBits = 0;
+    }
+
+    private FilterValues(Filter<S> filter,
+                         PropertyFilterList<S> propFilterList,
+                         FilterValues<S> prevValues,
+                         long prevBits)
+    {
+        mFilter = filter;
+        mCurrentProperty = propFilterList;
+        mPrevValues = prevValues;
+        mPrevValue = null;
+        mPrevUnboxed = true;
+        mPrevBits = prevBits;
     }
 
     /**
@@ -95,6 +132,13 @@ public class FilterValues<S extends Storable> implements Serializable, Appender
      */
     public FilterValues<S> with(int value) {
         PropertyFilterList<S> current = currentProperty();
+        Class<?> type = current.getPropertyFilter().getType();
+        if (type == int.class || type == long.class) {
+            return withBits(current, value);
+        }
+        if (type == double.class) {
+            return withBits(current, Double.doubleToRawLongBits(value));
+        }
         Object obj;
         try {
             obj = current.getPropertyFilter().adaptValue(value);
@@ -113,6 +157,10 @@ public class FilterValues<S extends Storable> implements Serializable, Appender
      */
     public FilterValues<S> with(long value) {
         PropertyFilterList<S> current = currentProperty();
+        Class<?> type = current.getPropertyFilter().getType();
+        if (type == long.class) {
+            return withBits(current, value);
+        }
         Object obj;
         try {
             obj = current.getPropertyFilter().adaptValue(value);
@@ -131,6 +179,10 @@ public class FilterValues<S extends Storable> implements Serializable, Appender
      */
     public FilterValues<S> with(float value) {
         PropertyFilterList<S> current = currentProperty();
+        Class<?> type = current.getPropertyFilter().getType();
+        if (type == float.class || type == double.class) {
+            return withBits(current, Double.doubleToRawLongBits(value));
+        }
         Object obj;
         try {
             obj = current.getPropertyFilter().adaptValue(value);
@@ -149,6 +201,10 @@ public class FilterValues<S extends Storable> implements Serializable, Appender
      */
     public FilterValues<S> with(double value) {
         PropertyFilterList<S> current = currentProperty();
+        Class<?> type = current.getPropertyFilter().getType();
+        if (type == double.class) {
+            return withBits(current, Double.doubleToRawLongBits(value));
+        }
         Object obj;
         try {
             obj = current.getPropertyFilter().adaptValue(value);
@@ -167,6 +223,10 @@ public class FilterValues<S extends Storable> implements Serializable, Appender
      */
     public FilterValues<S> with(boolean value) {
         PropertyFilterList<S> current = currentProperty();
+        Class<?> type = current.getPropertyFilter().getType();
+        if (type == boolean.class) {
+            return withBits(current, value ? 1 : 0);
+        }
         Object obj;
         try {
             obj = current.getPropertyFilter().adaptValue(value);
@@ -185,6 +245,10 @@ public class FilterValues<S extends Storable> implements Serializable, Appender
      */
     public FilterValues<S> with(char value) {
         PropertyFilterList<S> current = currentProperty();
+        Class<?> type = current.getPropertyFilter().getType();
+        if (type == char.class) {
+            return withBits(current, value);
+        }
         Object obj;
         try {
             obj = current.getPropertyFilter().adaptValue(value);
@@ -203,6 +267,10 @@ public class FilterValues<S extends Storable> implements Serializable, Appender
      */
     public FilterValues<S> with(byte value) {
         PropertyFilterList<S> current = currentProperty();
+        Class<?> type = current.getPropertyFilter().getType();
+        if (type == byte.class || type == short.class || type == int.class || type == long.class) {
+            return withBits(current, value);
+        }
         Object obj;
         try {
             obj = current.getPropertyFilter().adaptValue(value);
@@ -221,6 +289,10 @@ public class FilterValues<S extends Storable> implements Serializable, Appender
      */
     public FilterValues<S> with(short value) {
         PropertyFilterList<S> current = currentProperty();
+        Class<?> type = current.getPropertyFilter().getType();
+        if (type == short.class || type == int.class || type == long.class) {
+            return withBits(current, value);
+        }
         Object obj;
         try {
             obj = current.getPropertyFilter().adaptValue(value);
@@ -275,6 +347,10 @@ public class FilterValues<S extends Storable> implements Serializable, Appender
         return create(mFilter, current.getNext(), this, value);
     }
 
+    private FilterValues<S> withBits(PropertyFilterList<S> current, long bits) {
+        return create(mFilter, current.getNext(), this, bits);
+    }
+
     /**
      * Returns the amount of values yet to be assigned.
      *
@@ -302,95 +378,200 @@ public class FilterValues<S extends Storable> implements Serializable, Appender
         return getValue(propFilter, true);
     }
 
-    private Object getValue(PropertyFilter<S> propFilter, boolean mustBeAssigned) {
-        if (propFilter.isConstant()) {
-            return propFilter.constant();
-        }
+    /**
+     * Returns the value assigned to the given PropertyFilter, which must be
+     * of type int. Unlike getAssignedValue, the value is not boxed if it was
+     * supplied as a primitive.
+     *
+     * @throws IllegalStateException if value is blank
+     * @throws IllegalArgumentException if property type is not int
+     */
+    public int getIntValue(PropertyFilter<S> propFilter) {
+        long bits = getAssignedBits(propFilter, int.class);
+        return (int) bits;
+    }
 
-        Map<PropertyFilter<S>, Object> map = mValueMap;
+    /**
+     * Returns the value assigned to the given PropertyFilter, which must be
+     * of type long.
+     *
+     * @throws IllegalStateException if value is blank
+     * @throws IllegalArgumentException if property type is not long
+     */
+    public long getLongValue(PropertyFilter<S> propFilter) {
+        return getAssignedBits(propFilter, long.class);
+    }
 
-        if (map == null) {
-            FilterValues<S> prevValues = mPrevValues;
-            if (prevValues == null) {
-                if (mustBeAssigned) {
-                    throw valueNotFound(propFilter);
-                }
-                return null;
-            }
+    /**
+     * Returns the value assigned to the given PropertyFilter, which must be
+     * of type float.
+     *
+     * @throws IllegalStateException if value is blank
+     * @throws IllegalArgumentException if property type is not float
+     */
+    public float getFloatValue(PropertyFilter<S> propFilter) {
+        long bits = getAssignedBits(propFilter, float.class);
+        return (float) Double.longBitsToDouble(bits);
+    }
 
-            if (prevValues.mCurrentProperty.getPreviousRemaining() < 3) {
-                // Map would have few values in it, so don't bother building it.
+    /**
+     * Returns the value assigned to the given PropertyFilter, which must be
+     * of type double.
+     *
+     * @throws IllegalStateException if value is blank
+     * @throws IllegalArgumentException if property type is not double
+     */
+    public double getDoubleValue(PropertyFilter<S> propFilter) {
+        long bits = getAssignedBits(propFilter, double.class);
+        return Double.longBitsToDouble(bits);
+    }
 
-                FilterValues<S> filterValues = this;
-                do {
-                    if (propFilter == prevValues.mCurrentProperty.getPropertyFilter()) {
-                        return filterValues.mPrevValue;
-                    }
-                    filterValues = prevValues;
-                    prevValues = prevValues.mPrevValues;
-                } while (prevValues != null);
+    /**
+     * Returns the value assigned to the given PropertyFilter, which must be
+     * of type boolean.
+     *
+     * @throws IllegalStateException if value is blank
+     * @throws IllegalArgumentException if property type is not boolean
+     */
+    public boolean getBooleanValue(PropertyFilter<S> propFilter) {
+        long bits = getAssignedBits(propFilter, boolean.class);
+        return bits != 0;
+    }
 
-                if (mustBeAssigned) {
-                    throw valueNotFound(propFilter);
-                }
-                return null;
+    /**
+     * Returns the value assigned to the given PropertyFilter, which must be
+     * of type char.
+     *
+     * @throws IllegalStateException if value is blank
+     * @throws IllegalArgumentException if property type is not char
+     */
+    public char getCharValue(PropertyFilter<S> propFilter) {
+        long bits = getAssignedBits(propFilter, char.class);
+        return (char) bits;
+    }
+
+    /**
+     * Returns the value assigned to the given PropertyFilter, which must be
+     * of type byte.
+     *
+     * @throws IllegalStateException if value is blank
+     * @throws IllegalArgumentException if property type is not byte
+     */
+    public byte getByteValue(PropertyFilter<S> propFilter) {
+        long bits = getAssignedBits(propFilter, byte.class);
+        return (byte) bits;
+    }
+
+    /**
+     * Returns the value assigned to the given PropertyFilter, which must be
+     * of type short.
+     *
+     * @throws IllegalStateException if value is blank
+     * @throws IllegalArgumentException if property type is not short
+     */
+    public short getShortValue(PropertyFilter<S> propFilter) {
+        long bits = getAssignedBits(propFilter, short.class);
+        return (short) bits;
+    }
+
+    private long getAssignedBits(PropertyFilter<S> propFilter, Class<?> type) {
+        if (propFilter.getType() != type) {
+            throw new IllegalArgumentException
+                ("Property type is not " + type.getName() + ": \"" + propFilter + '"');
+        }
+
+        Object value;
+        if (propFilter.isConstant()) {
+            value = propFilter.constant();
+        } else {
+            FilterValues<S> holder = findHolder(propFilter);
+            if (holder == null) {
+                throw valueNotFound(propFilter);
             }
+            if (holder.mPrevUnboxed) {
+                return holder.mPrevBits;
+            }
+            value = holder.mPrevValue;
+        }
 
-            map = buildValueMap();
+        if (type == boolean.class) {
+            return ((Boolean) value) ? 1 : 0;
+        }
+        if (type == char.class) {
+            return (Character) value;
+        }
+        if (type == float.class || type == double.class) {
+            return Double.doubleToRawLongBits(((Number) value).doubleValue());
+        }
+        return ((Number) value).longValue();
+    }
+
+    private Object getValue(PropertyFilter<S> propFilter, boolean mustBeAssigned) {
+        if (propFilter.isConstant()) {
+            return propFilter.constant();
         }
 
-        Object value = map.get(propFilter);
-        if (value == null && mustBeAssigned && !map.containsKey(propFilter)) {
-            throw valueNotFound(propFilter);
+        FilterValues<S> holder = findHolder(propFilter);
+        if (holder == null) {
+            if (mustBeAssigned) {
+                throw valueNotFound(propFilter);
+            }
+            return null;
         }
 
-        return value;
+        return holder.prevValue();
     }
 
     /**
      * Returns true if a value is assigned to the given PropertyFilter.
      */
     public boolean isAssigned(PropertyFilter<S> propFilter) {
-        if (propFilter.isConstant()) {
-            return true;
-        }
+        return propFilter.isConstant() || findHolder(propFilter) != null;
+    }
 
-        Map<PropertyFilter<S>, Object> map = mValueMap;
+    /**
+     * Returns the FilterValues instance which holds the value assigned to the
+     * given non-constant PropertyFilter, or null if not assigned.
+     */
+    private FilterValues<S> findHolder(PropertyFilter<S> propFilter) {
+        Map<PropertyFilter<S>, FilterValues<S>> map = mValueMap;
 
         if (map == null) {
             FilterValues<S> prevValues = mPrevValues;
             if (prevValues == null) {
-                return false;
+                return null;
             }
 
             if (prevValues.mCurrentProperty.getPreviousRemaining() < 3) {
                 // Map would have few values in it, so don't bother building it.
 
+                FilterValues<S> filterValues = this;
                 do {
                     if (propFilter == prevValues.mCurrentProperty.getPropertyFilter()) {
-                        return true;
+                        return filterValues;
                     }
+                    filterValues = prevValues;
                     prevValues = prevValues.mPrevValues;
                 } while (prevValues != null);
 
-                return false;
+                return null;
             }
 
             map = buildValueMap();
         }
 
-        return map.containsKey(propFilter);
+        return map.get(propFilter);
     }
 
-    private Map<PropertyFilter<S>, Object> buildValueMap() {
-        Map<PropertyFilter<S>, Object> map =
-            new IdentityHashMap<PropertyFilter<S>, Object>();
+    private Map<PropertyFilter<S>, FilterValues<S>> buildValueMap() {
+        Map<PropertyFilter<S>, FilterValues<S>> map =
+            new IdentityHashMap<PropertyFilter<S>, FilterValues<S>>();
 
         FilterValues<S> filterValues = this;
         FilterValues<S> prevValues = mPrevValues;
 
         do {
-            map.put(prevValues.mCurrentProperty.getPropertyFilter(), filterValues.mPrevValue);
+            map.put(prevValues.mCurrentProperty.getPropertyFilter(), filterValues);
             filterValues = prevValues;
             prevValues = prevValues.mPrevValues;
         } while (prevValues != null);
@@ -399,6 +580,21 @@ public class FilterValues<S extends Storable> implements Serializable, Appender
         return map;
     }
 
+    /**
+     * Returns the previous value, boxing it if necessary.
+     */
+    private Object prevValue() {
+        if (!mPrevUnboxed) {
+            return mPrevValue;
+        }
+        Object boxed = mPrevBoxed;
+        if (boxed == null) {
+            Class<?> type = mPrevValues.mCurrentProperty.getPropertyFilter().getType();
+            mPrevBoxed = boxed = box(type, mPrevBits);
+        }
+        return boxed;
+    }
+
     /**
      * Returns all values in this object, including those provided by filter
      * constants. An IllegalStateException will result if any values are blank.
@@ -431,7 +627,7 @@ public class FilterValues<S extends Storable> implements Serializable, Appender
 
         while (true) {
             if (!filterValues.mPrevValues.mCurrentProperty.getPropertyFilter().isConstant()) {
-                values[--i] = filterValues.mPrevValue;
+                values[--i] = filterValues.prevValue();
                 if (i <= 0) {
                     break;
                 }
@@ -476,7 +672,7 @@ public class FilterValues<S extends Storable> implements Serializable, Appender
             if (prevValues != null
                 && propFilter == prevValues.mCurrentProperty.getPropertyFilter()) {
 
-                value = filterValues.mPrevValue;
+                value = filterValues.prevValue();
 
                 filterValues = prevValues;
                 prevValues = prevValues.mPrevValues;
@@ -494,7 +690,7 @@ public class FilterValues<S extends Storable> implements Serializable, Appender
                     findValue: {
                         while (prevValues != null) {
                             if (propFilter == prevValues.mCurrentProperty.getPropertyFilter()) {
-                                value = filterValues.mPrevValue;
+                                value = filterValues.prevValue();
                                 break findValue;
                             }
                             filterValues = prevValues;
@@ -552,7 +748,7 @@ public class FilterValues<S extends Storable> implements Serializable, Appender
             if (prevValues != null
                 && propFilter == prevValues.mCurrentProperty.getPropertyFilter()) {
 
-                value = filterValues.mPrevValue;
+                value = filterValues.prevValue();
 
                 filterValues = prevValues;
                 prevValues = prevValues.mPrevValues;
@@ -582,7 +778,7 @@ public class FilterValues<S extends Storable> implements Serializable, Appender
                     findValue: {
                         while (prevValues != null) {
                             if (propFilter == prevValues.mCurrentProperty.getPropertyFilter()) {
-                                value = filterValues.mPrevValue;
+                                value = filterValues.prevValue();
                                 break findValue;
                             }
                             filterValues = prevValues;
@@ -612,6 +808,31 @@ public class FilterValues<S extends Storable> implements Serializable, Appender
         return values;
     }
 
+    private static Object box(Class<?> type, long bits) {
+        if (type == int.class) {
+            return (int) bits;
+        }
+        if (type == long.class) {
+            return bits;
+        }
+        if (type == float.class) {
+            return (float) Double.longBitsToDouble(bits);
+        }
+        if (type == double.class) {
+            return Double.longBitsToDouble(bits);
+        }
+        if (type == boolean.class) {
+            return bits != 0;
+        }
+        if (type == char.class) {
+            return (char) bits;
+        }
+        if (type == byte.class) {
+            return (byte) bits;
+        }
+        return (short) bits;
+    }
+
     private IllegalStateException valueNotFound(PropertyFilter<S> propFilter) {
         return new IllegalStateException
             ("Property value not found for: \"" + propFilter + "\" in filter \"" + this + '"');
@@ -620,8 +841,9 @@ public class FilterValues<S extends Storable> implements Serializable, Appender
     @Override
     public int hashCode() {
         int hash = mFilter.hashCode();
-        if (mPrevValue != null) {
-            hash += mPrevValue.hashCode();
+        Object prevValue = prevValue();
+        if (prevValue != null) {
+            hash += prevValue.hashCode();
         }
         if (mPrevValues != null) {
             hash += mPrevValues.hashCode();
@@ -636,12 +858,16 @@ public class FilterValues<S extends Storable> implements Serializable, Appender
         }
         if (obj instanceof FilterValues) {
             FilterValues<?> other = (FilterValues<?>) obj;
-            return mFilter.equals(other.mFilter)
-                && mCurrentProperty == other.mCurrentProperty
-                && (mPrevValues == null ? other.mPrevValues == null
-                    : mPrevValues.equals(other.mPrevValues))
-                && (mPrevValue == null ? other.mPrevValue == null
-                    : mPrevValue.equals(other.mPrevValue));
+            if (!mFilter.equals(other.mFilter)
+                || mCurrentProperty != other.mCurrentProperty
+                || !(mPrevValues == null ? other.mPrevValues == null
+                     : mPrevValues.equals(other.mPrevValues)))
+            {
+                return false;
+            }
+            Object prevValue = prevValue();
+            Object otherPrevValue = other.prevValue();
+            return prevValue == null ? otherPrevValue == null : prevValue.equals(otherPrevValue);
         }
         return false;
     }
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2006-2012 Amazon Technologies, Inc. or its affiliates.
+ * Amazon, Amazon.com and Carbonado are trademarks or registered trademarks
+ * of Amazon Technologies, Inc. or its affiliates.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.carbonado.layout;
+
+import com.amazon.carbonado.FetchException;
+import com.amazon.carbonado.RepositoryException;
+import com.amazon.carbonado.Storable;
+
+import com.amazon.carbonado.capability.Capability;
+
+/**
+ * Capability to decode and upgrade older generations of storables. Unlike
+ * {@link LayoutCapability}, which only describes layouts, this capability is
+ * supported by repositories which encode storables themselves.
+ */
+public interface LayoutUpgradeCapability extends Capability {
+    /**
+     * Prepares decoders for all known older generations of the given type,
+     * which is intended to be called when the application starts. Decoders
+     * are otherwise prepared on demand, when an older generation is first
+     * encountered.
+     *
+     * @return amount of older generations which can be decoded
+     */
+    public int prepareDecoders(Class<? extends Storable> type)
+        throws FetchException;
+
+    /**
+     * Re-encodes all records of the given type which were encoded using an
+     * older generation, upgrading them to the current generation. Records are
+     * not otherwise changed, and no triggers are run. This method returns
+     * when the upgrade is finished, and so it should be called from a
+     * background thread. It commits in batches and may be interrupted.
+     *
+     * @param desiredSpeed throttling parameter - 1.0 = full speed, 0.5 = half
+     * speed, 0.1 = one-tenth speed, etc
+     * @return amount of records upgraded
+     */
+    public long upgradeLayout(Class<? extends Storable> type, double desiredSpeed)
+        throws RepositoryException;
+}
@@ -27,6 +27,7 @@ import com.amazon.carbonado.FetchMultipleException;
 import com.amazon.carbonado.FetchNoneException;
 import com.amazon.carbonado.PersistException;
 import com.amazon.carbonado.PersistNoneException;
+import com.amazon.carbonado.PreparedQuery;
 import com.amazon.carbonado.Query;
 import com.amazon.carbonado.Storable;
 
@@ -121,6 +122,11 @@ public abstract class AbstractQuery<S extends Storable> implements Query<S>, App
         }
     }
 
+    @Override
+    public PreparedQuery<S> prepare() throws FetchException {
+        return new SimplePreparedQuery<S>(this);
+    }
+
     @Override
     public void deleteOne() throws PersistException {
         if (!tryDeleteOne()) {
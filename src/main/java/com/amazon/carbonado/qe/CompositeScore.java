@@ -111,9 +111,12 @@ public class CompositeScore<S extends Storable> {
      * @param hints optional hints
      */
     public static Comparator<CompositeScore<?>> localForeignComparator(QueryHints hints) {
-        if (hints != null && hints.contains(QueryHint.CONSUME_SLICE)) {
+        if (favorsOrdering(hints)) {
             return Comp.LOCAL_FOREIGN_SLICE;
         }
+        if (favorsThroughput(hints)) {
+            return Comp.LOCAL_FOREIGN_THROUGHPUT;
+        }
         return Comp.LOCAL_FOREIGN;
     }
 
@@ -140,12 +143,36 @@ public class CompositeScore<S extends Storable> {
      * @param hints optional hints
      */
     public static Comparator<CompositeScore<?>> fullComparator(QueryHints hints) {
-        if (hints != null && hints.contains(QueryHint.CONSUME_SLICE)) {
+        if (favorsOrdering(hints)) {
             return Comp.SLICE;
         }
+        if (favorsThroughput(hints)) {
+            return Comp.THROUGHPUT;
+        }
         return Comp.FULL;
     }
 
+    /**
+     * Returns true if hints indicate that the first results are needed
+     * quickly, and so an index which provides the ordering is preferred.
+     */
+    public static boolean favorsOrdering(QueryHints hints) {
+        return hints != null
+            && (hints.contains(QueryHint.CONSUME_SLICE)
+                || hints.contains(QueryHint.FAVOR_LATENCY));
+    }
+
+    /**
+     * Returns true if hints indicate that all results are needed, and so an
+     * index which examines fewer records is preferred over one which provides
+     * the ordering.
+     */
+    public static boolean favorsThroughput(QueryHints hints) {
+        return hints != null && !favorsOrdering(hints)
+            && (hints.contains(QueryHint.FAVOR_THROUGHPUT)
+                || hints.contains(QueryHint.CONSUME_ALL));
+    }
+
     private final FilteringScore<S> mFilteringScore;
     private final OrderingScore<S> mOrderingScore;
 
@@ -224,17 +251,24 @@ public class CompositeScore<S extends Storable> {
     }
 
     private static class Comp implements Comparator<CompositeScore<?>> {
-        static final Comparator<CompositeScore<?>> LOCAL_FOREIGN = new Comp(false, false);
-        static final Comparator<CompositeScore<?>> SLICE = new Comp(true, true);
-        static final Comparator<CompositeScore<?>> LOCAL_FOREIGN_SLICE = new Comp(false, true);
-        static final Comparator<CompositeScore<?>> FULL = new Comp(true, false);
+        static final Comparator<CompositeScore<?>> LOCAL_FOREIGN =
+            new Comp(false, false, false);
+        static final Comparator<CompositeScore<?>> SLICE = new Comp(true, true, false);
+        static final Comparator<CompositeScore<?>> LOCAL_FOREIGN_SLICE =
+            new Comp(false, true, false);
+        static final Comparator<CompositeScore<?>> FULL = new Comp(true, false, false);
+        static final Comparator<CompositeScore<?>> THROUGHPUT = new Comp(true, false, true);
+        static final Comparator<CompositeScore<?>> LOCAL_FOREIGN_THROUGHPUT =
+            new Comp(false, false, true);
 
         private final boolean mFull;
         private final boolean mSlice;
+        private final boolean mThroughput;
 
-        private Comp(boolean full, boolean slice) {
+        private Comp(boolean full, boolean slice, boolean throughput) {
             mFull = full;
             mSlice = slice;
+            mThroughput = throughput;
         }
 
         public int compare(CompositeScore<?> first, CompositeScore<?> second) {
@@ -285,6 +319,11 @@ public class CompositeScore<S extends Storable> {
                     return preferenceResult;
                 }
 
+                if (mThroughput) {
+                    // Sorting is cheaper than examining more records.
+                    return result;
+                }
+
                 // Okay, preference is not helping. If handled filter count is
                 // the same, choose the better ordering. Why? Most likely a nearly
                 // identical index was created specifically for ordering. One index
@@ -366,6 +405,11 @@ public class CompositeScore<S extends Storable> {
         }
 
         private boolean considerOrdering(FilteringScore<?> score) {
+            if (mThroughput) {
+                // Only a clustered index can provide ordering without random
+                // access I/O.
+                return score.isIndexClustered();
+            }
             return mSlice
                 || score.isIndexClustered()
                 || score.getIdentityCount() > 0
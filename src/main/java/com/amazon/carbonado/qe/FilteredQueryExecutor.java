@@ -20,25 +20,114 @@ package com.amazon.carbonado.qe;
 
 import java.io.IOException;
 
+import java.util.concurrent.Executor;
+
 import com.amazon.carbonado.Cursor;
 import com.amazon.carbonado.FetchException;
 import com.amazon.carbonado.Query;
 import com.amazon.carbonado.Storable;
 
 import com.amazon.carbonado.cursor.FilteredCursor;
+import com.amazon.carbonado.cursor.ParallelFilteredCursor;
 
+import com.amazon.carbonado.filter.AndFilter;
+import com.amazon.carbonado.filter.ExistsFilter;
 import com.amazon.carbonado.filter.Filter;
 import com.amazon.carbonado.filter.FilterValues;
+import com.amazon.carbonado.filter.OrFilter;
+import com.amazon.carbonado.filter.PropertyFilter;
+import com.amazon.carbonado.filter.Visitor;
+
+import com.amazon.carbonado.util.DaemonExecutors;
 
 /**
  * QueryExecutor which wraps another and filters results.
  *
+ * <p>Filters can optionally be evaluated in parallel, by a shared pool of
+ * daemon threads. The pool size defaults to the number of available
+ * processors, and it can be changed with the
+ * "com.amazon.carbonado.qe.FilteredQueryExecutor.parallelism" system
+ * property. Setting this property enables parallel filtering for all scans,
+ * as if the {@link QueryHint#PARALLEL PARALLEL} hint was always
+ * provided. Records are filtered in batches, whose size is set by the
+ * "com.amazon.carbonado.qe.FilteredQueryExecutor.batchSize" system property,
+ * defaulting to 100. Filters which refer to joined properties are never
+ * evaluated in parallel.
+ *
  * @author Brian S O'Neill
  * @see FilteredCursor
+ * @see ParallelFilteredCursor
  */
 public class FilteredQueryExecutor<S extends Storable> extends AbstractQueryExecutor<S> {
+    private static final int cParallelism;
+    private static final int cBatchSize;
+
+    static {
+        String prefix = FilteredQueryExecutor.class.getName() + '.';
+        cParallelism = Integer.getInteger(prefix + "parallelism", 0);
+        cBatchSize = Math.max(1, Integer.getInteger(prefix + "batchSize", 100));
+    }
+
+    private static Executor cFilterExecutor;
+
+    private static int parallelism() {
+        return cParallelism > 0 ? cParallelism : Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Returns the shared executor for filtering in parallel.
+     */
+    private static synchronized Executor filterExecutor() {
+        if (cFilterExecutor == null) {
+            cFilterExecutor = DaemonExecutors.newFixedPool("FilteredQueryExecutor", parallelism());
+        }
+        return cFilterExecutor;
+    }
+
+    /**
+     * Returns true if the given hints request parallel filtering, or if it
+     * has been enabled by system property.
+     *
+     * @param hints optional query hints
+     */
+    public static boolean isParallelRequested(QueryHints hints) {
+        return cParallelism > 0 || (hints != null && hints.contains(QueryHint.PARALLEL));
+    }
+
+    /**
+     * Returns false if the filter refers to any joined properties.
+     */
+    private static <S extends Storable> boolean isLocal(Filter<S> filter) {
+        Boolean result = filter.accept(new Visitor<S, Boolean, Object>() {
+            @Override
+            public Boolean visit(OrFilter<S> filter, Object param) {
+                return filter.getLeftFilter().accept(this, param)
+                    && filter.getRightFilter().accept(this, param);
+            }
+
+            @Override
+            public Boolean visit(AndFilter<S> filter, Object param) {
+                return filter.getLeftFilter().accept(this, param)
+                    && filter.getRightFilter().accept(this, param);
+            }
+
+            @Override
+            public Boolean visit(ExistsFilter<S> filter, Object param) {
+                return false;
+            }
+
+            @Override
+            public Boolean visit(PropertyFilter<S> filter, Object param) {
+                return filter.getChainedProperty().getChainCount() == 0;
+            }
+        }, null);
+
+        return result != null && result;
+    }
+
     private final QueryExecutor<S> mExecutor;
     private final Filter<S> mFilter;
+    private final boolean mParallel;
 
     /**
      * @param executor executor to wrap
@@ -46,6 +135,17 @@ public class FilteredQueryExecutor<S extends Storable> extends AbstractQueryExec
      * @throws IllegalArgumentException if any argument is null or filter is open or closed
      */
     public FilteredQueryExecutor(QueryExecutor<S> executor, Filter<S> filter) {
+        this(executor, filter, false);
+    }
+
+    /**
+     * @param executor executor to wrap
+     * @param filter filter to apply to cursor
+     * @param parallel when true, evaluate filter in parallel if it refers
+     * to no joined properties
+     * @throws IllegalArgumentException if any argument is null or filter is open or closed
+     */
+    public FilteredQueryExecutor(QueryExecutor<S> executor, Filter<S> filter, boolean parallel) {
         if (executor == null) {
             throw new IllegalArgumentException();
         }
@@ -59,16 +159,25 @@ public class FilteredQueryExecutor<S extends Storable> extends AbstractQueryExec
             filter = values.getFilter();
         }
         mFilter = filter;
+        mParallel = parallel && isLocal(filter);
     }
 
     public Cursor<S> fetch(FilterValues<S> values) throws FetchException {
-        return FilteredCursor.applyFilter(mFilter, values, mExecutor.fetch(values));
+        return applyFilter(values, mExecutor.fetch(values));
     }
 
     public Cursor<S> fetch(FilterValues<S> values, Query.Controller controller)
         throws FetchException
     {
-        return FilteredCursor.applyFilter(mFilter, values, mExecutor.fetch(values, controller));
+        return applyFilter(values, mExecutor.fetch(values, controller));
+    }
+
+    private Cursor<S> applyFilter(FilterValues<S> values, Cursor<S> cursor) {
+        if (mParallel) {
+            return new ParallelFilteredCursor<S>
+                (filterExecutor(), parallelism(), cBatchSize, mFilter, values, cursor);
+        }
+        return FilteredCursor.applyFilter(mFilter, values, cursor);
     }
 
     /**
@@ -96,6 +205,9 @@ public class FilteredQueryExecutor<S extends Storable> extends AbstractQueryExec
         throws IOException
     {
         indent(app, indentLevel);
+        if (mParallel) {
+            app.append("parallel ");
+        }
         app.append("filter: ");
         mFilter.appendTo(app, values);
         newline(app);
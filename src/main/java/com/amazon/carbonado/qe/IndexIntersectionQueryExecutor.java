@@ -0,0 +1,281 @@
+/*
+ * Copyright 2006-2012 Amazon Technologies, Inc. or its affiliates.
+ * Amazon, Amazon.com and Carbonado are trademarks or registered trademarks
+ * of Amazon Technologies, Inc. or its affiliates.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.carbonado.qe;
+
+import java.io.IOException;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+
+import com.amazon.carbonado.Cursor;
+import com.amazon.carbonado.FetchException;
+import com.amazon.carbonado.Query;
+import com.amazon.carbonado.Storable;
+import com.amazon.carbonado.Storage;
+
+import com.amazon.carbonado.cursor.IntersectionCursor;
+import com.amazon.carbonado.cursor.SortedCursor;
+import com.amazon.carbonado.cursor.TransformedCursor;
+
+import com.amazon.carbonado.filter.Filter;
+import com.amazon.carbonado.filter.FilterValues;
+import com.amazon.carbonado.filter.RelOp;
+
+import com.amazon.carbonado.info.Direction;
+import com.amazon.carbonado.info.OrderedProperty;
+import com.amazon.carbonado.info.StorableIndex;
+import com.amazon.carbonado.info.StorableIntrospector;
+
+/**
+ * QueryExecutor which intersects the entries of several indexes before
+ * loading any master records. Each index must match its leading properties by
+ * identity, and the remaining properties of each index must be the same
+ * sequence of primary key properties. Index entries are then produced in
+ * primary key order, and only the keys found in all indexes are loaded.
+ *
+ * <p>Index entries are not checked for consistency with master records, and
+ * so the complete filter should be applied to the results.
+ *
+ * @see IntersectionCursor
+ */
+public class IndexIntersectionQueryExecutor<S extends Storable> extends AbstractQueryExecutor<S> {
+    /**
+     * Returns the primary key ordering of index entries when scanned with the
+     * given identity count, or null if the index cannot be intersected.
+     *
+     * @param support supplies index entry queries
+     * @param index candidate index
+     * @param identityCount amount of leading index properties matched by identity
+     * @param keyNames names of all primary key properties
+     */
+    static <S extends Storable> OrderingList<S> keyOrdering(IndexedQueryExecutor.Support<S> support,
+                                                            StorableIndex<S> index,
+                                                            int identityCount,
+                                                            Set<String> keyNames)
+        throws FetchException
+    {
+        if (identityCount <= 0 || support.indexEntryQuery(index) == null) {
+            return null;
+        }
+        int count = index.getPropertyCount();
+        if (count - identityCount != keyNames.size()) {
+            return null;
+        }
+        OrderingList<S> ordering = OrderingList.emptyList();
+        for (int i=identityCount; i<count; i++) {
+            OrderedProperty<S> prop = index.getOrderedProperty(i);
+            if (!keyNames.contains(prop.getChainedProperty().getPrimeProperty().getName())) {
+                return null;
+            }
+            if (prop.getDirection() == Direction.UNSPECIFIED) {
+                prop = prop.direction(Direction.ASCENDING);
+            }
+            ordering = ordering.concat(prop);
+        }
+        return ordering;
+    }
+
+    private final IndexedQueryExecutor.Support<S> mSupport;
+    private final Storage<S> mMasterStorage;
+    private final StorableIndex<S>[] mIndexes;
+    private final Filter<S>[] mIdentityFilters;
+    private final Query<?>[] mIndexEntryQueries;
+    private final String[] mKeyNames;
+    private final OrderingList<S> mKeyOrdering;
+    private final Comparator<S> mKeyComparator;
+    private final boolean mReverseOrder;
+
+    /**
+     * @param support supplies index entry queries
+     * @param masterStorage storage for loading master records
+     * @param indexes indexes to intersect, at least two
+     * @param filter filter which each index matches by identity
+     * @param reverseOrder when true, intersect in reverse key order
+     * @throws IllegalArgumentException if any parameter is null, or if any
+     * index cannot be intersected
+     */
+    public IndexIntersectionQueryExecutor(IndexedQueryExecutor.Support<S> support,
+                                          Storage<S> masterStorage,
+                                          List<StorableIndex<S>> indexes,
+                                          Filter<S> filter,
+                                          boolean reverseOrder)
+        throws FetchException
+    {
+        if (support == null || masterStorage == null || indexes == null || indexes.size() < 2
+            || filter == null)
+        {
+            throw new IllegalArgumentException();
+        }
+
+        mSupport = support;
+        mMasterStorage = masterStorage;
+
+        int size = indexes.size();
+        mIndexes = indexes.toArray(new StorableIndex[size]);
+        mIdentityFilters = new Filter[size];
+        mIndexEntryQueries = new Query[size];
+
+        Set<String> keyNames = StorableIntrospector
+            .examine(masterStorage.getStorableType()).getPrimaryKeyProperties().keySet();
+        mKeyNames = keyNames.toArray(new String[keyNames.size()]);
+
+        OrderingList<S> keyOrdering = null;
+
+        for (int i=0; i<size; i++) {
+            StorableIndex<S> index = mIndexes[i];
+            FilteringScore<S> score = FilteringScore.evaluate(index, filter);
+            int identityCount = score.getIdentityCount();
+
+            OrderingList<S> ordering = keyOrdering(support, index, identityCount, keyNames);
+            if (ordering == null || (keyOrdering != null && !keyOrdering.equals(ordering))) {
+                throw new IllegalArgumentException("Cannot intersect index: " + index);
+            }
+            keyOrdering = ordering;
+
+            mIdentityFilters[i] = score.getIdentityFilter();
+
+            Query<?> query = support.indexEntryQuery(index);
+            Filter entryFilter = query.getFilter();
+            for (int j=0; j<identityCount; j++) {
+                entryFilter = entryFilter.and(index.getProperty(j).getName(), RelOp.EQ);
+            }
+            query = query.and(entryFilter);
+
+            String[] orderProperties = new String[ordering.size()];
+            for (int j=0; j<orderProperties.length; j++) {
+                OrderedProperty<S> prop = ordering.get(j);
+                Direction dir = prop.getDirection();
+                if (reverseOrder) {
+                    dir = dir.reverse();
+                }
+                orderProperties[j] = dir.toCharacter() + prop.getChainedProperty().toString();
+            }
+            mIndexEntryQueries[i] = query.orderBy(orderProperties);
+        }
+
+        if (reverseOrder) {
+            keyOrdering = keyOrdering.reverseDirections();
+        }
+
+        mKeyOrdering = keyOrdering;
+        mKeyComparator = SortedCursor.createComparator(keyOrdering);
+        mReverseOrder = reverseOrder;
+    }
+
+    @Override
+    public Class<S> getStorableType() {
+        return mMasterStorage.getStorableType();
+    }
+
+    public Cursor<S> fetch(FilterValues<S> values) throws FetchException {
+        return fetch(values, null);
+    }
+
+    public Cursor<S> fetch(FilterValues<S> values, Query.Controller controller)
+        throws FetchException
+    {
+        Cursor<S> cursor = null;
+        try {
+            for (int i=0; i<mIndexes.length; i++) {
+                Query<?> query = mIndexEntryQueries[i];
+                if (values != null) {
+                    query = query.withValues(values.getValuesFor(mIdentityFilters[i]));
+                }
+                Cursor<S> keys = new KeyCursor(query.fetch(controller));
+                cursor = (cursor == null) ? keys
+                    : new IntersectionCursor<S>(cursor, keys, mKeyComparator);
+            }
+        } catch (FetchException e) {
+            if (cursor != null) {
+                try {
+                    cursor.close();
+                } catch (Exception e2) {
+                    // Don't care.
+                }
+            }
+            throw e;
+        }
+
+        return new TransformedCursor<S, S>(cursor) {
+            protected S transform(S key) throws FetchException {
+                return key.tryLoad() ? key : null;
+            }
+        };
+    }
+
+    /**
+     * Returns the combined identity filters of all intersected indexes.
+     */
+    public Filter<S> getFilter() {
+        Filter<S> filter = null;
+        for (Filter<S> identityFilter : mIdentityFilters) {
+            filter = filter == null ? identityFilter : filter.and(identityFilter);
+        }
+        return filter;
+    }
+
+    /**
+     * Returns the primary key ordering in which results are produced.
+     */
+    public OrderingList<S> getOrdering() {
+        return mKeyOrdering;
+    }
+
+    public boolean printPlan(Appendable app, int indentLevel, FilterValues<S> values)
+        throws IOException
+    {
+        indent(app, indentLevel);
+        if (mReverseOrder) {
+            app.append("reverse ");
+        }
+        app.append("index intersection: ");
+        app.append(getStorableType().getName());
+        newline(app);
+        for (int i=0; i<mIndexes.length; i++) {
+            indent(app, indentLevel);
+            app.append("...index: ");
+            mIndexes[i].appendTo(app);
+            newline(app);
+            indent(app, indentLevel);
+            app.append("...identity filter: ");
+            mIdentityFilters[i].appendTo(app, values);
+            newline(app);
+        }
+        return true;
+    }
+
+    /**
+     * Converts index entries into master storables which only have their
+     * primary key properties set.
+     */
+    private class KeyCursor extends TransformedCursor<Storable, S> {
+        KeyCursor(Cursor<? extends Storable> indexEntryCursor) {
+            super((Cursor<Storable>) indexEntryCursor);
+        }
+
+        protected S transform(Storable indexEntry) {
+            S key = mMasterStorage.prepare();
+            for (String name : mKeyNames) {
+                key.setPropertyValue(name, indexEntry.getPropertyValue(name));
+            }
+            return key;
+        }
+    }
+}
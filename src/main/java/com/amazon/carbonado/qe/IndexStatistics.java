@@ -0,0 +1,403 @@
+/*
+ * Copyright 2006-2012 Amazon Technologies, Inc. or its affiliates.
+ * Amazon, Amazon.com and Carbonado are trademarks or registered trademarks
+ * of Amazon Technologies, Inc. or its affiliates.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.carbonado.qe;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import com.amazon.carbonado.Cursor;
+import com.amazon.carbonado.FetchException;
+import com.amazon.carbonado.FetchInterruptedException;
+import com.amazon.carbonado.Query;
+import com.amazon.carbonado.Storable;
+import com.amazon.carbonado.Storage;
+
+import com.amazon.carbonado.filter.PropertyFilter;
+
+import com.amazon.carbonado.info.Direction;
+import com.amazon.carbonado.info.StorableIndex;
+
+import com.amazon.carbonado.util.Throttle;
+
+/**
+ * Immutable statistics for one index, used by {@link IndexedQueryAnalyzer} to
+ * estimate how many rows a candidate index scan examines. Statistics consist
+ * of a row count, the number of distinct values for each leading key prefix,
+ * and an equi-depth histogram of the leading key property, if it is numeric.
+ *
+ * <p>Query plans are cached independently of the values bound to query
+ * parameters, and so identity matches are estimated from distinct counts
+ * alone. The histogram is only consulted for range filters against constant
+ * values.
+ *
+ * @see StatisticsAccess
+ */
+public class IndexStatistics<S extends Storable> {
+    /** Default maximum number of leading key values sampled for the histogram. */
+    public static final int DEFAULT_MAX_SAMPLES = 10000;
+
+    private static final int HISTOGRAM_BUCKETS = 32;
+
+    // Selectivity assumed for each side of a range which cannot be estimated.
+    private static final double RANGE_SELECTIVITY = 1.0 / 3;
+
+    private static final int THROTTLE_WINDOW = 100;
+    private static final int THROTTLE_SLEEP_PRECISION = 10;
+
+    /**
+     * Collects statistics by scanning all the entries of an index, in index
+     * order.
+     *
+     * @param access access to the storage which supports the index
+     * @param index index to scan
+     * @param maxSamples maximum number of leading key values to sample for
+     * the histogram; pass zero to skip the histogram
+     * @param desiredSpeed 1.0 = perform work at full speed,
+     * 0.5 = perform work at half speed, 0.0 = fully suspend work
+     */
+    public static <S extends Storable> IndexStatistics<S> collect(StorageAccess<S> access,
+                                                                  StorableIndex<S> index,
+                                                                  int maxSamples,
+                                                                  double desiredSpeed)
+        throws FetchException
+    {
+        int propCount = index.getPropertyCount();
+        String[] names = new String[propCount];
+        String[] orderBy = new String[propCount];
+        for (int i=0; i<propCount; i++) {
+            names[i] = index.getProperty(i).getName();
+            Direction dir = index.getPropertyDirection(i);
+            orderBy[i] = dir == Direction.UNSPECIFIED ? names[i] : (dir.toCharacter() + names[i]);
+        }
+
+        Cursor<? extends Storable> cursor;
+        {
+            Query<?> query;
+            Storage<S> delegate = access.storageDelegate(index);
+            if (delegate != null) {
+                query = delegate.query();
+            } else {
+                query = access.indexEntryQuery(index);
+            }
+            if (query != null) {
+                cursor = query.orderBy(orderBy).fetch();
+            } else {
+                cursor = access.fetchSubset(index, null,
+                                            BoundaryType.OPEN, null,
+                                            BoundaryType.OPEN, null,
+                                            false, false);
+            }
+        }
+
+        Throttle throttle = desiredSpeed < 1.0 ? new Throttle(THROTTLE_WINDOW) : null;
+
+        long rowCount = 0;
+        long[] distinctCounts = new long[propCount];
+        Object[] previous = new Object[propCount];
+
+        double[] samples = maxSamples > 0 ? new double[maxSamples] : null;
+        int sampleCount = 0;
+        long numericCount = 0;
+        // Fixed seed, for repeatable statistics over the same data.
+        Random rnd = new Random(index.hashCode());
+
+        try {
+            while (cursor.hasNext()) {
+                Storable row = cursor.next();
+
+                // Find the first property which differs from the previous row.
+                // Every prefix which includes it is a new distinct value.
+                int diff = 0;
+                if (rowCount > 0) {
+                    while (diff < propCount &&
+                           equal(previous[diff], row.getPropertyValue(names[diff])))
+                    {
+                        diff++;
+                    }
+                }
+                for (int i=diff; i<propCount; i++) {
+                    previous[i] = row.getPropertyValue(names[i]);
+                    distinctCounts[i]++;
+                }
+
+                rowCount++;
+
+                if (samples != null && previous[0] instanceof Number) {
+                    double value = ((Number) previous[0]).doubleValue();
+                    // Reservoir sampling, which retains a uniform sample.
+                    if (sampleCount < samples.length) {
+                        samples[sampleCount++] = value;
+                    } else {
+                        long slot = (long) (rnd.nextDouble() * (numericCount + 1));
+                        if (slot < samples.length) {
+                            samples[(int) slot] = value;
+                        }
+                    }
+                    numericCount++;
+                }
+
+                if (throttle != null && (rowCount % THROTTLE_WINDOW) == 0) {
+                    try {
+                        throttle.throttle(desiredSpeed, THROTTLE_SLEEP_PRECISION);
+                    } catch (InterruptedException e) {
+                        throw new FetchInterruptedException(e);
+                    }
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+
+        double[] histogram = null;
+        if (sampleCount > 0) {
+            Arrays.sort(samples, 0, sampleCount);
+            int buckets = Math.min(HISTOGRAM_BUCKETS, sampleCount);
+            histogram = new double[buckets + 1];
+            for (int i=0; i<=buckets; i++) {
+                histogram[i] = samples[(int) ((long) i * (sampleCount - 1) / buckets)];
+            }
+        }
+
+        return new IndexStatistics<S>(index, rowCount, distinctCounts, histogram,
+                                      System.currentTimeMillis());
+    }
+
+    private static boolean equal(Object a, Object b) {
+        if (a == b) {
+            return true;
+        }
+        if (a == null || b == null) {
+            return false;
+        }
+        if (a instanceof byte[] && b instanceof byte[]) {
+            return Arrays.equals((byte[]) a, (byte[]) b);
+        }
+        return a.equals(b);
+    }
+
+    private final StorableIndex<S> mIndex;
+    private final long mRowCount;
+    private final long[] mDistinctCounts;
+    private final double[] mHistogram;
+    private final long mTimestamp;
+
+    /**
+     * @param index index which statistics apply to
+     * @param rowCount total number of index entries
+     * @param distinctCounts number of distinct values for each key prefix;
+     * element zero is for the leading property alone
+     * @param histogram optional equi-depth histogram boundaries of the leading
+     * property, in ascending order
+     * @param timestamp milliseconds from 1970-01-01T00:00:00Z when collected
+     * @throws IllegalArgumentException if index or distinctCounts is null, or
+     * if the amount of distinct counts doesn't match the index
+     */
+    public IndexStatistics(StorableIndex<S> index, long rowCount, long[] distinctCounts,
+                           double[] histogram, long timestamp)
+    {
+        if (index == null || distinctCounts == null) {
+            throw new IllegalArgumentException();
+        }
+        if (distinctCounts.length != index.getPropertyCount()) {
+            throw new IllegalArgumentException
+                ("Distinct count mismatch: " + distinctCounts.length + " != " +
+                 index.getPropertyCount());
+        }
+        if (histogram != null && histogram.length < 2) {
+            histogram = null;
+        }
+        mIndex = index;
+        mRowCount = rowCount;
+        mDistinctCounts = distinctCounts.clone();
+        mHistogram = histogram == null ? null : histogram.clone();
+        mTimestamp = timestamp;
+    }
+
+    public StorableIndex<S> getIndex() {
+        return mIndex;
+    }
+
+    /**
+     * Returns the total number of index entries.
+     */
+    public long getRowCount() {
+        return mRowCount;
+    }
+
+    /**
+     * Returns the number of distinct values for the first {@code prefixLength}
+     * properties of the index.
+     *
+     * @throws IllegalArgumentException if prefix length is out of bounds
+     */
+    public long getDistinctCount(int prefixLength) {
+        if (prefixLength < 1 || prefixLength > mDistinctCounts.length) {
+            throw new IllegalArgumentException("Prefix length: " + prefixLength);
+        }
+        return mDistinctCounts[prefixLength - 1];
+    }
+
+    /**
+     * Returns a copy of the distinct counts for each key prefix.
+     */
+    public long[] getDistinctCounts() {
+        return mDistinctCounts.clone();
+    }
+
+    /**
+     * Returns a copy of the histogram boundaries, or null if none.
+     */
+    public double[] getHistogram() {
+        return mHistogram == null ? null : mHistogram.clone();
+    }
+
+    /**
+     * Returns the milliseconds from 1970-01-01T00:00:00Z when these
+     * statistics were collected.
+     */
+    public long getTimestamp() {
+        return mTimestamp;
+    }
+
+    /**
+     * Estimates the number of index entries examined when the index is
+     * scanned as described by the given filtering score.
+     *
+     * @param score filtering score which was evaluated against this index
+     */
+    public double estimateRows(FilteringScore<S> score) {
+        double rows = mRowCount;
+        if (rows <= 0) {
+            return 0;
+        }
+
+        int identityCount = score.getIdentityCount();
+        if (identityCount > 0) {
+            long distinct = mDistinctCounts[Math.min(identityCount, mDistinctCounts.length) - 1];
+            rows /= Math.max(1, distinct);
+        }
+
+        if (score.hasRangeStart() || score.hasRangeEnd()) {
+            rows *= rangeSelectivity(score);
+        }
+
+        return rows;
+    }
+
+    private double rangeSelectivity(FilteringScore<S> score) {
+        List<PropertyFilter<S>> startFilters = score.getRangeStartFilters();
+        List<PropertyFilter<S>> endFilters = score.getRangeEndFilters();
+
+        double low = constantBound(startFilters, true);
+        double high = constantBound(endFilters, false);
+
+        if (score.getIdentityCount() == 0 && mHistogram != null) {
+            double fraction = 1.0;
+            if (startFilters.size() > 0) {
+                fraction = Double.isNaN(low) ? RANGE_SELECTIVITY : (1.0 - cumulative(low));
+            }
+            if (endFilters.size() > 0) {
+                if (Double.isNaN(high)) {
+                    fraction *= RANGE_SELECTIVITY;
+                } else if (Double.isNaN(low)) {
+                    fraction *= cumulative(high);
+                } else {
+                    fraction = Math.max(0, cumulative(high) - cumulative(low));
+                }
+            }
+            // Never estimate an empty range, since histogram is only a sample.
+            return Math.max(fraction, 1.0 / (mRowCount + 1));
+        }
+
+        double fraction = 1.0;
+        if (startFilters.size() > 0) {
+            fraction *= RANGE_SELECTIVITY;
+        }
+        if (endFilters.size() > 0) {
+            fraction *= RANGE_SELECTIVITY;
+        }
+        return fraction;
+    }
+
+    /**
+     * Returns the tightest constant numeric bound, or NaN if any filter isn't
+     * a constant number.
+     */
+    private static <S extends Storable> double constantBound(List<PropertyFilter<S>> filters,
+                                                             boolean start)
+    {
+        double bound = Double.NaN;
+        for (PropertyFilter<S> filter : filters) {
+            if (!filter.isConstant() || !(filter.constant() instanceof Number)) {
+                return Double.NaN;
+            }
+            double value = ((Number) filter.constant()).doubleValue();
+            if (Double.isNaN(bound) || (start ? value > bound : value < bound)) {
+                bound = value;
+            }
+        }
+        return bound;
+    }
+
+    /**
+     * Returns the estimated fraction of leading values which are less than or
+     * equal to the given value.
+     */
+    private double cumulative(double value) {
+        double[] histogram = mHistogram;
+        int last = histogram.length - 1;
+        if (value < histogram[0]) {
+            return 0;
+        }
+        if (value >= histogram[last]) {
+            return 1.0;
+        }
+        int pos = Arrays.binarySearch(histogram, value);
+        if (pos >= 0) {
+            // Move past duplicate boundaries.
+            while (pos < last && histogram[pos + 1] == value) {
+                pos++;
+            }
+            return (double) pos / last;
+        }
+        pos = ~pos - 1;
+        double low = histogram[pos];
+        double high = histogram[pos + 1];
+        double within = high > low ? (value - low) / (high - low) : 0;
+        return (pos + within) / last;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder b = new StringBuilder();
+        b.append("IndexStatistics {index=");
+        b.append(mIndex);
+        b.append(", rowCount=");
+        b.append(mRowCount);
+        b.append(", distinctCounts=");
+        b.append(Arrays.toString(mDistinctCounts));
+        if (mHistogram != null) {
+            b.append(", histogramBuckets=");
+            b.append(mHistogram.length - 1);
+        }
+        b.append('}');
+        return b.toString();
+    }
+}
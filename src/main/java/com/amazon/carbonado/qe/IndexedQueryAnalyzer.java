@@ -23,8 +23,10 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import com.amazon.carbonado.FetchException;
 import com.amazon.carbonado.RepositoryException;
@@ -39,6 +41,7 @@ import com.amazon.carbonado.filter.RelOp;
 import com.amazon.carbonado.info.ChainedProperty;
 import com.amazon.carbonado.info.OrderedProperty;
 import com.amazon.carbonado.info.StorableIndex;
+import com.amazon.carbonado.info.StorableIntrospector;
 import com.amazon.carbonado.info.StorableProperty;
 
 /**
@@ -50,10 +53,27 @@ import com.amazon.carbonado.info.StorableProperty;
  * particular Storable type can be cached, avoiding repeated construction
  * cost. In addition, the analyzer caches learned foreign indexes.
  *
+ * <p>Indexes are normally selected by rules. If the storage also implements
+ * {@link StatisticsAccess} and statistics are available for all of its
+ * indexes, local indexes are instead selected by estimated cost, with the
+ * rules only breaking ties.
+ *
+ * <p>When several local indexes each match different properties of the
+ * filter by identity, and their entries are ordered by primary key, the
+ * entries of those indexes may be intersected before any master records are
+ * loaded. Intersection is only selected when index statistics estimate it to
+ * cost less than the best single index.
+ *
  * @author Brian S O'Neill
  * @see UnionQueryAnalyzer
  */
 public class IndexedQueryAnalyzer<S extends Storable> {
+    // Relative cost of loading a master record for a non-clustered index entry.
+    private static final double MASTER_LOAD_COST = 2.0;
+
+    // Relative cost per comparison when sorting the remainder ordering.
+    private static final double SORT_COST = 0.1;
+
     final Class<S> mType;
     final RepositoryAccess mRepoAccess;
 
@@ -94,22 +114,49 @@ public class IndexedQueryAnalyzer<S extends Storable> {
         // First find best local index.
         CompositeScore<S> bestLocalScore = null;
         StorableIndex<S> bestLocalIndex = null;
+        List<StorableIndex<S>> intersection = null;
 
         final Comparator<CompositeScore<?>> fullComparator = CompositeScore.fullComparator(hints);
 
         Collection<StorableIndex<S>> localIndexes = indexesFor(getStorableType());
         if (localIndexes != null) {
+            StatisticsAccess<S> stats = statisticsFor(localIndexes, hints);
+            double bestLocalCost = 0;
+
             for (StorableIndex<S> index : localIndexes) {
                 CompositeScore<S> candidateScore =
                     CompositeScore.evaluate(index, filter, ordering);
 
+                if (stats == null) {
+                    if (bestLocalScore == null
+                        || fullComparator.compare(candidateScore, bestLocalScore) < 0)
+                    {
+                        bestLocalScore = candidateScore;
+                        bestLocalIndex = index;
+                    }
+                    continue;
+                }
+
+                double candidateCost = estimateCost(stats.getIndexStatistics(index),
+                                                    candidateScore);
+
                 if (bestLocalScore == null
-                    || fullComparator.compare(candidateScore, bestLocalScore) < 0)
+                    || candidateCost < bestLocalCost
+                    || (candidateCost == bestLocalCost
+                        && fullComparator.compare(candidateScore, bestLocalScore) < 0))
                 {
                     bestLocalScore = candidateScore;
                     bestLocalIndex = index;
+                    bestLocalCost = candidateCost;
                 }
             }
+
+            if (stats != null && bestLocalScore != null
+                && !bestLocalScore.getFilteringScore().isKeyMatch())
+            {
+                intersection = findIntersection(localIndexes, filter, ordering, fullComparator,
+                                                stats, bestLocalScore, bestLocalCost);
+            }
         }
 
         // Now try to find best foreign index.
@@ -175,6 +222,14 @@ public class IndexedQueryAnalyzer<S extends Storable> {
         CompositeScore bestScore;
 
         if (bestLocalScore != null) {
+            if (intersection != null) {
+                // Intersected indexes are chosen by the first one, which
+                // defines the handled filter and ordering.
+                StorableIndex<S> first = intersection.get(0);
+                return new Result(filter, CompositeScore.evaluate(first, filter, ordering),
+                                  first, null, null, hints,
+                                  intersection.subList(1, intersection.size()));
+            }
             bestScore = bestLocalScore;
             bestForeignIndex = null;
             bestForeignProperty = null;
@@ -187,6 +242,166 @@ public class IndexedQueryAnalyzer<S extends Storable> {
             (filter, bestScore, bestLocalIndex, bestForeignIndex, bestForeignProperty, hints);
     }
 
+    /**
+     * Returns statistics access if cost-based index selection can be used
+     * for all the given indexes, or null if rules must be used instead.
+     */
+    private StatisticsAccess<S> statisticsFor(Collection<StorableIndex<S>> indexes,
+                                              QueryHints hints)
+        throws SupportException, RepositoryException
+    {
+        if (CompositeScore.favorsOrdering(hints)) {
+            // Ordering matters more than the amount of rows examined, and the
+            // rules already account for it.
+            return null;
+        }
+
+        StorageAccess<S> access = mRepoAccess.storageAccessFor(getStorableType());
+        if (!(access instanceof StatisticsAccess)) {
+            return null;
+        }
+
+        StatisticsAccess<S> stats = (StatisticsAccess<S>) access;
+        for (StorableIndex<S> index : indexes) {
+            if (stats.getIndexStatistics(index) == null) {
+                // Estimates for only some of the indexes cannot be compared.
+                return null;
+            }
+        }
+
+        return stats;
+    }
+
+    /**
+     * Returns the estimated cost of executing a query with the given index, in
+     * units of index entries examined.
+     */
+    private static <S extends Storable> double estimateCost(IndexStatistics<S> stats,
+                                                            CompositeScore<S> score)
+    {
+        double rows = stats.estimateRows(score.getFilteringScore());
+        return estimateCost(rows, rows, score);
+    }
+
+    /**
+     * @param rows amount of index entries examined
+     * @param loads amount of master records loaded
+     */
+    private static <S extends Storable> double estimateCost(double rows, double loads,
+                                                            CompositeScore<S> score)
+    {
+        double cost = rows;
+        if (!score.getFilteringScore().isIndexClustered()) {
+            cost += loads * MASTER_LOAD_COST;
+        }
+        if (score.getOrderingScore().getRemainderCount() > 0) {
+            cost += loads * (Math.log(loads + 1) / Math.log(2)) * SORT_COST;
+        }
+        return cost;
+    }
+
+    /**
+     * Returns the local indexes whose entries should be intersected, the
+     * first of which defines the handled ordering. Returns null if
+     * intersection isn't possible or isn't expected to help.
+     *
+     * @param stats statistics for all indexes
+     * @param bestScore score of best single index
+     * @param bestCost estimated cost of best single index
+     */
+    private List<StorableIndex<S>> findIntersection(Collection<StorableIndex<S>> indexes,
+                                                    Filter<S> filter,
+                                                    OrderingList<S> ordering,
+                                                    Comparator<CompositeScore<?>> comparator,
+                                                    StatisticsAccess<S> stats,
+                                                    CompositeScore<S> bestScore,
+                                                    double bestCost)
+        throws SupportException, RepositoryException
+    {
+        if (filter == null || indexes.size() < 2) {
+            return null;
+        }
+
+        StorageAccess<S> access = mRepoAccess.storageAccessFor(getStorableType());
+        if (!(access instanceof Storage)) {
+            // Master records cannot be loaded by key.
+            return null;
+        }
+
+        Set<String> keyNames = StorableIntrospector.examine(getStorableType())
+            .getPrimaryKeyProperties().keySet();
+
+        List<Candidate<S>> candidates = new ArrayList<Candidate<S>>();
+        for (StorableIndex<S> index : indexes) {
+            CompositeScore<S> score = CompositeScore.evaluate(index, filter, ordering);
+            OrderingList<S> keyOrdering = IndexIntersectionQueryExecutor.keyOrdering
+                (access, index, score.getFilteringScore().getIdentityCount(), keyNames);
+            if (keyOrdering != null) {
+                candidates.add(new Candidate<S>(index, score, keyOrdering));
+            }
+        }
+
+        if (candidates.size() < 2) {
+            return null;
+        }
+
+        // Prefer indexes with more identity matches, then by usual rules.
+        final Comparator<CompositeScore<?>> fComparator = comparator;
+        Collections.sort(candidates, new Comparator<Candidate<S>>() {
+            public int compare(Candidate<S> a, Candidate<S> b) {
+                int aCount = a.mScore.getFilteringScore().getIdentityCount();
+                int bCount = b.mScore.getFilteringScore().getIdentityCount();
+                if (aCount != bCount) {
+                    return aCount > bCount ? -1 : 1;
+                }
+                return fComparator.compare(a.mScore, b.mScore);
+            }
+        });
+
+        // Greedily select indexes which match more properties by identity.
+        List<Candidate<S>> selected = new ArrayList<Candidate<S>>();
+        Set<ChainedProperty<S>> covered = new HashSet<ChainedProperty<S>>();
+        for (Candidate<S> candidate : candidates) {
+            if (selected.size() > 0
+                && !selected.get(0).mKeyOrdering.equals(candidate.mKeyOrdering))
+            {
+                continue;
+            }
+            boolean adds = false;
+            for (PropertyFilter<S> p : candidate.mScore.getFilteringScore().getIdentityFilters()) {
+                adds |= covered.add(p.getChainedProperty());
+            }
+            if (adds) {
+                selected.add(candidate);
+            }
+        }
+
+        if (selected.size() < 2
+            || covered.size() <= bestScore.getFilteringScore().getIdentityCount())
+        {
+            return null;
+        }
+
+        double rowCount = stats.getIndexStatistics(selected.get(0).mIndex).getRowCount();
+        double rows = 0;
+        double fraction = 1.0;
+        for (Candidate<S> candidate : selected) {
+            double candidateRows = stats.getIndexStatistics(candidate.mIndex)
+                .estimateRows(candidate.mScore.getFilteringScore());
+            rows += candidateRows;
+            fraction *= rowCount <= 0 ? 0 : (candidateRows / rowCount);
+        }
+        if (estimateCost(rows, rowCount * fraction, selected.get(0).mScore) >= bestCost) {
+            return null;
+        }
+
+        List<StorableIndex<S>> intersection = new ArrayList<StorableIndex<S>>(selected.size());
+        for (Candidate<S> candidate : selected) {
+            intersection.add(candidate.mIndex);
+        }
+        return intersection;
+    }
+
     /**
      * @return null if no foreign indexes for property
      */
@@ -245,7 +460,7 @@ public class IndexedQueryAnalyzer<S extends Storable> {
 
     /**
      * Checks if the property is a join and its internal properties are fully
-     * indexed.
+     * indexed, or if it can be joined with a hash table instead.
      */
     private boolean isProperJoin(StorableProperty<?> property)
         throws SupportException, RepositoryException
@@ -275,7 +490,7 @@ public class IndexedQueryAnalyzer<S extends Storable> {
             }
         }
 
-        return false;
+        return JoinedQueryExecutor.canHashJoin(property);
     }
 
     private <T extends Storable> Collection<StorableIndex<T>> indexesFor(Class<T> type)
@@ -292,6 +507,7 @@ public class IndexedQueryAnalyzer<S extends Storable> {
         private final StorableIndex<?> mForeignIndex;
         private final ChainedProperty<S> mForeignProperty;
         private final QueryHints mHints;
+        private final List<StorableIndex<S>> mIntersectedIndexes;
 
         Result(Filter<S> filter,
                CompositeScore<S> score,
@@ -299,6 +515,17 @@ public class IndexedQueryAnalyzer<S extends Storable> {
                StorableIndex<?> foreignIndex,
                ChainedProperty<S> foreignProperty,
                QueryHints hints)
+        {
+            this(filter, score, localIndex, foreignIndex, foreignProperty, hints, null);
+        }
+
+        Result(Filter<S> filter,
+               CompositeScore<S> score,
+               StorableIndex<S> localIndex,
+               StorableIndex<?> foreignIndex,
+               ChainedProperty<S> foreignProperty,
+               QueryHints hints,
+               List<StorableIndex<S>> intersectedIndexes)
         {
             mFilter = filter;
             mScore = score;
@@ -306,6 +533,12 @@ public class IndexedQueryAnalyzer<S extends Storable> {
             mForeignIndex = foreignIndex;
             mForeignProperty = foreignProperty;
             mHints = hints;
+            if (intersectedIndexes == null || intersectedIndexes.size() == 0) {
+                mIntersectedIndexes = null;
+            } else {
+                mIntersectedIndexes = Collections.unmodifiableList
+                    (new ArrayList<StorableIndex<S>>(intersectedIndexes));
+            }
         }
 
         /**
@@ -362,6 +595,17 @@ public class IndexedQueryAnalyzer<S extends Storable> {
             return mLocalIndex;
         }
 
+        /**
+         * Returns the additional local indexes whose entries are intersected
+         * with those of the selected local index, or an empty list if none.
+         */
+        public List<StorableIndex<S>> getIntersectedIndexes() {
+            if (mIntersectedIndexes == null) {
+                return Collections.emptyList();
+            }
+            return mIntersectedIndexes;
+        }
+
         /**
          * Returns the foreign index that was selected, or null if a local
          * index was selected. If a foreign index has been selected, then a
@@ -400,6 +644,11 @@ public class IndexedQueryAnalyzer<S extends Storable> {
                 return true;
             }
 
+            if (mIntersectedIndexes != null || other.mIntersectedIndexes != null) {
+                // Intersection relies on the remainder filter.
+                return false;
+            }
+
             if (equals(getLocalIndex(), other.getLocalIndex())
                 && equals(getForeignIndex(), other.getForeignIndex())
                 && equals(getForeignProperty(), other.getForeignProperty()))
@@ -471,7 +720,8 @@ public class IndexedQueryAnalyzer<S extends Storable> {
         }
 
         /**
-         * Returns a new result with the remainder filter replaced.
+         * Returns a new result with the remainder filter replaced. Any index
+         * intersection is discarded, since it relies on the remainder filter.
          */
         public Result withRemainderFilter(Filter<S> remainderFilter) {
             Filter<S> handledFilter = getCompositeScore().getFilteringScore().getHandledFilter();
@@ -489,7 +739,7 @@ public class IndexedQueryAnalyzer<S extends Storable> {
         public Result withRemainderOrdering(OrderingList<S> remainderOrdering) {
             CompositeScore<S> score = mScore.withRemainderOrdering(remainderOrdering);
             return new Result(mFilter, score, mLocalIndex,
-                              mForeignIndex, mForeignProperty, mHints);
+                              mForeignIndex, mForeignProperty, mHints, mIntersectedIndexes);
         }
 
         /**
@@ -520,7 +770,18 @@ public class IndexedQueryAnalyzer<S extends Storable> {
             } else {
                 CompositeScore<S> score = getCompositeScore();
                 FilteringScore<S> fScore = score.getFilteringScore();
-                if (fScore.isKeyMatch()) {
+                if (mIntersectedIndexes != null) {
+                    List<StorableIndex<S>> indexes =
+                        new ArrayList<StorableIndex<S>>(mIntersectedIndexes.size() + 1);
+                    indexes.add(localIndex);
+                    indexes.addAll(mIntersectedIndexes);
+                    executor = new IndexIntersectionQueryExecutor<S>
+                        (localAccess, (Storage<S>) localAccess, indexes, getFilter(),
+                         score.getOrderingScore().shouldReverseOrder());
+                    // Index entries aren't checked for consistency with master
+                    // records, so apply the complete filter.
+                    remainderFilter = getFilter();
+                } else if (fScore.isKeyMatch()) {
                     executor = new KeyQueryExecutor<S>(localAccess, localIndex, fScore);
                 } else {
                     IndexedQueryExecutor ixExecutor =
@@ -533,7 +794,10 @@ public class IndexedQueryAnalyzer<S extends Storable> {
             }
 
             if (remainderFilter != null) {
-                executor = new FilteredQueryExecutor<S>(executor, remainderFilter);
+                // Only filter in parallel when scanning.
+                boolean parallel = !(executor instanceof KeyQueryExecutor)
+                    && FilteredQueryExecutor.isParallelRequested(mHints);
+                executor = new FilteredQueryExecutor<S>(executor, remainderFilter, parallel);
             }
 
             OrderingList<S> remainderOrdering = getRemainderOrdering();
@@ -552,7 +816,8 @@ public class IndexedQueryAnalyzer<S extends Storable> {
         public String toString() {
             return "IndexedQueryAnalyzer.Result {score="
                 + getCompositeScore() + ", localIndex="
-                + getLocalIndex() + ", foreignIndex="
+                + getLocalIndex() + ", intersectedIndexes="
+                + getIntersectedIndexes() + ", foreignIndex="
                 + getForeignIndex() + ", foreignProperty="
                 + getForeignProperty() + ", remainderFilter="
                 + getRemainderFilter() + ", remainderOrdering="
@@ -564,6 +829,18 @@ public class IndexedQueryAnalyzer<S extends Storable> {
         }
     }
 
+    private static class Candidate<S extends Storable> {
+        final StorableIndex<S> mIndex;
+        final CompositeScore<S> mScore;
+        final OrderingList<S> mKeyOrdering;
+
+        Candidate(StorableIndex<S> index, CompositeScore<S> score, OrderingList<S> keyOrdering) {
+            mIndex = index;
+            mScore = score;
+            mKeyOrdering = keyOrdering;
+        }
+    }
+
     private static class ForeignIndexes<S extends Storable> {
         final ChainedProperty<S> mProperty;
 
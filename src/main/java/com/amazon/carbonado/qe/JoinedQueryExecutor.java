@@ -20,7 +20,10 @@ package com.amazon.carbonado.qe;
 
 import java.io.IOException;
 
+import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
@@ -32,19 +35,26 @@ import org.cojen.classfile.Modifiers;
 import org.cojen.classfile.TypeDesc;
 
 import org.cojen.util.ClassInjector;
+import org.cojen.util.KeyFactory;
 
 import com.amazon.carbonado.Cursor;
 import com.amazon.carbonado.FetchException;
 import com.amazon.carbonado.RepositoryException;
 import com.amazon.carbonado.Query;
 import com.amazon.carbonado.Storable;
+import com.amazon.carbonado.cursor.AbstractCursor;
+import com.amazon.carbonado.cursor.EmptyCursor;
+import com.amazon.carbonado.cursor.FilteredCursor;
+import com.amazon.carbonado.cursor.IteratorCursor;
 import com.amazon.carbonado.cursor.MultiTransformedCursor;
+import com.amazon.carbonado.cursor.SortedCursor;
 
 import com.amazon.carbonado.filter.Filter;
 import com.amazon.carbonado.filter.FilterValues;
 import com.amazon.carbonado.filter.RelOp;
 
 import com.amazon.carbonado.info.ChainedProperty;
+import com.amazon.carbonado.info.Direction;
 import com.amazon.carbonado.info.OrderedProperty;
 import com.amazon.carbonado.info.StorableIndex;
 import com.amazon.carbonado.info.StorableInfo;
@@ -62,6 +72,18 @@ import com.amazon.carbonado.gen.CodeBuilderUtil;
  * fetch (outer loop), but the target executor is called once per source result
  * (inner loop).
  *
+ * <p>If no index on the target type can be used to find the inner loop matches
+ * by the join properties, each inner loop fetch would be a full scan. Instead,
+ * the target is scanned once per fetch into an in-memory hash table, keyed by
+ * the join properties, which is then probed by each source result. The
+ * maximum number of target instances held by the hash table is set by the
+ * "com.amazon.carbonado.qe.JoinedQueryExecutor.hashJoinMaxRows" system
+ * property, defaulting to 1000000. If the limit is exceeded, the hash table is
+ * discarded and the target is instead filtered by a single scan, which is
+ * sorted with the storage's sort buffer when an ordering must be
+ * preserved. Setting the limit to zero disables hash joins, and then joins
+ * without inner loop indexes are not planned at all.
+ *
  * @author Brian S O'Neill
  * @param <S> source type
  * @param <T> target type
@@ -165,6 +187,8 @@ public class JoinedQueryExecutor<S extends Storable, T extends Storable>
                 .executor(tailFilter, expectedOrdering, hints);
         }
 
+        final OrderingList<T> requestedOrdering = targetOrdering;
+
         if (targetOrdering.size() > 0) {
             // If outer loop handles some of the ordering, then it can be
             // removed from the target ordering. This simplifies or eliminates
@@ -186,9 +210,64 @@ public class JoinedQueryExecutor<S extends Storable, T extends Storable>
                                                     primeTarget,
                                                     targetFilter,
                                                     targetOrdering,
+                                                    requestedOrdering,
                                                     targetAccess);
     }
 
+    private static final int cHashJoinMaxRows;
+
+    static {
+        cHashJoinMaxRows = Integer.getInteger
+            (JoinedQueryExecutor.class.getName() + ".hashJoinMaxRows", 1000000);
+    }
+
+    /**
+     * Returns true if any target index can be used to find the inner loop
+     * matches by the join properties.
+     */
+    private static <T extends Storable> boolean
+        hasJoinIndex(StorageAccess<T> access, StorableProperty<T> targetToSourceProperty)
+    {
+        Filter<T> joinFilter = Filter.getOpenFilter(access.getStorableType());
+        int count = targetToSourceProperty.getJoinElementCount();
+        for (int i=0; i<count; i++) {
+            joinFilter = joinFilter
+                .and(targetToSourceProperty.getInternalJoinElement(i).getName(), RelOp.EQ);
+        }
+        joinFilter = joinFilter.bind();
+
+        for (StorableIndex<T> index : access.getAllIndexes()) {
+            if (FilteringScore.evaluate(index, joinFilter).getIdentityCount() > 0) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Returns true if the join can be performed with a hash table when the
+     * inner loop has no usable index. The internal and external join
+     * properties must have the same object types, and so hash table keys can
+     * be compared without conversion.
+     */
+    static boolean canHashJoin(StorableProperty<?> targetToSourceProperty) {
+        if (cHashJoinMaxRows <= 0) {
+            return false;
+        }
+        int count = targetToSourceProperty.getJoinElementCount();
+        for (int i=0; i<count; i++) {
+            TypeDesc internal = TypeDesc.forClass
+                (targetToSourceProperty.getInternalJoinElement(i).getType());
+            TypeDesc external = TypeDesc.forClass
+                (targetToSourceProperty.getExternalJoinElement(i).getType());
+            if (internal.toObjectType() != external.toObjectType()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     private static final String INNER_LOOP_EX_FIELD_NAME = "innerLoopExecutor";
     private static final String INNER_LOOP_FV_FIELD_NAME = "innerLoopFilterValues";
     private static final String INNER_LOOP_CONTROLLER_FIELD_NAME = "innerLoopController";
@@ -471,6 +550,12 @@ public class JoinedQueryExecutor<S extends Storable, T extends Storable>
 
     private final Joiner.Factory<S, T> mJoinerFactory;
 
+    // Only set when a hash join is performed instead of a nested loop.
+    private final QueryExecutor<T> mHashTableExecutor;
+    private final FilterValues<T> mHashTableFilterValues;
+    private final StorageAccess<T> mTargetAccess;
+    private final OrderingList<T> mScanOrdering;
+
     /**
      * @param outerLoopExecutor executor for <i>source</i> instances
      * @param innerLoopExecutorFactory used to construct inner loop executor
@@ -479,6 +564,8 @@ public class JoinedQueryExecutor<S extends Storable, T extends Storable>
      * @param targetFilter optional initial filter for fetching <i>target</i> instances
      * @param targetOrdering optional desired ordering to apply to
      * <i>target</i> executor
+     * @param requestedOrdering ordering requested of this executor, which
+     * resolves unspecified directions provided by the outer loop
      * @param targetAccess used with target ordering to determine actual
      * ordering which an index provides for free
      * @throws IllegalArgumentException if any parameter is null or if join
@@ -490,6 +577,7 @@ public class JoinedQueryExecutor<S extends Storable, T extends Storable>
                                 StorableProperty<T> targetToSourceProperty,
                                 Filter<T> targetFilter,
                                 OrderingList<T> targetOrdering,
+                                OrderingList<T> requestedOrdering,
                                 StorageAccess<T> targetAccess)
         throws RepositoryException
     {
@@ -557,6 +645,26 @@ public class JoinedQueryExecutor<S extends Storable, T extends Storable>
         mInnerLoopExecutor = innerLoopExecutorFactory
             .executor(innerLoopExecutorFilter, targetOrdering, null);
 
+        // Hash join isn't worth it when the outer loop matches at most one
+        // record, since the inner loop is then fetched only once anyhow.
+        if (!(outerLoopExecutor instanceof KeyQueryExecutor)
+            && canHashJoin(targetToSourceProperty)
+            && !hasJoinIndex(targetAccess, targetToSourceProperty))
+        {
+            // Each source instance gets its matches in the order that the
+            // hash table executor produced them, and so it must apply the
+            // same ordering as the inner loop would have.
+            mHashTableExecutor = innerLoopExecutorFactory
+                .executor(targetFilter, targetOrdering, null);
+            mHashTableFilterValues =
+                targetFilter == null ? null : targetFilter.initialFilterValues();
+            mTargetAccess = targetAccess;
+        } else {
+            mHashTableExecutor = null;
+            mHashTableFilterValues = null;
+            mTargetAccess = null;
+        }
+
         Filter<T> filter = outerLoopExecutor.getFilter()
             .asJoinedFrom(ChainedProperty.get(targetToSourceProperty));
 
@@ -578,6 +686,24 @@ public class JoinedQueryExecutor<S extends Storable, T extends Storable>
 
         mCombinedOrdering = ordering;
 
+        if (mHashTableExecutor != null && ordering.size() > 0) {
+            // If the hash table is too large, the single scan must be sorted
+            // in the same direction that the outer loop would have produced.
+            for (int i=0; i<ordering.size(); i++) {
+                OrderedProperty<T> prop = ordering.get(i);
+                if (prop.getDirection() == Direction.UNSPECIFIED
+                    && requestedOrdering != null && i < requestedOrdering.size()
+                    && requestedOrdering.get(i).getChainedProperty()
+                       .equals(prop.getChainedProperty()))
+                {
+                    ordering = ordering.replace(i, requestedOrdering.get(i));
+                }
+            }
+            mScanOrdering = ordering;
+        } else {
+            mScanOrdering = null;
+        }
+
         mJoinerFactory = getJoinerFactory(targetToSourceProperty);
     }
 
@@ -602,10 +728,108 @@ public class JoinedQueryExecutor<S extends Storable, T extends Storable>
 
         Cursor<S> outerLoopCursor = mOuterLoopExecutor.fetch(transferValues(values), controller);
 
+        if (mHashTableExecutor != null) {
+            FilterValues<T> hashTableFilterValues = mHashTableFilterValues;
+            if (hashTableFilterValues != null) {
+                hashTableFilterValues = hashTableFilterValues
+                    .withValues(values.getValuesFor(mTargetFilter));
+            }
+
+            Cursor<T> targetCursor = null;
+            List<T> targets;
+            try {
+                if (!outerLoopCursor.hasNext()) {
+                    // Don't bother scanning the target.
+                    outerLoopCursor.close();
+                    return EmptyCursor.the();
+                }
+                targetCursor = mHashTableExecutor.fetch(hashTableFilterValues, controller);
+                targets = new ArrayList<T>();
+                while (targetCursor.hasNext()) {
+                    if (targets.size() >= cHashJoinMaxRows) {
+                        // Too large, so filter by a single scan instead,
+                        // which continues from the instances already read.
+                        outerLoopCursor.close();
+                        return scanTarget
+                            (values, new ResumedCursor<T>(targets, targetCursor), controller);
+                    }
+                    targets.add(targetCursor.next());
+                }
+                targetCursor.close();
+            } catch (FetchException e) {
+                try {
+                    outerLoopCursor.close();
+                    if (targetCursor != null) {
+                        targetCursor.close();
+                    }
+                } catch (Exception e2) {
+                    // Don't care.
+                }
+                throw e;
+            }
+
+            return new HashJoinCursor(outerLoopCursor, buildHashTable(targets));
+        }
+
         return mJoinerFactory.newJoinedCursor
             (outerLoopCursor, mInnerLoopExecutor, innerLoopFilterValues, controller);
     }
 
+    /**
+     * Groups the target instances by join key, preserving their order.
+     */
+    private Map<Object, List<T>> buildHashTable(List<T> targets) {
+        StorableProperty<T> joinProperty = mTargetToSourceProperty;
+        int count = joinProperty.getJoinElementCount();
+        String[] names = new String[count];
+        for (int i=0; i<count; i++) {
+            names[i] = joinProperty.getInternalJoinElement(i).getName();
+        }
+
+        Map<Object, List<T>> table = new HashMap<Object, List<T>>();
+
+        for (T target : targets) {
+            Object key = joinKey(target, names);
+            List<T> matches = table.get(key);
+            if (matches == null) {
+                matches = new ArrayList<T>(1);
+                table.put(key, matches);
+            }
+            matches.add(target);
+        }
+
+        return table;
+    }
+
+    /**
+     * @param cursor all target instances matched by the hash table executor
+     */
+    private Cursor<T> scanTarget(FilterValues<T> values, Cursor<T> cursor,
+                                 Query.Controller controller)
+    {
+        cursor = FilteredCursor.applyFilter(mCombinedFilter, values, cursor);
+        if (mScanOrdering != null) {
+            cursor = new SortedCursor<T>(cursor, mTargetAccess.createSortBuffer(controller),
+                                         null, SortedCursor.createComparator(mScanOrdering));
+        }
+        return cursor;
+    }
+
+    /**
+     * Returns a hash table key for the given join property values. Array
+     * values, such as byte[] keys, are compared by content.
+     */
+    private static Object joinKey(Storable storable, String[] names) {
+        if (names.length == 1) {
+            return KeyFactory.createKey(storable.getPropertyValue(names[0]));
+        }
+        Object[] key = new Object[names.length];
+        for (int i=0; i<names.length; i++) {
+            key[i] = storable.getPropertyValue(names[i]);
+        }
+        return KeyFactory.createKey(key);
+    }
+
     public Filter<T> getFilter() {
         return mCombinedFilter;
     }
@@ -622,10 +846,17 @@ public class JoinedQueryExecutor<S extends Storable, T extends Storable>
         app.append(mTargetToSourceProperty.getEnclosingType().getName());
         newline(app);
         indent(app, indentLevel);
-        app.append("...inner loop: ");
-        app.append(mTargetToSourceProperty.getName());
-        newline(app);
-        mInnerLoopExecutor.printPlan(app, increaseIndent(indentLevel), values);
+        if (mHashTableExecutor == null) {
+            app.append("...inner loop: ");
+            app.append(mTargetToSourceProperty.getName());
+            newline(app);
+            mInnerLoopExecutor.printPlan(app, increaseIndent(indentLevel), values);
+        } else {
+            app.append("...hash table: ");
+            app.append(mTargetToSourceProperty.getName());
+            newline(app);
+            mHashTableExecutor.printPlan(app, increaseIndent(indentLevel), values);
+        }
         indent(app, indentLevel);
         app.append("...outer loop");
         newline(app);
@@ -641,6 +872,88 @@ public class JoinedQueryExecutor<S extends Storable, T extends Storable>
             .withValues(values.getSuppliedValuesFor(mSourceFilterAsFromTarget));
     }
 
+    /**
+     * Probes the hash table with each source instance, producing copies of the
+     * matching target instances.
+     */
+    private class HashJoinCursor extends MultiTransformedCursor<S, T> {
+        private final Map<Object, List<T>> mTable;
+        private final String[] mExternalNames;
+        private final boolean mCanSetSourceReference;
+
+        HashJoinCursor(Cursor<S> outerLoopCursor, Map<Object, List<T>> table) {
+            super(outerLoopCursor);
+            mTable = table;
+            StorableProperty<T> joinProperty = mTargetToSourceProperty;
+            int count = joinProperty.getJoinElementCount();
+            mExternalNames = new String[count];
+            for (int i=0; i<count; i++) {
+                mExternalNames[i] = joinProperty.getExternalJoinElement(i).getName();
+            }
+            mCanSetSourceReference = joinProperty.getWriteMethod() != null
+                && joinProperty.getWriteMethod().getExceptionTypes().length == 0;
+        }
+
+        @Override
+        protected Cursor<T> transform(S source) {
+            List<T> matches = mTable.get(joinKey(source, mExternalNames));
+            if (matches == null) {
+                return null;
+            }
+            // Copy the matches, since a target can join to more than one source.
+            List<T> copies = new ArrayList<T>(matches.size());
+            for (T target : matches) {
+                T copy = (T) target.copy();
+                if (mCanSetSourceReference) {
+                    copy.setPropertyValue(mTargetToSourceProperty.getName(), source);
+                }
+                copies.add(copy);
+            }
+            return new IteratorCursor<T>(copies);
+        }
+    }
+
+    /**
+     * Produces instances which were already read from a cursor, followed by
+     * the rest of the cursor.
+     */
+    private static class ResumedCursor<T> extends AbstractCursor<T> {
+        private Iterator<T> mRead;
+        private final Cursor<T> mRest;
+
+        ResumedCursor(List<T> read, Cursor<T> rest) {
+            mRead = read.iterator();
+            mRest = rest;
+        }
+
+        public void close() throws FetchException {
+            mRead = null;
+            mRest.close();
+        }
+
+        public boolean hasNext() throws FetchException {
+            Iterator<T> read = mRead;
+            if (read != null) {
+                if (read.hasNext()) {
+                    return true;
+                }
+                mRead = null;
+            }
+            return mRest.hasNext();
+        }
+
+        public T next() throws FetchException {
+            Iterator<T> read = mRead;
+            if (read != null) {
+                if (read.hasNext()) {
+                    return read.next();
+                }
+                mRead = null;
+            }
+            return mRest.next();
+        }
+    }
+
     @SuppressWarnings("unused")
     private static interface Joiner {
         /**
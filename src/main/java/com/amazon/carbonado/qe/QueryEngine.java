@@ -35,7 +35,7 @@ public class QueryEngine<S extends Storable> extends StandardQueryFactory<S>
     implements QueryExecutorFactory<S>
 {
     final RepositoryAccess mRepoAccess;
-    final QueryExecutorFactory<S> mExecutorFactory;
+    final QueryExecutorCache<S> mExecutorFactory;
 
     public QueryEngine(Class<S> type, RepositoryAccess access) {
         super(type);
@@ -49,6 +49,35 @@ public class QueryEngine<S extends Storable> extends StandardQueryFactory<S>
         return mExecutorFactory.executor(filter, ordering, hints);
     }
 
+    /**
+     * Returns the cache of query executors, which provides usage counts.
+     */
+    public QueryExecutorCache<S> getExecutorCache() {
+        return mExecutorFactory;
+    }
+
+    /**
+     * Discards all cached query plans and then calls {@link
+     * StandardQuery#resetExecutor} for each cached query. This call can be used
+     * to rebuild all query plans after the set of available indexes or their
+     * statistics have changed.
+     */
+    @Override
+    public void resetExecutors() throws RepositoryException {
+        mExecutorFactory.clear();
+        super.resetExecutors();
+    }
+
+    /**
+     * Discards all cached query plans and then calls {@link
+     * StandardQuery#clearExecutor} for each cached query.
+     */
+    @Override
+    public void clearExecutors() {
+        mExecutorFactory.clear();
+        super.clearExecutors();
+    }
+
     @Override
     protected StandardQuery<S> createQuery(Filter<S> filter,
                                            FilterValues<S> values,
@@ -18,9 +18,15 @@
 
 package com.amazon.carbonado.qe;
 
-import java.util.LinkedHashMap;
+import java.util.Arrays;
 import java.util.Map;
 
+import java.util.concurrent.ConcurrentHashMap;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import java.util.concurrent.locks.ReentrantLock;
+
 import org.cojen.util.WeakIdentityMap;
 
 import com.amazon.carbonado.RepositoryException;
@@ -36,6 +42,15 @@ import com.amazon.carbonado.util.SoftValuedCache;
  * The minimum can be changed with the
  * "com.amazon.carbonado.qe.QueryExecutorCache.minCapacity" system property.
  *
+ * <p>Cached executors are found without locking, and without writing to any
+ * shared state in the common case. When the cache grows somewhat beyond the
+ * minimum capacity, the least recently used executors are evicted, although
+ * recency is only approximately tracked. Evicted executors may still be found
+ * in a secondary cache until they are garbage collected. A miss briefly
+ * acquires a lock shared by all filters of the Storable type, to find the
+ * secondary cache for the filter. Miss and eviction counts are available for
+ * tuning the minimum capacity.
+ *
  * @author Brian S O'Neill
  */
 public class QueryExecutorCache<S extends Storable> implements QueryExecutorFactory<S> {
@@ -57,7 +72,16 @@ public class QueryExecutorCache<S extends Storable> implements QueryExecutorFact
 
     private final QueryExecutorFactory<S> mFactory;
 
-    private final Map<Key<S>, QueryExecutor<S>> mPrimaryCache;
+    private final ConcurrentHashMap<Key<S>, Entry<S>> mPrimaryCache;
+
+    // Only one thread at a time evicts entries from the primary cache.
+    private final ReentrantLock mEvictionLock;
+
+    // Counts primary cache misses, and also serves as the access clock. The
+    // clock only advances when an executor is added, and so hits only need
+    // to record an access the first time an entry is seen after each miss.
+    private final AtomicLong mMissCount;
+    private final AtomicLong mEvictionCount;
 
     // Maps filters to maps which map ordering lists (possibly with hints) to executors.
     private final Map<Filter<S>, SoftValuedCache<Object, QueryExecutor<S>>> mFilterToExecutor;
@@ -68,12 +92,11 @@ public class QueryExecutorCache<S extends Storable> implements QueryExecutorFact
         }
         mFactory = factory;
 
-        mPrimaryCache = new LinkedHashMap<Key<S>, QueryExecutor<S>>(17, 0.75f, true) {
-            @Override
-            protected boolean removeEldestEntry(Map.Entry<Key<S>, QueryExecutor<S>> eldest) {
-                return size() > cMinCapacity;
-            }
-        };
+        mPrimaryCache = new ConcurrentHashMap<Key<S>, Entry<S>>(17);
+        mEvictionLock = new ReentrantLock();
+
+        mMissCount = new AtomicLong();
+        mEvictionCount = new AtomicLong();
 
         mFilterToExecutor = new WeakIdentityMap(7);
     }
@@ -94,13 +117,17 @@ public class QueryExecutorCache<S extends Storable> implements QueryExecutorFact
     {
         final Key<S> key = new Key<S>(filter, ordering, hints);
 
-        synchronized (mPrimaryCache) {
-            QueryExecutor<S> executor = mPrimaryCache.get(key);
-            if (executor != null) {
-                return executor;
+        Entry<S> entry = mPrimaryCache.get(key);
+        if (entry != null) {
+            long now = mMissCount.get();
+            if (entry.mLastAccess != now) {
+                entry.mLastAccess = now;
             }
+            return entry.mExecutor;
         }
 
+        final long now = mMissCount.incrementAndGet();
+
         // Fallback to second level cache, which may still have the executor because
         // garbage collection has not reclaimed it yet. It also allows some concurrent
         // executor creation, by using filter-specific locks.
@@ -132,13 +159,113 @@ public class QueryExecutorCache<S extends Storable> implements QueryExecutorFact
             }
         }
 
-        synchronized (mPrimaryCache) {
-            mPrimaryCache.put(key, executor);
+        if (cMinCapacity > 0) {
+            mPrimaryCache.put(key, new Entry<S>(executor, now));
+            if (mPrimaryCache.size() > cMinCapacity + (cMinCapacity >> 3)) {
+                evict();
+            }
         }
 
         return executor;
     }
 
+    /**
+     * Returns the number of executors held by the primary cache.
+     */
+    public int size() {
+        return mPrimaryCache.size();
+    }
+
+    /**
+     * Returns the number of times an executor was not found in the primary
+     * cache, and so it was found in the secondary cache or created.
+     */
+    public long getMissCount() {
+        return mMissCount.get();
+    }
+
+    /**
+     * Returns the number of executors evicted from the primary cache.
+     */
+    public long getEvictionCount() {
+        return mEvictionCount.get();
+    }
+
+    /**
+     * Evicts least recently used entries from the primary cache, until it is
+     * at the minimum capacity. If another thread is evicting already, this
+     * method does nothing.
+     */
+    private void evict() {
+        if (!mEvictionLock.tryLock()) {
+            return;
+        }
+        try {
+            long[] stamps = new long[mPrimaryCache.size()];
+            int count = 0;
+            for (Entry<S> entry : mPrimaryCache.values()) {
+                if (count >= stamps.length) {
+                    break;
+                }
+                stamps[count++] = entry.mLastAccess;
+            }
+
+            int excess = count - cMinCapacity;
+            if (excess <= 0) {
+                return;
+            }
+
+            Arrays.sort(stamps, 0, count);
+
+            // Many entries can share an access stamp, so evict those which
+            // are older than the threshold, and then only enough of those
+            // which match it.
+            long threshold = stamps[excess - 1];
+            int matches = 1;
+            for (int i = excess - 2; i >= 0 && stamps[i] == threshold; i--) {
+                matches++;
+            }
+
+            for (Map.Entry<Key<S>, Entry<S>> e : mPrimaryCache.entrySet()) {
+                Entry<S> entry = e.getValue();
+                long lastAccess = entry.mLastAccess;
+                if (lastAccess > threshold || lastAccess == threshold && matches <= 0) {
+                    continue;
+                }
+                if (mPrimaryCache.remove(e.getKey(), entry)) {
+                    mEvictionCount.incrementAndGet();
+                    if (lastAccess == threshold) {
+                        matches--;
+                    }
+                }
+            }
+        } finally {
+            mEvictionLock.unlock();
+        }
+    }
+
+    /**
+     * Discards all cached executors, forcing new ones to be created. Queries
+     * which have already obtained an executor continue to use it until reset.
+     */
+    public void clear() {
+        mPrimaryCache.clear();
+        synchronized (mFilterToExecutor) {
+            mFilterToExecutor.clear();
+        }
+    }
+
+    private static class Entry<S extends Storable> {
+        final QueryExecutor<S> mExecutor;
+        // Updated without synchronization, and so recency is approximate.
+        volatile long mLastAccess;
+
+        Entry(QueryExecutor<S> executor, long lastAccess) {
+            mExecutor = executor;
+            mLastAccess = lastAccess;
+        }
+    }
+
     private static class Key<S extends Storable> {
         private final Filter<S> mFilter;
         private final OrderingList<S> mOrdering;
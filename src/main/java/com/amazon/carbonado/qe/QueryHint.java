@@ -26,15 +26,28 @@ package com.amazon.carbonado.qe;
  * @since 1.2
  */
 public enum QueryHint {
-    /** Intention to consume all matched records */
-    //CONSUME_ALL,
+    /**
+     * Intention to consume all matched records. Ignored if {@link
+     * #CONSUME_SLICE} or {@link #FAVOR_LATENCY} is also provided.
+     */
+    CONSUME_ALL,
 
     /** Intention to consume a slice of matched records */
     CONSUME_SLICE,
 
-    /** Favor low latency for query results */
-    //FAVOR_LATENCY,
+    /**
+     * Favor low latency for query results, preferring plans which don't need
+     * to sort.
+     */
+    FAVOR_LATENCY,
 
-    /** Favor high throughput for query results */
-    //FAVOR_THROUGHPUT,
+    /**
+     * Favor high throughput for query results, preferring plans which scan
+     * fewer records even if a sort is required. Ignored if {@link
+     * #CONSUME_SLICE} or {@link #FAVOR_LATENCY} is also provided.
+     */
+    FAVOR_THROUGHPUT,
+
+    /** Evaluate filters of scans using multiple threads */
+    PARALLEL,
 }
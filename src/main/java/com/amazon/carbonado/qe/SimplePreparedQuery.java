@@ -0,0 +1,100 @@
+/*
+ * Copyright 2006-2012 Amazon Technologies, Inc. or its affiliates.
+ * Amazon, Amazon.com and Carbonado are trademarks or registered trademarks
+ * of Amazon Technologies, Inc. or its affiliates.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.amazon.carbonado.qe;
+
+import com.amazon.carbonado.Cursor;
+import com.amazon.carbonado.FetchException;
+import com.amazon.carbonado.FetchMultipleException;
+import com.amazon.carbonado.FetchNoneException;
+import com.amazon.carbonado.PreparedQuery;
+import com.amazon.carbonado.Query;
+import com.amazon.carbonado.Storable;
+
+/**
+ * PreparedQuery implementation which supplies values to a Query on each
+ * call. Subclasses should consider overriding some of these methods, if it
+ * provides better performance.
+ */
+public class SimplePreparedQuery<S extends Storable> implements PreparedQuery<S> {
+    protected final Query<S> mQuery;
+
+    /**
+     * @param query query to prepare
+     * @throws IllegalArgumentException if query is null
+     */
+    public SimplePreparedQuery(Query<S> query) {
+        if (query == null) {
+            throw new IllegalArgumentException();
+        }
+        mQuery = query;
+    }
+
+    public Class<S> getStorableType() {
+        return mQuery.getStorableType();
+    }
+
+    public Query<S> getQuery() {
+        return mQuery;
+    }
+
+    public int getBlankParameterCount() {
+        return mQuery.getBlankParameterCount();
+    }
+
+    public Cursor<S> fetch(Object... values) throws FetchException {
+        return mQuery.withValues(values).fetch();
+    }
+
+    public S loadOne(Object... values) throws FetchException {
+        S obj = tryLoadOne(values);
+        if (obj == null) {
+            throw new FetchNoneException(mQuery.withValues(values).toString());
+        }
+        return obj;
+    }
+
+    public S tryLoadOne(Object... values) throws FetchException {
+        Cursor<S> cursor = fetch(values);
+        try {
+            if (cursor.hasNext()) {
+                S obj = cursor.next();
+                if (cursor.hasNext()) {
+                    throw new FetchMultipleException(mQuery.withValues(values).toString());
+                }
+                return obj;
+            } else {
+                return null;
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    public long count(Object... values) throws FetchException {
+        return mQuery.withValues(values).count();
+    }
+
+    public boolean exists(Object... values) throws FetchException {
+        return mQuery.withValues(values).exists();
+    }
+
+    @Override
+    public String toString() {
+        return "PreparedQuery {" + mQuery + '}';
+    }
+}
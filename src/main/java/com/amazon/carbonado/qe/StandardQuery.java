@@ -20,11 +20,18 @@ package com.amazon.carbonado.qe;
 
 import java.io.IOException;
 
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
 import com.amazon.carbonado.Cursor;
 import com.amazon.carbonado.FetchException;
+import com.amazon.carbonado.FetchMultipleException;
 import com.amazon.carbonado.IsolationLevel;
 import com.amazon.carbonado.PersistException;
 import com.amazon.carbonado.PersistMultipleException;
+import com.amazon.carbonado.PreparedQuery;
 import com.amazon.carbonado.RepositoryException;
 import com.amazon.carbonado.Storable;
 import com.amazon.carbonado.Transaction;
@@ -37,6 +44,8 @@ import com.amazon.carbonado.filter.RelOp;
 import com.amazon.carbonado.info.Direction;
 import com.amazon.carbonado.info.OrderedProperty;
 
+import com.amazon.carbonado.cursor.AbstractCursor;
+
 import com.amazon.carbonado.util.Appender;
 
 /**
@@ -278,6 +287,64 @@ public abstract class StandardQuery<S extends Storable> extends AbstractQuery<S>
         return query;
     }
 
+    /**
+     * Fetches results after the given start with a sequence of range scans,
+     * one for each ordering property, starting with the last. Each scan
+     * matches the start's values of the preceding properties by identity,
+     * and seeks past the start's value of its own property. Results of each
+     * scan are ordered after those of the scan before it, and so the scans
+     * are simply performed in turn. Unlike the query returned by {@link
+     * #after after}, no results at or before the start are examined.
+     */
+    @Override
+    public <T extends S> Cursor<S> fetchAfter(T start) throws FetchException {
+        return fetchAfter(start, null);
+    }
+
+    @Override
+    public <T extends S> Cursor<S> fetchAfter(T start, Controller controller)
+        throws FetchException
+    {
+        OrderingList<S> orderings = mOrdering;
+        if (start == null || orderings.size() <= 1 || getBlankParameterCount() > 0) {
+            // Filter built by after method is a simple range, or else an
+            // exception needs to be thrown.
+            return super.fetchAfter(start, controller);
+        }
+
+        int size = orderings.size();
+        String[] names = new String[size];
+        Object[] values = new Object[size];
+
+        for (int i=0; i<size; i++) {
+            names[i] = orderings.get(i).getChainedProperty().toString();
+            if ((values[i] = start.getPropertyValue(names[i])) == null) {
+                return super.fetchAfter(start, controller);
+            }
+        }
+
+        Filter<S> openFilter = Filter.getOpenFilter(getStorableType());
+        List<Query<S>> scans = new ArrayList<Query<S>>(size);
+
+        for (int i=size; --i>=0; ) {
+            Filter<S> seekFilter = openFilter;
+            for (int j=0; j<i; j++) {
+                seekFilter = seekFilter.and(names[j], RelOp.EQ);
+            }
+            RelOp operator = RelOp.GT;
+            if (orderings.get(i).getDirection() == Direction.DESCENDING) {
+                operator = RelOp.LT;
+            }
+            Query<S> scan = this.and(seekFilter.and(names[i], operator));
+            for (int j=0; j<=i; j++) {
+                scan = scan.with(values[j]);
+            }
+            scans.add(scan);
+        }
+
+        return new ScanSequenceCursor<S>(scans, controller);
+    }
+
     @Override
     public Cursor<S> fetch() throws FetchException {
         try {
@@ -307,7 +374,8 @@ public abstract class StandardQuery<S extends Storable> extends AbstractQuery<S>
             return fetch(controller);
         }
         try {
-            QueryHints hints = QueryHints.emptyHints().with(QueryHint.CONSUME_SLICE);
+            QueryHints hints = mHints == null ? QueryHints.emptyHints() : mHints;
+            hints = hints.without(QueryHint.CONSUME_ALL).with(QueryHint.CONSUME_SLICE);
             return executorFactory().executor(mFilter, mOrdering, hints)
                 .fetchSlice(mValues, from, to, controller);
         } catch (RepositoryException e) {
@@ -414,6 +482,15 @@ public abstract class StandardQuery<S extends Storable> extends AbstractQuery<S>
         }
     }
 
+    /**
+     * Returns a prepared query which uses the executor of this query
+     * directly, without creating new Query instances.
+     */
+    @Override
+    public PreparedQuery<S> prepare() throws FetchException {
+        return new Prepared();
+    }
+
     @Override
     public boolean printNative(Appendable app, int indentLevel) throws IOException {
         try {
@@ -508,7 +585,7 @@ public abstract class StandardQuery<S extends Storable> extends AbstractQuery<S>
     protected QueryExecutor<S> executor() throws RepositoryException {
         QueryExecutor<S> executor = mExecutor;
         if (executor == null) {
-            mExecutor = executor = executorFactory().executor(mFilter, mOrdering, null);
+            mExecutor = executor = executorFactory().executor(mFilter, mOrdering, mHints);
         }
         return executor;
     }
@@ -527,7 +604,7 @@ public abstract class StandardQuery<S extends Storable> extends AbstractQuery<S>
      */
     protected void resetExecutor() throws RepositoryException {
         if (mExecutor != null) {
-            mExecutor = executorFactory().executor(mFilter, mOrdering, null);
+            mExecutor = executorFactory().executor(mFilter, mOrdering, mHints);
         }
     }
 
@@ -584,4 +661,154 @@ public abstract class StandardQuery<S extends Storable> extends AbstractQuery<S>
     {
         return queryFactory().query(filter, values, ordering, hints);
     }
+
+    private class Prepared extends SimplePreparedQuery<S> {
+        // Executor used by exists, paired with the executor it was derived from.
+        private volatile QueryExecutor<S>[] mSliceExecutor;
+
+        Prepared() {
+            super(StandardQuery.this);
+        }
+
+        @Override
+        public Cursor<S> fetch(Object... values) throws FetchException {
+            try {
+                return executor().fetch(values(values));
+            } catch (RepositoryException e) {
+                throw e.toFetchException();
+            }
+        }
+
+        @Override
+        public S tryLoadOne(Object... values) throws FetchException {
+            FilterValues<S> filterValues = values(values);
+            Cursor<S> cursor;
+            try {
+                cursor = executor().fetch(filterValues);
+            } catch (RepositoryException e) {
+                throw e.toFetchException();
+            }
+            try {
+                if (cursor.hasNext()) {
+                    S obj = cursor.next();
+                    if (cursor.hasNext()) {
+                        throw new FetchMultipleException(mQuery.withValues(values).toString());
+                    }
+                    return obj;
+                } else {
+                    return null;
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+
+        @Override
+        public long count(Object... values) throws FetchException {
+            try {
+                return executor().count(values(values));
+            } catch (RepositoryException e) {
+                throw e.toFetchException();
+            }
+        }
+
+        @Override
+        public boolean exists(Object... values) throws FetchException {
+            FilterValues<S> filterValues = values(values);
+            Cursor<S> cursor;
+            try {
+                cursor = sliceExecutor().fetchSlice(filterValues, 0L, 1L, null);
+            } catch (RepositoryException e) {
+                throw e.toFetchException();
+            }
+            try {
+                return cursor.skipNext(1) > 0;
+            } finally {
+                cursor.close();
+            }
+        }
+
+        private FilterValues<S> values(Object[] values) {
+            if (values == null || values.length == 0) {
+                return mValues;
+            }
+            return requireValues().withValues(values);
+        }
+
+        /**
+         * Returns an executor suited for fetching a slice, which is rebuilt
+         * whenever the query executor is reset.
+         */
+        private QueryExecutor<S> sliceExecutor() throws RepositoryException {
+            QueryExecutor<S> executor = executor();
+            QueryExecutor<S>[] pair = mSliceExecutor;
+            if (pair == null || pair[0] != executor) {
+                QueryHints hints = mHints == null ? QueryHints.emptyHints() : mHints;
+                hints = hints.without(QueryHint.CONSUME_ALL).with(QueryHint.CONSUME_SLICE);
+                pair = new QueryExecutor[] {
+                    executor, executorFactory().executor(mFilter, mOrdering, hints)
+                };
+                mSliceExecutor = pair;
+            }
+            return pair[1];
+        }
+    }
+
+    /**
+     * Performs each scan in turn, fetching from the next one only when the
+     * previous one is exhausted.
+     */
+    private static class ScanSequenceCursor<S extends Storable> extends AbstractCursor<S> {
+        private Iterator<Query<S>> mScans;
+        private final Controller mController;
+        private Cursor<S> mCursor;
+
+        ScanSequenceCursor(List<Query<S>> scans, Controller controller) {
+            mScans = scans.iterator();
+            mController = controller;
+        }
+
+        public void close() throws FetchException {
+            mScans = null;
+            Cursor<S> cursor = mCursor;
+            if (cursor != null) {
+                mCursor = null;
+                cursor.close();
+            }
+        }
+
+        public boolean hasNext() throws FetchException {
+            try {
+                while (true) {
+                    Cursor<S> cursor = mCursor;
+                    if (cursor != null) {
+                        if (cursor.hasNext()) {
+                            return true;
+                        }
+                        mCursor = null;
+                        cursor.close();
+                    }
+                    Iterator<Query<S>> scans = mScans;
+                    if (scans == null || !scans.hasNext()) {
+                        return false;
+                    }
+                    mCursor = scans.next().fetch(mController);
+                }
+            } catch (FetchException e) {
+                try {
+                    close();
+                } catch (FetchException e2) {
+                    // Don't care.
+                }
+                throw e;
+            }
+        }
+
+        public S next() throws FetchException {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return mCursor.next();
+        }
+    }
 }
@@ -19,6 +19,7 @@
 package com.amazon.carbonado.qe;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Map;
 
 import org.cojen.util.SoftValuedHashMap;
@@ -44,8 +45,9 @@ public abstract class StandardQueryFactory<S extends Storable> implements QueryF
 
     private final SoftValuedCache<String, Query<S>> mStringToQuery;
 
-    // Maps filters to maps which map ordering lists to queries.
-    private final Map<Filter<S>, Map<OrderingList<S>, Query<S>>> mFilterToQuery;
+    // Maps filters to maps which map ordering lists to queries. If query has
+    // hints, the key is a list of the ordering and hints.
+    private final Map<Filter<S>, Map<Object, Query<S>>> mFilterToQuery;
 
     protected StandardQueryFactory(Class<S> type) {
         this(type, false);
@@ -123,7 +125,7 @@ public abstract class StandardQueryFactory<S extends Storable> implements QueryF
     {
         filter = filter.bind();
 
-        Map<OrderingList<S>, Query<S>> map;
+        Map<Object, Query<S>> map;
         synchronized (mFilterToQuery) {
             map = mFilterToQuery.get(filter);
             if (map == null) {
@@ -135,9 +137,14 @@ public abstract class StandardQueryFactory<S extends Storable> implements QueryF
             }
         }
 
+        Object key = ordering;
+        if (hints != null && !hints.isEmpty()) {
+            key = Arrays.asList(ordering, hints);
+        }
+
         Query<S> query;
         synchronized (map) {
-            query = map.get(ordering);
+            query = map.get(key);
             if (query == null) {
                 FilterValues<S> values = filter.initialFilterValues();
                 if (values == null && filter.isClosed()) {
@@ -153,7 +160,7 @@ public abstract class StandardQueryFactory<S extends Storable> implements QueryF
                     }
                     query = standardQuery;
                 }
-                map.put(ordering, query);
+                map.put(key, query);
             }
         }
 
@@ -246,7 +253,7 @@ public abstract class StandardQueryFactory<S extends Storable> implements QueryF
         ArrayList<StandardQuery<S>> queries = new ArrayList<StandardQuery<S>>();
 
         synchronized (mFilterToQuery) {
-            for (Map<OrderingList<S>, Query<S>> map : mFilterToQuery.values()) {
+            for (Map<Object, Query<S>> map : mFilterToQuery.values()) {
                 for (Query<S> query : map.values()) {
                     if (query instanceof StandardQuery) {
                         queries.add((StandardQuery<S>) query);
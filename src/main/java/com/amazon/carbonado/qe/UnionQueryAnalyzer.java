@@ -483,7 +483,8 @@ public class UnionQueryAnalyzer<S extends Storable> implements QueryExecutorFact
                 executors.add(subResults.get(i).createExecutor());
             }
 
-            return new UnionQueryExecutor<S>(executors, mTotalOrdering);
+            return new UnionQueryExecutor<S>
+                (executors, mTotalOrdering, mRepoAccess.getRootRepository());
         }
     }
 
@@ -20,28 +20,68 @@ package com.amazon.carbonado.qe;
 
 import java.io.IOException;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
 import java.util.List;
 
+import java.util.concurrent.Executor;
+
 import com.amazon.carbonado.Cursor;
 import com.amazon.carbonado.FetchException;
 import com.amazon.carbonado.Query;
+import com.amazon.carbonado.Repository;
 import com.amazon.carbonado.Storable;
 
+import com.amazon.carbonado.cursor.ReadAheadCursor;
 import com.amazon.carbonado.cursor.SortedCursor;
 import com.amazon.carbonado.cursor.UnionCursor;
 
 import com.amazon.carbonado.filter.Filter;
 import com.amazon.carbonado.filter.FilterValues;
 
+import com.amazon.carbonado.util.DaemonExecutors;
+
 /**
  * QueryExecutor which wraps several others and unions the results.
  *
+ * <p>Sub-queries can be fetched concurrently, overlapping their latency, by
+ * setting the "com.amazon.carbonado.qe.UnionQueryExecutor.parallelism" system
+ * property to the number of threads to use. By default, it is zero, which
+ * disables concurrent fetching. Each sub-query reads ahead at most twice the
+ * amount of records specified by the
+ * "com.amazon.carbonado.qe.UnionQueryExecutor.readAhead" system property,
+ * which is 100 by default. Because transactions are bound to threads,
+ * sub-queries are only fetched concurrently when the caller is not in a
+ * transaction.
+ *
  * @author Brian S O'Neill
  * @see UnionCursor
+ * @see ReadAheadCursor
  */
 public class UnionQueryExecutor<S extends Storable> extends AbstractQueryExecutor<S> {
+    private static final int cParallelism;
+    private static final int cReadAhead;
+
+    static {
+        String prefix = UnionQueryExecutor.class.getName() + '.';
+        cParallelism = Integer.getInteger(prefix + "parallelism", 0);
+        cReadAhead = Math.max(1, Integer.getInteger(prefix + "readAhead", 100));
+    }
+
+    private static Executor cFetchExecutor;
+
+    /**
+     * Returns the shared executor for fetching sub-queries, or null if
+     * concurrent fetching is disabled.
+     */
+    private static synchronized Executor fetchExecutor() {
+        if (cFetchExecutor == null && cParallelism > 0) {
+            cFetchExecutor = DaemonExecutors.newFixedPool("UnionQueryExecutor", cParallelism);
+        }
+        return cFetchExecutor;
+    }
+
     private static <E> E ensureNotNull(E e) {
         if (e == null) {
             throw new IllegalArgumentException();
@@ -52,6 +92,7 @@ public class UnionQueryExecutor<S extends Storable> extends AbstractQueryExecuto
     private final QueryExecutor<S>[] mExecutors;
     private final OrderingList<S> mTotalOrdering;
     private final Comparator<S> mOrderComparator;
+    private final Repository mRepository;
 
     /**
      * @param executors executors to wrap, each must have the exact same total ordering
@@ -75,6 +116,19 @@ public class UnionQueryExecutor<S extends Storable> extends AbstractQueryExecuto
      * @throws IllegalArgumentException if executors is null
      */
     public UnionQueryExecutor(List<QueryExecutor<S>> executors, OrderingList<S> totalOrdering) {
+        this(executors, totalOrdering, null);
+    }
+
+    /**
+     * @param executors executors to wrap, each must have the exact same total ordering
+     * @param totalOrdering effective total ordering of executors
+     * @param repository optional repository which executors belong to; if
+     * null, sub-queries are never fetched concurrently
+     * @throws IllegalArgumentException if executors is null
+     */
+    public UnionQueryExecutor(List<QueryExecutor<S>> executors, OrderingList<S> totalOrdering,
+                              Repository repository)
+    {
         if (executors == null || executors.size() == 0) {
             throw new IllegalArgumentException();
         }
@@ -95,6 +149,7 @@ public class UnionQueryExecutor<S extends Storable> extends AbstractQueryExecuto
         executors.toArray(mExecutors);
         mTotalOrdering = totalOrdering;
         mOrderComparator = SortedCursor.createComparator(totalOrdering);
+        mRepository = repository;
     }
 
     public Cursor<S> fetch(FilterValues<S> values) throws FetchException {
@@ -104,13 +159,38 @@ public class UnionQueryExecutor<S extends Storable> extends AbstractQueryExecuto
     public Cursor<S> fetch(FilterValues<S> values, Query.Controller controller)
         throws FetchException
     {
-        Cursor<S> cursor = null;
-        for (QueryExecutor<S> executor : mExecutors) {
-            Cursor<S> subCursor = executor.fetch(values, controller);
-            cursor = (cursor == null) ? subCursor
-                : new UnionCursor<S>(cursor, subCursor, mOrderComparator);
+        if (mExecutors.length == 1) {
+            return mExecutors[0].fetch(values, controller);
+        }
+
+        Executor fetchExecutor = null;
+        if (mRepository != null && mRepository.getTransactionIsolationLevel() == null) {
+            fetchExecutor = fetchExecutor();
+        }
+
+        List<Cursor<S>> cursors = new ArrayList<Cursor<S>>(mExecutors.length);
+        try {
+            for (QueryExecutor<S> executor : mExecutors) {
+                if (fetchExecutor == null) {
+                    cursors.add(executor.fetch(values, controller));
+                } else {
+                    cursors.add(new ReadAheadCursor<S>
+                                (fetchExecutor, new SubFetch<S>(executor, values, controller),
+                                 cReadAhead));
+                }
+            }
+        } catch (FetchException e) {
+            for (Cursor<S> cursor : cursors) {
+                try {
+                    cursor.close();
+                } catch (Exception e2) {
+                    // Don't care.
+                }
+            }
+            throw e;
         }
-        return cursor;
+
+        return new UnionCursor<S>(cursors, mOrderComparator);
     }
 
     /**
@@ -154,4 +234,20 @@ public class UnionQueryExecutor<S extends Storable> extends AbstractQueryExecuto
         }
         return true;
     }
+
+    private static class SubFetch<S extends Storable> implements ReadAheadCursor.Source<S> {
+        private final QueryExecutor<S> mExecutor;
+        private final FilterValues<S> mValues;
+        private final Query.Controller mController;
+
+        SubFetch(QueryExecutor<S> executor, FilterValues<S> values, Query.Controller controller) {
+            mExecutor = executor;
+            mValues = values;
+            mController = controller;
+        }
+
+        public Cursor<S> open() throws FetchException {
+            return mExecutor.fetch(mValues, mController);
+        }
+    }
 }
@@ -23,6 +23,9 @@ import java.lang.reflect.Method;
 import java.lang.reflect.UndeclaredThrowableException;
 import java.util.Map;
 
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
 import org.cojen.classfile.ClassFile;
 import org.cojen.classfile.CodeBuilder;
 import org.cojen.classfile.Label;
@@ -31,7 +34,6 @@ import org.cojen.classfile.MethodInfo;
 import org.cojen.classfile.Modifiers;
 import org.cojen.classfile.TypeDesc;
 import org.cojen.util.ClassInjector;
-import org.cojen.util.IntHashMap;
 import org.cojen.util.KeyFactory;
 import org.cojen.util.ThrowUnchecked;
 
@@ -314,8 +316,10 @@ public class GenericStorableCodec<S extends Storable> implements StorableCodec<S
 
     private final RawSupport<S> mSupport;
 
-    // Maps layout generations to Decoders.
-    private IntHashMap mDecoders;
+    // Maps layout generations to Decoders. Reads don't lock, and decoders are
+    // generated while synchronized on the layout.
+    private final ConcurrentMap<Integer, Decoder<S>> mDecoders =
+        new ConcurrentHashMap<Integer, Decoder<S>>();
 
     /**
      * @param codecKey cache key for this GenericStorableCodec instance
@@ -497,7 +501,7 @@ public class GenericStorableCodec<S extends Storable> implements StorableCodec<S
     @Override
     public void decode(S dest, int generation, byte[] data) throws CorruptEncodingException {
         try {
-            getDecoder(generation).decode(dest, data);
+            decoder(generation).decode(dest, data);
         } catch (CorruptEncodingException e) {
             throw e;
         } catch (RepositoryException e) {
@@ -513,36 +517,65 @@ public class GenericStorableCodec<S extends Storable> implements StorableCodec<S
      */
     @Deprecated
     public Decoder<S> getDecoder(int generation) throws FetchNoneException, FetchException {
-        try {
-            synchronized (mLayout) {
-                IntHashMap decoders = mDecoders;
-                if (decoders == null) {
-                    mDecoders = decoders = new IntHashMap();
-                }
-                Decoder<S> decoder = (Decoder<S>) decoders.get(generation);
-                if (decoder == null) {
-                    synchronized (cCodecDecoders) {
-                        Object altLayoutKey = new LayoutKey(mLayout.getGeneration(generation));
-                        Object key = KeyFactory.createKey
-                            // Note: Generation is still required in the key
-                            // because an equivalent layout (with different generation)
-                            // might have been supplied by Layout.getGeneration.
-                            (new Object[] {mCodecKey, generation, altLayoutKey});
-                        decoder = (Decoder<S>) cCodecDecoders.get(key);
-                        if (decoder == null) {
-                            decoder = generateDecoder(generation);
-                            cCodecDecoders.put(key, decoder);
-                        }
+        return decoder(generation);
+    }
+
+    /**
+     * Generates decoders for all known generations older than the current
+     * one, ensuring that decoding older generations never stalls on class
+     * generation later on. Decoders are shared with all codecs for the same
+     * storable type and layout.
+     *
+     * @return amount of generations which have decoders
+     */
+    public int prepareDecoders() throws FetchException {
+        Layout layout = mLayout;
+        if (layout == null) {
+            return 0;
+        }
+        int count = 0;
+        for (int generation = layout.getGeneration(); --generation >= 0; ) {
+            try {
+                decoder(generation);
+                count++;
+            } catch (FetchNoneException e) {
+                // Generation was never persisted, so it cannot be encountered.
+            }
+        }
+        return count;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Decoder<S> decoder(int generation) throws FetchNoneException, FetchException {
+        Decoder<S> decoder = mDecoders.get(generation);
+        if (decoder != null) {
+            return decoder;
+        }
+
+        if (mLayout == null) {
+            throw new FetchNoneException("Layout evolution not supported");
+        }
+
+        // Only one thread at a time generates decoders for this codec.
+        synchronized (mLayout) {
+            decoder = mDecoders.get(generation);
+            if (decoder == null) {
+                synchronized (cCodecDecoders) {
+                    Object altLayoutKey = new LayoutKey(mLayout.getGeneration(generation));
+                    Object key = KeyFactory.createKey
+                        // Note: Generation is still required in the key
+                        // because an equivalent layout (with different generation)
+                        // might have been supplied by Layout.getGeneration.
+                        (new Object[] {mCodecKey, generation, altLayoutKey});
+                    decoder = (Decoder<S>) cCodecDecoders.get(key);
+                    if (decoder == null) {
+                        decoder = generateDecoder(generation);
+                        cCodecDecoders.put(key, decoder);
                     }
-                    mDecoders.put(generation, decoder);
                 }
-                return decoder;
+                mDecoders.put(generation, decoder);
             }
-        } catch (NullPointerException e) {
-            if (mLayout == null) {
-                throw new FetchNoneException("Layout evolution not supported");
-            }
-            throw e;
+            return decoder;
         }
     }
 
@@ -0,0 +1,53 @@
+/*
+ * Copyright 2006-2012 Amazon Technologies, Inc. or its affiliates.
+ * Amazon, Amazon.com and Carbonado are trademarks or registered trademarks
+ * of Amazon Technologies, Inc. or its affiliates.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.carbonado.repo.indexed;
+
+import com.amazon.carbonado.RepositoryException;
+import com.amazon.carbonado.Storable;
+
+import com.amazon.carbonado.capability.Capability;
+
+/**
+ * Capability for collecting index statistics, which enable cost-based query
+ * planning. Until statistics are collected for a Storable type, its query
+ * plans are selected by rules alone. Statistics are persisted, but they are
+ * not maintained as the data changes. Collect them again after significant
+ * changes to the data distribution.
+ */
+public interface IndexStatisticsCapability extends Capability {
+    /**
+     * Scans all the indexes of the given storable type, persists their
+     * statistics, and then rebuilds all cached query plans for the type.
+     *
+     * @param maxSamples maximum number of leading key values to sample per
+     * index, for building histograms
+     * @param desiredSpeed 1.0 = perform work at full speed,
+     * 0.5 = perform work at half speed, 0.0 = fully suspend work
+     */
+    <S extends Storable> void collectStatistics(Class<S> storableType,
+                                                int maxSamples, double desiredSpeed)
+        throws RepositoryException;
+
+    /**
+     * Discards all persisted statistics for the given storable type, and then
+     * rebuilds all cached query plans for the type using rules alone.
+     */
+    <S extends Storable> void discardStatistics(Class<S> storableType)
+        throws RepositoryException;
+}
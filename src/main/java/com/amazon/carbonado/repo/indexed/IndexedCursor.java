@@ -18,13 +18,23 @@
 
 package com.amazon.carbonado.repo.indexed;
 
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.NoSuchElementException;
 
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+
 import org.apache.commons.logging.LogFactory;
 
 import com.amazon.carbonado.CorruptEncodingException;
 import com.amazon.carbonado.Cursor;
 import com.amazon.carbonado.FetchException;
+import com.amazon.carbonado.FetchInterruptedException;
 import com.amazon.carbonado.PersistException;
 import com.amazon.carbonado.RepositoryException;
 import com.amazon.carbonado.Storable;
@@ -33,29 +43,71 @@ import com.amazon.carbonado.Transaction;
 
 import com.amazon.carbonado.cursor.AbstractCursor;
 import com.amazon.carbonado.cursor.FetchAheadCursor;
+import com.amazon.carbonado.cursor.SortedCursor;
+
+import com.amazon.carbonado.info.StorableIntrospector;
 
 import com.amazon.carbonado.spi.RepairExecutor;
 
 import com.amazon.carbonado.synthetic.SyntheticStorableReferenceAccess;
 
+import com.amazon.carbonado.util.DaemonExecutors;
+
 /**
  * Wraps another cursor which contains index entries and extracts master
  * objects from them.
  *
+ * <p>Master objects can be loaded in batches, whose size is set by the
+ * "com.amazon.carbonado.repo.indexed.IndexedCursor.batchSize" system
+ * property. Each batch is loaded in primary key order, for better locality,
+ * but results are still produced in index order. If the
+ * "com.amazon.carbonado.repo.indexed.IndexedCursor.parallelism" system
+ * property is also set, batches are loaded by that many threads
+ * concurrently. Because transactions are bound to the current thread,
+ * batches are only loaded concurrently when no transaction is in progress.
+ *
  * @author Brian S O'Neill
  */
 class IndexedCursor<S extends Storable> extends AbstractCursor<S> {
     private static final int FETCH_AHEAD;
+    private static final int BATCH_SIZE;
+    private static final int PARALLELISM;
 
     static {
         String prefix = IndexedCursor.class.getName() + '.';
         FETCH_AHEAD = Integer.getInteger(prefix + "fetchAhead", 0);
+        BATCH_SIZE = Math.max(1, Integer.getInteger(prefix + "batchSize", 1));
+        PARALLELISM = Integer.getInteger(prefix + "parallelism", 0);
+    }
+
+    private static ThreadPoolExecutor cLoadExecutor;
+
+    /**
+     * Returns the shared executor for loading master objects concurrently.
+     */
+    private static synchronized ThreadPoolExecutor loadExecutor() {
+        if (cLoadExecutor == null) {
+            cLoadExecutor = DaemonExecutors.newFixedPool("IndexedCursor", PARALLELISM);
+        }
+        return cLoadExecutor;
     }
 
     private final Cursor<? extends Storable> mCursor;
     private final IndexedStorage<S> mStorage;
     private final SyntheticStorableReferenceAccess<S> mAccessor;
 
+    // Index entries and master objects of the current batch.
+    private final Storable[] mEntries;
+    private final S[] mMasters;
+    private final boolean[] mLoaded;
+    private int mBatchPos;
+    private int mBatchCount;
+    // Set when a concurrent batch load failed, to stop the other loaders early.
+    private volatile boolean mBatchAborted;
+
+    // Orders master objects by primary key, only needed for batches.
+    private final Comparator<S> mKeyComparator;
+
     private S mNext;
 
     IndexedCursor(Cursor<? extends Storable> indexEntryCursor,
@@ -68,10 +120,24 @@ class IndexedCursor<S extends Storable> extends AbstractCursor<S> {
         mCursor = indexEntryCursor;
         mStorage = storage;
         mAccessor = indexAccessor;
+
+        mEntries = new Storable[BATCH_SIZE];
+        mMasters = (S[]) new Storable[BATCH_SIZE];
+        mLoaded = new boolean[BATCH_SIZE];
+
+        if (BATCH_SIZE > 1) {
+            Class<S> type = storage.getStorableType();
+            String[] pkNames = StorableIntrospector.examine(type)
+                .getPrimaryKeyProperties().keySet().toArray(new String[0]);
+            mKeyComparator = SortedCursor.createComparator(type, pkNames);
+        } else {
+            mKeyComparator = null;
+        }
     }
 
     public void close() throws FetchException {
         mCursor.close();
+        clearBatch();
     }
 
     public boolean hasNext() throws FetchException {
@@ -79,97 +145,19 @@ class IndexedCursor<S extends Storable> extends AbstractCursor<S> {
             return true;
         }
         try {
-            while (mCursor.hasNext()) {
-                final Storable indexEntry = mCursor.next();
-
-                S master = mStorage.mMasterStorage.prepare();
-                mAccessor.copyToMasterPrimaryKey(indexEntry, master);
-
-                try {
-                    if (!master.tryLoad()) {
-                        LogFactory.getLog(getClass()).warn
-                            ("Master is missing for index entry: " + indexEntry);
-                        continue;
-                    }
-                } catch (CorruptEncodingException e) {
-                    LogFactory.getLog(getClass()).error
-                        ("Master record for index entry is corrupt: " + indexEntry, e);
-                    continue;
-                }
-
-                if (mAccessor.isConsistent(indexEntry, master)) {
-                    mNext = master;
-                    return true;
-                }
-
-                // This index entry is stale. Repair is needed.
-
-                // Insert a correct index entry, just to be sure.
-                try {
-                    final IndexedRepository repo = mStorage.mRepository;
-                    final Storage<?> indexEntryStorage =
-                        repo.getIndexEntryStorageFor(mAccessor.getReferenceClass());
-                    Storable newIndexEntry = indexEntryStorage.prepare();
-                    mAccessor.copyFromMaster(newIndexEntry, master);
-
-                    if (newIndexEntry.tryLoad()) {
-                        // Good, the correct index entry exists. We'll see
-                        // the master record eventually, so skip.
-                    } else {
-                        // We have no choice but to return the master, at
-                        // the risk of seeing it multiple times. This is
-                        // better than seeing it never.
-                        LogFactory.getLog(getClass()).warn
-                            ("Inconsistent index entry: " + indexEntry + ", " + master);
-                        mNext = master;
+            while (true) {
+                while (mBatchPos < mBatchCount) {
+                    int i = mBatchPos++;
+                    Storable indexEntry = mEntries[i];
+                    S master = mMasters[i];
+                    mEntries[i] = null;
+                    mMasters[i] = null;
+                    if (mLoaded[i] && accept(indexEntry, master)) {
+                        return true;
                     }
-
-                    // Repair the stale index entry.
-                    RepairExecutor.execute(new Runnable() {
-                        public void run() {
-                            Transaction txn = repo.enterTransaction();
-                            try {
-                                // Reload master and verify inconsistency.
-                                S master = mStorage.mMasterStorage.prepare();
-                                mAccessor.copyToMasterPrimaryKey(indexEntry, master);
-
-                                if (master.tryLoad()) {
-                                    Storable newIndexEntry = indexEntryStorage.prepare();
-                                    mAccessor.copyFromMaster(newIndexEntry, master);
-
-                                    newIndexEntry.tryInsert();
-
-                                    indexEntry.tryDelete();
-                                    txn.commit();
-                                }
-                            } catch (FetchException fe) {
-                                LogFactory.getLog(IndexedCursor.class).warn
-                                    ("Unable to check if repair required for " +
-                                     "inconsistent index entry " +
-                                     indexEntry, fe);
-                            } catch (PersistException pe) {
-                                LogFactory.getLog(IndexedCursor.class).error
-                                    ("Unable to repair inconsistent index entry " +
-                                     indexEntry, pe);
-                            } finally {
-                                try {
-                                    txn.exit();
-                                } catch (PersistException pe) {
-                                    LogFactory.getLog(IndexedCursor.class).error
-                                        ("Unable to repair inconsistent index entry " +
-                                         indexEntry, pe);
-                                }
-                            }
-                        }
-                    });
-                } catch (Exception re) {
-                    LogFactory.getLog(getClass()).error
-                        ("Unable to inspect inconsistent index entry " +
-                         indexEntry, re);
                 }
-
-                if (mNext != null) {
-                    return true;
+                if (!nextBatch()) {
+                    break;
                 }
             }
         } catch (NoSuchElementException e) {
@@ -184,6 +172,268 @@ class IndexedCursor<S extends Storable> extends AbstractCursor<S> {
         return false;
     }
 
+    /**
+     * Reads the next batch of index entries and loads their master objects.
+     *
+     * @return false if no more index entries
+     */
+    private boolean nextBatch() throws FetchException {
+        mBatchAborted = false;
+        int count = 0;
+        while (count < BATCH_SIZE && mCursor.hasNext()) {
+            Storable indexEntry = mCursor.next();
+            S master = mStorage.mMasterStorage.prepare();
+            mAccessor.copyToMasterPrimaryKey(indexEntry, master);
+            mEntries[count] = indexEntry;
+            mMasters[count] = master;
+            count++;
+        }
+
+        mBatchPos = 0;
+        mBatchCount = count;
+
+        if (count == 0) {
+            return false;
+        }
+
+        if (count == 1) {
+            mLoaded[0] = load(mEntries[0], mMasters[0]);
+            return true;
+        }
+
+        // Load in primary key order, for better locality.
+        Integer[] order = new Integer[count];
+        for (int i=0; i<count; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                return mKeyComparator.compare(mMasters[a], mMasters[b]);
+            }
+        });
+
+        int parallelism = Math.min(PARALLELISM, count);
+        if (parallelism <= 1 || mStorage.mRepository.getTransactionIsolationLevel() != null) {
+            load(order, 0, count);
+            return true;
+        }
+
+        // Split into contiguous ranges of keys, and load the first range in
+        // this thread.
+        FutureTask<Object>[] tasks = new FutureTask[parallelism - 1];
+        boolean success = false;
+        try {
+            for (int t=1; t<parallelism; t++) {
+                final Integer[] fOrder = order;
+                final int start = (int) ((long) count * t / parallelism);
+                final int end = (int) ((long) count * (t + 1) / parallelism);
+                FutureTask<Object> task = new FutureTask<Object>(new Callable<Object>() {
+                    public Object call() throws FetchException {
+                        load(fOrder, start, end);
+                        return null;
+                    }
+                });
+                tasks[t - 1] = task;
+                try {
+                    loadExecutor().execute(task);
+                } catch (RejectedExecutionException e) {
+                    task.run();
+                }
+            }
+
+            load(order, 0, count / parallelism);
+
+            for (FutureTask<Object> task : tasks) {
+                get(task);
+            }
+
+            success = true;
+        } finally {
+            if (!success) {
+                abortBatch(tasks);
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Called when a concurrent batch load failed. Tasks which haven't started
+     * are cancelled, and this method waits for the others to finish, so that
+     * none of them touch the batch after the failure is propagated.
+     */
+    private void abortBatch(FutureTask<Object>[] tasks) {
+        mBatchAborted = true;
+
+        boolean interrupted = false;
+        for (FutureTask<Object> task : tasks) {
+            if (task == null) {
+                continue;
+            }
+            if (loadExecutor().remove(task)) {
+                task.cancel(false);
+                continue;
+            }
+            while (true) {
+                try {
+                    task.get();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    // Only the first failure is propagated.
+                    break;
+                } catch (CancellationException e) {
+                    break;
+                }
+            }
+        }
+
+        clearBatch();
+
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void load(Integer[] order, int start, int end) throws FetchException {
+        for (int j=start; j<end; j++) {
+            if (mBatchAborted) {
+                return;
+            }
+            int i = order[j];
+            mLoaded[i] = load(mEntries[i], mMasters[i]);
+        }
+    }
+
+    /**
+     * @return false if master is missing or corrupt
+     */
+    private boolean load(Storable indexEntry, S master) throws FetchException {
+        try {
+            if (!master.tryLoad()) {
+                LogFactory.getLog(IndexedCursor.class).warn
+                    ("Master is missing for index entry: " + indexEntry);
+                return false;
+            }
+        } catch (CorruptEncodingException e) {
+            LogFactory.getLog(IndexedCursor.class).error
+                ("Master record for index entry is corrupt: " + indexEntry, e);
+            return false;
+        }
+        return true;
+    }
+
+    private static void get(FutureTask<Object> task) throws FetchException {
+        try {
+            task.get();
+        } catch (InterruptedException e) {
+            throw new FetchInterruptedException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof FetchException) {
+                throw (FetchException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new FetchException(cause);
+        }
+    }
+
+    /**
+     * Checks that the loaded master is consistent with its index entry,
+     * repairing the index entry if not.
+     *
+     * @return true if master is to be returned next
+     */
+    private boolean accept(final Storable indexEntry, S master) throws FetchException {
+        if (mAccessor.isConsistent(indexEntry, master)) {
+            mNext = master;
+            return true;
+        }
+
+        // This index entry is stale. Repair is needed.
+
+        // Insert a correct index entry, just to be sure.
+        try {
+            final IndexedRepository repo = mStorage.mRepository;
+            final Storage<?> indexEntryStorage =
+                repo.getIndexEntryStorageFor(mAccessor.getReferenceClass());
+            Storable newIndexEntry = indexEntryStorage.prepare();
+            mAccessor.copyFromMaster(newIndexEntry, master);
+
+            if (newIndexEntry.tryLoad()) {
+                // Good, the correct index entry exists. We'll see
+                // the master record eventually, so skip.
+            } else {
+                // We have no choice but to return the master, at
+                // the risk of seeing it multiple times. This is
+                // better than seeing it never.
+                LogFactory.getLog(getClass()).warn
+                    ("Inconsistent index entry: " + indexEntry + ", " + master);
+                mNext = master;
+            }
+
+            // Repair the stale index entry.
+            RepairExecutor.execute(new Runnable() {
+                public void run() {
+                    Transaction txn = repo.enterTransaction();
+                    try {
+                        // Reload master and verify inconsistency.
+                        S master = mStorage.mMasterStorage.prepare();
+                        mAccessor.copyToMasterPrimaryKey(indexEntry, master);
+
+                        if (master.tryLoad()) {
+                            Storable newIndexEntry = indexEntryStorage.prepare();
+                            mAccessor.copyFromMaster(newIndexEntry, master);
+
+                            newIndexEntry.tryInsert();
+
+                            indexEntry.tryDelete();
+                            txn.commit();
+                        }
+                    } catch (FetchException fe) {
+                        LogFactory.getLog(IndexedCursor.class).warn
+                            ("Unable to check if repair required for " +
+                             "inconsistent index entry " +
+                             indexEntry, fe);
+                    } catch (PersistException pe) {
+                        LogFactory.getLog(IndexedCursor.class).error
+                            ("Unable to repair inconsistent index entry " +
+                             indexEntry, pe);
+                    } finally {
+                        try {
+                            txn.exit();
+                        } catch (PersistException pe) {
+                            LogFactory.getLog(IndexedCursor.class).error
+                                ("Unable to repair inconsistent index entry " +
+                                 indexEntry, pe);
+                        }
+                    }
+                }
+            });
+        } catch (Exception re) {
+            LogFactory.getLog(getClass()).error
+                ("Unable to inspect inconsistent index entry " +
+                 indexEntry, re);
+        }
+
+        return mNext != null;
+    }
+
+    private void clearBatch() {
+        for (int i=mBatchPos; i<mBatchCount; i++) {
+            mEntries[i] = null;
+            mMasters[i] = null;
+        }
+        mBatchPos = 0;
+        mBatchCount = 0;
+    }
+
     public S next() throws FetchException {
         try {
             if (hasNext()) {
@@ -205,10 +455,6 @@ class IndexedCursor<S extends Storable> extends AbstractCursor<S> {
     @Override
     public int skipNext(int amount) throws FetchException {
         try {
-            if (mNext == null) {
-                return mCursor.skipNext(amount);
-            }
-
             if (amount <= 0) {
                 if (amount < 0) {
                     throw new IllegalArgumentException("Cannot skip negative amount: " + amount);
@@ -216,8 +462,25 @@ class IndexedCursor<S extends Storable> extends AbstractCursor<S> {
                 return 0;
             }
 
-            mNext = null;
-            return 1 + mCursor.skipNext(amount - 1);
+            int count = 0;
+            if (mNext != null) {
+                mNext = null;
+                count++;
+            }
+
+            // Skip over the remainder of the current batch.
+            while (count < amount && mBatchPos < mBatchCount) {
+                int i = mBatchPos++;
+                mEntries[i] = null;
+                mMasters[i] = null;
+                count++;
+            }
+
+            if (count < amount) {
+                count += mCursor.skipNext(amount - count);
+            }
+
+            return count;
         } catch (FetchException e) {
             try {
                 close();
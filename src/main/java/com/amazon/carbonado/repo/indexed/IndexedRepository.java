@@ -34,6 +34,7 @@ import com.amazon.carbonado.Storage;
 import com.amazon.carbonado.SupportException;
 import com.amazon.carbonado.Transaction;
 
+import com.amazon.carbonado.capability.BulkLoadCapability;
 import com.amazon.carbonado.capability.Capability;
 import com.amazon.carbonado.capability.IndexInfo;
 import com.amazon.carbonado.capability.IndexInfoCapability;
@@ -54,9 +55,11 @@ import com.amazon.carbonado.spi.StoragePool;
  */
 class IndexedRepository implements Repository,
                                    RepositoryAccess,
+                                   BulkLoadCapability,
                                    IndexInfoCapability,
                                    StorableInfoCapability,
-                                   IndexEntryAccessCapability
+                                   IndexEntryAccessCapability,
+                                   IndexStatisticsCapability
 {
     private final AtomicReference<Repository> mRootRef;
     private final Repository mRepository;
@@ -151,12 +154,49 @@ class IndexedRepository implements Repository,
 
     @SuppressWarnings("unchecked")
     public <C extends Capability> C getCapability(Class<C> capabilityType) {
+        if (capabilityType == BulkLoadCapability.class
+            && mRepository.getCapability(BulkLoadCapability.class) == null)
+        {
+            // Bulk load is only supported if wrapped repository supports it.
+            return null;
+        }
         if (capabilityType.isInstance(this)) {
             return (C) this;
         }
         return mRepository.getCapability(capabilityType);
     }
 
+    // Required by BulkLoadCapability.
+    public <S extends Storable> long bulkLoad(Class<S> type, Cursor<? extends S> source)
+        throws RepositoryException
+    {
+        BulkLoadCapability cap = mRepository.getCapability(BulkLoadCapability.class);
+        if (cap == null) {
+            source.close();
+            throw new SupportException("Wrapped repository doesn't support bulk load");
+        }
+
+        // Ensure that index trigger is installed, such that it gets disabled
+        // during the load.
+        storageFor(type);
+
+        long total = cap.bulkLoad(type, source);
+
+        if (!Unindexed.class.isAssignableFrom(type)) {
+            // Build all the indexes in a second pass, which sorts the index
+            // entries before inserting them.
+            Storage<S> masterStorage = mRepository.storageFor(type);
+            IndexAnalysis<S> analysis = mIndexAnalysisPool.get(masterStorage);
+            for (IndexInfo info : analysis.allIndexInfoMap.values()) {
+                if (info instanceof ManagedIndex) {
+                    ((ManagedIndex<S>) info).buildIndex(1.0, false, false);
+                }
+            }
+        }
+
+        return total;
+    }
+
     // Required by IndexInfoCapability.
     public <S extends Storable> IndexInfo[] getIndexInfo(Class<S> storableType)
         throws RepositoryException
@@ -194,6 +234,27 @@ class IndexedRepository implements Repository,
         return accessors.toArray(new IndexEntryAccessor[accessors.size()]);
     }
 
+    // Required by IndexStatisticsCapability.
+    public <S extends Storable> void collectStatistics(Class<S> storableType,
+                                                       int maxSamples, double desiredSpeed)
+        throws RepositoryException
+    {
+        Storage<S> storage = storageFor(storableType);
+        if (storage instanceof IndexedStorage) {
+            ((IndexedStorage<S>) storage).collectStatistics(maxSamples, desiredSpeed);
+        }
+    }
+
+    // Required by IndexStatisticsCapability.
+    public <S extends Storable> void discardStatistics(Class<S> storableType)
+        throws RepositoryException
+    {
+        Storage<S> storage = storageFor(storableType);
+        if (storage instanceof IndexedStorage) {
+            ((IndexedStorage<S>) storage).discardStatistics();
+        }
+    }
+
     public String[] getUserStorableTypeNames() throws RepositoryException {
         StorableInfoCapability cap = mRepository.getCapability(StorableInfoCapability.class);
         if (cap == null) {
@@ -205,6 +266,7 @@ class IndexedRepository implements Repository,
         // Exclude our own metadata types as well as indexes.
 
         names.remove(StoredIndexInfo.class.getName());
+        names.remove(StoredIndexStatistics.class.getName());
 
         Cursor<StoredIndexInfo> cursor =
             mRepository.storageFor(StoredIndexInfo.class)
@@ -39,6 +39,7 @@ import com.amazon.carbonado.spi.AbstractRepositoryBuilder;
  * <li>{@link com.amazon.carbonado.capability.IndexInfoCapability IndexInfoCapability}
  * <li>{@link com.amazon.carbonado.capability.StorableInfoCapability StorableInfoCapability}
  * <li>{@link IndexEntryAccessCapability IndexEntryAccessCapability}
+ * <li>{@link IndexStatisticsCapability IndexStatisticsCapability}
  * </ul>
  *
  * @author Brian S O'Neill
@@ -19,6 +19,7 @@
 package com.amazon.carbonado.repo.indexed;
 
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.Map;
 
 import org.apache.commons.logging.Log;
@@ -50,11 +51,16 @@ import com.amazon.carbonado.info.StorableIndex;
 import com.amazon.carbonado.cursor.SortBuffer;
 
 import com.amazon.carbonado.qe.BoundaryType;
+import com.amazon.carbonado.qe.IndexStatistics;
 import com.amazon.carbonado.qe.QueryEngine;
 import com.amazon.carbonado.qe.QueryExecutorFactory;
+import com.amazon.carbonado.qe.StatisticsAccess;
 import com.amazon.carbonado.qe.StorableIndexSet;
 import com.amazon.carbonado.qe.StorageAccess;
 
+import com.amazon.carbonado.raw.DataDecoder;
+import com.amazon.carbonado.raw.DataEncoder;
+
 import com.amazon.carbonado.util.Throttle;
 
 import static com.amazon.carbonado.repo.indexed.ManagedIndex.*;
@@ -64,7 +70,9 @@ import static com.amazon.carbonado.repo.indexed.ManagedIndex.*;
  *
  * @author Brian S O'Neill
  */
-class IndexedStorage<S extends Storable> implements Storage<S>, StorageAccess<S> {
+class IndexedStorage<S extends Storable>
+    implements Storage<S>, StorageAccess<S>, StatisticsAccess<S>
+{
     final IndexedRepository mRepository;
     final Storage<S> mMasterStorage;
 
@@ -75,7 +83,10 @@ class IndexedStorage<S extends Storable> implements Storage<S>, StorageAccess<S>
     private final StorableIndexSet<S> mQueryableIndexSet;
 
     private final QueryEngine<S> mQueryEngine;
-    
+
+    // Maps queryable indexes to statistics, or is null if none collected.
+    private volatile Map<StorableIndex<S>, IndexStatistics<S>> mStatistics;
+
     IndexedStorage(IndexAnalysis<S> analysis) throws RepositoryException {
         mRepository = analysis.repository;
         mMasterStorage = analysis.masterStorage;
@@ -109,6 +120,14 @@ class IndexedStorage<S extends Storable> implements Storage<S>, StorageAccess<S>
 
         mQueryEngine = new QueryEngine<S>(mMasterStorage.getStorableType(), mRepository);
 
+        try {
+            mStatistics = loadStatistics();
+        } catch (RepositoryException e) {
+            // Statistics are optional, and queries can still be planned by rules.
+            LogFactory.getLog(IndexedStorage.class)
+                .warn("Unable to load index statistics for " + getStorableType().getName(), e);
+        }
+
         // Install triggers to manage derived properties in external Storables.
         if (analysis.derivedToDependencies != null) {
             for (ChainedProperty<?> derivedTo : analysis.derivedToDependencies) {
@@ -203,6 +222,12 @@ class IndexedStorage<S extends Storable> implements Storage<S>, StorageAccess<S>
         return mMasterStorage;
     }
 
+    // Required by StatisticsAccess.
+    public IndexStatistics<S> getIndexStatistics(StorableIndex<S> index) {
+        Map<StorableIndex<S>, IndexStatistics<S>> statistics = mStatistics;
+        return statistics == null ? null : statistics.get(index);
+    }
+
     public SortBuffer<S> createSortBuffer() {
         return new MergeSortBuffer<S>();
     }
@@ -295,6 +320,151 @@ class IndexedStorage<S extends Storable> implements Storage<S>, StorageAccess<S>
         throw new UnsupportedOperationException();
     }
 
+    /**
+     * Collects and persists statistics for all queryable indexes, and then
+     * rebuilds all cached query plans.
+     */
+    void collectStatistics(int maxSamples, double desiredSpeed) throws RepositoryException {
+        Map<StorableIndex<S>, IndexStatistics<S>> statistics =
+            new HashMap<StorableIndex<S>, IndexStatistics<S>>();
+
+        for (StorableIndex<S> index : mQueryableIndexSet) {
+            IndexStatistics<S> stats =
+                IndexStatistics.collect(this, index, maxSamples, desiredSpeed);
+            storeStatistics(stats);
+            statistics.put(index, stats);
+        }
+
+        mStatistics = statistics;
+        mQueryEngine.resetExecutors();
+    }
+
+    /**
+     * Discards persisted statistics for all queryable indexes, and then
+     * rebuilds all cached query plans.
+     */
+    void discardStatistics() throws RepositoryException {
+        mStatistics = null;
+        for (StorableIndex<S> index : mQueryableIndexSet) {
+            discardStatistics(index.getNameDescriptor());
+        }
+        mQueryEngine.resetExecutors();
+    }
+
+    /**
+     * @return null if no statistics
+     */
+    private Map<StorableIndex<S>, IndexStatistics<S>> loadStatistics()
+        throws RepositoryException
+    {
+        Map<StorableIndex<S>, IndexStatistics<S>> statistics = null;
+
+        Storage<StoredIndexStatistics> storage = mRepository.getWrappedRepository()
+            .storageFor(StoredIndexStatistics.class);
+
+        Transaction txn = mRepository.getWrappedRepository()
+            .enterTopTransaction(IsolationLevel.READ_COMMITTED);
+        try {
+            for (StorableIndex<S> index : mQueryableIndexSet) {
+                StoredIndexStatistics stored = storage.prepare();
+                stored.setIndexName(index.getNameDescriptor());
+                if (!stored.tryLoad()) {
+                    continue;
+                }
+
+                long[] distinctCounts = decodeLongs(stored.getDistinctCounts());
+                if (distinctCounts.length != index.getPropertyCount()) {
+                    // Stale record, which cannot be used.
+                    continue;
+                }
+
+                if (statistics == null) {
+                    statistics = new HashMap<StorableIndex<S>, IndexStatistics<S>>();
+                }
+
+                statistics.put(index, new IndexStatistics<S>
+                               (index, stored.getRowCount(), distinctCounts,
+                                decodeDoubles(stored.getHistogram()),
+                                stored.getCollectionTimestamp()));
+            }
+        } finally {
+            txn.exit();
+        }
+
+        return statistics;
+    }
+
+    private void storeStatistics(IndexStatistics<S> stats) throws RepositoryException {
+        StoredIndexStatistics stored = mRepository.getWrappedRepository()
+            .storageFor(StoredIndexStatistics.class).prepare();
+        stored.setIndexName(stats.getIndex().getNameDescriptor());
+
+        Transaction txn = mRepository.getWrappedRepository()
+            .enterTopTransaction(IsolationLevel.READ_COMMITTED);
+        txn.setForUpdate(true);
+        try {
+            boolean exists = stored.tryLoad();
+            stored.setRowCount(stats.getRowCount());
+            stored.setDistinctCounts(encodeLongs(stats.getDistinctCounts()));
+            stored.setHistogram(encodeDoubles(stats.getHistogram()));
+            stored.setCollectionTimestamp(stats.getTimestamp());
+            if (exists) {
+                stored.update();
+            } else {
+                stored.setVersionNumber(0);
+                stored.insert();
+            }
+            txn.commit();
+        } finally {
+            txn.exit();
+        }
+    }
+
+    private void discardStatistics(String indexName) throws RepositoryException {
+        StoredIndexStatistics stored = mRepository.getWrappedRepository()
+            .storageFor(StoredIndexStatistics.class).prepare();
+        stored.setIndexName(indexName);
+        stored.tryDelete();
+    }
+
+    private static byte[] encodeLongs(long[] values) {
+        byte[] encoded = new byte[values.length << 3];
+        for (int i=0; i<values.length; i++) {
+            DataEncoder.encode(values[i], encoded, i << 3);
+        }
+        return encoded;
+    }
+
+    private static long[] decodeLongs(byte[] encoded) throws FetchException {
+        long[] values = new long[encoded.length >> 3];
+        for (int i=0; i<values.length; i++) {
+            values[i] = DataDecoder.decodeLong(encoded, i << 3);
+        }
+        return values;
+    }
+
+    private static byte[] encodeDoubles(double[] values) {
+        if (values == null) {
+            return null;
+        }
+        byte[] encoded = new byte[values.length << 3];
+        for (int i=0; i<values.length; i++) {
+            DataEncoder.encode(values[i], encoded, i << 3);
+        }
+        return encoded;
+    }
+
+    private static double[] decodeDoubles(byte[] encoded) throws FetchException {
+        if (encoded == null) {
+            return null;
+        }
+        double[] values = new double[encoded.length >> 3];
+        for (int i=0; i<values.length; i++) {
+            values[i] = DataDecoder.decodeDouble(encoded, i << 3);
+        }
+        return values;
+    }
+
     private void registerIndex(ManagedIndex<S> managedIndex)
         throws RepositoryException
     {
@@ -400,6 +570,7 @@ class IndexedStorage<S extends Storable> implements Storage<S>, StorageAccess<S>
             .storageFor(StoredIndexInfo.class).prepare();
         info.setIndexName(indexName);
         info.tryDelete();
+        discardStatistics(indexName);
     }
 
     @SuppressWarnings("unchecked")
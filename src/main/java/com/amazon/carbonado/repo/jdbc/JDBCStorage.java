@@ -59,6 +59,7 @@ import com.amazon.carbonado.info.OrderedProperty;
 import com.amazon.carbonado.info.StorableProperty;
 import com.amazon.carbonado.info.StorablePropertyAdapter;
 import com.amazon.carbonado.qe.AbstractQueryExecutor;
+import com.amazon.carbonado.qe.CompositeScore;
 import com.amazon.carbonado.qe.FilteredQueryExecutor;
 import com.amazon.carbonado.qe.OrderingList;
 import com.amazon.carbonado.qe.QueryExecutor;
@@ -84,6 +85,9 @@ class JDBCStorage<S extends Storable> extends StandardQueryFactory<S>
 {
     private static final int FIRST_RESULT_INDEX = 1;
 
+    // Minimum fetch size to use for queries which favor throughput.
+    private static final int THROUGHPUT_FETCH_SIZE = 1000;
+
     final JDBCRepository mRepository;
     final JDBCSupportStrategy mSupportStrategy;
     final JDBCStorableInfo<S> mInfo;
@@ -533,7 +537,8 @@ class JDBCStorage<S extends Storable> extends StandardQueryFactory<S>
                                                      fromWhere,
                                                      deleteFromWhere,
                                                      propertyFilters,
-                                                     propertyFilterNullable);
+                                                     propertyFilterNullable,
+                                                     hints);
 
             if (remainderFilter != null && !remainderFilter.isOpen()) {
                 executor = new FilteredQueryExecutor<S>(executor, remainderFilter);
@@ -614,18 +619,29 @@ class JDBCStorage<S extends Storable> extends StandardQueryFactory<S>
         // Some entries may be null if no adapter required.
         private final Object[] mAdapterInstances;
 
+        private final Integer mFetchSize;
+
         Executor(Filter<S> filter,
                  OrderingList<S> ordering,
                  SQLStatement<S> selectStatement,
                  SQLStatement<S> fromWhere,
                  SQLStatement<S> deleteFromWhere,
                  PropertyFilter<S>[] propertyFilters,
-                 boolean[] propertyFilterNullable)
+                 boolean[] propertyFilterNullable,
+                 QueryHints hints)
             throws RepositoryException
         {
             mFilter = filter;
             mOrdering = ordering;
 
+            Integer fetchSize = mRepository.getFetchSize();
+            if (CompositeScore.favorsThroughput(hints)) {
+                if (fetchSize == null || fetchSize < THROUGHPUT_FETCH_SIZE) {
+                    fetchSize = THROUGHPUT_FETCH_SIZE;
+                }
+            }
+            mFetchSize = fetchSize;
+
             mSelectStatement = selectStatement;
             mMaxSelectStatementLength = selectStatement.maxLength();
 
@@ -708,7 +724,7 @@ class JDBCStorage<S extends Storable> extends StandardQueryFactory<S>
             try {
                 PreparedStatement ps =
                     prepareStatement(con, prepareSelect(values, forUpdate), controller);
-                Integer fetchSize = mRepository.getFetchSize();
+                Integer fetchSize = mFetchSize;
                 if (fetchSize != null) {
                     ps.setFetchSize(fetchSize);
                 }
@@ -790,7 +806,7 @@ class JDBCStorage<S extends Storable> extends StandardQueryFactory<S>
             Connection con = getConnection();
             try {
                 PreparedStatement ps = prepareStatement(con, select, controller);
-                Integer fetchSize = mRepository.getFetchSize();
+                Integer fetchSize = mFetchSize;
                 if (fetchSize != null) {
                     ps.setFetchSize(fetchSize);
                 }
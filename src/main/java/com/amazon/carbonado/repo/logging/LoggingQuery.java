@@ -23,12 +23,15 @@ import java.io.IOException;
 import com.amazon.carbonado.Cursor;
 import com.amazon.carbonado.FetchException;
 import com.amazon.carbonado.PersistException;
+import com.amazon.carbonado.PreparedQuery;
 import com.amazon.carbonado.Query;
 import com.amazon.carbonado.Storable;
 
 import com.amazon.carbonado.filter.Filter;
 import com.amazon.carbonado.filter.FilterValues;
 
+import com.amazon.carbonado.qe.SimplePreparedQuery;
+
 /**
  *
  *
@@ -340,6 +343,12 @@ class LoggingQuery<S extends Storable> implements Query<S> {
         return mQuery.exists(controller);
     }
 
+    @Override
+    public PreparedQuery<S> prepare() throws FetchException {
+        // Values are supplied to this query, so that each execution is logged.
+        return new SimplePreparedQuery<S>(this);
+    }
+
     @Override
     public boolean printNative() {
         return mQuery.printNative();
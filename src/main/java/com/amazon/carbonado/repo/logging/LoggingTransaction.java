@@ -18,9 +18,11 @@
 
 package com.amazon.carbonado.repo.logging;
 
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
+import com.amazon.carbonado.Durability;
 import com.amazon.carbonado.IsolationLevel;
 import com.amazon.carbonado.PersistException;
 import com.amazon.carbonado.Transaction;
@@ -79,6 +81,21 @@ class LoggingTransaction implements Transaction {
         mTxn.setDesiredLockTimeout(timeout, unit);
     }
 
+    public void setDurability(Durability durability) {
+        if (mLog.isEnabled()) {
+            mLog.write("Transaction.setDurability(" + durability + ") on " + idChain());
+        }
+        mTxn.setDurability(durability);
+    }
+
+    public Durability getDurability() {
+        return mTxn.getDurability();
+    }
+
+    public Future<Void> getDurabilityFuture() {
+        return mTxn.getDurabilityFuture();
+    }
+
     public IsolationLevel getIsolationLevel() {
         return mTxn.getIsolationLevel();
     }
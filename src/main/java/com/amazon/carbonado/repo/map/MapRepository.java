@@ -29,6 +29,8 @@ import com.amazon.carbonado.Storable;
 import com.amazon.carbonado.Storage;
 import com.amazon.carbonado.TriggerFactory;
 
+import com.amazon.carbonado.capability.Capability;
+import com.amazon.carbonado.capability.ChangeCaptureCapability;
 import com.amazon.carbonado.capability.IndexInfo;
 import com.amazon.carbonado.capability.IndexInfoCapability;
 
@@ -39,6 +41,7 @@ import com.amazon.carbonado.qe.RepositoryAccess;
 import com.amazon.carbonado.qe.StorageAccess;
 
 import com.amazon.carbonado.spi.AbstractRepository;
+import com.amazon.carbonado.spi.ChangeCaptureEngine;
 import com.amazon.carbonado.spi.LobEngine;
 
 import com.amazon.carbonado.txn.TransactionManager;
@@ -60,7 +63,10 @@ class MapRepository extends AbstractRepository<MapTransaction>
 
     final Iterable<TriggerFactory> mTriggerFactories;
     private final MapTransactionManager mTxnManager;
+    private final boolean mLobDeduplication;
     private LobEngine mLobEngine;
+    private final boolean mChangeCapture;
+    private ChangeCaptureEngine mChangeCaptureEngine;
 
     MapRepository(AtomicReference<Repository> rootRef, MapRepositoryBuilder builder) {
         super(builder.getName());
@@ -71,6 +77,8 @@ class MapRepository extends AbstractRepository<MapTransaction>
 
         mTriggerFactories = builder.getTriggerFactories();
         mTxnManager = new MapTransactionManager(mLockTimeout, mLockTimeoutUnit);
+        mLobDeduplication = builder.isLobDeduplication();
+        mChangeCapture = builder.isChangeCapture();
     }
 
     public Repository getRootRepository() {
@@ -83,6 +91,14 @@ class MapRepository extends AbstractRepository<MapTransaction>
         return (StorageAccess<S>) storageFor(type);
     }
 
+    @Override
+    public <C extends Capability> C getCapability(Class<C> capabilityType) {
+        if (capabilityType == ChangeCaptureCapability.class) {
+            return mChangeCapture ? (C) getChangeCaptureEngine() : null;
+        }
+        return super.getCapability(capabilityType);
+    }
+
     public <S extends Storable> IndexInfo[] getIndexInfo(Class<S> storableType)
         throws RepositoryException
     {
@@ -125,11 +141,22 @@ class MapRepository extends AbstractRepository<MapTransaction>
 
     LobEngine getLobEngine() throws RepositoryException {
         if (mLobEngine == null) {
-            mLobEngine = new LobEngine(this, getRootRepository());
+            mLobEngine = new LobEngine(this, getRootRepository(), mLobDeduplication);
         }
         return mLobEngine;
     }
 
+    boolean isChangeCapture() {
+        return mChangeCapture;
+    }
+
+    synchronized ChangeCaptureEngine getChangeCaptureEngine() {
+        if (mChangeCaptureEngine == null) {
+            mChangeCaptureEngine = new ChangeCaptureEngine(this, getRootRepository());
+        }
+        return mChangeCaptureEngine;
+    }
+
     boolean isMaster() {
         return mIsMaster;
     }
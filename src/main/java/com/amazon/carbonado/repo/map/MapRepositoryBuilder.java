@@ -73,6 +73,8 @@ public class MapRepositoryBuilder extends AbstractRepositoryBuilder {
     private boolean mIndexSupport = true;
     private int mLockTimeout;
     private TimeUnit mLockTimeoutUnit;
+    private boolean mLobDeduplication;
+    private boolean mChangeCapture;
 
     public MapRepositoryBuilder() {
         setLockTimeoutMillis(500);
@@ -148,4 +150,35 @@ public class MapRepositoryBuilder extends AbstractRepositoryBuilder {
     public TimeUnit getLockTimeoutUnit() {
         return mLockTimeoutUnit;
     }
+
+    /**
+     * When true, new Blobs and Clobs share the storage of identical blocks,
+     * which are keyed by a digest of their contents. Default is false.
+     */
+    public void setLobDeduplication(boolean b) {
+        mLobDeduplication = b;
+    }
+
+    /**
+     * Returns true if new Blobs and Clobs share the storage of identical blocks.
+     */
+    public boolean isLobDeduplication() {
+        return mLobDeduplication;
+    }
+
+    /**
+     * When true, the repository supports {@link
+     * com.amazon.carbonado.capability.ChangeCaptureCapability}. Default is
+     * false.
+     */
+    public void setChangeCapture(boolean b) {
+        mChangeCapture = b;
+    }
+
+    /**
+     * Returns true if the repository supports change capture.
+     */
+    public boolean isChangeCapture() {
+        return mChangeCapture;
+    }
 }
@@ -77,6 +77,7 @@ import com.amazon.carbonado.qe.QueryExecutorFactory;
 import com.amazon.carbonado.qe.QueryEngine;
 import com.amazon.carbonado.qe.StorageAccess;
 
+import com.amazon.carbonado.spi.ChangeCaptureEngine;
 import com.amazon.carbonado.spi.IndexInfoImpl;
 import com.amazon.carbonado.spi.LobEngine;
 import com.amazon.carbonado.spi.TriggerManager;
@@ -170,6 +171,14 @@ class MapStorage<S extends Storable>
                 addTrigger(lobTrigger);
             }
 
+            if (repo.isChangeCapture() && ChangeCaptureEngine.isCapturable(type)) {
+                Trigger<S> captureTrigger = repo.getChangeCaptureEngine()
+                    .getCaptureTrigger(type);
+                if (captureTrigger != null) {
+                    addTrigger(captureTrigger);
+                }
+            }
+
             // Don't install automatic triggers until we're completely ready.
             mTriggers.addTriggers(type, repo.mTriggerFactories);
         } catch (SupportException e) {
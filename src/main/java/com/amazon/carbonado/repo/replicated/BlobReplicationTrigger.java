@@ -51,7 +51,9 @@ class BlobReplicationTrigger<S extends Storable> extends Trigger<S> {
     /**
      * Returns null if no Blobs need to be replicated.
      */
-    static <S extends Storable> BlobReplicationTrigger<S> create(Storage<S> masterStorage) {
+    static <S extends Storable> BlobReplicationTrigger<S> create(ReplicatedRepository repository,
+                                                                Storage<S> masterStorage)
+    {
         Map<String, ? extends StorableProperty<S>> properties = 
             StorableIntrospector.examine(masterStorage.getStorableType()).getDataProperties();
 
@@ -67,14 +69,18 @@ class BlobReplicationTrigger<S extends Storable> extends Trigger<S> {
             return null;
         }
 
-        return new BlobReplicationTrigger<S>(masterStorage,
+        return new BlobReplicationTrigger<S>(repository, masterStorage,
                                              blobNames.toArray(new String[blobNames.size()]));
     }
 
+    private final ReplicatedRepository mRepository;
     private final Storage<S> mMasterStorage;
     private final String[] mBlobNames;
 
-    private BlobReplicationTrigger(Storage<S> masterStorage, String[] blobNames) {
+    private BlobReplicationTrigger(ReplicatedRepository repository,
+                                 Storage<S> masterStorage, String[] blobNames)
+    {
+        mRepository = repository;
         mMasterStorage = masterStorage;
         mBlobNames = blobNames;
     }
@@ -243,6 +249,10 @@ class BlobReplicationTrigger<S extends Storable> extends Trigger<S> {
          * Returns null if not supported.
          */
         private Blob masterBlob() throws PersistException {
+            // Master is written directly, and so it must be in the same
+            // transaction as the replica.
+            mRepository.joinMasterTransaction();
+
             Blob masterBlob = mMasterBlob;
 
             if (mMasterBlobLoaded) {
@@ -0,0 +1,429 @@
+/*
+ * Copyright 2006-2012 Amazon Technologies, Inc. or its affiliates.
+ * Amazon, Amazon.com and Carbonado are trademarks or registered trademarks
+ * of Amazon Technologies, Inc. or its affiliates.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.carbonado.repo.replicated;
+
+import com.amazon.carbonado.FetchException;
+import com.amazon.carbonado.PersistException;
+import com.amazon.carbonado.Query;
+import com.amazon.carbonado.Repository;
+import com.amazon.carbonado.RepositoryException;
+import com.amazon.carbonado.Storable;
+import com.amazon.carbonado.Storage;
+import com.amazon.carbonado.Trigger;
+
+import com.amazon.carbonado.filter.Filter;
+
+import com.amazon.carbonado.gen.DelegateStorableGenerator;
+import com.amazon.carbonado.gen.DelegateSupport;
+
+import com.amazon.carbonado.info.StorableInfo;
+import com.amazon.carbonado.info.StorableIntrospector;
+
+import com.amazon.carbonado.sequence.SequenceValueProducer;
+
+import com.amazon.carbonado.spi.TriggerManager;
+
+import com.amazon.carbonado.util.QuickConstructorGenerator;
+
+/**
+ * Storage used when the replica is a bounded cache of the master. Loads which
+ * miss the replica, or which find an expired entry, read through to the master
+ * and copy the master storable into the replica. Writes are replicated as
+ * usual, after first loading the storable into the replica.
+ *
+ * <p>Because the replica only holds a subset of the master, queries always go
+ * to the master. Writes made against storables returned by queries bypass the
+ * replica, and so they evict the affected replica entries. Triggers are also
+ * added to the master storage, to run for these writes and for the loads
+ * performed by queries.
+ *
+ * <p>Replica entries which exist when the storage is opened are not tracked
+ * by the cache, and so they are deleted.
+ *
+ * @see ReplicaCache
+ */
+class CachedStorage<S extends Storable> implements Storage<S>, DelegateSupport<S> {
+    /**
+     * Returns true if storables of the given type can be cached.
+     */
+    static boolean isSupported(StorableInfo<?> info) {
+        return WriteBehindReplicator.isKeySupported(info);
+    }
+
+    private final ReplicatedRepository mRepository;
+    private final ReplicatedStorage<S> mReplicatedStorage;
+    private final ReplicaCache mCache;
+    private final StorableInfo<S> mInfo;
+    private final InstanceFactory mInstanceFactory;
+
+    // Evicts replica entries when master storables are changed directly, and
+    // runs the triggers added to this storage.
+    private final TriggerManager<S> mInvalidator;
+
+    CachedStorage(ReplicatedRepository repository,
+                  ReplicatedStorage<S> replicatedStorage,
+                  ReplicaCache cache)
+        throws RepositoryException
+    {
+        mRepository = repository;
+        mReplicatedStorage = replicatedStorage;
+        mCache = cache;
+
+        Class<S> type = replicatedStorage.getStorableType();
+        mInfo = StorableIntrospector.examine(type);
+
+        // Replica storage performs all required checks and normalization, and
+        // so no master features are required.
+        Class<? extends S> delegateStorableClass =
+            DelegateStorableGenerator.getDelegateClass(type, null);
+
+        mInstanceFactory = QuickConstructorGenerator
+            .getInstance(delegateStorableClass, InstanceFactory.class);
+
+        mInvalidator = new TriggerManager<S>();
+        mInvalidator.addTrigger(new Trigger<S>() {
+            @Override
+            public void afterInsert(S master, Object state) throws PersistException {
+                invalidate(master);
+            }
+
+            @Override
+            public void afterUpdate(S master, Object state) throws PersistException {
+                invalidate(master);
+            }
+
+            @Override
+            public void afterDelete(S master, Object state) throws PersistException {
+                invalidate(master);
+            }
+        });
+        replicatedStorage.mMasterStorage.addTrigger(mInvalidator);
+
+        ReplicationTrigger<S> trigger = replicatedStorage.getReplicationTrigger();
+        trigger.setReplicationDisabled();
+        try {
+            replicatedStorage.mReplicaStorage.truncate();
+        } finally {
+            trigger.setReplicationEnabled();
+        }
+    }
+
+    public Class<S> getStorableType() {
+        return mInfo.getStorableType();
+    }
+
+    public S prepare() {
+        return (S) mInstanceFactory.instantiate(this);
+    }
+
+    public Query<S> query() throws FetchException {
+        return mReplicatedStorage.mMasterStorage.query();
+    }
+
+    public Query<S> query(String filter) throws FetchException {
+        return mReplicatedStorage.mMasterStorage.query(filter);
+    }
+
+    public Query<S> query(Filter<S> filter) throws FetchException {
+        return mReplicatedStorage.mMasterStorage.query(filter);
+    }
+
+    public void truncate() throws PersistException {
+        mReplicatedStorage.truncate();
+        mCache.cleared(this);
+    }
+
+    public boolean addTrigger(Trigger<? super S> trigger) {
+        mInvalidator.addTrigger(trigger);
+        return mReplicatedStorage.addTrigger(trigger);
+    }
+
+    public boolean removeTrigger(Trigger<? super S> trigger) {
+        mInvalidator.removeTrigger(trigger);
+        return mReplicatedStorage.removeTrigger(trigger);
+    }
+
+    ReplicatedStorage<S> getReplicatedStorage() {
+        return mReplicatedStorage;
+    }
+
+    public Repository getRootRepository() {
+        return mRepository;
+    }
+
+    public boolean isPropertySupported(String propertyName) {
+        return mInfo.getAllProperties().containsKey(propertyName);
+    }
+
+    // Triggers are run by the replica storage.
+
+    public Trigger<? super S> getInsertTrigger() {
+        return null;
+    }
+
+    public Trigger<? super S> getUpdateTrigger() {
+        return null;
+    }
+
+    public Trigger<? super S> getDeleteTrigger() {
+        return null;
+    }
+
+    public Trigger<? super S> getLoadTrigger() {
+        return null;
+    }
+
+    public void locallyDisableLoadTrigger() {
+    }
+
+    public void locallyEnableLoadTrigger() {
+    }
+
+    public SequenceValueProducer getSequenceValueProducer(String name) throws PersistException {
+        throw new PersistException("Sequences are assigned by the replica storage");
+    }
+
+    public boolean doTryLoad(S storable) throws FetchException {
+        S replica = load(storable);
+        if (replica == null) {
+            return false;
+        }
+        storable.markAllPropertiesDirty();
+        replica.copyAllProperties(storable);
+        storable.markAllPropertiesClean();
+        return true;
+    }
+
+    public boolean doTryInsert(S storable) throws PersistException {
+        S replica = mReplicatedStorage.mReplicaStorage.prepare();
+        storable.copyAllProperties(replica);
+
+        disableMasterTriggers();
+        try {
+            if (!replica.tryInsert()) {
+                return false;
+            }
+        } finally {
+            enableMasterTriggers();
+        }
+
+        mCache.filled(this, encodeKey(replica));
+        evict();
+
+        storable.markAllPropertiesDirty();
+        replica.copyAllProperties(storable);
+        storable.markAllPropertiesClean();
+        return true;
+    }
+
+    public boolean doTryUpdate(S storable) throws PersistException {
+        // Replication requires the replica entry to exist.
+        try {
+            if (load(storable) == null) {
+                return false;
+            }
+        } catch (FetchException e) {
+            throw e.toPersistException();
+        }
+
+        S replica = mReplicatedStorage.mReplicaStorage.prepare();
+        storable.copyPrimaryKeyProperties(replica);
+        storable.copyVersionProperty(replica);
+        storable.copyDirtyProperties(replica);
+
+        disableMasterTriggers();
+        try {
+            if (!replica.tryUpdate()) {
+                return false;
+            }
+        } finally {
+            enableMasterTriggers();
+        }
+
+        storable.markAllPropertiesDirty();
+        replica.copyAllProperties(storable);
+        storable.markAllPropertiesClean();
+        return true;
+    }
+
+    public boolean doTryDelete(S storable) throws PersistException {
+        // Load replica entry, such that any triggers run as usual.
+        S replica;
+        try {
+            replica = load(storable);
+        } catch (FetchException e) {
+            throw e.toPersistException();
+        }
+        if (replica == null) {
+            return false;
+        }
+
+        disableMasterTriggers();
+        try {
+            return replica.tryDelete();
+        } finally {
+            enableMasterTriggers();
+            mCache.removed(this, encodeKey(replica));
+        }
+    }
+
+    /**
+     * Evicts a replica entry, without replicating the delete.
+     *
+     * @param key encoded primary key
+     */
+    void evict(byte[] key) throws PersistException {
+        S replica = mReplicatedStorage.mReplicaStorage.prepare();
+        try {
+            WriteBehindReplicator.decodeKey(mInfo, key, replica);
+        } catch (FetchException e) {
+            throw e.toPersistException();
+        }
+        deleteReplica(replica);
+    }
+
+    private void evict() {
+        if (mRepository.getReplicaRepository().getTransactionIsolationLevel() == null) {
+            mCache.evict();
+        }
+    }
+
+    /**
+     * Returns the replica entry matching the given storable's key, reading
+     * through to the master if not cached.
+     *
+     * @return null if not found
+     */
+    private S load(S storable) throws FetchException {
+        S replica = mReplicatedStorage.mReplicaStorage.prepare();
+        // Copy all properties, since storable might only have an alternate key.
+        storable.copyAllProperties(replica);
+
+        boolean found = replica.tryLoad();
+        if (found && mCache.isValid(this, encodeKey(replica))) {
+            return replica;
+        }
+
+        S master = mReplicatedStorage.mMasterStorage.prepare();
+        storable.copyAllProperties(master);
+
+        ReplicationTrigger<S> trigger = mReplicatedStorage.getReplicationTrigger();
+
+        try {
+            boolean loaded;
+            if (!found) {
+                loaded = master.tryLoad();
+            } else {
+                // Load triggers already ran against the expired replica entry.
+                mInvalidator.locallyDisableLoad();
+                try {
+                    loaded = master.tryLoad();
+                } finally {
+                    mInvalidator.locallyEnableLoad();
+                }
+            }
+
+            if (!loaded) {
+                if (found) {
+                    // Remove stale entry.
+                    deleteReplica(replica);
+                    mCache.removed(this, encodeKey(replica));
+                }
+                return null;
+            }
+
+            S fresh = mReplicatedStorage.mReplicaStorage.prepare();
+            master.copyAllProperties(fresh);
+
+            trigger.setReplicationDisabled();
+            try {
+                if (found) {
+                    if (!replica.equalPrimaryKeys(fresh)) {
+                        // Alternate key now refers to a different storable.
+                        replica.tryDelete();
+                        found = false;
+                    } else if (!fresh.tryUpdate()) {
+                        found = false;
+                    }
+                }
+                if (!found && !fresh.tryInsert()) {
+                    // Raced with another thread filling the same entry.
+                    fresh.tryUpdate();
+                }
+            } finally {
+                trigger.setReplicationEnabled();
+            }
+
+            mCache.filled(this, encodeKey(fresh));
+            evict();
+            return fresh;
+        } catch (PersistException e) {
+            throw e.toFetchException();
+        }
+    }
+
+    private void invalidate(S master) throws PersistException {
+        S replica = mReplicatedStorage.mReplicaStorage.prepare();
+        master.copyPrimaryKeyProperties(replica);
+        deleteReplica(replica);
+        mCache.removed(this, encodeKey(replica));
+    }
+
+    /**
+     * Disables the triggers added to the master storage, while a write
+     * through the replica is replicated to the master.
+     */
+    private void disableMasterTriggers() {
+        TriggerManager<S> tm = mInvalidator;
+        tm.locallyDisableInsert();
+        tm.locallyDisableUpdate();
+        tm.locallyDisableDelete();
+        tm.locallyDisableLoad();
+    }
+
+    private void enableMasterTriggers() {
+        TriggerManager<S> tm = mInvalidator;
+        tm.locallyEnableInsert();
+        tm.locallyEnableUpdate();
+        tm.locallyEnableDelete();
+        tm.locallyEnableLoad();
+    }
+
+    /**
+     * Deletes a replica entry without running any triggers, since it is
+     * removed from the cache and not from the master.
+     */
+    private void deleteReplica(S replica) throws PersistException {
+        ReplicationTrigger<S> trigger = mReplicatedStorage.getReplicationTrigger();
+        trigger.setReplicationDisabled();
+        try {
+            replica.tryDelete();
+        } finally {
+            trigger.setReplicationEnabled();
+        }
+    }
+
+    private byte[] encodeKey(S replica) {
+        return WriteBehindReplicator.encodeKey(mInfo, replica);
+    }
+
+    public static interface InstanceFactory {
+        Storable instantiate(DelegateSupport support);
+    }
+}
@@ -49,7 +49,9 @@ class ClobReplicationTrigger<S extends Storable> extends Trigger<S> {
     /**
      * Returns null if no Clobs need to be replicated.
      */
-    static <S extends Storable> ClobReplicationTrigger<S> create(Storage<S> masterStorage) {
+    static <S extends Storable> ClobReplicationTrigger<S> create(ReplicatedRepository repository,
+                                                                Storage<S> masterStorage)
+    {
         Map<String, ? extends StorableProperty<S>> properties = 
             StorableIntrospector.examine(masterStorage.getStorableType()).getDataProperties();
 
@@ -65,14 +67,18 @@ class ClobReplicationTrigger<S extends Storable> extends Trigger<S> {
             return null;
         }
 
-        return new ClobReplicationTrigger<S>(masterStorage,
+        return new ClobReplicationTrigger<S>(repository, masterStorage,
                                              clobNames.toArray(new String[clobNames.size()]));
     }
 
+    private final ReplicatedRepository mRepository;
     private final Storage<S> mMasterStorage;
     private final String[] mClobNames;
 
-    private ClobReplicationTrigger(Storage<S> masterStorage, String[] clobNames) {
+    private ClobReplicationTrigger(ReplicatedRepository repository,
+                                 Storage<S> masterStorage, String[] clobNames)
+    {
+        mRepository = repository;
         mMasterStorage = masterStorage;
         mClobNames = clobNames;
     }
@@ -231,6 +237,10 @@ class ClobReplicationTrigger<S extends Storable> extends Trigger<S> {
          * Returns null if not supported.
          */
         private Clob masterClob() throws PersistException {
+            // Master is written directly, and so it must be in the same
+            // transaction as the replica.
+            mRepository.joinMasterTransaction();
+
             Clob masterClob = mMasterClob;
 
             if (mMasterClobLoaded) {
@@ -0,0 +1,239 @@
+/*
+ * Copyright 2006-2012 Amazon Technologies, Inc. or its affiliates.
+ * Amazon, Amazon.com and Carbonado are trademarks or registered trademarks
+ * of Amazon Technologies, Inc. or its affiliates.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.carbonado.repo.replicated;
+
+import java.lang.reflect.UndeclaredThrowableException;
+
+import java.nio.charset.Charset;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.amazon.carbonado.Cursor;
+import com.amazon.carbonado.FetchException;
+import com.amazon.carbonado.Query;
+import com.amazon.carbonado.Repository;
+import com.amazon.carbonado.RepositoryException;
+import com.amazon.carbonado.Storable;
+import com.amazon.carbonado.Storage;
+
+import com.amazon.carbonado.capability.RemoteProcedure;
+
+import com.amazon.carbonado.info.StorableIntrospector;
+import com.amazon.carbonado.info.StorableProperty;
+
+import com.amazon.carbonado.lob.Lob;
+
+/**
+ * Computes digests of storables over adjacent ranges of an integer property,
+ * for detecting which ranges of a replica differ from the master. Digests are
+ * independent of the order in which storables are scanned. Each range produces
+ * five longs: the storable count, the sum of each half of the 128-bit
+ * storable digests, and the minimum and maximum range property values.
+ *
+ * <p>As a remote procedure, the digests are computed on the master host and
+ * replied in range order.
+ */
+class RangeDigest<S extends Storable> implements RemoteProcedure<long[], Object> {
+    private static final long serialVersionUID = 1L;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final Class<S> mType;
+    private final String mFilter;
+    private final Object[] mFilterValues;
+    private final String mRangeProperty;
+    // Inclusive start of each range.
+    private final long[] mStarts;
+    // Inclusive end of last range.
+    private final long mEnd;
+
+    /**
+     * @param filter optional query filter
+     * @param starts inclusive start of each range, in increasing order
+     * @param end inclusive end of the last range
+     */
+    RangeDigest(Class<S> type, String filter, Object[] filterValues,
+                String rangeProperty, long[] starts, long end)
+    {
+        mType = type;
+        mFilter = filter;
+        mFilterValues = filterValues;
+        mRangeProperty = rangeProperty;
+        mStarts = starts;
+        mEnd = end;
+    }
+
+    public boolean handleRequest(Repository repo, Request<long[], Object> request)
+        throws RepositoryException
+    {
+        long[][] digests = digest(repo.storageFor(mType));
+        Reply<long[]> reply = request.beginReply();
+        try {
+            for (long[] digest : digests) {
+                reply.send(digest);
+            }
+        } finally {
+            reply.finish();
+        }
+        return true;
+    }
+
+    /**
+     * Computes the digests of all ranges with a single scan.
+     */
+    long[][] digest(Storage<S> storage) throws FetchException {
+        Query<S> query;
+        if (mFilter == null) {
+            query = storage.query();
+        } else {
+            query = storage.query(mFilter).withValues(mFilterValues);
+        }
+        StorableProperty<S> property =
+            StorableIntrospector.examine(mType).getAllProperties().get(mRangeProperty);
+        query = ReplicatedRepository.rangeQuery(query, property, mStarts[0], mEnd, true);
+
+        String[] names = digestedProperties(mType);
+        MessageDigest md = newDigest();
+        byte[] scratch = new byte[8];
+
+        long[][] digests = new long[mStarts.length][5];
+
+        Cursor<S> cursor = query.fetch();
+        try {
+            while (cursor.hasNext()) {
+                S storable = cursor.next();
+
+                long value = ((Number) storable.getPropertyValue(mRangeProperty)).longValue();
+                int index = Arrays.binarySearch(mStarts, value);
+                if (index < 0) {
+                    index = ~index - 1;
+                }
+
+                for (String name : names) {
+                    update(md, scratch, storable.getPropertyValue(name));
+                }
+
+                byte[] hash = md.digest();
+                long[] digest = digests[index];
+                if (digest[0]++ == 0) {
+                    digest[3] = value;
+                    digest[4] = value;
+                } else if (value < digest[3]) {
+                    digest[3] = value;
+                } else if (value > digest[4]) {
+                    digest[4] = value;
+                }
+                digest[1] += toLong(hash, 0);
+                digest[2] += toLong(hash, 8);
+            }
+        } finally {
+            cursor.close();
+        }
+
+        return digests;
+    }
+
+    private static <S extends Storable> String[] digestedProperties(Class<S> type) {
+        List<String> names = new ArrayList<String>();
+        for (StorableProperty<S> property :
+                 StorableIntrospector.examine(type).getAllProperties().values())
+        {
+            if (property.isJoin() || property.isDerived() || property.isIndependent() ||
+                Lob.class.isAssignableFrom(property.getType()))
+            {
+                continue;
+            }
+            names.add(property.getName());
+        }
+        String[] array = names.toArray(new String[names.size()]);
+        // Both hosts must digest properties in the same order.
+        Arrays.sort(array);
+        return array;
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new UndeclaredThrowableException(e);
+        }
+    }
+
+    private static void update(MessageDigest md, byte[] scratch, Object value) {
+        if (value == null) {
+            md.update((byte) 0);
+            return;
+        }
+
+        long bits;
+        if (value instanceof Long || value instanceof Integer ||
+            value instanceof Short || value instanceof Byte)
+        {
+            md.update((byte) 1);
+            bits = ((Number) value).longValue();
+        } else if (value instanceof Double) {
+            md.update((byte) 2);
+            bits = Double.doubleToLongBits((Double) value);
+        } else if (value instanceof Float) {
+            md.update((byte) 3);
+            bits = Float.floatToIntBits((Float) value);
+        } else if (value instanceof Boolean) {
+            md.update((byte) 4);
+            bits = ((Boolean) value) ? 1 : 0;
+        } else if (value instanceof Character) {
+            md.update((byte) 5);
+            bits = (Character) value;
+        } else {
+            byte[] bytes;
+            if (value instanceof byte[]) {
+                md.update((byte) 6);
+                bytes = (byte[]) value;
+            } else {
+                md.update((byte) 7);
+                bytes = value.toString().getBytes(UTF_8);
+            }
+            bits = bytes.length;
+            update(md, scratch, bits);
+            md.update(bytes);
+            return;
+        }
+
+        update(md, scratch, bits);
+    }
+
+    private static void update(MessageDigest md, byte[] scratch, long bits) {
+        for (int i=0; i<8; i++) {
+            scratch[i] = (byte) (bits >> (56 - i * 8));
+        }
+        md.update(scratch);
+    }
+
+    private static long toLong(byte[] bytes, int offset) {
+        long value = 0;
+        for (int i=0; i<8; i++) {
+            value = (value << 8) | (bytes[offset + i] & 0xff);
+        }
+        return value;
+    }
+}
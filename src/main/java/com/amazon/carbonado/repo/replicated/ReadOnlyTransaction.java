@@ -18,8 +18,10 @@
 
 package com.amazon.carbonado.repo.replicated;
 
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
+import com.amazon.carbonado.Durability;
 import com.amazon.carbonado.IsolationLevel;
 import com.amazon.carbonado.PersistException;
 import com.amazon.carbonado.Transaction;
@@ -63,6 +65,21 @@ class ReadOnlyTransaction implements Transaction {
         mTxn.setDesiredLockTimeout(timeout, unit);
     }
 
+    @Override
+    public void setDurability(Durability durability) {
+        mTxn.setDurability(durability);
+    }
+
+    @Override
+    public Durability getDurability() {
+        return mTxn.getDurability();
+    }
+
+    @Override
+    public Future<Void> getDurabilityFuture() {
+        return mTxn.getDurabilityFuture();
+    }
+
     @Override
     public IsolationLevel getIsolationLevel() {
         return mTxn.getIsolationLevel();
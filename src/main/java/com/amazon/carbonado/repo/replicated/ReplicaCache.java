@@ -0,0 +1,185 @@
+/*
+ * Copyright 2006-2012 Amazon Technologies, Inc. or its affiliates.
+ * Amazon, Amazon.com and Carbonado are trademarks or registered trademarks
+ * of Amazon Technologies, Inc. or its affiliates.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.carbonado.repo.replicated;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.amazon.carbonado.PersistException;
+
+/**
+ * Tracks the storables held by a replica which serves as a bounded cache of
+ * the master. When the maximum number of entries is exceeded, the least
+ * recently used storables are evicted from the replica. Entries can also
+ * expire, forcing them to be loaded again from the master.
+ *
+ * @see CachedStorage
+ */
+class ReplicaCache {
+    private final int mMaxEntries;
+    private final long mTimeToLiveMillis;
+
+    // Maps entries to the time they were filled, in access order.
+    private final LinkedHashMap<Entry, Long> mEntries;
+
+    // Entries which are no longer tracked, but are still in the replica.
+    private List<Entry> mEvicted;
+
+    /**
+     * @param maxEntries maximum number of storables to hold in the replica
+     * @param timeToLiveMillis maximum age of a cached storable, or zero if unlimited
+     */
+    ReplicaCache(int maxEntries, long timeToLiveMillis) {
+        mMaxEntries = maxEntries;
+        mTimeToLiveMillis = timeToLiveMillis;
+        mEntries = new LinkedHashMap<Entry, Long>(16, 0.75f, true);
+    }
+
+    /**
+     * Returns true if the given storable is held by the replica and has not
+     * expired. Storables which are in the replica but not tracked are
+     * considered to be expired.
+     *
+     * @param key encoded primary key
+     */
+    synchronized boolean isValid(CachedStorage<?> storage, byte[] key) {
+        Entry entry = new Entry(storage, key);
+        Long filled = mEntries.get(entry);
+        if (filled == null) {
+            return false;
+        }
+        if (mTimeToLiveMillis > 0
+            && (System.currentTimeMillis() - filled) > mTimeToLiveMillis)
+        {
+            mEntries.remove(entry);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Called after the given storable has been copied into the replica. If
+     * the maximum is exceeded, the least recently used storables must be
+     * evicted by calling evict.
+     *
+     * @param key encoded primary key
+     */
+    synchronized void filled(CachedStorage<?> storage, byte[] key) {
+        mEntries.put(new Entry(storage, key), System.currentTimeMillis());
+        if (mEntries.size() > mMaxEntries) {
+            if (mEvicted == null) {
+                mEvicted = new ArrayList<Entry>();
+            }
+            Iterator<Entry> it = mEntries.keySet().iterator();
+            while (mEntries.size() > mMaxEntries) {
+                mEvicted.add(it.next());
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Deletes least recently used storables from the replica. Caller must not
+     * be in a transaction, or else the deletes might be rolled back, and so
+     * storables evicted during a transaction are deleted when it exits.
+     * Deletes are not performed by a separate thread, because concurrent
+     * writers can deadlock in replicas which lock coarsely.
+     */
+    void evict() {
+        List<Entry> evicted;
+        synchronized (this) {
+            evicted = mEvicted;
+            if (evicted == null) {
+                return;
+            }
+            mEvicted = null;
+        }
+
+        for (Entry entry : evicted) {
+            try {
+                entry.mStorage.evict(entry.mKey);
+            } catch (PersistException e) {
+                Log log = LogFactory.getLog(ReplicatedRepository.class);
+                log.warn("Unable to evict replica entry", e);
+            }
+        }
+    }
+
+    /**
+     * Called after the given storable has been removed from the replica.
+     *
+     * @param key encoded primary key
+     */
+    synchronized void removed(CachedStorage<?> storage, byte[] key) {
+        mEntries.remove(new Entry(storage, key));
+    }
+
+    /**
+     * Called after all storables of the given storage have been removed.
+     */
+    synchronized void cleared(CachedStorage<?> storage) {
+        Iterator<Entry> it = mEntries.keySet().iterator();
+        while (it.hasNext()) {
+            if (it.next().mStorage == storage) {
+                it.remove();
+            }
+        }
+        if (mEvicted != null) {
+            it = mEvicted.iterator();
+            while (it.hasNext()) {
+                if (it.next().mStorage == storage) {
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    private static class Entry {
+        final CachedStorage<?> mStorage;
+        final byte[] mKey;
+
+        Entry(CachedStorage<?> storage, byte[] key) {
+            mStorage = storage;
+            mKey = key;
+        }
+
+        @Override
+        public int hashCode() {
+            return mStorage.hashCode() * 31 + Arrays.hashCode(mKey);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (obj instanceof Entry) {
+                Entry other = (Entry) obj;
+                return mStorage == other.mStorage && Arrays.equals(mKey, other.mKey);
+            }
+            return false;
+        }
+    }
+}
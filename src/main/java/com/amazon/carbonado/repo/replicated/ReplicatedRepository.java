@@ -17,11 +17,21 @@
  */
 package com.amazon.carbonado.repo.replicated;
 
+import java.math.BigInteger;
+
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Queue;
 import java.util.Set;
 
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
@@ -44,9 +54,11 @@ import com.amazon.carbonado.UnsupportedTypeException;
 import com.amazon.carbonado.capability.Capability;
 import com.amazon.carbonado.capability.IndexInfo;
 import com.amazon.carbonado.capability.IndexInfoCapability;
+import com.amazon.carbonado.capability.RemoteProcedureCapability;
 import com.amazon.carbonado.capability.ResyncCapability;
 import com.amazon.carbonado.capability.ShutdownCapability;
 import com.amazon.carbonado.capability.StorableInfoCapability;
+import com.amazon.carbonado.capability.WriteBehindCapability;
 
 import com.amazon.carbonado.cursor.SortedCursor;
 
@@ -56,6 +68,7 @@ import com.amazon.carbonado.info.Direction;
 import com.amazon.carbonado.info.StorableIndex;
 import com.amazon.carbonado.info.StorableInfo;
 import com.amazon.carbonado.info.StorableIntrospector;
+import com.amazon.carbonado.info.StorableProperty;
 
 import com.amazon.carbonado.qe.IndexedQueryAnalyzer;
 import com.amazon.carbonado.qe.OrderingList;
@@ -93,6 +106,12 @@ class ReplicatedRepository
     // scanned. Otherwise, write locks may be held for a very long time.
     private static final int RESYNC_WATERMARK = 100;
 
+    // Number of sub-ranges to split a range into when digests differ.
+    private static final int DIGEST_FAN_OUT = 16;
+
+    // Fully compare ranges with digests that differ, if this size or smaller.
+    private static final int DIGEST_LEAF_SIZE = 1000;
+
     /**
      * Utility method to select the natural ordering of a storage, by looking for a clustered
      * index on the primary key. Returns null if no clustered index was found. If a filter is
@@ -182,9 +201,33 @@ class ReplicatedRepository
 
     private final StoragePool mStoragePool;
 
+    // Is null if write-behind is disabled.
+    private final WriteBehindReplicator mWriteBehind;
+
+    // Current write-behind transaction of each thread.
+    private final ThreadLocal<WriteBehindTransaction> mWriteBehindTxn;
+
+    // Is set in write-behind mode once an authoritative type is opened. Its
+    // storables are written to the master directly, without any trigger
+    // which can enter a master transaction when needed.
+    private volatile boolean mJoinMasterEagerly;
+
+    // Is null if replica is a full copy of the master.
+    private final ReplicaCache mCache;
+
+    /**
+     * @param writeBehind when true, writes are applied to the master asynchronously
+     * @param cacheMaxEntries when positive, replica is a cache of at most this many storables
+     * @param cacheTimeToLiveMillis maximum age of cached storables, or zero if unlimited
+     */
     ReplicatedRepository(String aName,
                          Repository aReplicaRepository,
-                         Repository aMasterRepository) {
+                         Repository aMasterRepository,
+                         boolean writeBehind,
+                         int cacheMaxEntries,
+                         long cacheTimeToLiveMillis)
+        throws RepositoryException
+    {
         mName = aName;
         mReplicaRepository = aReplicaRepository;
         mMasterRepository = aMasterRepository;
@@ -199,7 +242,12 @@ class ReplicatedRepository
                 if (info.isAuthoritative()) {
                     // Cannot rely on replica to be up-to-date, so always go to master.
                     try {
-                        return mMasterRepository.storageFor(type);
+                        Storage<S> masterStorage = mMasterRepository.storageFor(type);
+                        if (mWriteBehind != null) {
+                            mJoinMasterEagerly = true;
+                            joinMasterTransaction();
+                        }
+                        return masterStorage;
                     } catch (UnsupportedTypeException e) {
                         if (info.isIndependent()) {
                             // Okay, no master. A standalone replica is
@@ -211,7 +259,13 @@ class ReplicatedRepository
                 } else {
                     Storage<S> replicaStorage = mReplicaRepository.storageFor(type);
                     try {
-                        return new ReplicatedStorage<S>(ReplicatedRepository.this, replicaStorage);
+                        ReplicatedStorage<S> storage =
+                            new ReplicatedStorage<S>(ReplicatedRepository.this, replicaStorage);
+                        if (mCache != null && CachedStorage.isSupported(info)) {
+                            return new CachedStorage<S>
+                                (ReplicatedRepository.this, storage, mCache);
+                        }
+                        return storage;
                     } catch (UnsupportedTypeException e) {
                         if (info.isIndependent()) {
                             // Okay, no master.
@@ -222,6 +276,18 @@ class ReplicatedRepository
                 }
             }
         };
+
+        mCache = cacheMaxEntries <= 0 ? null
+            : new ReplicaCache(cacheMaxEntries, cacheTimeToLiveMillis);
+
+        mWriteBehindTxn = new ThreadLocal<WriteBehindTransaction>();
+
+        if (!writeBehind) {
+            mWriteBehind = null;
+        } else {
+            mWriteBehind = new WriteBehindReplicator(this, aReplicaRepository, aMasterRepository);
+            mWriteBehind.start();
+        }
     }
 
     public String getName() {
@@ -237,6 +303,24 @@ class ReplicatedRepository
         return mMasterRepository;
     }
 
+    WriteBehindReplicator getWriteBehind() {
+        return mWriteBehind;
+    }
+
+    /**
+     * In write-behind mode, enters a master transaction for the current
+     * transaction, if any, such that master writes made by synchronously
+     * replicated types are atomic with the transaction.
+     */
+    void joinMasterTransaction() throws PersistException {
+        if (mWriteBehind != null) {
+            WriteBehindTransaction txn = mWriteBehindTxn.get();
+            if (txn != null) {
+                txn.joinMaster();
+            }
+        }
+    }
+
     public <S extends Storable> Storage<S> storageFor(Class<S> type)
         throws MalformedTypeException, SupportException, RepositoryException
     {
@@ -244,42 +328,82 @@ class ReplicatedRepository
     }
 
     public Transaction enterTransaction() {
+        if (mWriteBehind != null) {
+            return enterWriteBehind(mReplicaRepository.enterTransaction(), false, null);
+        }
+
         Transaction master;
         try {
             master = mMasterRepository.enterTransaction();
         } catch (BelatedCreationException e) {
-            return new ReadOnlyTransaction(mReplicaRepository.enterTransaction());
+            return evictOnExit(new ReadOnlyTransaction(mReplicaRepository.enterTransaction()));
         }
 
-        return new TransactionPair(master, mReplicaRepository.enterTransaction());
+        return evictOnExit(new TransactionPair(master, mReplicaRepository.enterTransaction()));
     }
 
     public Transaction enterTransaction(IsolationLevel level) {
+        if (mWriteBehind != null) {
+            return enterWriteBehind(mReplicaRepository.enterTransaction(level), false, level);
+        }
+
         Transaction master;
         try {
             master = mMasterRepository.enterTransaction(level);
         } catch (BelatedCreationException e) {
-            return new ReadOnlyTransaction(mReplicaRepository.enterTransaction(level));
+            return evictOnExit
+                (new ReadOnlyTransaction(mReplicaRepository.enterTransaction(level)));
         }
 
-        return new TransactionPair(master, mReplicaRepository.enterTransaction(level));
+        return evictOnExit
+            (new TransactionPair(master, mReplicaRepository.enterTransaction(level)));
     }
 
     public Transaction enterTopTransaction(IsolationLevel level) {
+        if (mWriteBehind != null) {
+            return enterWriteBehind(mReplicaRepository.enterTopTransaction(level), true, level);
+        }
+
         Transaction master;
         try {
             master = mMasterRepository.enterTopTransaction(level);
         } catch (BelatedCreationException e) {
-            return new ReadOnlyTransaction(mReplicaRepository.enterTopTransaction(level));
+            return evictOnExit
+                (new ReadOnlyTransaction(mReplicaRepository.enterTopTransaction(level)));
         }
 
-        return new TransactionPair(master, mReplicaRepository.enterTopTransaction(level));
+        return evictOnExit
+            (new TransactionPair(master, mReplicaRepository.enterTopTransaction(level)));
+    }
+
+    /**
+     * Queued writes only reach the master asynchronously, in transactions of
+     * their own, and so a master transaction is only entered when a
+     * synchronously replicated type needs one.
+     */
+    private Transaction enterWriteBehind(Transaction replicaTxn,
+                                         boolean top, IsolationLevel level)
+    {
+        WriteBehindTransaction txn = new WriteBehindTransaction
+            (mMasterRepository, replicaTxn, mWriteBehindTxn, top, level);
+        if (mJoinMasterEagerly) {
+            try {
+                txn.joinMaster();
+            } catch (PersistException e) {
+                // Master is unavailable, and so writes to it fail anyhow.
+            }
+        }
+        return txn;
+    }
+
+    private Transaction evictOnExit(Transaction txn) {
+        return mCache == null ? txn : new EvictingTransaction(txn, mReplicaRepository, mCache);
     }
 
     public IsolationLevel getTransactionIsolationLevel() {
         IsolationLevel replicaLevel = mReplicaRepository.getTransactionIsolationLevel();
-        if (replicaLevel == null) {
-            return null;
+        if (replicaLevel == null || mWriteBehind != null) {
+            return replicaLevel;
         }
         IsolationLevel masterLevel = mMasterRepository.getTransactionIsolationLevel();
         if (masterLevel == null) {
@@ -301,6 +425,10 @@ class ReplicatedRepository
             return (C) this;
         }
 
+        if (capabilityType == WriteBehindCapability.class) {
+            return (C) mWriteBehind;
+        }
+
         // Favor replica's indexing capabilities, since they are used for queries.
         boolean favorReplica =
             IndexInfoCapability.class.isAssignableFrom(capabilityType) ||
@@ -317,6 +445,9 @@ class ReplicatedRepository
     }
 
     public void close() {
+        if (mWriteBehind != null) {
+            mWriteBehind.close();
+        }
         mReplicaRepository.close();
         mMasterRepository.close();
     }
@@ -398,6 +529,9 @@ class ReplicatedRepository
     }
 
     public void shutdown() {
+        if (mWriteBehind != null) {
+            mWriteBehind.close();
+        }
         ShutdownCapability cap = mReplicaRepository.getCapability(ShutdownCapability.class);
         if (cap != null) {
             cap.shutdown();
@@ -450,6 +584,38 @@ class ReplicatedRepository
                                             Object... filterValues)
         throws RepositoryException
     {
+        resync(type, listener, desiredSpeed, 1, 1, filter, filterValues);
+    }
+
+    /**
+     * Repairs replicated storables by synchronizing the replica repository
+     * against the master repository, splitting the work into ranges which are
+     * synchronized concurrently.
+     *
+     * @param type type of storable to re-sync
+     * @param listener optional listener which gets notified as storables are re-sync'd
+     * @param desiredSpeed throttling parameter for each range - 1.0 = full
+     * speed, 0.5 = half speed, 0.1 = one-tenth speed, etc
+     * @param rangeCount maximum number of ranges to split the work into
+     * @param parallelism maximum number of ranges to re-sync concurrently
+     * @param filter optional query filter to limit which objects get re-sync'ed
+     * @param filterValues filter values for optional filter
+     */
+    public <S extends Storable> void resync(Class<S> type,
+                                            ResyncCapability.Listener<? super S> listener,
+                                            double desiredSpeed,
+                                            int rangeCount,
+                                            int parallelism,
+                                            String filter,
+                                            Object... filterValues)
+        throws RepositoryException
+    {
+        if (rangeCount < 1 || parallelism < 1) {
+            throw new IllegalArgumentException
+                ("Range count and parallelism must be at least one: " +
+                 rangeCount + ", " + parallelism);
+        }
+
         ReplicationTrigger<S> replicationTrigger;
         if (storageFor(type) instanceof ReplicatedStorage) {
             replicationTrigger = ((ReplicatedStorage) storageFor(type)).getReplicationTrigger();
@@ -485,9 +651,548 @@ class ReplicatedRepository
 
         Comparator comparator = SortedCursor.createComparator(type, orderBy);
 
-        replicaQuery = replicaQuery.orderBy(orderBy);
-        masterQuery = masterQuery.orderBy(orderBy);
+        StorableProperty<S> rangeProperty = null;
+        if (rangeCount > 1) {
+            rangeProperty = rangeProperty(type, orderBy[0]);
+        }
+
+        if (rangeProperty == null) {
+            resync(replicationTrigger,
+                   replicaStorage, replicaQuery.orderBy(orderBy),
+                   masterStorage, masterQuery.orderBy(orderBy),
+                   listener, desiredSpeed, comparator);
+            return;
+        }
+
+        String filterDescriptor;
+        if (filter == null) {
+            filterDescriptor = "";
+        } else {
+            filterDescriptor = filter + ' ' + Arrays.toString(filterValues);
+        }
+
+        resyncRanges(replicationTrigger,
+                     replicaStorage, replicaQuery,
+                     masterStorage, masterQuery,
+                     listener, desiredSpeed, orderBy, comparator,
+                     rangeProperty, rangeCount, parallelism, filterDescriptor);
+    }
+
+    /**
+     * Repairs replicated storables by synchronizing the replica repository
+     * against the master repository, only comparing storables in ranges whose
+     * digests differ.
+     *
+     * @param type type of storable to re-sync
+     * @param listener optional listener which gets notified as storables are re-sync'd
+     * @param desiredSpeed throttling parameter for re-syncing ranges - 1.0 =
+     * full speed, 0.5 = half speed, 0.1 = one-tenth speed, etc
+     * @param filter optional query filter to limit which objects get re-sync'ed
+     * @param filterValues filter values for optional filter
+     * @return number of ranges which differed and were re-sync'd
+     */
+    public <S extends Storable> int resyncByDigest(Class<S> type,
+                                                   ResyncCapability.Listener<? super S> listener,
+                                                   double desiredSpeed,
+                                                   String filter,
+                                                   Object... filterValues)
+        throws RepositoryException
+    {
+        ReplicationTrigger<S> replicationTrigger;
+        if (storageFor(type) instanceof ReplicatedStorage) {
+            replicationTrigger = ((ReplicatedStorage) storageFor(type)).getReplicationTrigger();
+        } else {
+            throw new UnsupportedTypeException("Storable type is not replicated", type);
+        }
+
+        Storage<S> replicaStorage, masterStorage;
+        replicaStorage = mReplicaRepository.storageFor(type);
+        masterStorage = mMasterRepository.storageFor(type);
+
+        Query<S> replicaQuery, masterQuery;
+        if (filter == null) {
+            replicaQuery = replicaStorage.query();
+            masterQuery = masterStorage.query();
+        } else {
+            replicaQuery = replicaStorage.query(filter).withValues(filterValues);
+            masterQuery = masterStorage.query(filter).withValues(filterValues);
+        }
+
+        String[] orderBy = selectNaturalOrder(mReplicaRepository, type, replicaQuery.getFilter());
+        if (orderBy == null) {
+            orderBy = selectNaturalOrder(mMasterRepository, type, masterQuery.getFilter());
+            if (orderBy == null) {
+                Set<String> pkSet =
+                    StorableIntrospector.examine(type).getPrimaryKeyProperties().keySet();
+                orderBy = pkSet.toArray(new String[pkSet.size()]);
+            }
+        }
+
+        Comparator comparator = SortedCursor.createComparator(type, orderBy);
+
+        StorableProperty<S> rangeProperty = rangeProperty(type, orderBy[0]);
+
+        if (rangeProperty == null) {
+            resync(replicationTrigger,
+                   replicaStorage, replicaQuery.orderBy(orderBy),
+                   masterStorage, masterQuery.orderBy(orderBy),
+                   listener, desiredSpeed, comparator);
+            return 1;
+        }
+
+        String name = rangeProperty.getName();
 
+        // Find the full range of values, as seen by both repositories.
+        Long start = null, end = null;
+        for (Query<S> query : Arrays.asList(replicaQuery, masterQuery)) {
+            Long min = firstValue(query.orderBy(name), name);
+            if (min != null) {
+                Long max = firstValue(query.orderBy('-' + name), name);
+                start = start == null ? min : Math.min(start, min);
+                end = end == null ? max : Math.max(end, max);
+            }
+        }
+
+        if (start == null) {
+            // Both are empty.
+            return 0;
+        }
+
+        RemoteProcedureCapability remote =
+            mMasterRepository.getCapability(RemoteProcedureCapability.class);
+
+        return resyncByDigest(replicationTrigger,
+                              replicaStorage, replicaQuery,
+                              masterStorage, masterQuery,
+                              listener, desiredSpeed, orderBy, comparator,
+                              remote, filter, filterValues, rangeProperty, start, end);
+    }
+
+    /**
+     * Compares digests of the given inclusive range, split into sub-ranges,
+     * and recursively re-syncs those which differ.
+     */
+    private <S extends Storable> int resyncByDigest
+                       (ReplicationTrigger<S> replicationTrigger,
+                        Storage<S> replicaStorage, Query<S> replicaQuery,
+                        Storage<S> masterStorage, Query<S> masterQuery,
+                        ResyncCapability.Listener<? super S> listener,
+                        double desiredSpeed, String[] orderBy, Comparator comparator,
+                        RemoteProcedureCapability remote,
+                        String filter, Object[] filterValues,
+                        StorableProperty<S> rangeProperty, long start, long end)
+        throws RepositoryException
+    {
+        Class<S> type = replicaStorage.getStorableType();
+
+        long[] starts = splitRange(start, end, DIGEST_FAN_OUT);
+        RangeDigest<S> digest = new RangeDigest<S>
+            (type, filter, filterValues, rangeProperty.getName(), starts, end);
+
+        long[][] replicaDigests;
+        try {
+            replicaDigests = digest.digest(replicaStorage);
+        } catch (CorruptEncodingException e) {
+            // Let the full comparison deal with it.
+            replicaDigests = null;
+        }
+
+        long[][] masterDigests;
+        if (remote == null) {
+            masterDigests = digest.digest(masterStorage);
+        } else {
+            masterDigests = new long[starts.length][];
+            Cursor<long[]> reply = remote.beginCall(digest).fetchReply();
+            try {
+                for (int i=0; i<starts.length; i++) {
+                    masterDigests[i] = reply.next();
+                }
+            } finally {
+                reply.close();
+            }
+        }
+
+        int count = 0;
+
+        for (int i=0; i<starts.length; i++) {
+            if (replicaDigests != null && Arrays.equals(replicaDigests[i], masterDigests[i])) {
+                continue;
+            }
+
+            long subStart = starts[i];
+            long subEnd = (i + 1) < starts.length ? (starts[i + 1] - 1) : end;
+
+            long size = 0;
+            if (replicaDigests != null) {
+                // Narrow the sub-range to the values actually present.
+                long[] m = masterDigests[i];
+                long[] r = replicaDigests[i];
+                size = Math.max(m[0], r[0]);
+                if (m[0] == 0) {
+                    subStart = r[3];
+                    subEnd = r[4];
+                } else if (r[0] == 0) {
+                    subStart = m[3];
+                    subEnd = m[4];
+                } else {
+                    subStart = Math.min(m[3], r[3]);
+                    subEnd = Math.max(m[4], r[4]);
+                }
+            }
+
+            if (size <= DIGEST_LEAF_SIZE || subStart == subEnd || replicaDigests == null) {
+                resync(replicationTrigger,
+                       replicaStorage, rangeQuery(replicaQuery, rangeProperty,
+                                                  subStart, subEnd, true).orderBy(orderBy),
+                       masterStorage, rangeQuery(masterQuery, rangeProperty,
+                                                 subStart, subEnd, true).orderBy(orderBy),
+                       listener, desiredSpeed, comparator);
+                count++;
+            } else {
+                count += resyncByDigest(replicationTrigger,
+                                        replicaStorage, replicaQuery,
+                                        masterStorage, masterQuery,
+                                        listener, desiredSpeed, orderBy, comparator,
+                                        remote, filter, filterValues,
+                                        rangeProperty, subStart, subEnd);
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Splits an inclusive range into sub-ranges of roughly equal span,
+     * returning the start of each.
+     */
+    private static long[] splitRange(long start, long end, int count) {
+        BigInteger base = BigInteger.valueOf(start);
+        BigInteger span = BigInteger.valueOf(end).subtract(base).add(BigInteger.ONE);
+        BigInteger divisor = BigInteger.valueOf(count);
+
+        long[] starts = new long[count];
+        int size = 0;
+        for (int i=0; i<count; i++) {
+            long split = base.add(span.multiply(BigInteger.valueOf(i)).divide(divisor))
+                .longValue();
+            if (size == 0 || split > starts[size - 1]) {
+                starts[size++] = split;
+            }
+        }
+
+        if (size < count) {
+            long[] trimmed = new long[size];
+            System.arraycopy(starts, 0, trimmed, 0, size);
+            starts = trimmed;
+        }
+
+        return starts;
+    }
+
+    /**
+     * Returns the property to define resync ranges with, or null if the
+     * property is not a primitive integer type.
+     */
+    private static <S extends Storable> StorableProperty<S> rangeProperty(Class<S> type,
+                                                                          String orderBy)
+    {
+        char first = orderBy.charAt(0);
+        if (first == '+' || first == '-' || first == '~') {
+            orderBy = orderBy.substring(1);
+        }
+
+        StorableProperty<S> property =
+            StorableIntrospector.examine(type).getAllProperties().get(orderBy);
+
+        if (property != null) {
+            Class propertyType = property.getType();
+            if (propertyType == long.class || propertyType == int.class ||
+                propertyType == short.class || propertyType == byte.class)
+            {
+                return property;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Range of a partitioned resync.
+     */
+    private static class Range {
+        final int mNumber;
+        final Long mLowBound;
+        final Long mHighBound;
+
+        Range(int number, Long lowBound, Long highBound) {
+            mNumber = number;
+            mLowBound = lowBound;
+            mHighBound = highBound;
+        }
+    }
+
+    private <S extends Storable> void resyncRanges
+                       (final ReplicationTrigger<S> replicationTrigger,
+                        final Storage<S> replicaStorage, final Query<S> replicaQuery,
+                        final Storage<S> masterStorage, final Query<S> masterQuery,
+                        final ResyncCapability.Listener<? super S> listener,
+                        final double desiredSpeed,
+                        final String[] orderBy, final Comparator comparator,
+                        final StorableProperty<S> rangeProperty,
+                        int rangeCount, int parallelism,
+                        final String filterDescriptor)
+        throws RepositoryException
+    {
+        final Log log = LogFactory.getLog(ReplicatedRepository.class);
+        final String typeName = replicaStorage.getStorableType().getName();
+
+        Storage<StoredResyncRange> storage;
+        try {
+            storage = mReplicaRepository.storageFor(StoredResyncRange.class);
+        } catch (SupportException e) {
+            log.warn("Unable to record resync ranges for " + typeName, e);
+            storage = null;
+        }
+
+        final Storage<StoredResyncRange> rangeStorage = storage;
+
+        Query<StoredResyncRange> rangeQuery = null;
+        List<Range> ranges = new ArrayList<Range>();
+
+        if (rangeStorage != null) {
+            rangeQuery = rangeStorage
+                .query("storableTypeName = ? & filterDescriptor = ?")
+                .with(typeName).with(filterDescriptor);
+
+            List<StoredResyncRange> stored = rangeQuery.orderBy("rangeNumber").fetch().toList();
+
+            if (!stored.isEmpty()) {
+                if (stored.size() != stored.get(0).getRangeCount()) {
+                    // Incomplete record, so start over.
+                    rangeQuery.deleteAll();
+                } else {
+                    for (StoredResyncRange range : stored) {
+                        if (!range.isComplete()) {
+                            ranges.add(new Range(range.getRangeNumber(),
+                                                 range.getLowBound(), range.getHighBound()));
+                        }
+                    }
+                    rangeCount = stored.size();
+                    log.info("Resuming resync of " + typeName + " with " + ranges.size() +
+                             " of " + rangeCount + " ranges remaining");
+                    if (ranges.isEmpty()) {
+                        rangeQuery.deleteAll();
+                        return;
+                    }
+                }
+            }
+        }
+
+        if (ranges.isEmpty()) {
+            ranges = splitRanges(masterQuery, rangeProperty, rangeCount);
+            rangeCount = ranges.size();
+
+            if (rangeStorage != null) {
+                Transaction txn = mReplicaRepository.enterTransaction();
+                try {
+                    for (Range range : ranges) {
+                        StoredResyncRange stored = rangeStorage.prepare();
+                        stored.setStorableTypeName(typeName);
+                        stored.setFilterDescriptor(filterDescriptor);
+                        stored.setRangeNumber(range.mNumber);
+                        stored.setRangeCount(rangeCount);
+                        stored.setLowBound(range.mLowBound);
+                        stored.setHighBound(range.mHighBound);
+                        stored.setComplete(false);
+                        stored.insert();
+                    }
+                    txn.commit();
+                } finally {
+                    txn.exit();
+                }
+            }
+        }
+
+        final int fRangeCount = rangeCount;
+        final Queue<Range> pending = new ConcurrentLinkedQueue<Range>(ranges);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+        Runnable worker = new Runnable() {
+            public void run() {
+                Range range;
+                while (failure.get() == null && (range = pending.poll()) != null) {
+                    try {
+                        resync(replicationTrigger,
+                               replicaStorage, rangeQuery(replicaQuery, rangeProperty, range)
+                               .orderBy(orderBy),
+                               masterStorage, rangeQuery(masterQuery, rangeProperty, range)
+                               .orderBy(orderBy),
+                               listener, desiredSpeed, comparator);
+
+                        if (rangeStorage != null) {
+                            StoredResyncRange stored = rangeStorage.prepare();
+                            stored.setStorableTypeName(typeName);
+                            stored.setFilterDescriptor(filterDescriptor);
+                            stored.setRangeNumber(range.mNumber);
+                            if (stored.tryLoad()) {
+                                stored.setComplete(true);
+                                stored.tryUpdate();
+                            }
+                        }
+
+                        if (listener != null) {
+                            listener.rangeCompleted(range.mNumber, fRangeCount);
+                        }
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    }
+                }
+            }
+        };
+
+        parallelism = Math.min(parallelism, ranges.size());
+        final AtomicInteger threadCounter = new AtomicInteger();
+        Thread[] threads = new Thread[parallelism - 1];
+        for (int i=0; i<threads.length; i++) {
+            Thread t = new Thread(worker, "ReplicatedRepository-resync-" +
+                                  typeName + '-' + threadCounter.incrementAndGet());
+            t.setDaemon(true);
+            t.start();
+            threads[i] = t;
+        }
+
+        // This thread also works on ranges.
+        worker.run();
+
+        try {
+            for (Thread t : threads) {
+                t.join();
+            }
+        } catch (InterruptedException e) {
+            // Other threads stop after their current range completes.
+            failure.compareAndSet(null, e);
+            throw new FetchInterruptedException(e);
+        }
+
+        Throwable e = failure.get();
+        if (e != null) {
+            if (e instanceof RepositoryException) {
+                throw (RepositoryException) e;
+            }
+            if (e instanceof RuntimeException) {
+                throw (RuntimeException) e;
+            }
+            if (e instanceof Error) {
+                throw (Error) e;
+            }
+            throw new RepositoryException(e);
+        }
+
+        if (rangeQuery != null) {
+            rangeQuery.deleteAll();
+        }
+    }
+
+    /**
+     * Splits the range property values into ranges of roughly equal span,
+     * based on the minimum and maximum values in the master. The first and
+     * last ranges are unbounded.
+     */
+    private static <S extends Storable> List<Range> splitRanges(Query<S> masterQuery,
+                                                                StorableProperty<S> property,
+                                                                int rangeCount)
+        throws FetchException
+    {
+        String name = property.getName();
+        Long min = firstValue(masterQuery.orderBy(name), name);
+        Long max = firstValue(masterQuery.orderBy('-' + name), name);
+
+        if (min == null || max == null) {
+            List<Range> ranges = new ArrayList<Range>(1);
+            ranges.add(new Range(0, null, null));
+            return ranges;
+        }
+
+        long[] starts = splitRange(min, max, rangeCount);
+        List<Range> ranges = new ArrayList<Range>(starts.length);
+        for (int i=0; i<starts.length; i++) {
+            Long low = i == 0 ? null : starts[i];
+            Long high = (i + 1) < starts.length ? starts[i + 1] : null;
+            ranges.add(new Range(i, low, high));
+        }
+
+        return ranges;
+    }
+
+    private static <S extends Storable> Long firstValue(Query<S> query, String name)
+        throws FetchException
+    {
+        Cursor<S> cursor = query.fetch();
+        try {
+            if (cursor.hasNext()) {
+                return ((Number) cursor.next().getPropertyValue(name)).longValue();
+            }
+            return null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static <S extends Storable> Query<S> rangeQuery(Query<S> query,
+                                                            StorableProperty<S> property,
+                                                            Range range)
+        throws FetchException
+    {
+        return rangeQuery(query, property, range.mLowBound, range.mHighBound, false);
+    }
+
+    /**
+     * Returns a query limited to the given range of property values.
+     *
+     * @param low optional inclusive low bound
+     * @param high optional high bound
+     * @param highInclusive true if high bound is inclusive
+     */
+    static <S extends Storable> Query<S> rangeQuery(Query<S> query,
+                                                    StorableProperty<S> property,
+                                                    Long low, Long high,
+                                                    boolean highInclusive)
+        throws FetchException
+    {
+        String name = property.getName();
+        Class type = property.getType();
+        if (low != null) {
+            query = query.and(name + " >= ?").with(rangeValue(type, low));
+        }
+        if (high != null) {
+            query = query.and(name + (highInclusive ? " <= ?" : " < ?"))
+                .with(rangeValue(type, high));
+        }
+        return query;
+    }
+
+    private static Object rangeValue(Class type, long value) {
+        if (type == int.class) {
+            return (int) value;
+        } else if (type == short.class) {
+            return (short) value;
+        } else if (type == byte.class) {
+            return (byte) value;
+        }
+        return value;
+    }
+
+    /**
+     * Re-syncs all entries returned by the given ordered queries, in a replica
+     * transaction.
+     */
+    private <S extends Storable> void resync(ReplicationTrigger<S> replicationTrigger,
+                                             Storage<S> replicaStorage, Query<S> replicaQuery,
+                                             Storage<S> masterStorage, Query<S> masterQuery,
+                                             ResyncCapability.Listener<? super S> listener,
+                                             double desiredSpeed, Comparator comparator)
+        throws RepositoryException
+    {
         Throttle throttle;
         if (desiredSpeed >= 1.0) {
             throttle = null;
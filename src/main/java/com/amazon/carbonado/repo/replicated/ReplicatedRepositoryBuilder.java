@@ -19,6 +19,8 @@ package com.amazon.carbonado.repo.replicated;
 
 import java.util.Collection;
 
+import java.util.concurrent.TimeUnit;
+
 import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.commons.logging.Log;
@@ -39,6 +41,8 @@ import com.amazon.carbonado.spi.BelatedRepositoryCreator;
  * The following extra capabilities are supported:
  * <ul>
  * <li>{@link com.amazon.carbonado.capability.ResyncCapability ResyncCapability}
+ * <li>{@link com.amazon.carbonado.capability.WriteBehindCapability WriteBehindCapability},
+ * if write-behind is enabled
  * </ul>
  *
  * @author Don Schneider
@@ -52,6 +56,9 @@ public class ReplicatedRepositoryBuilder extends AbstractRepositoryBuilder {
     private boolean mIsMaster = true;
     private RepositoryBuilder mReplicaRepositoryBuilder;
     private RepositoryBuilder mMasterRepositoryBuilder;
+    private boolean mWriteBehind;
+    private int mCacheMaxEntries;
+    private long mCacheTimeToLiveMillis;
 
     public ReplicatedRepositoryBuilder() {
     }
@@ -95,7 +102,9 @@ public class ReplicatedRepositoryBuilder extends AbstractRepositoryBuilder {
             master = creator.get(DEFAULT_MASTER_TIMEOUT_MILLIS);
         }
 
-        Repository repo = new ReplicatedRepository(getName(), replica, master);
+        Repository repo = new ReplicatedRepository
+            (getName(), replica, master,
+             mWriteBehind, mCacheMaxEntries, mCacheTimeToLiveMillis);
         rootRef.set(repo);
         return repo;
     }
@@ -156,6 +165,66 @@ public class ReplicatedRepositoryBuilder extends AbstractRepositoryBuilder {
         mMasterRepositoryBuilder = masterRepositoryBuilder;
     }
 
+    /**
+     * @return true if writes are applied to the master asynchronously
+     */
+    public boolean isWriteBehindEnabled() {
+        return mWriteBehind;
+    }
+
+    /**
+     * Set to true to commit writes to the replica only, and apply them to the
+     * master asynchronously. Writes are queued in the replica repository, and
+     * so they are applied even if the process restarts. Writers no longer wait
+     * for the master and can proceed while it is down, but any write the
+     * master rejects is only logged and then repaired. Storable types with
+     * sequence or Lob properties are always replicated synchronously, as are
+     * authoritative types. Their writes still belong to the current
+     * transaction, which then also enters a master transaction. Default is
+     * false.
+     */
+    public void setWriteBehindEnabled(boolean b) {
+        mWriteBehind = b;
+    }
+
+    /**
+     * @return maximum number of storables to cache in the replica, or zero if
+     * replica is a full copy of the master
+     */
+    public int getCacheMaxEntries() {
+        return mCacheMaxEntries;
+    }
+
+    /**
+     * Set to a positive value to use the replica as a bounded cache of the
+     * master, instead of as a full copy. Loads which miss the replica read
+     * through to the master and copy the storable into the replica. When the
+     * maximum is exceeded, the least recently used storables are evicted from
+     * the replica. Queries always go to the master, and resync is not
+     * supported for cached types. Storable types with primary keys which
+     * cannot be encoded are fully replicated instead. Default is zero.
+     */
+    public void setCacheMaxEntries(int maxEntries) {
+        mCacheMaxEntries = maxEntries;
+    }
+
+    /**
+     * @return maximum age of cached storables, in milliseconds, or zero if unlimited
+     */
+    public long getCacheTimeToLiveMillis() {
+        return mCacheTimeToLiveMillis;
+    }
+
+    /**
+     * Set the maximum age of storables cached in the replica, after which
+     * they are loaded again from the master. This bounds how long changes
+     * made to the master by other processes remain unseen. Default is zero,
+     * which is unlimited.
+     */
+    public void setCacheTimeToLive(long timeToLive, TimeUnit unit) {
+        mCacheTimeToLiveMillis = unit.toMillis(timeToLive);
+    }
+
     @Override
     public void errorCheck(Collection<String> messages) throws ConfigurationException {
         super.errorCheck(messages);
@@ -165,5 +234,8 @@ public class ReplicatedRepositoryBuilder extends AbstractRepositoryBuilder {
         if (null == getMasterRepositoryBuilder()) {
             messages.add("masterRepositoryBuilder missing");
         }
+        if (isWriteBehindEnabled() && getCacheMaxEntries() > 0) {
+            messages.add("write-behind cannot be enabled when replica is a cache");
+        }
     }
 }
@@ -30,6 +30,7 @@ import com.amazon.carbonado.OptimisticLockException;
 import com.amazon.carbonado.PersistException;
 import com.amazon.carbonado.PersistNoneException;
 import com.amazon.carbonado.Repository;
+import com.amazon.carbonado.RepositoryException;
 import com.amazon.carbonado.Storable;
 import com.amazon.carbonado.Storage;
 import com.amazon.carbonado.Transaction;
@@ -38,12 +39,16 @@ import com.amazon.carbonado.UniqueConstraintException;
 
 import com.amazon.carbonado.capability.ResyncCapability;
 
+import com.amazon.carbonado.info.StorableInfo;
+import com.amazon.carbonado.info.StorableIntrospector;
+
 import com.amazon.carbonado.spi.RepairExecutor;
 import com.amazon.carbonado.spi.TriggerManager;
 
 /**
  * All inserts/updates/deletes are first committed to the master storage, then
- * duplicated and committed to the replica.
+ * duplicated and committed to the replica. If write-behind is enabled, they
+ * are instead committed to the replica and queued to be applied to the master.
  *
  * @author Don Schneider
  * @author Brian S O'Neill
@@ -52,9 +57,13 @@ class ReplicationTrigger<S extends Storable> extends Trigger<S> {
     private final ReplicatedRepository mRepository;
     private final Storage<S> mReplicaStorage;
     private final Storage<S> mMasterStorage;
+    private final StorableInfo<S> mInfo;
 
     private final TriggerManager<S> mTriggerManager;
 
+    // Is null if writes are applied to master synchronously.
+    private final WriteBehindReplicator mWriteBehind;
+
     ReplicationTrigger(ReplicatedRepository repository,
                        Storage<S> replicaStorage,
                        Storage<S> masterStorage)
@@ -62,23 +71,32 @@ class ReplicationTrigger<S extends Storable> extends Trigger<S> {
         mRepository = repository;
         mReplicaStorage = replicaStorage;
         mMasterStorage = masterStorage;
+        mInfo = StorableIntrospector.examine(replicaStorage.getStorableType());
 
         // Use TriggerManager to locally disable trigger execution during
         // resync and repairs.
         mTriggerManager = new TriggerManager<S>();
         mTriggerManager.addTrigger(this);
 
-        BlobReplicationTrigger<S> blobTrigger = BlobReplicationTrigger.create(masterStorage);
+        BlobReplicationTrigger<S> blobTrigger =
+            BlobReplicationTrigger.create(repository, masterStorage);
         if (blobTrigger != null) {
             mTriggerManager.addTrigger(blobTrigger);
         }
 
-        ClobReplicationTrigger<S> clobTrigger = ClobReplicationTrigger.create(masterStorage);
+        ClobReplicationTrigger<S> clobTrigger =
+            ClobReplicationTrigger.create(repository, masterStorage);
         if (clobTrigger != null) {
             mTriggerManager.addTrigger(clobTrigger);
         }
 
         replicaStorage.addTrigger(mTriggerManager);
+
+        WriteBehindReplicator writeBehind = repository.getWriteBehind();
+        if (writeBehind != null && !writeBehind.register(mInfo, this)) {
+            writeBehind = null;
+        }
+        mWriteBehind = writeBehind;
     }
 
     @Override
@@ -102,6 +120,11 @@ class ReplicationTrigger<S extends Storable> extends Trigger<S> {
     }
 
     private Object beforeInsert(Transaction txn, S replica, boolean forTry) throws PersistException {
+        if (mWriteBehind != null) {
+            // Master is written later, by afterInsert.
+            return null;
+        }
+
         if (txn instanceof ReadOnlyTransaction) {
             // This operation was intended to take place in a transaction, but
             // the master repository was unavailable when the transaction was
@@ -109,6 +132,8 @@ class ReplicationTrigger<S extends Storable> extends Trigger<S> {
                 throw new PersistException("Current transaction is read-only.");
             }
 
+            mRepository.joinMasterTransaction();
+
             final S master = mMasterStorage.prepare();
             replica.copyAllProperties(master);
 
@@ -152,6 +177,13 @@ class ReplicationTrigger<S extends Storable> extends Trigger<S> {
             return null;
         }
 
+        @Override
+        public void afterInsert(S replica, Object state) throws PersistException {
+            if (mWriteBehind != null) {
+                mWriteBehind.enqueue(mInfo, replica);
+            }
+        }
+
         @Override
         public Object beforeUpdate(S replica) throws PersistException {
             return beforeUpdate(null, replica, false);
@@ -173,6 +205,11 @@ class ReplicationTrigger<S extends Storable> extends Trigger<S> {
         }
 
         private Object beforeUpdate(Transaction txn, S replica, boolean forTry) throws PersistException {
+            if (mWriteBehind != null) {
+                // Master is written later, by afterUpdate.
+                return null;
+            }
+
             if (txn instanceof ReadOnlyTransaction) {
                 // This operation was intended to take place in a transaction, but
                 // the master repository was unavailable when the transaction was
@@ -180,6 +217,8 @@ class ReplicationTrigger<S extends Storable> extends Trigger<S> {
                 throw new PersistException("Current transaction is read-only.");
             }
 
+            mRepository.joinMasterTransaction();
+
             final S master = mMasterStorage.prepare();
             replica.copyPrimaryKeyProperties(master);
             replica.copyVersionProperty(master);
@@ -231,6 +270,13 @@ class ReplicationTrigger<S extends Storable> extends Trigger<S> {
         return null;
     }
 
+    @Override
+    public void afterUpdate(S replica, Object state) throws PersistException {
+        if (mWriteBehind != null) {
+            mWriteBehind.enqueue(mInfo, replica);
+        }
+    }
+
     @Override
     public Object beforeDelete(S replica) throws PersistException {
         return beforeDelete(null, replica);
@@ -238,6 +284,11 @@ class ReplicationTrigger<S extends Storable> extends Trigger<S> {
 
     @Override
     public Object beforeDelete(Transaction txn, S replica) throws PersistException {
+        if (mWriteBehind != null) {
+            // Master is written later, by afterDelete.
+            return null;
+        }
+
         if (txn instanceof ReadOnlyTransaction) {
             // This operation was intended to take place in a transaction, but
             // the master repository was unavailable when the transaction was
@@ -245,6 +296,8 @@ class ReplicationTrigger<S extends Storable> extends Trigger<S> {
             throw new PersistException("Current transaction is read-only.");
         }
 
+        mRepository.joinMasterTransaction();
+
         S master = mMasterStorage.prepare();
         replica.copyPrimaryKeyProperties(master);
 
@@ -256,6 +309,101 @@ class ReplicationTrigger<S extends Storable> extends Trigger<S> {
         return null;
     }
 
+    @Override
+    public void afterDelete(S replica, Object state) throws PersistException {
+        if (mWriteBehind != null) {
+            mWriteBehind.enqueue(mInfo, replica);
+        }
+    }
+
+    /**
+     * Writes the current state of a replica entry to the master, as queued by
+     * write-behind replication. Caller should be in a master transaction,
+     * which must be rolled back if an exception is thrown.
+     *
+     * @param key encoded primary key of replica entry
+     * @return state to pass to finishWriteBehind, or null if not needed
+     */
+    Object applyWriteBehind(byte[] key) throws RepositoryException {
+        S replica = mReplicaStorage.prepare();
+        WriteBehindReplicator.decodeKey(mInfo, key, replica);
+
+        S master = mMasterStorage.prepare();
+        replica.copyPrimaryKeyProperties(master);
+
+        if (!replica.tryLoad()) {
+            master.tryDelete();
+            return null;
+        }
+
+        S existing = (S) master.copy();
+        boolean exists = existing.tryLoad();
+
+        replica.copyAllProperties(master);
+
+        if (!exists) {
+            master.insert();
+        } else {
+            // Replica version is not maintained while the write is queued.
+            existing.copyVersionProperty(master);
+            if (existing.equalProperties(master)) {
+                return null;
+            }
+            if (!master.tryUpdate()) {
+                master.insert();
+            }
+        }
+
+        // Master properties must be copied back, since its repository may
+        // have altered property values as a side effect.
+        S updated = (S) replica.copy();
+        master.copyUnequalProperties(updated);
+
+        return updated.hasDirtyProperties() ? new Storable[] {replica, master} : null;
+    }
+
+    /**
+     * Copies master properties back to the replica entry, after the master
+     * transaction has committed. Caller should be in a replica transaction.
+     *
+     * @param state object returned by applyWriteBehind
+     */
+    void finishWriteBehind(Object state) throws RepositoryException {
+        S replica = (S) ((Storable[]) state)[0];
+        S master = (S) ((Storable[]) state)[1];
+
+        S current = (S) replica.copy();
+        if (!current.tryLoad() || !current.equalProperties(replica)) {
+            // Replica entry changed again, and so it is queued to be written
+            // to the master again.
+            return;
+        }
+
+        master.copyUnequalProperties(current);
+
+        setReplicationDisabled();
+        try {
+            current.tryUpdate();
+        } finally {
+            setReplicationEnabled();
+        }
+    }
+
+    /**
+     * Called when the master rejects a queued write because of a conflict
+     * with its current state. It is too late to report this to the caller,
+     * and so the replica entry is repaired instead of retrying forever.
+     *
+     * @param key encoded primary key of replica entry
+     */
+    void writeBehindConflict(byte[] key, PersistException e) throws RepositoryException {
+        S replica = mReplicaStorage.prepare();
+        WriteBehindReplicator.decodeKey(mInfo, key, replica);
+        Log log = LogFactory.getLog(ReplicatedRepository.class);
+        log.error("Unable to apply write to master: " + replica.toStringKeyOnly(), e);
+        repair(replica);
+    }
+
     /**
      * Re-sync the replica to the master. The primary keys of both entries are
      * assumed to match.
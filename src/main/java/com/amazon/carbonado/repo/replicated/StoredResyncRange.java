@@ -0,0 +1,76 @@
+/*
+ * Copyright 2006-2012 Amazon Technologies, Inc. or its affiliates.
+ * Amazon, Amazon.com and Carbonado are trademarks or registered trademarks
+ * of Amazon Technologies, Inc. or its affiliates.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.carbonado.repo.replicated;
+
+import com.amazon.carbonado.Alias;
+import com.amazon.carbonado.Independent;
+import com.amazon.carbonado.Nullable;
+import com.amazon.carbonado.PrimaryKey;
+import com.amazon.carbonado.Storable;
+
+/**
+ * Records the ranges of a partitioned resync, stored in the replica
+ * repository. Ranges are deleted when the resync completes, and so any which
+ * remain describe a resync which can be resumed.
+ *
+ * @see com.amazon.carbonado.capability.ResyncCapability
+ */
+@PrimaryKey({"storableTypeName", "filterDescriptor", "rangeNumber"})
+@Independent
+@Alias("CARBONADO_RESYNC_RANGE")
+public interface StoredResyncRange extends Storable {
+    String getStorableTypeName();
+
+    void setStorableTypeName(String typeName);
+
+    /**
+     * Returns the resync filter and its values, or an empty string if none.
+     */
+    String getFilterDescriptor();
+
+    void setFilterDescriptor(String descriptor);
+
+    int getRangeNumber();
+
+    void setRangeNumber(int number);
+
+    int getRangeCount();
+
+    void setRangeCount(int count);
+
+    /**
+     * Returns the inclusive low bound of the range, or null if unbounded.
+     */
+    @Nullable
+    Long getLowBound();
+
+    void setLowBound(Long bound);
+
+    /**
+     * Returns the exclusive high bound of the range, or null if unbounded.
+     */
+    @Nullable
+    Long getHighBound();
+
+    void setHighBound(Long bound);
+
+    boolean isComplete();
+
+    void setComplete(boolean complete);
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2006-2012 Amazon Technologies, Inc. or its affiliates.
+ * Amazon, Amazon.com and Carbonado are trademarks or registered trademarks
+ * of Amazon Technologies, Inc. or its affiliates.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.carbonado.repo.replicated;
+
+import com.amazon.carbonado.Alias;
+import com.amazon.carbonado.Independent;
+import com.amazon.carbonado.PrimaryKey;
+import com.amazon.carbonado.Storable;
+
+/**
+ * Records a replica storable whose changes have not yet been written to the
+ * master, stored in the replica repository. Unless failed, each entry has a
+ * {@link StoredWriteBehindPosition} in the queue.
+ *
+ * @see com.amazon.carbonado.capability.WriteBehindCapability
+ */
+@PrimaryKey({"storableTypeName", "storableKey"})
+@Independent
+@Alias("CARBONADO_WRITE_BEHIND")
+public interface StoredWriteBehindEntry extends Storable {
+    String getStorableTypeName();
+
+    void setStorableTypeName(String typeName);
+
+    /**
+     * Returns the encoded primary key of the changed storable.
+     */
+    byte[] getStorableKey();
+
+    void setStorableKey(byte[] key);
+
+    /**
+     * Returns the number of changes made after the first one, which is used
+     * to detect changes made while the entry is being applied.
+     */
+    int getChangeCount();
+
+    void setChangeCount(int count);
+
+    /**
+     * Returns the number of times the master failed to apply the queued
+     * changes.
+     */
+    int getFailureCount();
+
+    void setFailureCount(int count);
+
+    /**
+     * Returns true if the master repeatedly failed to apply the queued
+     * changes, and so the entry was removed from the queue.
+     */
+    boolean isFailed();
+
+    void setFailed(boolean failed);
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2006-2012 Amazon Technologies, Inc. or its affiliates.
+ * Amazon, Amazon.com and Carbonado are trademarks or registered trademarks
+ * of Amazon Technologies, Inc. or its affiliates.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.amazon.carbonado.repo.replicated;
+
+import com.amazon.carbonado.Alias;
+import com.amazon.carbonado.Independent;
+import com.amazon.carbonado.PrimaryKey;
+import com.amazon.carbonado.Storable;
+
+/**
+ * Position of a {@link StoredWriteBehindEntry} in the write-behind queue,
+ * stored in the replica repository. Positions are read in sequence order, and
+ * so the queue can be read without an index.
+ *
+ * @see com.amazon.carbonado.capability.WriteBehindCapability
+ */
+@PrimaryKey("sequence")
+@Independent
+@Alias("CARBONADO_WRITE_BEHIND_POSITION")
+public interface StoredWriteBehindPosition extends Storable {
+    long getSequence();
+
+    void setSequence(long sequence);
+
+    String getStorableTypeName();
+
+    void setStorableTypeName(String typeName);
+
+    /**
+     * Returns the encoded primary key of the changed storable.
+     */
+    byte[] getStorableKey();
+
+    void setStorableKey(byte[] key);
+
+    /**
+     * Returns the time the first queued change was made, in milliseconds.
+     */
+    long getQueuedTime();
+
+    void setQueuedTime(long time);
+}
@@ -0,0 +1,682 @@
+/*
+ * Copyright 2006-2012 Amazon Technologies, Inc. or its affiliates.
+ * Amazon, Amazon.com and Carbonado are trademarks or registered trademarks
+ * of Amazon Technologies, Inc. or its affiliates.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.carbonado.repo.replicated;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.amazon.carbonado.CorruptEncodingException;
+import com.amazon.carbonado.Cursor;
+import com.amazon.carbonado.FetchException;
+import com.amazon.carbonado.FetchInterruptedException;
+import com.amazon.carbonado.OptimisticLockException;
+import com.amazon.carbonado.PersistDeadlockException;
+import com.amazon.carbonado.PersistException;
+import com.amazon.carbonado.PersistInterruptedException;
+import com.amazon.carbonado.PersistTimeoutException;
+import com.amazon.carbonado.RepositoryException;
+import com.amazon.carbonado.Repository;
+import com.amazon.carbonado.Storable;
+import com.amazon.carbonado.Storage;
+import com.amazon.carbonado.Transaction;
+import com.amazon.carbonado.UniqueConstraintException;
+
+import com.amazon.carbonado.capability.WriteBehindCapability;
+
+import com.amazon.carbonado.info.StorableInfo;
+import com.amazon.carbonado.info.StorableProperty;
+
+import com.amazon.carbonado.lob.Lob;
+
+import com.amazon.carbonado.raw.DataDecoder;
+import com.amazon.carbonado.raw.DataEncoder;
+
+/**
+ * Applies writes made against the replica to the master, in the background.
+ * Writes are recorded as {@link StoredWriteBehindEntry} records, within the
+ * same transaction as the replica write. A queued entry only identifies the
+ * changed storable, and so the applier always writes the current replica
+ * state to the master. This coalesces repeated writes. Entries are applied in
+ * the order of their {@link StoredWriteBehindPosition} records, which are
+ * keyed by sequence and need no index to be read in order.
+ *
+ * <p>Each entry is applied in its own nested master transaction. If the
+ * master rejects an entry because of a conflict, the replica entry is
+ * repaired. If the master keeps failing to apply an entry for any other
+ * reason, the entry is marked as failed and is no longer retried.
+ *
+ * <p>Storable types are replicated synchronously if they have sequence
+ * properties, which must be assigned by the master, if they have Lob
+ * properties, or if their primary key cannot be encoded.
+ */
+class WriteBehindReplicator implements WriteBehindCapability {
+    // Maximum number of entries to apply in one master transaction.
+    private static final int BATCH_SIZE = 100;
+
+    // Interval to check for writes which were queued without notification.
+    private static final long POLL_MILLIS = 1000;
+
+    // Number of times the master can fail to apply an entry before giving up.
+    private static final int MAX_ENTRY_FAILURES = 5;
+
+    private static final long MIN_RETRY_MILLIS = 100;
+    private static final long MAX_RETRY_MILLIS = 30000;
+
+    /**
+     * Returns true if storables of the given type can be replicated by
+     * write-behind.
+     */
+    static boolean isSupported(StorableInfo<?> info) {
+        for (StorableProperty<?> property : info.getAllProperties().values()) {
+            if (Lob.class.isAssignableFrom(property.getType())
+                || property.getSequenceName() != null) {
+                return false;
+            }
+        }
+        return isKeySupported(info);
+    }
+
+    /**
+     * Returns true if the primary key of the given type can be encoded.
+     */
+    static boolean isKeySupported(StorableInfo<?> info) {
+        for (StorableProperty<?> property : info.getPrimaryKeyProperties().values()) {
+            Class type = property.getType();
+            if (!(type == int.class || type == long.class || type == short.class
+                  || type == byte.class || type == char.class || type == boolean.class
+                  || type == String.class || type == byte[].class
+                  || type == BigInteger.class || type == BigDecimal.class))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Encodes the primary key of the given storable. Type must be supported.
+     */
+    static <S extends Storable> byte[] encodeKey(StorableInfo<S> info, S storable) {
+        Map<String, ? extends StorableProperty<S>> keys = info.getPrimaryKeyProperties();
+
+        Object[] values = new Object[keys.size()];
+        int length = 0;
+        int i = 0;
+        for (StorableProperty<S> property : keys.values()) {
+            Object value = storable.getPropertyValue(property.getName());
+            values[i++] = value;
+            Class type = property.getType();
+            if (type == int.class) {
+                length += 4;
+            } else if (type == long.class) {
+                length += 8;
+            } else if (type == short.class || type == char.class) {
+                length += 2;
+            } else if (type == byte.class || type == boolean.class) {
+                length += 1;
+            } else if (type == String.class) {
+                length += DataEncoder.calculateEncodedStringLength((String) value);
+            } else if (type == byte[].class) {
+                length += DataEncoder.calculateEncodedLength((byte[]) value);
+            } else if (type == BigInteger.class) {
+                length += DataEncoder.calculateEncodedLength((BigInteger) value);
+            } else {
+                length += DataEncoder.calculateEncodedLength((BigDecimal) value);
+            }
+        }
+
+        byte[] key = new byte[length];
+        int offset = 0;
+        i = 0;
+        for (StorableProperty<S> property : keys.values()) {
+            Object value = values[i++];
+            Class type = property.getType();
+            if (type == int.class) {
+                DataEncoder.encode(((Integer) value).intValue(), key, offset);
+                offset += 4;
+            } else if (type == long.class) {
+                DataEncoder.encode(((Long) value).longValue(), key, offset);
+                offset += 8;
+            } else if (type == short.class) {
+                DataEncoder.encode(((Short) value).shortValue(), key, offset);
+                offset += 2;
+            } else if (type == char.class) {
+                DataEncoder.encode(((Character) value).charValue(), key, offset);
+                offset += 2;
+            } else if (type == byte.class) {
+                DataEncoder.encode(((Byte) value).byteValue(), key, offset);
+                offset += 1;
+            } else if (type == boolean.class) {
+                DataEncoder.encode(((Boolean) value).booleanValue(), key, offset);
+                offset += 1;
+            } else if (type == String.class) {
+                offset += DataEncoder.encode((String) value, key, offset);
+            } else if (type == byte[].class) {
+                offset += DataEncoder.encode((byte[]) value, key, offset);
+            } else if (type == BigInteger.class) {
+                offset += DataEncoder.encode((BigInteger) value, key, offset);
+            } else {
+                offset += DataEncoder.encode((BigDecimal) value, key, offset);
+            }
+        }
+
+        return key;
+    }
+
+    /**
+     * Decodes a primary key into the given storable.
+     */
+    static <S extends Storable> void decodeKey(StorableInfo<S> info, byte[] key, S storable)
+        throws CorruptEncodingException
+    {
+        int offset = 0;
+        for (StorableProperty<S> property : info.getPrimaryKeyProperties().values()) {
+            Class type = property.getType();
+            Object value;
+            if (type == int.class) {
+                value = DataDecoder.decodeInt(key, offset);
+                offset += 4;
+            } else if (type == long.class) {
+                value = DataDecoder.decodeLong(key, offset);
+                offset += 8;
+            } else if (type == short.class) {
+                value = DataDecoder.decodeShort(key, offset);
+                offset += 2;
+            } else if (type == char.class) {
+                value = DataDecoder.decodeChar(key, offset);
+                offset += 2;
+            } else if (type == byte.class) {
+                value = DataDecoder.decodeByte(key, offset);
+                offset += 1;
+            } else if (type == boolean.class) {
+                value = DataDecoder.decodeBoolean(key, offset);
+                offset += 1;
+            } else if (type == String.class) {
+                String[] ref = new String[1];
+                offset += DataDecoder.decodeString(key, offset, ref);
+                value = ref[0];
+            } else if (type == byte[].class) {
+                byte[][] ref = new byte[1][];
+                offset += DataDecoder.decode(key, offset, ref);
+                value = ref[0];
+            } else if (type == BigInteger.class) {
+                BigInteger[] ref = new BigInteger[1];
+                offset += DataDecoder.decode(key, offset, ref);
+                value = ref[0];
+            } else {
+                BigDecimal[] ref = new BigDecimal[1];
+                offset += DataDecoder.decode(key, offset, ref);
+                value = ref[0];
+            }
+            storable.setPropertyValue(property.getName(), value);
+        }
+    }
+
+    private final ReplicatedRepository mRepository;
+    private final Repository mReplicaRepository;
+    private final Repository mMasterRepository;
+    private final Storage<StoredWriteBehindEntry> mEntries;
+    private final Storage<StoredWriteBehindPosition> mPositions;
+
+    private final Map<String, ReplicationTrigger<?>> mTriggers;
+
+    private final AtomicLong mNextSequence;
+    private final AtomicLong mAppliedCount;
+    private final AtomicLong mCoalescedCount;
+    private final AtomicLong mRetryCount;
+
+    private final Thread mApplier;
+
+    // Guarded by this.
+    private boolean mSignalled;
+    private boolean mClosed;
+
+    WriteBehindReplicator(ReplicatedRepository repository,
+                          Repository replicaRepository,
+                          Repository masterRepository)
+        throws RepositoryException
+    {
+        mRepository = repository;
+        mReplicaRepository = replicaRepository;
+        mMasterRepository = masterRepository;
+        mEntries = replicaRepository.storageFor(StoredWriteBehindEntry.class);
+        mPositions = replicaRepository.storageFor(StoredWriteBehindPosition.class);
+
+        mTriggers = new ConcurrentHashMap<String, ReplicationTrigger<?>>();
+
+        // Continue after the last position queued before a restart.
+        long last = 0;
+        Cursor<StoredWriteBehindPosition> cursor =
+            mPositions.query().orderBy("-sequence").fetchSlice(0, 1L);
+        try {
+            if (cursor.hasNext()) {
+                last = cursor.next().getSequence();
+            }
+        } finally {
+            cursor.close();
+        }
+        mNextSequence = new AtomicLong(last + 1);
+
+        mAppliedCount = new AtomicLong();
+        mCoalescedCount = new AtomicLong();
+        mRetryCount = new AtomicLong();
+
+        mApplier = new Thread("ReplicatedRepository write-behind") {
+            @Override
+            public void run() {
+                runApplier();
+            }
+        };
+        mApplier.setDaemon(true);
+    }
+
+    /**
+     * Starts applying queued writes, which might require creating storages.
+     */
+    void start() {
+        mApplier.start();
+    }
+
+    /**
+     * Registers a trigger for applying writes to a storable type, returning
+     * false if the type must be replicated synchronously.
+     */
+    boolean register(StorableInfo<?> info, ReplicationTrigger<?> trigger) {
+        if (!isSupported(info)) {
+            return false;
+        }
+        mTriggers.put(info.getStorableType().getName(), trigger);
+        return true;
+    }
+
+    /**
+     * Queues a write to be applied to the master, as part of the current
+     * replica transaction.
+     */
+    <S extends Storable> void enqueue(StorableInfo<S> info, S storable)
+        throws PersistException
+    {
+        String typeName = info.getStorableType().getName();
+        byte[] key = encodeKey(info, storable);
+
+        try {
+            enqueue(typeName, key);
+        } catch (FetchException e) {
+            throw e.toPersistException();
+        }
+
+        synchronized (this) {
+            mSignalled = true;
+            notifyAll();
+        }
+    }
+
+    private void enqueue(String typeName, byte[] key) throws FetchException, PersistException {
+        while (true) {
+            StoredWriteBehindEntry entry = mEntries.prepare();
+            entry.setStorableTypeName(typeName);
+            entry.setStorableKey(key);
+
+            if (entry.tryLoad()) {
+                entry.setChangeCount(entry.getChangeCount() + 1);
+                boolean failed = entry.isFailed();
+                if (failed) {
+                    // Retry a failed entry, since the new write might succeed.
+                    entry.setFailureCount(0);
+                    entry.setFailed(false);
+                }
+                if (entry.tryUpdate()) {
+                    if (failed) {
+                        insertPosition(typeName, key);
+                    } else {
+                        mCoalescedCount.incrementAndGet();
+                    }
+                    break;
+                }
+            } else {
+                entry.setChangeCount(0);
+                entry.setFailureCount(0);
+                entry.setFailed(false);
+                if (entry.tryInsert()) {
+                    insertPosition(typeName, key);
+                    break;
+                }
+            }
+
+            // Raced with the applier or another writer, so try again.
+        }
+    }
+
+    private void insertPosition(String typeName, byte[] key) throws PersistException {
+        StoredWriteBehindPosition position = mPositions.prepare();
+        position.setSequence(mNextSequence.getAndIncrement());
+        position.setStorableTypeName(typeName);
+        position.setStorableKey(key);
+        position.setQueuedTime(System.currentTimeMillis());
+        position.insert();
+    }
+
+    public long getPendingCount() throws RepositoryException {
+        return mPositions.query().count();
+    }
+
+    public long getFailedCount() throws RepositoryException {
+        return mEntries.query("failed = ?").with(true).count();
+    }
+
+    public long getOldestPendingAge() throws RepositoryException {
+        Cursor<StoredWriteBehindPosition> cursor = mPositions.query().fetchSlice(0, 1L);
+        try {
+            if (cursor.hasNext()) {
+                return Math.max(0, System.currentTimeMillis() - cursor.next().getQueuedTime());
+            }
+            return 0;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    public long getAppliedCount() {
+        return mAppliedCount.get();
+    }
+
+    public long getCoalescedCount() {
+        return mCoalescedCount.get();
+    }
+
+    public long getRetryCount() {
+        return mRetryCount.get();
+    }
+
+    public boolean flush(long timeout, TimeUnit unit) throws RepositoryException {
+        long end = System.currentTimeMillis() + unit.toMillis(timeout);
+        synchronized (this) {
+            mSignalled = true;
+            notifyAll();
+            while (!mClosed) {
+                if (mPositions.query().count() == 0) {
+                    return true;
+                }
+                long remaining = end - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    break;
+                }
+                try {
+                    wait(Math.min(remaining, POLL_MILLIS));
+                } catch (InterruptedException e) {
+                    throw new FetchInterruptedException(e);
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Stops the applier. Writes which have not been applied remain queued.
+     */
+    void close() {
+        synchronized (this) {
+            mClosed = true;
+            notifyAll();
+        }
+    }
+
+    private void runApplier() {
+        Log log = LogFactory.getLog(ReplicatedRepository.class);
+        int failures = 0;
+
+        while (true) {
+            long delay = POLL_MILLIS;
+            boolean more;
+
+            try {
+                more = applyBatch(log);
+                failures = 0;
+            } catch (Throwable e) {
+                synchronized (this) {
+                    if (mClosed) {
+                        return;
+                    }
+                }
+                if (failures == 0) {
+                    log.warn("Unable to apply writes to master, will retry", e);
+                }
+                mRetryCount.incrementAndGet();
+                delay = Math.min(MAX_RETRY_MILLIS, MIN_RETRY_MILLIS << Math.min(failures, 20));
+                failures++;
+                more = false;
+            }
+
+            synchronized (this) {
+                // Wake up any flush waiters.
+                notifyAll();
+                if (mClosed) {
+                    return;
+                }
+                if (!more) {
+                    if (failures > 0 || !mSignalled) {
+                        try {
+                            wait(delay);
+                        } catch (InterruptedException e) {
+                            // Check if closed.
+                        }
+                    }
+                    mSignalled = false;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return true if more entries might be queued
+     */
+    private boolean applyBatch(Log log) throws RepositoryException {
+        List<StoredWriteBehindPosition> batch =
+            mPositions.query().fetchSlice(0, (long) BATCH_SIZE).toList();
+
+        if (batch.isEmpty()) {
+            return false;
+        }
+
+        int count = batch.size();
+        int applied = 0;
+        int remaining = 0;
+
+        // Entries as they were when applied, indexed by batch position. An
+        // entry is null if it was already removed.
+        StoredWriteBehindEntry[] entries = new StoredWriteBehindEntry[count];
+        for (int i=0; i<count; i++) {
+            StoredWriteBehindPosition position = batch.get(i);
+            StoredWriteBehindEntry entry = mEntries.prepare();
+            entry.setStorableTypeName(position.getStorableTypeName());
+            entry.setStorableKey(position.getStorableKey());
+            if (entry.tryLoad()) {
+                entries[i] = entry;
+            }
+        }
+
+        List<ReplicationTrigger<?>> triggers = new ArrayList<ReplicationTrigger<?>>();
+        List<Object> states = new ArrayList<Object>();
+
+        // Failures of entries which the master didn't apply, indexed by batch position.
+        PersistException[] failures = new PersistException[count];
+        PersistException firstFailure = null;
+
+        // Replica storables are not locked while the master is written, so
+        // they can be changed concurrently. Such changes are detected by the
+        // entry change count, and they are written by a later batch.
+        Transaction masterTxn = mMasterRepository.enterTransaction();
+        try {
+            for (int i=0; i<count; i++) {
+                StoredWriteBehindEntry entry = entries[i];
+                if (entry == null) {
+                    continue;
+                }
+
+                ReplicationTrigger<?> trigger = triggerFor(entry.getStorableTypeName());
+                if (trigger == null) {
+                    log.error("Discarding queued write for unsupported type: " +
+                              entry.getStorableTypeName());
+                    continue;
+                }
+
+                Object state;
+                try {
+                    state = applyEntry(trigger, entry.getStorableKey());
+                } catch (UniqueConstraintException e) {
+                    trigger.writeBehindConflict(entry.getStorableKey(), e);
+                    state = null;
+                } catch (OptimisticLockException e) {
+                    trigger.writeBehindConflict(entry.getStorableKey(), e);
+                    state = null;
+                } catch (PersistDeadlockException e) {
+                    throw e;
+                } catch (PersistTimeoutException e) {
+                    throw e;
+                } catch (PersistInterruptedException e) {
+                    throw e;
+                } catch (PersistException e) {
+                    failures[i] = e;
+                    if (firstFailure == null) {
+                        firstFailure = e;
+                    }
+                    continue;
+                }
+
+                if (state != null) {
+                    triggers.add(trigger);
+                    states.add(state);
+                }
+                applied++;
+            }
+            masterTxn.commit();
+        } finally {
+            masterTxn.exit();
+        }
+
+        Transaction replicaTxn = mReplicaRepository.enterTransaction();
+        try {
+            for (int i=0; i<triggers.size(); i++) {
+                triggers.get(i).finishWriteBehind(states.get(i));
+            }
+
+            for (int i=0; i<count; i++) {
+                StoredWriteBehindPosition position = batch.get(i);
+                StoredWriteBehindEntry entry = entries[i];
+                if (entry == null) {
+                    position.tryDelete();
+                    continue;
+                }
+
+                StoredWriteBehindEntry current = mEntries.prepare();
+                entry.copyPrimaryKeyProperties(current);
+                if (!current.tryLoad()) {
+                    position.tryDelete();
+                } else if (current.getChangeCount() != entry.getChangeCount()) {
+                    // Storable was changed again, so leave the entry to be
+                    // applied again by the next batch.
+                    remaining++;
+                } else if (failures[i] == null) {
+                    current.delete();
+                    position.tryDelete();
+                } else {
+                    int failureCount = current.getFailureCount() + 1;
+                    current.setFailureCount(failureCount);
+                    position.tryDelete();
+                    if (failureCount >= MAX_ENTRY_FAILURES) {
+                        current.setFailed(true);
+                        log.error("Unable to apply write to master after " + failureCount +
+                                  " attempts, giving up: " + entry.getStorableTypeName(),
+                                  failures[i]);
+                    } else {
+                        // Retry after the rest of the queue.
+                        insertPosition(current.getStorableTypeName(),
+                                       current.getStorableKey());
+                    }
+                    current.update();
+                }
+            }
+
+            replicaTxn.commit();
+        } finally {
+            replicaTxn.exit();
+        }
+
+        mAppliedCount.addAndGet(applied);
+
+        if (applied == 0 && firstFailure != null) {
+            // Nothing could be applied, and so the master might be
+            // unavailable. Back off before retrying.
+            throw firstFailure;
+        }
+
+        return count >= BATCH_SIZE || remaining > 0;
+    }
+
+    /**
+     * Applies an entry in a nested transaction, such that a failure doesn't
+     * roll back the other entries of the batch.
+     */
+    private Object applyEntry(ReplicationTrigger<?> trigger, byte[] key)
+        throws RepositoryException
+    {
+        Transaction txn = mMasterRepository.enterTransaction();
+        try {
+            Object state = trigger.applyWriteBehind(key);
+            txn.commit();
+            return state;
+        } finally {
+            txn.exit();
+        }
+    }
+
+    private ReplicationTrigger<?> triggerFor(String typeName) throws RepositoryException {
+        ReplicationTrigger<?> trigger = mTriggers.get(typeName);
+        if (trigger == null) {
+            // Entry was queued before a restart, and so the storage has not
+            // been created yet.
+            Class<?> type;
+            try {
+                ClassLoader loader = Thread.currentThread().getContextClassLoader();
+                type = Class.forName(typeName, true, loader == null
+                                     ? getClass().getClassLoader() : loader);
+            } catch (ClassNotFoundException e) {
+                return null;
+            }
+            if (!Storable.class.isAssignableFrom(type)) {
+                return null;
+            }
+            mRepository.storageFor(type.asSubclass(Storable.class));
+            trigger = mTriggers.get(typeName);
+        }
+        return trigger;
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright 2006-2013 Amazon Technologies, Inc. or its affiliates.
+ * Amazon, Amazon.com and Carbonado are trademarks or registered trademarks
+ * of Amazon Technologies, Inc. or its affiliates.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.carbonado.repo.replicated;
+
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import com.amazon.carbonado.Durability;
+import com.amazon.carbonado.IsolationLevel;
+import com.amazon.carbonado.PersistException;
+import com.amazon.carbonado.Repository;
+import com.amazon.carbonado.Transaction;
+
+import com.amazon.carbonado.txn.TransactionPair;
+
+import com.amazon.carbonado.util.BelatedCreationException;
+
+/**
+ * Transaction of a repository in write-behind mode. Writes of most types are
+ * queued in the replica transaction, but types which are replicated
+ * synchronously write the master directly. For those, a master transaction
+ * is entered when first needed, and then this transaction behaves like a
+ * {@link TransactionPair}.
+ *
+ * @see WriteBehindReplicator
+ */
+class WriteBehindTransaction implements Transaction {
+    private final Repository mMasterRepository;
+    private final Transaction mReplicaTxn;
+    // Current transaction of each thread.
+    private final ThreadLocal<WriteBehindTransaction> mCurrent;
+    // Enclosing transaction, or null if this is a top-level transaction.
+    private final WriteBehindTransaction mParent;
+    // Transaction which was current in this thread when this one was entered.
+    private WriteBehindTransaction mPrevious;
+    private final boolean mTop;
+    private final IsolationLevel mLevel;
+
+    // Settings to apply to the master transaction when it's entered.
+    private boolean mForUpdate;
+    private int mLockTimeout = -1;
+    private TimeUnit mLockTimeoutUnit;
+    private Durability mDurability;
+
+    // Is null until the master transaction is entered.
+    private TransactionPair mPair;
+
+    /**
+     * Constructs a transaction which becomes the current one of this thread.
+     *
+     * @param current current transaction of each thread
+     * @param top true if the replica transaction is a top-level transaction
+     * @param level isolation level the replica transaction was entered with
+     */
+    WriteBehindTransaction(Repository masterRepository, Transaction replicaTxn,
+                           ThreadLocal<WriteBehindTransaction> current,
+                           boolean top, IsolationLevel level)
+    {
+        mMasterRepository = masterRepository;
+        mReplicaTxn = replicaTxn;
+        mCurrent = current;
+        mPrevious = current.get();
+        mParent = top ? null : mPrevious;
+        mTop = top;
+        mLevel = level;
+        current.set(this);
+    }
+
+    /**
+     * Enters the master transaction, and those of enclosing transactions, if
+     * not already entered. Must be called by the thread which entered this
+     * transaction, while it's the current one.
+     */
+    void joinMaster() throws PersistException {
+        if (mPair != null) {
+            return;
+        }
+        if (mParent != null) {
+            mParent.joinMaster();
+        }
+
+        Transaction master;
+        try {
+            master = mTop ? mMasterRepository.enterTopTransaction(mLevel)
+                : mMasterRepository.enterTransaction(mLevel);
+        } catch (BelatedCreationException e) {
+            throw new PersistException("Master repository is unavailable", e);
+        }
+
+        if (mForUpdate) {
+            master.setForUpdate(true);
+        }
+        if (mLockTimeout >= 0) {
+            master.setDesiredLockTimeout(mLockTimeout, mLockTimeoutUnit);
+        }
+        if (mDurability != null) {
+            master.setDurability(mDurability);
+        }
+
+        mPair = new TransactionPair(master, mReplicaTxn);
+    }
+
+    private Transaction txn() {
+        Transaction pair = mPair;
+        return pair == null ? mReplicaTxn : pair;
+    }
+
+    @Override
+    public void commit() throws PersistException {
+        txn().commit();
+    }
+
+    @Override
+    public void exit() throws PersistException {
+        try {
+            txn().exit();
+        } finally {
+            release();
+        }
+    }
+
+    @Override
+    public void setForUpdate(boolean forUpdate) {
+        mForUpdate = forUpdate;
+        txn().setForUpdate(forUpdate);
+    }
+
+    @Override
+    public boolean isForUpdate() {
+        return txn().isForUpdate();
+    }
+
+    @Override
+    public void setDesiredLockTimeout(int timeout, TimeUnit unit) {
+        mLockTimeout = timeout;
+        mLockTimeoutUnit = unit;
+        txn().setDesiredLockTimeout(timeout, unit);
+    }
+
+    @Override
+    public void setDurability(Durability durability) {
+        mDurability = durability;
+        txn().setDurability(durability);
+    }
+
+    @Override
+    public Durability getDurability() {
+        return mReplicaTxn.getDurability();
+    }
+
+    @Override
+    public Future<Void> getDurabilityFuture() {
+        return txn().getDurabilityFuture();
+    }
+
+    @Override
+    public IsolationLevel getIsolationLevel() {
+        return mReplicaTxn.getIsolationLevel();
+    }
+
+    @Override
+    public void detach() {
+        txn().detach();
+        release();
+    }
+
+    @Override
+    public void attach() {
+        txn().attach();
+        mPrevious = mCurrent.get();
+        mCurrent.set(this);
+    }
+
+    @Override
+    public boolean preCommit() throws PersistException {
+        return txn().preCommit();
+    }
+
+    @Override
+    public String toString() {
+        return mReplicaTxn.toString();
+    }
+
+    /**
+     * Restores the transaction which was current when this one was entered,
+     * if this one or any nested transaction is still current.
+     */
+    private void release() {
+        for (WriteBehindTransaction txn = mCurrent.get(); txn != null; txn = txn.mPrevious) {
+            if (txn == this) {
+                mCurrent.set(mPrevious);
+                break;
+            }
+        }
+    }
+}
@@ -42,7 +42,9 @@ import com.amazon.carbonado.Storage;
 import com.amazon.carbonado.Transaction;
 import com.amazon.carbonado.TriggerFactory;
 
+import com.amazon.carbonado.capability.BulkLoadCapability;
 import com.amazon.carbonado.capability.Capability;
+import com.amazon.carbonado.capability.ChangeCaptureCapability;
 import com.amazon.carbonado.capability.IndexInfo;
 import com.amazon.carbonado.capability.IndexInfoCapability;
 import com.amazon.carbonado.capability.ShutdownCapability;
@@ -53,6 +55,7 @@ import com.amazon.carbonado.info.StorableIntrospector;
 import com.amazon.carbonado.layout.Layout;
 import com.amazon.carbonado.layout.LayoutCapability;
 import com.amazon.carbonado.layout.LayoutFactory;
+import com.amazon.carbonado.layout.LayoutUpgradeCapability;
 
 import com.amazon.carbonado.qe.RepositoryAccess;
 import com.amazon.carbonado.qe.StorageAccess;
@@ -64,6 +67,7 @@ import com.amazon.carbonado.sequence.SequenceValueGenerator;
 import com.amazon.carbonado.sequence.SequenceValueProducer;
 
 import com.amazon.carbonado.spi.AbstractRepository;
+import com.amazon.carbonado.spi.ChangeCaptureEngine;
 import com.amazon.carbonado.spi.ExceptionTransformer;
 import com.amazon.carbonado.spi.LobEngine;
 
@@ -85,13 +89,15 @@ abstract class BDBRepository<Txn> extends AbstractRepository<Txn>
     implements Repository,
                RepositoryAccess,
                IndexInfoCapability,
+               BulkLoadCapability,
                HotBackupCapability,
                CheckpointCapability,
                EnvironmentCapability,
                ShutdownCapability,
                StorableInfoCapability,
                SequenceCapability,
-               LayoutCapability
+               LayoutCapability,
+               LayoutUpgradeCapability
 {
     private final Log mLog = LogFactory.getLog(getClass());
 
@@ -116,6 +122,8 @@ abstract class BDBRepository<Txn> extends AbstractRepository<Txn>
     final boolean mKeepOldLogFiles;
     final boolean mLogInMemory;
     final boolean mRunDeadlockDetector;
+    private final boolean mLobDeduplication;
+    private final boolean mChangeCapture;
 
     final File mDataHome;
     final File mEnvHome;
@@ -130,6 +138,8 @@ abstract class BDBRepository<Txn> extends AbstractRepository<Txn>
 
     private LobEngine mLobEngine;
 
+    private ChangeCaptureEngine mChangeCaptureEngine;
+
     /**
      * Subclass must call protected start method to fully initialize
      * BDBRepository.
@@ -162,6 +172,8 @@ abstract class BDBRepository<Txn> extends AbstractRepository<Txn>
         mKeepOldLogFiles = builder.getKeepOldLogFiles();
         mLogInMemory = builder.getLogInMemory();
         mRunDeadlockDetector = builder.getRunDeadlockDetector();
+        mLobDeduplication = builder.getLobDeduplication();
+        mChangeCapture = builder.getChangeCapture();
         mStorableCodecFactory = builder.getStorableCodecFactory();
         mPreShutdownHook = builder.getPreShutdownHook();
         mPostShutdownHook = builder.getShutdownHook();
@@ -180,12 +192,31 @@ abstract class BDBRepository<Txn> extends AbstractRepository<Txn>
         return mExTransformer;
     }
     
+    @Override
+    public <C extends Capability> C getCapability(Class<C> capabilityType) {
+        if (capabilityType == ChangeCaptureCapability.class) {
+            return mChangeCapture ? (C) getChangeCaptureEngine() : null;
+        }
+        return super.getCapability(capabilityType);
+    }
+
     public <S extends Storable> IndexInfo[] getIndexInfo(Class<S> storableType)
         throws RepositoryException
     {
         return ((BDBStorage) storageFor(storableType)).getIndexInfo();
     }
 
+    public <S extends Storable> long bulkLoad(Class<S> type, Cursor<? extends S> source)
+        throws RepositoryException
+    {
+        try {
+            return ((BDBStorage<Txn, S>) storageFor(type)).bulkLoad(source);
+        } catch (RepositoryException e) {
+            source.close();
+            throw e;
+        }
+    }
+
     public String[] getUserStorableTypeNames() throws RepositoryException {
         Repository metaRepo = getRootRepository();
 
@@ -374,6 +405,24 @@ abstract class BDBRepository<Txn> extends AbstractRepository<Txn>
         return mLayoutFactory.layoutFor(type, generation);
     }
 
+    @Override
+    public int prepareDecoders(Class<? extends Storable> type) throws FetchException {
+        try {
+            return ((BDBStorage) storageFor(type)).prepareDecoders();
+        } catch (FetchException e) {
+            throw e;
+        } catch (RepositoryException e) {
+            throw e.toFetchException();
+        }
+    }
+
+    @Override
+    public long upgradeLayout(Class<? extends Storable> type, double desiredSpeed)
+        throws RepositoryException
+    {
+        return ((BDBStorage) storageFor(type)).upgradeLayout(desiredSpeed);
+    }
+
     @Override
     protected void finalize() {
         close();
@@ -545,11 +594,22 @@ abstract class BDBRepository<Txn> extends AbstractRepository<Txn>
 
     LobEngine getLobEngine() throws RepositoryException {
         if (mLobEngine == null) {
-            mLobEngine = new LobEngine(this, getRootRepository());
+            mLobEngine = new LobEngine(this, getRootRepository(), mLobDeduplication);
         }
         return mLobEngine;
     }
 
+    boolean isChangeCapture() {
+        return mChangeCapture;
+    }
+
+    synchronized ChangeCaptureEngine getChangeCaptureEngine() {
+        if (mChangeCaptureEngine == null) {
+            mChangeCaptureEngine = new ChangeCaptureEngine(this, getRootRepository());
+        }
+        return mChangeCaptureEngine;
+    }
+
     /**
      * Returns the optional BDB specific database configuration to use
      * for all databases created.
@@ -662,6 +722,22 @@ abstract class BDBRepository<Txn> extends AbstractRepository<Txn>
 
     abstract void txn_abort(Txn txn) throws Exception;
 
+    /**
+     * Returns true if txn_commit_nosync is supported. The default
+     * implementation returns false.
+     */
+    boolean supportsNoSyncCommit() {
+        return false;
+    }
+
+    /**
+     * Commits without waiting for the log to be flushed. Call env_sync to
+     * flush the log. The default implementation calls txn_commit.
+     */
+    void txn_commit_nosync(Txn txn) throws Exception {
+        txn_commit(txn);
+    }
+
     /**
      * Force a checkpoint to run.
      */
@@ -66,6 +66,7 @@ import com.amazon.carbonado.ConfigurationException;
  * <li>{@link com.amazon.carbonado.capability.StorableInfoCapability StorableInfoCapability}
  * <li>{@link com.amazon.carbonado.capability.ShutdownCapability ShutdownCapability}
  * <li>{@link com.amazon.carbonado.layout.LayoutCapability LayoutCapability}
+ * <li>{@link com.amazon.carbonado.layout.LayoutUpgradeCapability LayoutUpgradeCapability}
  * <li>{@link com.amazon.carbonado.sequence.SequenceCapability SequenceCapability}
  * <li>{@link CheckpointCapability CheckpointCapability}
  * <li>{@link EnvironmentCapability EnvironmentCapability}
@@ -118,6 +119,8 @@ public final class BDBRepositoryBuilder extends AbstractRepositoryBuilder {
     private boolean mRunDeadlockDetector = true;
     private boolean mLockConflictDeadlockDetect = false;
     private Boolean mChecksumEnabled;
+    private boolean mLobDeduplication;
+    private boolean mChangeCapture;
     private Object mInitialEnvConfig = null;
     private Object mInitialDBConfig = null;
     private StorableCodecFactory mStorableCodecFactory;
@@ -956,6 +959,37 @@ public final class BDBRepositoryBuilder extends AbstractRepositoryBuilder {
         return mChecksumEnabled;
     }
 
+    /**
+     * When true, new Blobs and Clobs share the storage of identical blocks,
+     * which are keyed by a digest of their contents. Default is false.
+     */
+    public void setLobDeduplication(boolean b) {
+        mLobDeduplication = b;
+    }
+
+    /**
+     * Returns false by default.
+     */
+    public boolean getLobDeduplication() {
+        return mLobDeduplication;
+    }
+
+    /**
+     * When true, the repository supports {@link
+     * com.amazon.carbonado.capability.ChangeCaptureCapability}. Default is
+     * false.
+     */
+    public void setChangeCapture(boolean b) {
+        mChangeCapture = b;
+    }
+
+    /**
+     * Returns false by default.
+     */
+    public boolean getChangeCapture() {
+        return mChangeCapture;
+    }
+
     /**
      * Optionally set the BDB specific environment configuration to
      * use. The builder will verify that needed configuration values are set.
@@ -20,6 +20,7 @@ package com.amazon.carbonado.repo.sleepycat;
 
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.Map;
 
 import org.cojen.classfile.TypeDesc;
@@ -50,10 +51,12 @@ import com.amazon.carbonado.cursor.EmptyCursor;
 import com.amazon.carbonado.cursor.MergeSortBuffer;
 import com.amazon.carbonado.cursor.SingletonCursor;
 import com.amazon.carbonado.cursor.SortBuffer;
+import com.amazon.carbonado.cursor.SortedCursor;
 
 import com.amazon.carbonado.filter.Filter;
 
 import com.amazon.carbonado.info.Direction;
+import com.amazon.carbonado.info.OrderedProperty;
 import com.amazon.carbonado.info.StorableIndex;
 import com.amazon.carbonado.info.StorableInfo;
 import com.amazon.carbonado.info.StorableIntrospector;
@@ -73,6 +76,7 @@ import com.amazon.carbonado.qe.QueryExecutorFactory;
 import com.amazon.carbonado.qe.StorableIndexSet;
 import com.amazon.carbonado.qe.StorageAccess;
 
+import com.amazon.carbonado.raw.GenericStorableCodec;
 import com.amazon.carbonado.raw.StorableCodec;
 import com.amazon.carbonado.raw.StorableCodecFactory;
 import com.amazon.carbonado.raw.RawSupport;
@@ -80,12 +84,15 @@ import com.amazon.carbonado.raw.RawUtil;
 
 import com.amazon.carbonado.sequence.SequenceValueProducer;
 
+import com.amazon.carbonado.spi.ChangeCaptureEngine;
 import com.amazon.carbonado.spi.IndexInfoImpl;
 import com.amazon.carbonado.spi.LobEngine;
 import com.amazon.carbonado.spi.TriggerManager;
 
 import com.amazon.carbonado.txn.TransactionScope;
 
+import com.amazon.carbonado.util.Throttle;
+
 /**
  *
  * @author Brian S O'Neill
@@ -102,6 +109,12 @@ abstract class BDBStorage<Txn, S extends Storable> implements Storage<S>, Storag
 
     private static final int DEFAULT_LOB_BLOCK_SIZE = 1000;
 
+    private static final int BULK_LOAD_BATCH_SIZE = 1000;
+
+    private static final int UPGRADE_BATCH_SIZE = 1000;
+    private static final int UPGRADE_THROTTLE_WINDOW = UPGRADE_BATCH_SIZE * 10;
+    private static final int UPGRADE_THROTTLE_SLEEP_PRECISION = 10;
+
     final BDBRepository<Txn> mRepository;
     /** Reference to the type of storable */
     private final Class<S> mType;
@@ -126,6 +139,15 @@ abstract class BDBStorage<Txn, S extends Storable> implements Storage<S>, Storag
 
     final TriggerManager<S> mTriggerManager;
 
+    /** Internal trigger for managing lobs, which is null if type has no lobs */
+    private Trigger<S> mLobTrigger;
+
+    /** Set by the current thread when an older layout generation is decoded */
+    private final ThreadLocal<Boolean> mDecodedOldGeneration = new ThreadLocal<Boolean>();
+
+    /** Set by the current thread when bulk loading unique keys into an empty storage */
+    final ThreadLocal<Boolean> mBulkAppend = new ThreadLocal<Boolean>();
+
     /**
      * Constructs a storage instance, but subclass must call open before it can
      * be used.
@@ -148,6 +170,7 @@ abstract class BDBStorage<Txn, S extends Storable> implements Storage<S>, Storag
                 Trigger<S> lobTrigger = repository.getLobEngine()
                     .getSupportTrigger(type, DEFAULT_LOB_BLOCK_SIZE);
                 addTrigger(lobTrigger);
+                mLobTrigger = lobTrigger;
             }
         } catch (SupportException e) {
             throw e;
@@ -456,6 +479,219 @@ abstract class BDBStorage<Txn, S extends Storable> implements Storage<S>, Storag
         return bound;
     }
 
+    /**
+     * Loads all storables from the given cursor by first sorting them by
+     * primary key, and then inserting them in key order. Insert triggers are
+     * disabled during the load, except for the internal lob trigger. Because
+     * entries are inserted in key order, database pages are filled
+     * sequentially, and the load becomes I/O bound. Duplicate keys are
+     * adjacent once sorted, and so if the storage is empty, entries are put
+     * without checking if they already exist.
+     *
+     * @return amount of storables loaded
+     * @see BulkLoadCapability
+     */
+    long bulkLoad(Cursor<? extends S> source) throws RepositoryException {
+        MergeSortBuffer<S> buffer;
+        try {
+            buffer = new MergeSortBuffer<S>(this);
+            buffer.prepare(primaryKeyComparator());
+
+            while (source.hasNext()) {
+                S storable = prepare();
+                source.next().copyAllProperties(storable);
+                buffer.add(storable);
+            }
+        } finally {
+            source.close();
+        }
+
+        long total = 0;
+
+        try {
+            buffer.sort();
+
+            boolean append;
+            {
+                TransactionScope<Txn> scope = mRepository.localTransactionScope();
+                // Lock out shutdown task.
+                scope.getLock().lock();
+                try {
+                    append = db_isEmpty(null, mPrimaryDatabase, false);
+                } catch (Exception e) {
+                    throw toRepositoryException(e);
+                } finally {
+                    scope.getLock().unlock();
+                }
+            }
+
+            final Trigger<S> lobTrigger = mLobTrigger;
+            final Comparator<S> comparator = primaryKeyComparator();
+
+            mTriggerManager.locallyDisableInsert();
+            if (append) {
+                mBulkAppend.set(Boolean.TRUE);
+            }
+            try {
+                Transaction txn = null;
+                S previous = null;
+                try {
+                    for (S storable : buffer) {
+                        if (previous != null && comparator.compare(previous, storable) == 0) {
+                            throw new UniqueConstraintException
+                                ("Bulk load contains a duplicate primary key: " +
+                                 storable.toStringKeyOnly());
+                        }
+                        previous = storable;
+
+                        if (txn == null) {
+                            txn = mRepository.enterTopTransaction(IsolationLevel.READ_COMMITTED);
+                        }
+
+                        Object state = null;
+                        if (lobTrigger != null) {
+                            state = lobTrigger.beforeInsert(storable);
+                        }
+                        try {
+                            if (!storable.tryInsert()) {
+                                throw new UniqueConstraintException
+                                    ("Bulk load contains an existing primary key: " +
+                                     storable.toStringKeyOnly());
+                            }
+                        } catch (PersistException e) {
+                            if (lobTrigger != null) {
+                                lobTrigger.failedInsert(storable, state);
+                            }
+                            throw e;
+                        }
+                        if (lobTrigger != null) {
+                            lobTrigger.afterInsert(storable, state);
+                        }
+
+                        if (++total % BULK_LOAD_BATCH_SIZE == 0) {
+                            txn.commit();
+                            txn.exit();
+                            txn = null;
+                        }
+                    }
+
+                    if (txn != null) {
+                        txn.commit();
+                    }
+                } finally {
+                    if (txn != null) {
+                        txn.exit();
+                    }
+                }
+            } finally {
+                mBulkAppend.remove();
+                mTriggerManager.locallyEnableInsert();
+            }
+        } finally {
+            buffer.close();
+        }
+
+        return total;
+    }
+
+    /**
+     * @return amount of older generations which can be decoded
+     * @see com.amazon.carbonado.layout.LayoutUpgradeCapability#prepareDecoders
+     */
+    int prepareDecoders() throws FetchException {
+        StorableCodec<S> codec = mStorableCodec;
+        if (codec instanceof GenericStorableCodec) {
+            return ((GenericStorableCodec<S>) codec).prepareDecoders();
+        }
+        return 0;
+    }
+
+    /**
+     * Scans all records in key order, and re-encodes those which were decoded
+     * from an older layout generation. Records are deleted and re-inserted
+     * with triggers disabled, which preserves the version number and leaves
+     * indexes and lobs alone.
+     *
+     * @return amount of records upgraded
+     * @see com.amazon.carbonado.layout.LayoutUpgradeCapability#upgradeLayout
+     */
+    long upgradeLayout(double desiredSpeed) throws RepositoryException {
+        OrderedProperty<S>[] pkProps = mPrimaryKeyIndex.getOrderedProperties();
+        String[] naturalOrdering = new String[pkProps.length];
+        for (int i=0; i<pkProps.length; i++) {
+            OrderedProperty<S> prop = pkProps[i];
+            if (prop.getDirection() == Direction.DESCENDING) {
+                naturalOrdering[i] = prop.toString();
+            } else {
+                naturalOrdering[i] = prop.getChainedProperty().toString();
+            }
+        }
+
+        Query<S> query = query().orderBy(naturalOrdering);
+
+        Throttle throttle = desiredSpeed < 1.0 ? new Throttle(UPGRADE_THROTTLE_WINDOW) : null;
+
+        long total = 0;
+        S last = null;
+
+        while (true) {
+            boolean more;
+
+            Transaction txn = mRepository.enterTopTransaction(IsolationLevel.READ_COMMITTED);
+            txn.setForUpdate(true);
+            try {
+                Cursor<S> cursor = last == null ? query.fetch() : query.fetchAfter(last);
+
+                mTriggerManager.locallyDisableInsert();
+                mTriggerManager.locallyDisableDelete();
+                try {
+                    int count = 0;
+                    while ((more = cursor.hasNext()) && count < UPGRADE_BATCH_SIZE) {
+                        mDecodedOldGeneration.remove();
+                        S storable = cursor.next();
+                        if (mDecodedOldGeneration.get() != null) {
+                            mDecodedOldGeneration.remove();
+                            if (storable.tryDelete()) {
+                                storable.insert();
+                                total++;
+                            }
+                        }
+                        last = storable;
+                        count++;
+
+                        if (throttle != null) {
+                            try {
+                                throttle.throttle(desiredSpeed, UPGRADE_THROTTLE_SLEEP_PRECISION);
+                            } catch (InterruptedException e) {
+                                throw new RepositoryException("Layout upgrade interrupted");
+                            }
+                        }
+                    }
+                } finally {
+                    mTriggerManager.locallyEnableDelete();
+                    mTriggerManager.locallyEnableInsert();
+                    cursor.close();
+                }
+
+                txn.commit();
+            } finally {
+                txn.exit();
+            }
+
+            if (!more) {
+                return total;
+            }
+        }
+    }
+
+    /**
+     * Returns a comparator which orders storables the same as their encoded
+     * primary keys.
+     */
+    private Comparator<S> primaryKeyComparator() {
+        return SortedCursor.createComparator(mPrimaryKeyIndex.getOrderedProperties());
+    }
+
     protected BDBRepository getRepository() {
         return mRepository;
     }
@@ -607,6 +843,16 @@ abstract class BDBStorage<Txn, S extends Storable> implements Storage<S>, Storag
         mQueryEngine = new QueryEngine<S>(getStorableType(), mRepository);
 
         if (installTriggers) {
+            if (mRepository.isChangeCapture()
+                && ChangeCaptureEngine.isCapturable(getStorableType()))
+            {
+                Trigger<S> captureTrigger = mRepository.getChangeCaptureEngine()
+                    .getCaptureTrigger(getStorableType());
+                if (captureTrigger != null) {
+                    addTrigger(captureTrigger);
+                }
+            }
+
             // Don't install automatic triggers until we're completely ready.
             mTriggerManager.addTriggers(getStorableType(), mRepository.mTriggerFactories);
         }
@@ -1119,7 +1365,12 @@ abstract class BDBStorage<Txn, S extends Storable> implements Storage<S>, Storag
             scope.getLock().lock();
             try {
                 try {
-                    result = mStorage.db_putNoOverwrite(scope.getTxn(), key, value);
+                    if (mStorage.mBulkAppend.get() != null) {
+                        // Key is known to be new, and so don't check if it exists.
+                        result = mStorage.db_put(scope.getTxn(), key, value) ? SUCCESS : null;
+                    } else {
+                        result = mStorage.db_putNoOverwrite(scope.getTxn(), key, value);
+                    }
                 } catch (Throwable e) {
                     throw mStorage.toPersistException(e);
                 }
@@ -1185,6 +1436,7 @@ abstract class BDBStorage<Txn, S extends Storable> implements Storage<S>, Storag
 
         public void decode(S dest, int generation, byte[] data) throws CorruptEncodingException {
             mStorableCodec.decode(dest, generation, data);
+            mDecodedOldGeneration.set(Boolean.TRUE);
         }
 
         public SequenceValueProducer getSequenceValueProducer(String name)
@@ -87,6 +87,35 @@ class BDBTransactionManager<Txn> extends TransactionManager<Txn> {
         }
     }
 
+    @Override
+    protected boolean supportsNoSyncCommit() {
+        return repository().supportsNoSyncCommit();
+    }
+
+    @Override
+    protected boolean commitTxnNoSync(Txn txn) throws PersistException {
+        try {
+            repository().txn_commit_nosync(txn);
+            return false;
+        } catch (Throwable e) {
+            throw mExTransformer.toPersistException(e);
+        }
+    }
+
+    @Override
+    protected void syncCommits() throws PersistException {
+        BDBRepository<Txn> repo = mRepositoryRef.get();
+        if (repo == null) {
+            // Closed, and so nothing to flush.
+            return;
+        }
+        try {
+            repo.env_sync();
+        } catch (Throwable e) {
+            throw mExTransformer.toPersistException(e);
+        }
+    }
+
     @Override
     protected void abortTxn(Txn txn) throws PersistException {
         try {
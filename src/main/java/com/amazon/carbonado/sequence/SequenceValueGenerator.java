@@ -18,6 +18,13 @@
 
 package com.amazon.carbonado.sequence;
 
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.LogFactory;
+
 import com.amazon.carbonado.FetchException;
 import com.amazon.carbonado.PersistException;
 import com.amazon.carbonado.Repository;
@@ -25,8 +32,14 @@ import com.amazon.carbonado.RepositoryException;
 import com.amazon.carbonado.Storage;
 import com.amazon.carbonado.Transaction;
 
+import com.amazon.carbonado.util.DaemonExecutors;
+
 /**
- * General purpose implementation of a sequence value generator.
+ * General purpose implementation of a sequence value generator. Values are
+ * reserved in blocks, and they are handed out from the current block without
+ * locking. When half of the current block has been handed out, the next block
+ * is reserved by a background thread. The block size starts at the reserve
+ * amount, and it grows while blocks are consumed in less than a second.
  *
  * @author Brian S O'Neill
  * @author bcastill
@@ -39,14 +52,43 @@ public class SequenceValueGenerator extends AbstractSequenceValueProducer {
     public static final int DEFAULT_INITIAL_VALUE = 1;
     public static final int DEFAULT_INCREMENT = 1;
 
+    // Grow the reserve if a block is consumed faster than this.
+    private static final long TARGET_BLOCK_MILLIS = 1000;
+
+    // Maximum reserve is this many times the requested reserve amount.
+    private static final int MAX_RESERVE_MULTIPLE = 256;
+
+    private static Executor cRefillExecutor;
+
+    /**
+     * Returns the shared executor for reserving blocks in the background.
+     */
+    private static synchronized Executor refillExecutor() {
+        if (cRefillExecutor == null) {
+            cRefillExecutor = DaemonExecutors.newFixedPool("SequenceValueGenerator-refill", 1);
+        }
+        return cRefillExecutor;
+    }
+
     private final Repository mRepository;
     private final Storage<StoredSequence> mStorage;
     private final StoredSequence mStoredSequence;
     private final int mIncrement;
     private final int mReserveAmount;
 
-    private boolean mHasReservedValues;
-    private long mNextValue;
+    // Copy of stored initial value, which can be read without locking.
+    private volatile long mInitialValue;
+
+    // Block which values are currently handed out from, or null if none.
+    private volatile Block mBlock;
+
+    // Remaining fields are guarded by mStoredSequence lock.
+
+    // Block reserved in advance, or null if none.
+    private Block mNextBlock;
+    private boolean mRefilling;
+    private long mCurrentReserve;
+    private long mLastReserveNanos;
 
     /**
      * Construct a new SequenceValueGenerator which might create persistent
@@ -150,6 +192,9 @@ public class SequenceValueGenerator extends AbstractSequenceValueProducer {
         } finally {
             txn.exit();
         }
+
+        mInitialValue = mStoredSequence.getInitialValue();
+        mCurrentReserve = reserveAmount;
     }
 
     /**
@@ -172,7 +217,8 @@ public class SequenceValueGenerator extends AbstractSequenceValueProducer {
                     mStoredSequence.insert();
                 }
                 txn.commit();
-                mHasReservedValues = false;
+                retireBlocks();
+                mInitialValue = initialValue;
             } finally {
                 txn.exit();
             }
@@ -193,9 +239,7 @@ public class SequenceValueGenerator extends AbstractSequenceValueProducer {
      */
     public long nextLongValue() throws PersistException {
         try {
-            synchronized (mStoredSequence) {
-                return nextUnadjustedValue() + Long.MIN_VALUE + mStoredSequence.getInitialValue();
-            }
+            return nextUnadjustedValue() + Long.MIN_VALUE + mInitialValue;
         } catch (FetchException e) {
             throw e.toPersistException();
         }
@@ -217,23 +261,21 @@ public class SequenceValueGenerator extends AbstractSequenceValueProducer {
     @Override
     public int nextIntValue() throws PersistException {
         try {
-            synchronized (mStoredSequence) {
-                long initial = mStoredSequence.getInitialValue();
-                if (initial >= 0x100000000L) {
-                    throw new PersistException
-                        ("Sequence initial value too large to support 32-bit ints: " +
-                         mStoredSequence.getName() + ", initial: " + initial);
-                }
-                long next = nextUnadjustedValue();
-                if (next >= Long.MIN_VALUE + 0x100000000L) {
-                    // Everytime we throw this exception, a long sequence value
-                    // has been lost. This seems fairly benign.
-                    throw new PersistException
-                        ("Sequence exhausted for 32-bit ints: " + mStoredSequence.getName() +
-                         ", next: " + (next + Long.MIN_VALUE + initial));
-                }
-                return (int) (next + Long.MIN_VALUE + initial);
+            long initial = mInitialValue;
+            if (initial >= 0x100000000L) {
+                throw new PersistException
+                    ("Sequence initial value too large to support 32-bit ints: " +
+                     mStoredSequence.getName() + ", initial: " + initial);
             }
+            long next = nextUnadjustedValue();
+            if (next >= Long.MIN_VALUE + 0x100000000L) {
+                // Everytime we throw this exception, a long sequence value
+                // has been lost. This seems fairly benign.
+                throw new PersistException
+                    ("Sequence exhausted for 32-bit ints: " + mStoredSequence.getName() +
+                     ", next: " + (next + Long.MIN_VALUE + initial));
+            }
+            return (int) (next + Long.MIN_VALUE + initial);
         } catch (FetchException e) {
             throw e.toPersistException();
         }
@@ -253,7 +295,7 @@ public class SequenceValueGenerator extends AbstractSequenceValueProducer {
      */
     public boolean returnReservedValues() throws FetchException, PersistException {
         synchronized (mStoredSequence) {
-            if (mHasReservedValues) {
+            if (mBlock != null || mNextBlock != null) {
                 Transaction txn = mRepository.enterTopTransaction(null);
                 txn.setForUpdate(true);
                 try {
@@ -262,11 +304,13 @@ public class SequenceValueGenerator extends AbstractSequenceValueProducer {
                     StoredSequence current = mStorage.prepare();
                     current.setName(mStoredSequence.getName());
                     if (current.tryLoad() && current.equals(mStoredSequence)) {
-                        mStoredSequence.setNextValue(mNextValue + mIncrement);
-                        mStoredSequence.update();
-                        txn.commit();
-                        mHasReservedValues = false;
-                        return true;
+                        Long unused = retireBlocks();
+                        if (unused != null) {
+                            mStoredSequence.setNextValue(unused);
+                            mStoredSequence.update();
+                            txn.commit();
+                            return true;
+                        }
                     }
                 } finally {
                     txn.exit();
@@ -276,16 +320,122 @@ public class SequenceValueGenerator extends AbstractSequenceValueProducer {
         return false;
     }
 
-    // Assumes caller has synchronized on mStoredSequence
     private long nextUnadjustedValue() throws FetchException, PersistException {
-        if (mHasReservedValues) {
-            long next = mNextValue + mIncrement;
-            mNextValue = next;
-            if (next < mStoredSequence.getNextValue()) {
-                return next;
+        while (true) {
+            Block block = mBlock;
+            if (block != null) {
+                long next = block.mNext.getAndAdd(mIncrement);
+                // Second check detects overflow of the counter.
+                if (next < block.mEnd && next >= block.mStart) {
+                    if (next == block.mRefillAt) {
+                        refill(block);
+                    }
+                    return next;
+                }
+            }
+
+            synchronized (mStoredSequence) {
+                if (mBlock == block) {
+                    Block nextBlock = mNextBlock;
+                    if (nextBlock == null) {
+                        nextBlock = reserve();
+                    } else {
+                        mNextBlock = null;
+                    }
+                    mBlock = nextBlock;
+                }
             }
-            mHasReservedValues = false;
         }
+    }
+
+    /**
+     * Reserves the block after the given one using a background thread.
+     */
+    private void refill(final Block block) {
+        synchronized (mStoredSequence) {
+            if (mRefilling || mNextBlock != null || mBlock != block) {
+                return;
+            }
+            mRefilling = true;
+        }
+
+        Runnable task = new Runnable() {
+            public void run() {
+                try {
+                    synchronized (mStoredSequence) {
+                        if (mNextBlock == null && mBlock == block) {
+                            mNextBlock = reserve();
+                        }
+                    }
+                } catch (Throwable e) {
+                    // Block is reserved again when needed, and then the
+                    // failure is reported to the caller.
+                    LogFactory.getLog(SequenceValueGenerator.class)
+                        .debug("Unable to reserve sequence values in advance", e);
+                } finally {
+                    synchronized (mStoredSequence) {
+                        mRefilling = false;
+                    }
+                }
+            }
+        };
+
+        try {
+            refillExecutor().execute(task);
+        } catch (RejectedExecutionException e) {
+            synchronized (mStoredSequence) {
+                mRefilling = false;
+            }
+        }
+    }
+
+    /**
+     * Discards the current and reserved blocks. Caller must synchronize on
+     * mStoredSequence.
+     *
+     * @return first value which was not handed out, or null if none
+     */
+    private Long retireBlocks() {
+        Long unused = null;
+
+        Block block = mBlock;
+        if (block != null) {
+            mBlock = null;
+            // Values handed out concurrently are before the returned one.
+            long next = block.mNext.getAndSet(block.mEnd);
+            if (next < block.mEnd && next >= block.mStart) {
+                unused = next;
+            }
+        }
+
+        block = mNextBlock;
+        if (block != null) {
+            mNextBlock = null;
+            if (unused == null) {
+                unused = block.mStart;
+            }
+        }
+
+        return unused;
+    }
+
+    /**
+     * Reserves a block of values, adjusting the reserve size to the rate at
+     * which values are being handed out. Caller must synchronize on
+     * mStoredSequence.
+     */
+    private Block reserve() throws FetchException, PersistException {
+        long now = System.nanoTime();
+        if (mLastReserveNanos != 0) {
+            long elapsedMillis = (now - mLastReserveNanos) / 1000000;
+            if (elapsedMillis < TARGET_BLOCK_MILLIS) {
+                mCurrentReserve = Math.min(mCurrentReserve * 2,
+                                           (long) mReserveAmount * MAX_RESERVE_MULTIPLE);
+            } else if (elapsedMillis > TARGET_BLOCK_MILLIS * 10) {
+                mCurrentReserve = Math.max(mCurrentReserve / 2, mReserveAmount);
+            }
+        }
+        mLastReserveNanos = now;
 
         Transaction txn = mRepository.enterTopTransaction(null);
         txn.setForUpdate(true);
@@ -293,7 +443,7 @@ public class SequenceValueGenerator extends AbstractSequenceValueProducer {
             // Assume that StoredSequence is stale, so reload.
             mStoredSequence.load();
             long next = mStoredSequence.getNextValue();
-            long nextStored = next + mReserveAmount * mIncrement;
+            long nextStored = next + mCurrentReserve * mIncrement;
 
             if (next >= 0 && nextStored < 0) {
                 // Wrapped around. There might be just a few values left.
@@ -313,11 +463,32 @@ public class SequenceValueGenerator extends AbstractSequenceValueProducer {
 
             txn.commit();
 
-            mNextValue = next;
-            mHasReservedValues = true;
-            return next;
+            return new Block(next, nextStored, mIncrement);
         } finally {
             txn.exit();
         }
     }
+
+    /**
+     * Range of reserved values, which are unadjusted by the initial value.
+     */
+    private static class Block {
+        final long mStart;
+        final long mEnd;
+        final long mRefillAt;
+        final AtomicLong mNext;
+
+        /**
+         * @param start first value in block
+         * @param end exclusive end of block
+         * @param increment amount to increment for each value
+         */
+        Block(long start, long end, int increment) {
+            mStart = start;
+            mEnd = end;
+            mNext = new AtomicLong(start);
+            // Must be a value which is handed out, and so align to increment.
+            mRefillAt = start + (end - start) / increment / 2 * increment;
+        }
+    }
 }
@@ -0,0 +1,756 @@
+/*
+ * Copyright 2006-2012 Amazon Technologies, Inc. or its affiliates.
+ * Amazon, Amazon.com and Carbonado are trademarks or registered trademarks
+ * of Amazon Technologies, Inc. or its affiliates.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.amazon.carbonado.spi;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import com.amazon.carbonado.CorruptEncodingException;
+import com.amazon.carbonado.Cursor;
+import com.amazon.carbonado.FetchException;
+import com.amazon.carbonado.FetchInterruptedException;
+import com.amazon.carbonado.PersistException;
+import com.amazon.carbonado.Query;
+import com.amazon.carbonado.Repository;
+import com.amazon.carbonado.RepositoryException;
+import com.amazon.carbonado.Storable;
+import com.amazon.carbonado.Storage;
+import com.amazon.carbonado.SupportException;
+import com.amazon.carbonado.Transaction;
+import com.amazon.carbonado.Trigger;
+
+import com.amazon.carbonado.capability.ChangeCaptureCapability;
+import com.amazon.carbonado.capability.ChangeEvent;
+import com.amazon.carbonado.capability.ChangeLog;
+
+import com.amazon.carbonado.info.StorableIntrospector;
+import com.amazon.carbonado.info.StorableProperty;
+
+import com.amazon.carbonado.txn.TransactionScope;
+
+/**
+ * Complete change capture implementation which records changes in {@link
+ * StoredChangeLog} records. Changes are recorded by triggers, within the same
+ * transaction as the change. Updates and deletes also load the current
+ * storable, to record its before image.
+ *
+ * <p>Sequences are assigned from an in-memory counter, without locking the
+ * change log record, and so writers to a captured type aren't serialized. An
+ * event is published to readers only after every event with a lower sequence
+ * has committed or rolled back, as reported by {@link
+ * TransactionScope#afterCompletion TransactionScope}. Events therefore become
+ * visible in sequence order, and rolled back changes leave gaps. The change
+ * log record retains the highest discarded sequence, from which the counter
+ * resumes when the repository is reopened. Only one repository instance
+ * should record changes to the same storage.
+ *
+ * @see StoredChangeLog
+ */
+public class ChangeCaptureEngine implements ChangeCaptureCapability {
+    // Time to wait before checking again if capture was re-enabled.
+    private static final long POLL_MILLIS = 20;
+
+    /**
+     * Returns false if changes to the given type cannot be captured, because
+     * it is used internally to record changes.
+     */
+    public static boolean isCapturable(Class<?> type) {
+        return type != StoredChangeLog.class
+            && type != StoredChangeLog.Event.class
+            && type != StoredChangeLog.Consumer.class;
+    }
+
+    final Repository mRepo;
+    final Repository mRootRepo;
+    private final ConcurrentMap<Class<?>, CaptureTrigger<?>> mTriggers;
+
+    // Storages are created lazily, because they are not available while the
+    // repository is being built.
+    private volatile boolean mReady;
+    Storage<StoredChangeLog> mLogStorage;
+    Storage<StoredChangeLog.Event> mEventStorage;
+    Storage<StoredChangeLog.Consumer> mConsumerStorage;
+
+    /**
+     * @param repo storage for change logs, and for storables to capture
+     * @param rootRepo used for decoding captured storables
+     */
+    public ChangeCaptureEngine(Repository repo, Repository rootRepo) {
+        mRepo = repo;
+        mRootRepo = rootRepo;
+        mTriggers = new ConcurrentHashMap<Class<?>, CaptureTrigger<?>>();
+    }
+
+    /**
+     * Returns a trigger to install for the given type if its changes are
+     * being captured, or null if not. Call when storage is created, and be
+     * sure to call {@link #isCapturable} first.
+     */
+    public <S extends Storable> Trigger<S> getCaptureTrigger(Class<S> type)
+        throws RepositoryException
+    {
+        ready();
+        Trigger<S> trigger = (Trigger<S>) mTriggers.get(type);
+        if (trigger == null && loadLog(type) != null) {
+            trigger = captureTrigger(type);
+        }
+        return trigger;
+    }
+
+    public <S extends Storable> ChangeLog<S> changeLogFor(Class<S> type)
+        throws RepositoryException
+    {
+        if (!isCapturable(type)) {
+            throw new IllegalArgumentException("Cannot capture changes to " + type.getName());
+        }
+        if (LobEngine.hasLobs(type)) {
+            throw new SupportException
+                ("Cannot capture changes to type with Lob properties: " + type.getName());
+        }
+
+        ready();
+        Storage<S> storage = mRepo.storageFor(type);
+
+        if (!mTriggers.containsKey(type)) {
+            Transaction txn = mRepo.enterTransaction();
+            try {
+                txn.setForUpdate(true);
+                StoredChangeLog log = mLogStorage.prepare();
+                log.setStorableTypeName(type.getName());
+                if (!log.tryLoad()) {
+                    log.setLastSequence(0);
+                    log.insert();
+                }
+                txn.commit();
+            } finally {
+                txn.exit();
+            }
+
+            storage.addTrigger(captureTrigger(type));
+        }
+
+        return new Log<S>(type);
+    }
+
+    public boolean isCaptureEnabled(Class<? extends Storable> type) throws RepositoryException {
+        if (!isCapturable(type)) {
+            return false;
+        }
+        ready();
+        return loadLog(type) != null;
+    }
+
+    public void disableCapture(Class<? extends Storable> type) throws RepositoryException {
+        if (!isCapturable(type)) {
+            return;
+        }
+        ready();
+
+        CaptureTrigger trigger = mTriggers.remove(type);
+        if (trigger != null) {
+            mRepo.storageFor(type).removeTrigger(trigger);
+        }
+
+        String typeName = type.getName();
+
+        Transaction txn = mRepo.enterTransaction();
+        try {
+            StoredChangeLog log = mLogStorage.prepare();
+            log.setStorableTypeName(typeName);
+            log.tryDelete();
+            mEventStorage.query("storableTypeName = ?").with(typeName).deleteAll();
+            mConsumerStorage.query("storableTypeName = ?").with(typeName).deleteAll();
+            txn.commit();
+        } finally {
+            txn.exit();
+        }
+    }
+
+    private void ready() throws RepositoryException {
+        if (!mReady) {
+            synchronized (this) {
+                if (!mReady) {
+                    mLogStorage = mRepo.storageFor(StoredChangeLog.class);
+                    mEventStorage = mRepo.storageFor(StoredChangeLog.Event.class);
+                    mConsumerStorage = mRepo.storageFor(StoredChangeLog.Consumer.class);
+                    mReady = true;
+                }
+            }
+        }
+    }
+
+    private StoredChangeLog loadLog(Class<?> type) throws FetchException {
+        StoredChangeLog log = mLogStorage.prepare();
+        log.setStorableTypeName(type.getName());
+        return log.tryLoad() ? log : null;
+    }
+
+    private <S extends Storable> CaptureTrigger<S> captureTrigger(Class<S> type)
+        throws FetchException
+    {
+        CaptureTrigger<S> trigger = (CaptureTrigger<S>) mTriggers.get(type);
+        if (trigger == null) {
+            trigger = new CaptureTrigger<S>(type);
+            CaptureTrigger<S> existing =
+                (CaptureTrigger<S>) mTriggers.putIfAbsent(type, trigger);
+            if (existing != null) {
+                trigger = existing;
+            }
+        }
+        return trigger;
+    }
+
+    private static byte[] encode(Storable storable) throws PersistException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            storable.writeTo(out);
+        } catch (IOException e) {
+            throw new PersistException(e);
+        } catch (SupportException e) {
+            throw e.toPersistException();
+        }
+        return out.toByteArray();
+    }
+
+    private class CaptureTrigger<S extends Storable> extends Trigger<S> {
+        private final Class<S> mType;
+        private final String mTypeName;
+        // Properties which must be initialized for storable to be fully encoded.
+        private final String[] mPropertyNames;
+
+        // Remaining fields are guarded by this.
+
+        private int mWaiters;
+
+        // Highest sequence assigned, and highest sequence published to readers.
+        private long mAssigned;
+        private long mPublished;
+
+        // Assigned sequences whose transactions haven't completed.
+        private final SortedSet<Long> mPending;
+
+        CaptureTrigger(Class<S> type) throws FetchException {
+            mType = type;
+            mTypeName = type.getName();
+            List<String> names = new ArrayList<String>();
+            for (StorableProperty<S> property :
+                     StorableIntrospector.examine(type).getAllProperties().values())
+            {
+                if (!property.isJoin() && !property.isDerived()) {
+                    names.add(property.getName());
+                }
+            }
+            mPropertyNames = names.toArray(new String[names.size()]);
+            mPending = new TreeSet<Long>();
+
+            // Read events before the change log record. If events are
+            // concurrently discarded, the record has been updated first.
+            long high = 0;
+            Cursor<StoredChangeLog.Event> cursor = mEventStorage
+                .query("storableTypeName = ?").with(mTypeName).orderBy("-sequence").fetch();
+            try {
+                if (cursor.hasNext()) {
+                    high = cursor.next().getSequence();
+                }
+            } finally {
+                cursor.close();
+            }
+            StoredChangeLog log = loadLog(type);
+            if (log != null) {
+                high = Math.max(high, log.getLastSequence());
+            }
+            mAssigned = high;
+            mPublished = high;
+        }
+
+        @Override
+        public void afterInsert(S storable, Object state) throws PersistException {
+            record(ChangeEvent.Type.INSERT, null, encode(storable));
+        }
+
+        @Override
+        public Object beforeUpdate(Transaction txn, S storable) throws PersistException {
+            return loadCurrent(storable);
+        }
+
+        @Override
+        public Object beforeTryUpdate(Transaction txn, S storable) throws PersistException {
+            return beforeUpdate(txn, storable);
+        }
+
+        @Override
+        public void afterUpdate(S storable, Object state) throws PersistException {
+            S before = (S) state;
+            // Storable might have been partially updated, without loading
+            // the properties which didn't change. Their values are the same
+            // as before the update.
+            for (String name : mPropertyNames) {
+                if (storable.isPropertyUninitialized(name)) {
+                    S full = (S) storable.prepare();
+                    if (before != null) {
+                        before.copyAllProperties(full);
+                        storable.copyAllProperties(full);
+                    } else {
+                        storable.copyPrimaryKeyProperties(full);
+                        try {
+                            full.load();
+                        } catch (FetchException e) {
+                            throw e.toPersistException();
+                        }
+                    }
+                    storable = full;
+                    break;
+                }
+            }
+            record(ChangeEvent.Type.UPDATE,
+                   before == null ? null : encode(before), encode(storable));
+        }
+
+        @Override
+        public Object beforeDelete(Transaction txn, S storable) throws PersistException {
+            S current = loadCurrent(storable);
+            return current == null ? null : encode(current);
+        }
+
+        @Override
+        public Object beforeTryDelete(Transaction txn, S storable) throws PersistException {
+            return beforeDelete(txn, storable);
+        }
+
+        @Override
+        public void afterDelete(S storable, Object state) throws PersistException {
+            record(ChangeEvent.Type.DELETE, (byte[]) state, null);
+        }
+
+        @Override
+        public int hashCode() {
+            return mTypeName.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (obj instanceof CaptureTrigger) {
+                CaptureTrigger other = (CaptureTrigger) obj;
+                return mTypeName.equals(other.mTypeName) && engine() == other.engine();
+            }
+            return false;
+        }
+
+        /**
+         * Returns the highest sequence which readers may observe.
+         */
+        synchronized long published() {
+            return mPublished;
+        }
+
+        /**
+         * Waits for a higher sequence to be published, or until the timeout
+         * elapses.
+         */
+        synchronized void await(long published, long timeoutMillis)
+            throws InterruptedException
+        {
+            mWaiters++;
+            try {
+                if (mPublished <= published) {
+                    wait(timeoutMillis);
+                }
+            } finally {
+                mWaiters--;
+            }
+        }
+
+        private ChangeCaptureEngine engine() {
+            return ChangeCaptureEngine.this;
+        }
+
+        /**
+         * @return null if not found
+         */
+        private S loadCurrent(S storable) throws PersistException {
+            S current = (S) storable.prepare();
+            storable.copyPrimaryKeyProperties(current);
+            // Load for update, to avoid a lock upgrade when storable is
+            // written, but without changing the caller's transaction.
+            Transaction txn = mRepo.enterTransaction();
+            try {
+                txn.setForUpdate(true);
+                boolean found = current.tryLoad();
+                txn.commit();
+                return found ? current : null;
+            } catch (FetchException e) {
+                throw e.toPersistException();
+            } finally {
+                txn.exit();
+            }
+        }
+
+        private void record(ChangeEvent.Type type, byte[] before, byte[] after)
+            throws PersistException
+        {
+            if (mTriggers.get(mType) != this) {
+                // Capture was disabled.
+                return;
+            }
+
+            final long sequence;
+            synchronized (this) {
+                sequence = ++mAssigned;
+                mPending.add(sequence);
+            }
+
+            // Nested transaction commits into the caller's transaction, and
+            // the event is published when that completes.
+            boolean registered = false;
+            Transaction txn = mRepo.enterTransaction();
+            try {
+                registered = TransactionScope.afterCompletion(txn, new Runnable() {
+                    public void run() {
+                        completed(sequence);
+                    }
+                });
+
+                StoredChangeLog.Event event = mEventStorage.prepare();
+                event.setStorableTypeName(mTypeName);
+                event.setSequence(sequence);
+                event.setChangeType(type.ordinal());
+                event.setTime(System.currentTimeMillis());
+                event.setBeforeImage(before);
+                event.setAfterImage(after);
+                event.insert();
+
+                txn.commit();
+            } finally {
+                try {
+                    txn.exit();
+                } finally {
+                    if (!registered) {
+                        // Completion cannot be observed, and so publish now.
+                        completed(sequence);
+                    }
+                }
+            }
+        }
+
+        synchronized void completed(long sequence) {
+            mPending.remove(sequence);
+            long published = mPending.isEmpty() ? mAssigned : (mPending.first() - 1);
+            if (published > mPublished) {
+                mPublished = published;
+                if (mWaiters != 0) {
+                    notifyAll();
+                }
+            }
+        }
+    }
+
+    private class Log<S extends Storable> implements ChangeLog<S> {
+        private final Class<S> mType;
+        private final String mTypeName;
+        private final Query<StoredChangeLog.Event> mEventQuery;
+        private final Query<StoredChangeLog.Consumer> mConsumerQuery;
+        private Storage<S> mRootStorage;
+
+        Log(Class<S> type) throws RepositoryException {
+            mType = type;
+            mTypeName = type.getName();
+            mEventQuery = mEventStorage
+                .query("storableTypeName = ? & sequence > ? & sequence <= ?")
+                .with(mTypeName).orderBy("sequence");
+            mConsumerQuery = mConsumerStorage.query("storableTypeName = ?").with(mTypeName);
+        }
+
+        public Class<S> getStorableType() {
+            return mType;
+        }
+
+        public long getLastSequence() throws FetchException {
+            CaptureTrigger<S> trigger = (CaptureTrigger<S>) mTriggers.get(mType);
+            if (trigger != null) {
+                return trigger.published();
+            }
+            StoredChangeLog log = loadLog(mType);
+            return log == null ? 0 : log.getLastSequence();
+        }
+
+        public List<ChangeEvent<S>> read(long afterSequence, int maxEvents)
+            throws FetchException
+        {
+            CaptureTrigger<S> trigger = (CaptureTrigger<S>) mTriggers.get(mType);
+            long published = trigger == null ? Long.MAX_VALUE : trigger.published();
+            return read(afterSequence, maxEvents, published);
+        }
+
+        private List<ChangeEvent<S>> read(long afterSequence, int maxEvents, long published)
+            throws FetchException
+        {
+            if (maxEvents <= 0 || published <= afterSequence) {
+                return Collections.emptyList();
+            }
+            List<ChangeEvent<S>> events = new ArrayList<ChangeEvent<S>>();
+            Cursor<StoredChangeLog.Event> cursor =
+                mEventQuery.with(afterSequence).with(published).fetch();
+            try {
+                while (events.size() < maxEvents && cursor.hasNext()) {
+                    events.add(new Event<S>(this, cursor.next()));
+                }
+            } finally {
+                cursor.close();
+            }
+            return events;
+        }
+
+        public List<ChangeEvent<S>> poll(String consumer, int maxEvents,
+                                         long timeout, TimeUnit unit)
+            throws RepositoryException
+        {
+            StoredChangeLog.Consumer c = prepareConsumer(consumer);
+            if (!c.tryLoad()) {
+                c.setAcknowledgedSequence(0);
+                if (!c.tryInsert()) {
+                    c.load();
+                }
+            }
+            long afterSequence = c.getAcknowledgedSequence();
+
+            long end = System.nanoTime() + unit.toNanos(timeout);
+            while (true) {
+                CaptureTrigger<S> trigger = (CaptureTrigger<S>) mTriggers.get(mType);
+                long published = trigger == null ? Long.MAX_VALUE : trigger.published();
+                List<ChangeEvent<S>> events = read(afterSequence, maxEvents, published);
+                if (!events.isEmpty()) {
+                    return events;
+                }
+                long remaining = TimeUnit.NANOSECONDS.toMillis(end - System.nanoTime());
+                if (remaining <= 0) {
+                    return Collections.emptyList();
+                }
+                try {
+                    if (trigger == null) {
+                        // Capture was disabled.
+                        Thread.sleep(Math.min(remaining, POLL_MILLIS));
+                    } else {
+                        // Storage is checked again only after a higher
+                        // sequence is published, which follows its commit.
+                        trigger.await(Math.max(published, afterSequence), remaining);
+                    }
+                } catch (InterruptedException e) {
+                    throw new FetchInterruptedException(e);
+                }
+            }
+        }
+
+        public long getAcknowledged(String consumer) throws FetchException {
+            StoredChangeLog.Consumer c = prepareConsumer(consumer);
+            return c.tryLoad() ? c.getAcknowledgedSequence() : 0;
+        }
+
+        public void acknowledge(String consumer, long sequence) throws PersistException {
+            Transaction txn = mRepo.enterTransaction();
+            try {
+                txn.setForUpdate(true);
+                StoredChangeLog.Consumer c = prepareConsumer(consumer);
+                if (c.tryLoad()) {
+                    c.setAcknowledgedSequence(sequence);
+                    c.update();
+                } else {
+                    c.setAcknowledgedSequence(sequence);
+                    c.insert();
+                }
+                discardAcknowledged();
+                txn.commit();
+            } catch (FetchException e) {
+                throw e.toPersistException();
+            } finally {
+                txn.exit();
+            }
+        }
+
+        public void removeConsumer(String consumer) throws PersistException {
+            Transaction txn = mRepo.enterTransaction();
+            try {
+                if (prepareConsumer(consumer).tryDelete()) {
+                    discardAcknowledged();
+                }
+                txn.commit();
+            } catch (FetchException e) {
+                throw e.toPersistException();
+            } finally {
+                txn.exit();
+            }
+        }
+
+        public void truncate(long sequence) throws PersistException {
+            Transaction txn = mRepo.enterTransaction();
+            try {
+                txn.setForUpdate(true);
+                Query<StoredChangeLog.Event> query = mEventStorage
+                    .query("storableTypeName = ? & sequence <= ?")
+                    .with(mTypeName).with(sequence);
+
+                // Retain the highest discarded sequence in the change log
+                // record, from which sequences resume when reopened.
+                long high = 0;
+                Cursor<StoredChangeLog.Event> cursor = query.orderBy("-sequence").fetch();
+                try {
+                    if (cursor.hasNext()) {
+                        high = cursor.next().getSequence();
+                    }
+                } finally {
+                    cursor.close();
+                }
+
+                if (high > 0) {
+                    StoredChangeLog log = mLogStorage.prepare();
+                    log.setStorableTypeName(mTypeName);
+                    if (log.tryLoad() && log.getLastSequence() < high) {
+                        log.setLastSequence(high);
+                        log.update();
+                    }
+                    query.deleteAll();
+                }
+
+                txn.commit();
+            } catch (FetchException e) {
+                throw e.toPersistException();
+            } finally {
+                txn.exit();
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "ChangeLog {type=" + mTypeName + '}';
+        }
+
+        S prepareRoot() throws FetchException {
+            Storage<S> storage = mRootStorage;
+            if (storage == null) {
+                try {
+                    mRootStorage = storage = mRootRepo.storageFor(mType);
+                } catch (FetchException e) {
+                    throw e;
+                } catch (RepositoryException e) {
+                    throw e.toFetchException();
+                }
+            }
+            return storage.prepare();
+        }
+
+        private StoredChangeLog.Consumer prepareConsumer(String consumer) {
+            if (consumer == null) {
+                throw new IllegalArgumentException("Consumer name cannot be null");
+            }
+            StoredChangeLog.Consumer c = mConsumerStorage.prepare();
+            c.setStorableTypeName(mTypeName);
+            c.setConsumerName(consumer);
+            return c;
+        }
+
+        /**
+         * Deletes events which all consumers have acknowledged.
+         */
+        private void discardAcknowledged() throws FetchException, PersistException {
+            long min = Long.MAX_VALUE;
+            Cursor<StoredChangeLog.Consumer> cursor = mConsumerQuery.fetch();
+            try {
+                if (!cursor.hasNext()) {
+                    return;
+                }
+                do {
+                    min = Math.min(min, cursor.next().getAcknowledgedSequence());
+                } while (cursor.hasNext());
+            } finally {
+                cursor.close();
+            }
+            truncate(min);
+        }
+    }
+
+    private static class Event<S extends Storable> implements ChangeEvent<S> {
+        private final Log<S> mLog;
+        private final StoredChangeLog.Event mEvent;
+
+        Event(Log<S> log, StoredChangeLog.Event event) {
+            mLog = log;
+            mEvent = event;
+        }
+
+        public long getSequence() {
+            return mEvent.getSequence();
+        }
+
+        public Type getType() {
+            return Type.values()[mEvent.getChangeType()];
+        }
+
+        public long getTime() {
+            return mEvent.getTime();
+        }
+
+        public byte[] getBeforeImage() {
+            return mEvent.getBeforeImage();
+        }
+
+        public byte[] getAfterImage() {
+            return mEvent.getAfterImage();
+        }
+
+        public S getBefore() throws FetchException {
+            return decode(mEvent.getBeforeImage());
+        }
+
+        public S getAfter() throws FetchException {
+            return decode(mEvent.getAfterImage());
+        }
+
+        @Override
+        public String toString() {
+            return "ChangeEvent {sequence=" + getSequence() + ", type=" + getType() + '}';
+        }
+
+        private S decode(byte[] image) throws FetchException {
+            if (image == null) {
+                return null;
+            }
+            S storable = mLog.prepareRoot();
+            try {
+                storable.readFrom(new ByteArrayInputStream(image));
+            } catch (IOException e) {
+                throw new CorruptEncodingException(e);
+            } catch (SupportException e) {
+                throw e.toFetchException();
+            }
+            return storable;
+        }
+    }
+}
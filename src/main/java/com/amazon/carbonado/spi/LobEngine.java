@@ -24,6 +24,9 @@ import java.io.OutputStream;
 import java.io.Reader;
 import java.io.Writer;
 
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Map;
@@ -35,14 +38,17 @@ import com.amazon.carbonado.Cursor;
 import com.amazon.carbonado.FetchException;
 import com.amazon.carbonado.FetchNoneException;
 import com.amazon.carbonado.IsolationLevel;
+import com.amazon.carbonado.OptimisticLockException;
 import com.amazon.carbonado.PersistException;
 import com.amazon.carbonado.PersistNoneException;
+import com.amazon.carbonado.Query;
 import com.amazon.carbonado.Repository;
 import com.amazon.carbonado.RepositoryException;
 import com.amazon.carbonado.Storable;
 import com.amazon.carbonado.Storage;
 import com.amazon.carbonado.Transaction;
 import com.amazon.carbonado.Trigger;
+import com.amazon.carbonado.UniqueConstraintException;
 
 import com.amazon.carbonado.info.StorableInfo;
 import com.amazon.carbonado.info.StorableIntrospector;
@@ -64,6 +70,10 @@ import com.amazon.carbonado.util.SoftValuedCache;
  * for binding Lob properties to this engine. Lobs are referenced by locators,
  * which are non-zero long integers. A zero locator is equivalent to null.
  *
+ * <p>If deduplication is enabled, new Lobs are given negative locators, and
+ * their blocks refer to content keyed by a digest of the data. Identical
+ * blocks are then stored only once, and the content is reference counted.
+ *
  * @author Brian S O'Neill
  * @see #getSupportTrigger(Class, int)
  */
@@ -78,6 +88,10 @@ public class LobEngine {
         return false;
     }
 
+    // Maximum attempts to adjust a shared content reference count, when
+    // racing with concurrent writers of the same content.
+    private static final int MAX_CONTENT_ATTEMPTS = 10;
+
     static IOException toIOException(RepositoryException e) {
         IOException ioe = new IOException(e.getMessage());
         ioe.initCause(e);
@@ -88,6 +102,9 @@ public class LobEngine {
     final Storage<StoredLob> mLobStorage;
     final Storage<StoredLob.Block> mLobBlockStorage;
     final SequenceValueProducer mLocatorSequence;
+    final boolean mDeduplicate;
+
+    private volatile Storage<StoredLob.Content> mContentStorage;
 
     private SoftValuedCache mTriggers;
 
@@ -98,9 +115,22 @@ public class LobEngine {
      * @since 1.2
      */
     public LobEngine(Repository lobRepo, Repository locatorRepo) throws RepositoryException {
+        this(lobRepo, locatorRepo, false);
+    }
+
+    /**
+     * @param lobRepo storage for Lobs - should not be replicated
+     * @param locatorRepo storage for producing unique values for Lob locators
+     * - should be root repository
+     * @param deduplicate when true, new Lobs share the storage of identical blocks
+     */
+    public LobEngine(Repository lobRepo, Repository locatorRepo, boolean deduplicate)
+        throws RepositoryException
+    {
         // Cannot reliably use sequences provided by Lob repository, since
         // LobEngine is used internally by repositories.
-        this(lobRepo, new SequenceValueGenerator(locatorRepo, StoredLob.class.getName()));
+        this(lobRepo, new SequenceValueGenerator(locatorRepo, StoredLob.class.getName()),
+             deduplicate);
     }
 
     /**
@@ -110,11 +140,27 @@ public class LobEngine {
      */
     public LobEngine(Repository lobRepo, SequenceValueProducer locatorSequenceProducer)
         throws RepositoryException
+    {
+        this(lobRepo, locatorSequenceProducer, false);
+    }
+
+    /**
+     * @param lobRepo storage for Lobs - should not be replicated
+     * @param locatorSequenceProducer source of unique values for Lob locators
+     * @param deduplicate when true, new Lobs share the storage of identical blocks
+     */
+    public LobEngine(Repository lobRepo, SequenceValueProducer locatorSequenceProducer,
+                     boolean deduplicate)
+        throws RepositoryException
     {
         mRepo = lobRepo;
         mLobStorage = lobRepo.storageFor(StoredLob.class);
         mLobBlockStorage = lobRepo.storageFor(StoredLob.Block.class);
         mLocatorSequence = locatorSequenceProducer;
+        mDeduplicate = deduplicate;
+        if (deduplicate) {
+            mContentStorage = lobRepo.storageFor(StoredLob.Content.class);
+        }
     }
 
     /**
@@ -125,7 +171,7 @@ public class LobEngine {
      */
     public Blob createNewBlob(int blockSize) throws PersistException {
         StoredLob lob = mLobStorage.prepare();
-        lob.setLocator(mLocatorSequence.nextLongValue());
+        lob.setLocator(newLocator());
         lob.setBlockSize(blockSize);
         lob.setLength(0);
         lob.insert();
@@ -140,13 +186,18 @@ public class LobEngine {
      */
     public Clob createNewClob(int blockSize) throws PersistException {
         StoredLob lob = mLobStorage.prepare();
-        lob.setLocator(mLocatorSequence.nextLongValue());
+        lob.setLocator(newLocator());
         lob.setBlockSize(blockSize);
         lob.setLength(0);
         lob.insert();
         return new ClobImpl(lob.getLocator());
     }
 
+    private long newLocator() throws PersistException {
+        long locator = mLocatorSequence.nextLongValue();
+        return mDeduplicate ? -locator : locator;
+    }
+
     /**
      * Returns the locator for the given Lob, or zero if null.
      *
@@ -172,9 +223,12 @@ public class LobEngine {
         try {
             StoredLob lob = mLobStorage.prepare();
             lob.setLocator(locator);
+            if (locator < 0) {
+                txn.setForUpdate(true);
+            }
             if (lob.tryDelete()) {
                 try {
-                    mLobBlockStorage.query("locator = ?").with(lob.getLocator()).deleteAll();
+                    deleteBlocks(locator, mLobBlockStorage.query("locator = ?").with(locator));
                 } catch (FetchException e) {
                     throw e.toPersistException();
                 }
@@ -245,11 +299,7 @@ public class LobEngine {
             }
         }
 
-        try {
-            setBlobValue(locator, data.openInputStream(0, 0));
-        } catch (FetchException e) {
-            throw e.toPersistException();
-        }
+        setBlobValue(locator, data, null);
     }
 
     /**
@@ -271,6 +321,16 @@ public class LobEngine {
             throw new IllegalArgumentException("Cannot use locator zero");
         }
 
+        setBlobValue(locator, null, data);
+    }
+
+    /**
+     * @param blob source of data, if stream is null
+     * @param data source of data, or null to open blob
+     */
+    private void setBlobValue(long locator, Blob blob, InputStream data)
+        throws PersistException, IOException
+    {
         Transaction txn = mRepo.enterTransaction(IsolationLevel.READ_COMMITTED);
         txn.setForUpdate(true);
         try {
@@ -284,14 +344,29 @@ public class LobEngine {
 
             Output out = new Output(lob, 0, txn);
 
-            byte[] buffer = new byte[lob.getBlockSize()];
+            if (data == null) {
+                if (blob instanceof BlobImpl && ((BlobImpl) blob).getEnclosing() == this) {
+                    // Read within this transaction. A stream with its own
+                    // transaction would capture the writes, and then the
+                    // writes would be rolled back when the stream is closed.
+                    data = ((BlobImpl) blob).openInput();
+                } else {
+                    data = blob.openInputStream(0, 0);
+                }
+            }
 
             long total = 0;
-            int amt;
             try {
-                while ((amt = data.read(buffer)) > 0) {
-                    out.write(buffer, 0, amt);
-                    total += amt;
+                if (data instanceof Input) {
+                    // Copy blocks directly, without an intermediate buffer.
+                    total = ((Input) data).transferTo(out);
+                } else {
+                    byte[] buffer = new byte[lob.getBlockSize()];
+                    int amt;
+                    while ((amt = data.read(buffer)) > 0) {
+                        out.write(buffer, 0, amt);
+                        total += amt;
+                    }
                 }
             } finally {
                 data.close();
@@ -346,6 +421,9 @@ public class LobEngine {
                 // Blob is ours and locator is the same, so nothing to do.
                 return;
             }
+            // Copy the encoded characters directly.
+            setBlobValue(locator, impl, null);
+            return;
         }
 
         try {
@@ -420,6 +498,146 @@ public class LobEngine {
         }
     }
 
+    /**
+     * Returns the data of the given block, which is shared content if the Lob
+     * is deduplicated.
+     */
+    byte[] loadBlockData(StoredLob.Block block) throws FetchException {
+        byte[] data = block.getData();
+        if (block.getLocator() < 0) {
+            StoredLob.Content content = contentStorage().prepare();
+            content.setDigest(data);
+            if (!content.tryLoad()) {
+                throw new FetchNoneException
+                    ("Lob content is missing: " + block.getLocator() + ", " + block);
+            }
+            data = content.getData();
+        }
+        return data;
+    }
+
+    /**
+     * Returns the value to store in a block for the given data. For a
+     * deduplicated Lob, the content is shared and the value is its digest.
+     *
+     * @param oldValue value currently stored in block, or null if new
+     */
+    byte[] storeBlockData(long locator, byte[] data, byte[] oldValue)
+        throws PersistException
+    {
+        if (locator >= 0) {
+            return data;
+        }
+
+        byte[] digest = digest(data);
+        if (oldValue != null && Arrays.equals(digest, oldValue)) {
+            return oldValue;
+        }
+
+        adjustContent(digest, data, 1);
+
+        if (oldValue != null) {
+            adjustContent(oldValue, null, -1);
+        }
+
+        return digest;
+    }
+
+    /**
+     * Deletes the blocks selected by the query, releasing the shared content
+     * of a deduplicated Lob.
+     */
+    void deleteBlocks(long locator, Query<StoredLob.Block> query)
+        throws FetchException, PersistException
+    {
+        if (locator < 0) {
+            Cursor<StoredLob.Block> cursor = query.fetch();
+            try {
+                while (cursor.hasNext()) {
+                    adjustContent(cursor.next().getData(), null, -1);
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+        query.deleteAll();
+    }
+
+    /**
+     * Adjusts the reference count of shared content, inserting it when first
+     * referenced and deleting it when no longer referenced. The content is
+     * loaded for update in a nested transaction, which is retried if a
+     * concurrent writer of the same content gets in first.
+     *
+     * @param data content data, required only if delta is positive
+     * @param delta amount to add to reference count
+     */
+    private void adjustContent(byte[] digest, byte[] data, int delta) throws PersistException {
+        Storage<StoredLob.Content> storage;
+        try {
+            storage = contentStorage();
+        } catch (FetchException e) {
+            throw e.toPersistException();
+        }
+
+        for (int attempt = 1; ; attempt++) {
+            Transaction txn = mRepo.enterTransaction();
+            try {
+                txn.setForUpdate(true);
+                StoredLob.Content content = storage.prepare();
+                content.setDigest(digest);
+                if (content.tryLoad()) {
+                    long count = content.getReferenceCount() + delta;
+                    if (count <= 0) {
+                        content.delete();
+                    } else {
+                        content.setReferenceCount(count);
+                        content.update();
+                    }
+                } else if (delta > 0) {
+                    content.setData(data);
+                    content.setReferenceCount(delta);
+                    content.insert();
+                }
+                txn.commit();
+                return;
+            } catch (UniqueConstraintException e) {
+                if (attempt >= MAX_CONTENT_ATTEMPTS) {
+                    throw e;
+                }
+            } catch (OptimisticLockException e) {
+                if (attempt >= MAX_CONTENT_ATTEMPTS) {
+                    throw e;
+                }
+            } catch (FetchException e) {
+                throw e.toPersistException();
+            } finally {
+                txn.exit();
+            }
+        }
+    }
+
+    private Storage<StoredLob.Content> contentStorage() throws FetchException {
+        Storage<StoredLob.Content> storage = mContentStorage;
+        if (storage == null) {
+            // Deduplication is disabled, but deduplicated Lobs exist.
+            try {
+                mContentStorage = storage = mRepo.storageFor(StoredLob.Content.class);
+            } catch (RepositoryException e) {
+                throw e.toFetchException();
+            }
+        }
+        return storage;
+    }
+
+    private static byte[] digest(byte[] data) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(data);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
     /**
      * Returns a Trigger for binding to this LobEngine. Storage implementations
      * which use LobEngine must install this Trigger. Trigger instances are
@@ -520,6 +738,23 @@ public class LobEngine {
             return openInputStream(pos);
         }
 
+        /**
+         * Returns a stream which reads within the current transaction.
+         */
+        Input openInput() throws FetchException {
+            StoredLob lob = mStoredLob;
+            if (lob == null) {
+                lob = mLobStorage.prepare();
+                lob.setLocator(mLocator);
+                try {
+                    lob.load();
+                } catch (FetchNoneException e) {
+                    throw new FetchNoneException("Lob deleted: " + this);
+                }
+            }
+            return new Input(lob, 0, null);
+        }
+
         public long getLength() throws FetchException {
             StoredLob lob = mStoredLob;
             if (lob == null) {
@@ -605,12 +840,12 @@ public class LobEngine {
                     // Free unused blocks.
                     long newBlockCount = lob.getBlockCount();
                     if (newBlockCount < oldBlockCount) {
-                        mLobBlockStorage.query("locator = ? & blockNumber >= ?")
-                            .with(lob.getLocator())
-                            // Subtract 0x80000000 such that block zero is
-                            // physically stored with the smallest integer.
-                            .with(((int) newBlockCount) - 0x80000000)
-                            .deleteAll();
+                        deleteBlocks(mLocator, mLobBlockStorage
+                                     .query("locator = ? & blockNumber >= ?")
+                                     .with(lob.getLocator())
+                                     // Subtract 0x80000000 such that block zero is
+                                     // physically stored with the smallest integer.
+                                     .with(((int) newBlockCount) - 0x80000000));
                     }
 
                     // Clear space in last block.
@@ -625,11 +860,12 @@ public class LobEngine {
                         block.setBlockNumber(((int) newBlockCount) - 0x80000001);
                         txn.setForUpdate(true);
                         if (block.tryLoad()) {
-                            byte[] data = block.getData();
+                            byte[] data = loadBlockData(block);
                             if (data.length > lastBlockLength) {
                                 byte[] newData = new byte[lastBlockLength];
                                 System.arraycopy(data, 0, newData, 0, lastBlockLength);
-                                block.setData(newData);
+                                block.setData(storeBlockData
+                                              (mLocator, newData, block.getData()));
                                 block.update();
                             }
                         }
@@ -731,6 +967,7 @@ public class LobEngine {
         private Transaction mTxn;
         private Cursor<StoredLob.Block> mCursor;
         private StoredLob.Block mStoredBlock;
+        private byte[] mStoredData;
 
         Input(StoredLob lob, long pos, Transaction txn) throws FetchException {
             mLocator = lob.getLocator();
@@ -748,8 +985,11 @@ public class LobEngine {
                 .fetch();
         }
 
+        // Note: Stream is not required to be thread-safe, and so read and write
+        // methods are not synchronized.
+
         @Override
-        public synchronized int read() throws IOException {
+        public int read() throws IOException {
             if (mCursor == null) {
                 throw new IOException("Closed");
             }
@@ -783,48 +1023,104 @@ public class LobEngine {
         }
 
         @Override
-        public synchronized int read(byte[] bytes, int offset, int length) throws IOException {
+        public int read(byte[] bytes, int offset, int length) throws IOException {
             if (length <= 0) {
                 return 0;
             }
             if (mCursor == null) {
                 throw new IOException("Closed");
             }
-            int avail = Math.min((int) (mLength - mPos), mBlockSize - mBlockPos);
-            if (avail <= 0) {
+            if (mPos >= mLength) {
                 return -1;
             }
-            if (length > avail) {
-                length = avail;
-            }
 
-            byte[] block = getBlockData();
-            int blockPos = mBlockPos;
+            // Fill as much of the buffer as possible, spanning blocks.
+            int total = 0;
+            do {
+                int amt = Math.min(length, (int) Math.min
+                                   (mLength - mPos, (long) (mBlockSize - mBlockPos)));
 
-            if (block == null) {
-                Arrays.fill(bytes, offset, offset + length, (byte) 0);
-            } else {
-                int blockAvail = block.length - blockPos;
-                if (blockAvail >= length) {
-                    System.arraycopy(block, blockPos, bytes, offset, length);
+                byte[] block = getBlockData();
+                int blockPos = mBlockPos;
+
+                if (block == null) {
+                    Arrays.fill(bytes, offset, offset + amt, (byte) 0);
                 } else {
-                    System.arraycopy(block, blockPos, bytes, offset, blockAvail);
-                    Arrays.fill(bytes, offset + blockAvail, offset + length, (byte) 0);
+                    int blockAvail = block.length - blockPos;
+                    if (blockAvail >= amt) {
+                        System.arraycopy(block, blockPos, bytes, offset, amt);
+                    } else {
+                        if (blockAvail > 0) {
+                            System.arraycopy(block, blockPos, bytes, offset, blockAvail);
+                        } else {
+                            blockAvail = 0;
+                        }
+                        Arrays.fill(bytes, offset + blockAvail, offset + amt, (byte) 0);
+                    }
+                }
+
+                advance(amt);
+                offset += amt;
+                length -= amt;
+                total += amt;
+            } while (length > 0 && mPos < mLength);
+
+            return total;
+        }
+
+        /**
+         * Writes all remaining data to the given stream, one block at a time.
+         *
+         * @return amount of bytes transferred
+         */
+        long transferTo(OutputStream out) throws IOException {
+            if (mCursor == null) {
+                throw new IOException("Closed");
+            }
+
+            long total = 0;
+            byte[] zeros = null;
+
+            while (mPos < mLength) {
+                int amt = (int) Math.min(mLength - mPos, (long) (mBlockSize - mBlockPos));
+
+                byte[] block = getBlockData();
+                int blockPos = mBlockPos;
+
+                int blockAvail = block == null ? 0 : Math.max(0, block.length - blockPos);
+                if (blockAvail > amt) {
+                    blockAvail = amt;
                 }
+                if (blockAvail > 0) {
+                    out.write(block, blockPos, blockAvail);
+                }
+                if (blockAvail < amt) {
+                    // Missing data is implicitly zero.
+                    if (zeros == null) {
+                        zeros = new byte[mBlockSize];
+                    }
+                    out.write(zeros, 0, amt - blockAvail);
+                }
+
+                advance(amt);
+                total += amt;
             }
 
-            mPos += length;
-            if ((blockPos += length) >= mBlockSize) {
+            return total;
+        }
+
+        private void advance(int amt) {
+            mPos += amt;
+            int blockPos = mBlockPos + amt;
+            if (blockPos >= mBlockSize) {
                 mBlockNumber++;
                 blockPos = 0;
             }
             mBlockPos = blockPos;
-
-            return length;
         }
 
         @Override
-        public synchronized long skip(long n) throws IOException {
+        public long skip(long n) throws IOException {
             if (n <= 0) {
                 return 0;
             }
@@ -873,18 +1169,21 @@ public class LobEngine {
                 }
                 mCursor = null;
                 mStoredBlock = null;
+                mStoredData = null;
             }
         }
 
-        // Caller must be synchronized and have checked if stream is closed
+        // Caller must have checked if stream is closed
         private byte[] getBlockData() throws IOException {
             while (mStoredBlock == null || mBlockNumber > mStoredBlock.getBlockNumber()) {
                 try {
                     if (!mCursor.hasNext()) {
                         mStoredBlock = null;
+                        mStoredData = null;
                         return null;
                     }
                     mStoredBlock = mCursor.next();
+                    mStoredData = null;
                 } catch (FetchException e) {
                     try {
                         close();
@@ -897,13 +1196,30 @@ public class LobEngine {
             if (mBlockNumber < mStoredBlock.getBlockNumber()) {
                 return null;
             }
-            return mStoredBlock.getData();
+            byte[] data = mStoredData;
+            if (data == null) {
+                try {
+                    mStoredData = data = loadBlockData(mStoredBlock);
+                } catch (FetchException e) {
+                    try {
+                        close();
+                    } catch (IOException e2) {
+                        // Don't care.
+                    }
+                    throw toIOException(e);
+                }
+            }
+            return data;
         }
     }
 
     private class Output extends OutputStream {
         private final StoredLob mStoredLob;
 
+        // Blocks at or after this number don't exist yet, and so they need
+        // not be loaded before being inserted.
+        private final int mFirstNewBlockNumber;
+
         private long mPos;
         private int mBlockNumber;
         private int mBlockPos;
@@ -921,11 +1237,16 @@ public class LobEngine {
             mBlockNumber = ((int) (pos / lob.getBlockSize())) - 0x80000000;
             mBlockPos = (int) (pos % lob.getBlockSize());
 
+            mFirstNewBlockNumber = ((int) lob.getBlockCount()) - 0x80000000;
+
             mTxn = txn;
         }
 
+        // Note: Stream is not required to be thread-safe, and so write methods
+        // are not synchronized.
+
         @Override
-        public synchronized void write(int b) throws IOException {
+        public void write(int b) throws IOException {
             if (mTxn == null) {
                 throw new IOException("Closed");
             }
@@ -956,7 +1277,7 @@ public class LobEngine {
         }
 
         @Override
-        public synchronized void write(byte[] bytes, int offset, int length) throws IOException {
+        public void write(byte[] bytes, int offset, int length) throws IOException {
             if (length <= 0) {
                 return;
             }
@@ -1041,7 +1362,7 @@ public class LobEngine {
             }
         }
 
-        // Caller must be synchronized and have checked if stream is closed
+        // Caller must have checked if stream is closed
         private void updateBlock() throws PersistException {
             if (mStoredBlock != null) {
                 byte[] blockData = mBlockData;
@@ -1050,7 +1371,9 @@ public class LobEngine {
                     System.arraycopy(blockData, 0, truncated, 0, truncated.length);
                     blockData = truncated;
                 }
-                mStoredBlock.setData(blockData);
+                mStoredBlock.setData(storeBlockData
+                                     (mStoredLob.getLocator(), blockData,
+                                      mDoInsert ? null : mStoredBlock.getData()));
                 if (mDoInsert) {
                     mStoredBlock.insert();
                     mDoInsert = false;
@@ -1060,7 +1383,7 @@ public class LobEngine {
             }
         }
 
-        // Caller must be synchronized and have checked if stream is closed
+        // Caller must have checked if stream is closed
         private void prepareBlockData() throws IOException {
             if (mStoredBlock == null || mBlockNumber > mStoredBlock.getBlockNumber()) {
                 try {
@@ -1070,8 +1393,8 @@ public class LobEngine {
                     mStoredBlock.setLocator(mStoredLob.getLocator());
                     mStoredBlock.setBlockNumber(mBlockNumber);
                     try {
-                        if (mStoredBlock.tryLoad()) {
-                            mBlockData = mStoredBlock.getData();
+                        if (mBlockNumber < mFirstNewBlockNumber && mStoredBlock.tryLoad()) {
+                            mBlockData = loadBlockData(mStoredBlock);
                             mBlockLength = mBlockData.length;
                             mDoInsert = false;
                         } else {
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2006-2012 Amazon Technologies, Inc. or its affiliates.
+ * Amazon, Amazon.com and Carbonado are trademarks or registered trademarks
+ * of Amazon Technologies, Inc. or its affiliates.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.amazon.carbonado.spi;
+
+import com.amazon.carbonado.Alias;
+import com.amazon.carbonado.Independent;
+import com.amazon.carbonado.Nullable;
+import com.amazon.carbonado.PrimaryKey;
+import com.amazon.carbonado.Storable;
+import com.amazon.carbonado.Version;
+
+/**
+ * Can be used internally by repositories for supporting change capture. A
+ * record exists for each storable type which is captured.
+ *
+ * @see ChangeCaptureEngine
+ */
+@PrimaryKey("storableTypeName")
+@Independent
+@Alias("CARBONADO_CHANGE_LOG")
+public abstract class StoredChangeLog implements Storable<StoredChangeLog> {
+    public abstract String getStorableTypeName();
+    public abstract void setStorableTypeName(String typeName);
+
+    /**
+     * Returns the highest sequence of discarded events, or zero if none.
+     */
+    public abstract long getLastSequence();
+    public abstract void setLastSequence(long sequence);
+
+    @Version
+    public abstract int getVersion();
+    public abstract void setVersion(int version);
+
+    /**
+     * Events stored here.
+     */
+    @PrimaryKey({"storableTypeName", "+sequence"})
+    public static abstract class Event implements Storable<Event> {
+        public abstract String getStorableTypeName();
+        public abstract void setStorableTypeName(String typeName);
+
+        public abstract long getSequence();
+        public abstract void setSequence(long sequence);
+
+        /**
+         * Returns the ordinal of the ChangeEvent.Type.
+         */
+        public abstract int getChangeType();
+        public abstract void setChangeType(int type);
+
+        public abstract long getTime();
+        public abstract void setTime(long time);
+
+        @Nullable
+        public abstract byte[] getBeforeImage();
+        public abstract void setBeforeImage(byte[] image);
+
+        @Nullable
+        public abstract byte[] getAfterImage();
+        public abstract void setAfterImage(byte[] image);
+    }
+
+    /**
+     * Consumer positions stored here.
+     */
+    @PrimaryKey({"storableTypeName", "consumerName"})
+    public static abstract class Consumer implements Storable<Consumer> {
+        public abstract String getStorableTypeName();
+        public abstract void setStorableTypeName(String typeName);
+
+        public abstract String getConsumerName();
+        public abstract void setConsumerName(String name);
+
+        public abstract long getAcknowledgedSequence();
+        public abstract void setAcknowledgedSequence(long sequence);
+    }
+}
@@ -82,9 +82,38 @@ public abstract class StoredLob implements Storable<StoredLob> {
         public abstract int getBlockNumber();
         public abstract void setBlockNumber(int number);
 
+        /**
+         * Returns the block data, or the digest of the shared content if the
+         * Lob is deduplicated.
+         */
+        public abstract byte[] getData();
+        public abstract void setData(byte[] data);
+
+        @Version
+        public abstract int getVersion();
+        public abstract void setVersion(int version);
+    }
+
+    /**
+     * Block data shared by deduplicated Lobs, which have negative locators.
+     */
+    @PrimaryKey("digest")
+    public static abstract class Content implements Storable<Content> {
+        /**
+         * SHA-256 digest of the data.
+         */
+        public abstract byte[] getDigest();
+        public abstract void setDigest(byte[] digest);
+
         public abstract byte[] getData();
         public abstract void setData(byte[] data);
 
+        /**
+         * Returns the number of blocks which refer to this content.
+         */
+        public abstract long getReferenceCount();
+        public abstract void setReferenceCount(long count);
+
         @Version
         public abstract int getVersion();
         public abstract void setVersion(int version);
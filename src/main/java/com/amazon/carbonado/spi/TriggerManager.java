@@ -24,6 +24,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 import com.amazon.carbonado.FetchException;
@@ -481,12 +482,26 @@ public class TriggerManager<S extends Storable> extends Trigger<S> {
             cDisabledFlagRef = AtomicReferenceFieldUpdater
              .newUpdater(ManagedTrigger.class, ThreadLocal.class, "mDisabledFlag");
 
+        private static final AtomicIntegerFieldUpdater<ManagedTrigger>
+            cDisabledThreadsRef = AtomicIntegerFieldUpdater
+             .newUpdater(ManagedTrigger.class, "mDisabledThreads");
+
         private static Trigger[] NO_TRIGGERS = new Trigger[0];
 
+        // Copy-on-write array of triggers. The "before" methods read it once
+        // and pass it to the "after" methods in the state, and so each
+        // operation performs a single volatile read, which is a plain load on
+        // common hardware. Measured against a loop over a final array, which
+        // is what generated dispatch code would do, the overhead is a few
+        // nanoseconds per operation, and so dispatch isn't generated.
         protected volatile Trigger<? super S>[] mTriggers;
 
         private volatile ThreadLocal<AtomicInteger> mDisabledFlag;
 
+        // Count of threads which have locally disabled this trigger. When
+        // zero, the thread-local flag need not be examined.
+        private volatile int mDisabledThreads;
+
         ManagedTrigger() {
             mTriggers = NO_TRIGGERS;
         }
@@ -517,6 +532,9 @@ public class TriggerManager<S extends Storable> extends Trigger<S> {
         }
 
         boolean isLocallyDisabled() {
+            if (mDisabledThreads == 0) {
+                return false;
+            }
             ThreadLocal<AtomicInteger> disabledFlag = mDisabledFlag;
             if (disabledFlag == null) {
                 return false;
@@ -532,16 +550,17 @@ public class TriggerManager<S extends Storable> extends Trigger<S> {
             AtomicInteger i = disabledFlag.get();
             if (i == null) {
                 disabledFlag.set(new AtomicInteger(1));
-            } else {
-                i.incrementAndGet();
+                cDisabledThreadsRef.incrementAndGet(this);
+            } else if (i.incrementAndGet() == 1) {
+                cDisabledThreadsRef.incrementAndGet(this);
             }
         }
 
         void locallyEnable() {
             // Using a count allows this method call to be nested.
             AtomicInteger i = disabledFlag().get();
-            if (i != null) {
-                i.decrementAndGet();
+            if (i != null && i.decrementAndGet() == 0) {
+                cDisabledThreadsRef.decrementAndGet(this);
             }
         }
 
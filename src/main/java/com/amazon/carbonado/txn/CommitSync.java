@@ -0,0 +1,162 @@
+/*
+ * Copyright 2006-2012 Amazon Technologies, Inc. or its affiliates.
+ * Amazon, Amazon.com and Carbonado are trademarks or registered trademarks
+ * of Amazon Technologies, Inc. or its affiliates.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.amazon.carbonado.txn;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import com.amazon.carbonado.Durability;
+import com.amazon.carbonado.PersistException;
+import com.amazon.carbonado.PersistInterruptedException;
+
+import com.amazon.carbonado.spi.ExceptionTransformer;
+
+import com.amazon.carbonado.util.DaemonExecutors;
+
+/**
+ * Schedules the flushes of transactions which were committed without sync.
+ * All commits which request a flush before it begins share the same flush.
+ *
+ * @see Durability
+ */
+class CommitSync {
+    // Delay before flushing group commits.
+    private static final long GROUP_DELAY_NANOS = 5L * 1000 * 1000;
+
+    // Delay before flushing asynchronous commits.
+    private static final long ASYNC_DELAY_NANOS = 1000L * 1000 * 1000;
+
+    static final Future<Void> DONE;
+
+    static {
+        FutureTask<Void> done = new FutureTask<Void>(new Runnable() {
+            public void run() {
+            }
+        }, null);
+        done.run();
+        DONE = done;
+    }
+
+    private static ScheduledThreadPoolExecutor cExecutor;
+
+    private static synchronized ScheduledThreadPoolExecutor executor() {
+        if (cExecutor == null) {
+            cExecutor = DaemonExecutors.newScheduledPool("TransactionManager-commit-sync", 1);
+        }
+        return cExecutor;
+    }
+
+    /**
+     * Waits for a flush to finish.
+     */
+    static void await(Future<Void> future) throws PersistException {
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            throw new PersistInterruptedException(e);
+        } catch (ExecutionException e) {
+            throw ExceptionTransformer.getInstance().toPersistException(e.getCause());
+        }
+    }
+
+    private final TransactionManager<?> mTxnMgr;
+
+    // Flush which hasn't started yet, or null if none.
+    private Flush mPending;
+
+    CommitSync(TransactionManager<?> txnMgr) {
+        mTxnMgr = txnMgr;
+    }
+
+    /**
+     * Requests a flush of all transactions committed so far.
+     *
+     * @return future which completes when flushed
+     */
+    synchronized Future<Void> request(Durability durability) {
+        long delay = durability == Durability.GROUP ? GROUP_DELAY_NANOS : ASYNC_DELAY_NANOS;
+        long deadline = System.nanoTime() + delay;
+
+        Flush flush = mPending;
+        if (flush == null) {
+            mPending = flush = new Flush(mTxnMgr);
+        } else if (deadline - flush.mDeadline >= 0) {
+            // Pending flush runs soon enough.
+            return flush;
+        } else {
+            // Run pending flush sooner. If it has already started, then
+            // running it again has no effect.
+            flush.mScheduled.cancel(false);
+        }
+
+        flush.mDeadline = deadline;
+        flush.mScheduled = executor().schedule(flush, delay, TimeUnit.NANOSECONDS);
+
+        return flush;
+    }
+
+    /**
+     * Runs the pending flush in the current thread, if any.
+     */
+    void flushPending() {
+        Flush flush;
+        synchronized (this) {
+            flush = mPending;
+        }
+        if (flush != null) {
+            flush.run();
+        }
+    }
+
+    private class Flush extends FutureTask<Void> {
+        long mDeadline;
+        ScheduledFuture<?> mScheduled;
+
+        Flush(final TransactionManager<?> txnMgr) {
+            super(new Callable<Void>() {
+                public Void call() throws PersistException {
+                    txnMgr.syncCommits();
+                    return null;
+                }
+            });
+        }
+
+        @Override
+        public void run() {
+            synchronized (CommitSync.this) {
+                if (mPending == this) {
+                    // Commits which request a flush from now on must wait
+                    // for the next one.
+                    mPending = null;
+                }
+            }
+            super.run();
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            // Flush is shared, and so it cannot be cancelled.
+            return false;
+        }
+    }
+}
@@ -19,10 +19,12 @@
 package com.amazon.carbonado.txn;
 
 import java.util.Map;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
 import org.cojen.util.WeakIdentityMap;
 
+import com.amazon.carbonado.Durability;
 import com.amazon.carbonado.IsolationLevel;
 import com.amazon.carbonado.PersistException;
 import com.amazon.carbonado.RepositoryException;
@@ -40,6 +42,7 @@ public abstract class TransactionManager<Txn> {
     private final ThreadLocal<TransactionScope<Txn>> mLocalScope;
     private final Map<TransactionScope<Txn>, ?> mAllScopes;
     private final TransactionMonitor mMonitor;
+    private final CommitSync mCommitSync;
 
     private int mState;
 
@@ -51,6 +54,7 @@ public abstract class TransactionManager<Txn> {
         mLocalScope = new ThreadLocal<TransactionScope<Txn>>();
         mAllScopes = new WeakIdentityMap();
         mMonitor = monitor;
+        mCommitSync = new CommitSync(this);
     }
 
    /**
@@ -130,6 +134,11 @@ public abstract class TransactionManager<Txn> {
         }
     }
 
+    // Called by TransactionScope.
+    Future<Void> requestSync(Durability durability) {
+        return mCommitSync.request(durability);
+    }
+
     /**
      * Closes all transaction scopes. Should be called only when repository is
      * closed.
@@ -154,6 +163,9 @@ public abstract class TransactionManager<Txn> {
 
         mState = suspend ? SUSPENDED : CLOSED;
 
+        // Flush now rather than after the repository has closed.
+        mCommitSync.flushPending();
+
         for (TransactionScope<?> scope : mAllScopes.keySet()) {
             scope.close();
         }
@@ -274,6 +286,38 @@ public abstract class TransactionManager<Txn> {
      */
     protected abstract void abortTxn(Txn txn) throws PersistException;
 
+    /**
+     * Return true if top-level transactions can be committed without forcing
+     * changes to durable storage. The default implementation returns false,
+     * and so all commits are durable.
+     *
+     * @see #commitTxnNoSync
+     * @see #syncCommits
+     */
+    protected boolean supportsNoSyncCommit() {
+        return false;
+    }
+
+    /**
+     * Commits and closes the given internal top-level transaction, without
+     * waiting for the changes to be durable. Called only if {@link
+     * #supportsNoSyncCommit} returns true. The default implementation calls
+     * commitTxn.
+     *
+     * @return true if transaction object is still valid
+     */
+    protected boolean commitTxnNoSync(Txn txn) throws PersistException {
+        return commitTxn(txn);
+    }
+
+    /**
+     * Forces all transactions committed by {@link #commitTxnNoSync} to durable
+     * storage. Called by a background thread, and shared by all commits which
+     * occurred before it. The default implementation does nothing.
+     */
+    protected void syncCommits() throws PersistException {
+    }
+
     static class Closed extends TransactionManager<Object> {
         static final Closed THE = new Closed();
 
@@ -18,8 +18,12 @@
 
 package com.amazon.carbonado.txn;
 
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
+import com.amazon.carbonado.Durability;
 import com.amazon.carbonado.IsolationLevel;
 import com.amazon.carbonado.PersistException;
 import com.amazon.carbonado.Transaction;
@@ -82,6 +86,20 @@ public class TransactionPair implements Transaction {
         mSecondaryTransaction.setDesiredLockTimeout(timeout, unit);
     }
 
+    public void setDurability(Durability durability) {
+        mPrimaryTransaction.setDurability(durability);
+        mSecondaryTransaction.setDurability(durability);
+    }
+
+    public Durability getDurability() {
+        return mPrimaryTransaction.getDurability();
+    }
+
+    public Future<Void> getDurabilityFuture() {
+        return new FuturePair(mPrimaryTransaction.getDurabilityFuture(),
+                              mSecondaryTransaction.getDurabilityFuture());
+    }
+
     public IsolationLevel getIsolationLevel() {
         return mPrimaryTransaction.getIsolationLevel()
             .lowestCommon(mSecondaryTransaction.getIsolationLevel());
@@ -110,4 +128,48 @@ public class TransactionPair implements Transaction {
     public boolean preCommit() throws PersistException {
         return mPrimaryTransaction.preCommit() ? mSecondaryTransaction.preCommit() : false;
     }
+
+    Transaction getSecondary() {
+        return mSecondaryTransaction;
+    }
+
+    /**
+     * Completes when both durability futures complete.
+     */
+    private static class FuturePair implements Future<Void> {
+        private final Future<Void> mPrimary;
+        private final Future<Void> mSecondary;
+
+        FuturePair(Future<Void> primary, Future<Void> secondary) {
+            mPrimary = primary;
+            mSecondary = secondary;
+        }
+
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            return false;
+        }
+
+        public boolean isCancelled() {
+            return false;
+        }
+
+        public boolean isDone() {
+            return mPrimary.isDone() && mSecondary.isDone();
+        }
+
+        public Void get() throws InterruptedException, ExecutionException {
+            mPrimary.get();
+            mSecondary.get();
+            return null;
+        }
+
+        public Void get(long timeout, TimeUnit unit)
+            throws InterruptedException, ExecutionException, TimeoutException
+        {
+            long end = System.nanoTime() + unit.toNanos(timeout);
+            mPrimary.get(timeout, unit);
+            mSecondary.get(Math.max(0, end - System.nanoTime()), TimeUnit.NANOSECONDS);
+            return null;
+        }
+    }
 }
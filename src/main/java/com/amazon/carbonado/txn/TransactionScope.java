@@ -18,13 +18,17 @@
 
 package com.amazon.carbonado.txn;
 
+import java.util.ArrayList;
 import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
 import com.amazon.carbonado.Cursor;
+import com.amazon.carbonado.Durability;
 import com.amazon.carbonado.FetchException;
 import com.amazon.carbonado.IsolationLevel;
 import com.amazon.carbonado.PersistException;
@@ -43,6 +47,64 @@ import com.amazon.carbonado.spi.ExceptionTransformer;
  * @see TransactionManager
  */
 public class TransactionScope<Txn> {
+    /**
+     * Registers a task to run after the given transaction commits. If the
+     * transaction is nested, the task is passed to its parent when committed,
+     * and so it runs only after the top-level transaction commits. The task is
+     * discarded if any enclosing transaction exits without committing. Tasks
+     * run in the thread which completes the transaction, and exceptions they
+     * throw are passed to the thread's uncaught exception handler.
+     *
+     * @return false if transaction is not managed by a TransactionScope, and
+     * so the task cannot be registered
+     * @throws IllegalStateException if transaction has exited
+     */
+    public static boolean afterCommit(Transaction txn, Runnable task) {
+        return addTask(txn, task, false);
+    }
+
+    /**
+     * Registers a task to run after the given transaction commits or rolls
+     * back. Like {@link #afterCommit afterCommit}, a task registered against a
+     * nested transaction which commits runs only when the top-level
+     * transaction completes.
+     *
+     * @return false if transaction is not managed by a TransactionScope, and
+     * so the task cannot be registered
+     * @throws IllegalStateException if transaction has exited
+     */
+    public static boolean afterCompletion(Transaction txn, Runnable task) {
+        return addTask(txn, task, true);
+    }
+
+    private static boolean addTask(Transaction txn, Runnable task, boolean always) {
+        if (task == null) {
+            throw new IllegalArgumentException();
+        }
+        // Secondary transaction of a pair commits last.
+        while (txn instanceof TransactionPair) {
+            txn = ((TransactionPair) txn).getSecondary();
+        }
+        if (!(txn instanceof TransactionImpl)) {
+            return false;
+        }
+        ((TransactionImpl<?>) txn).addTask(task, always);
+        return true;
+    }
+
+    static void runTasks(List<Runnable> tasks) {
+        if (tasks != null) {
+            for (Runnable task : tasks) {
+                try {
+                    task.run();
+                } catch (Throwable e) {
+                    Thread t = Thread.currentThread();
+                    t.getUncaughtExceptionHandler().uncaughtException(t, e);
+                }
+            }
+        }
+    }
+
     final Lock mLock;
 
     // Note: Cannot be final because it needs to be replaced by close
@@ -374,11 +436,17 @@ public class TransactionScope<Txn> {
         private boolean mForUpdate;
         private int mDesiredLockTimeout;
         private TimeUnit mTimeoutUnit;
+        private Durability mDurability = Durability.SYNC;
+        private Future<Void> mDurabilityFuture = CommitSync.DONE;
 
         private TransactionImpl<Txn> mChild;
         private int mState;
         private Txn mTxn;
 
+        // Tasks to run after commit, and tasks to also run after rollback.
+        private List<Runnable> mCommitTasks;
+        private List<Runnable> mCompletionTasks;
+
         // Tracks all registered cursors.
         private CursorList<?> mCursorList;
 
@@ -394,6 +462,7 @@ public class TransactionScope<Txn> {
                 parent.mChild = this;
                 mDesiredLockTimeout = parent.mDesiredLockTimeout;
                 mTimeoutUnit = parent.mTimeoutUnit;
+                mDurability = parent.mDurability;
             }
         }
 
@@ -429,6 +498,8 @@ public class TransactionScope<Txn> {
 
         public void commit() throws PersistException {
             TransactionScope<Txn> scope = mScope;
+            Future<Void> groupFuture = null;
+            List<Runnable> tasks = null;
             scope.mLock.lock();
             try {
                 switch (mState) {
@@ -452,8 +523,21 @@ public class TransactionScope<Txn> {
 
                 if (mTxn != null) {
                     if (mParent == null || mParent.mTxn != mTxn) {
+                        TransactionManager<Txn> txnMgr = scope.mTxnMgr;
+                        Durability durability = mDurability;
+                        boolean noSync = durability != Durability.SYNC
+                            && (mParent == null || mTop) && txnMgr.supportsNoSyncCommit();
                         try {
-                            if (!scope.mTxnMgr.commitTxn(mTxn)) {
+                            if (noSync) {
+                                if (!txnMgr.commitTxnNoSync(mTxn)) {
+                                    mTxn = null;
+                                }
+                                Future<Void> future = txnMgr.requestSync(durability);
+                                mDurabilityFuture = future;
+                                if (durability == Durability.GROUP) {
+                                    groupFuture = future;
+                                }
+                            } else if (!txnMgr.commitTxn(mTxn)) {
                                 mTxn = null;
                             }
                         } catch (Throwable e) {
@@ -470,13 +554,23 @@ public class TransactionScope<Txn> {
                         mTxn = null;
                     }
                 }
+
+                tasks = takeCommitTasks();
             } finally {
                 scope.mLock.unlock();
             }
+
+            if (groupFuture != null) {
+                // Wait outside the lock for the flush shared with other commits.
+                CommitSync.await(groupFuture);
+            }
+
+            runTasks(tasks);
         }
 
         public void exit() throws PersistException {
             TransactionScope<Txn> scope = mScope;
+            List<Runnable> tasks = null;
             scope.mLock.lock();
             try {
                 switch (mState) {
@@ -528,6 +622,11 @@ public class TransactionScope<Txn> {
                         }
                     }
                 } finally {
+                    // Any tasks remaining were registered since the last
+                    // commit, and so they apply to work which is rolled back.
+                    tasks = mCompletionTasks;
+                    mCommitTasks = null;
+                    mCompletionTasks = null;
                     mState = EXITED;
                     scope.exited(this, mParent);
                     if (exception != null) {
@@ -536,6 +635,7 @@ public class TransactionScope<Txn> {
                 }
             } finally {
                 scope.mLock.unlock();
+                runTasks(tasks);
             }
         }
 
@@ -567,6 +667,30 @@ public class TransactionScope<Txn> {
             }
         }
 
+        public void setDurability(Durability durability) {
+            TransactionScope<Txn> scope = mScope;
+            scope.mLock.lock();
+            try {
+                mDurability = durability == null ? Durability.SYNC : durability;
+            } finally {
+                scope.mLock.unlock();
+            }
+        }
+
+        public Durability getDurability() {
+            return mDurability;
+        }
+
+        public Future<Void> getDurabilityFuture() {
+            TransactionScope<Txn> scope = mScope;
+            scope.mLock.lock();
+            try {
+                return mDurabilityFuture;
+            } finally {
+                scope.mLock.unlock();
+            }
+        }
+
         public IsolationLevel getIsolationLevel() {
             return mLevel;
         }
@@ -579,6 +703,71 @@ public class TransactionScope<Txn> {
             mScope.attach();
         }
 
+        void addTask(Runnable task, boolean always) {
+            TransactionScope<Txn> scope = mScope;
+            scope.mLock.lock();
+            try {
+                if (mState == EXITED) {
+                    throw new IllegalStateException("Transaction has exited");
+                }
+                if (always) {
+                    if (mCompletionTasks == null) {
+                        mCompletionTasks = new ArrayList<Runnable>(4);
+                    }
+                    mCompletionTasks.add(task);
+                } else {
+                    if (mCommitTasks == null) {
+                        mCommitTasks = new ArrayList<Runnable>(4);
+                    }
+                    mCommitTasks.add(task);
+                }
+            } finally {
+                scope.mLock.unlock();
+            }
+        }
+
+        /**
+         * Called after successful commit, and returns the tasks to run if
+         * this transaction is top-level. Otherwise, tasks are passed to the
+         * parent. Caller must hold mLock.
+         */
+        private List<Runnable> takeCommitTasks() {
+            List<Runnable> commitTasks = mCommitTasks;
+            List<Runnable> completionTasks = mCompletionTasks;
+            if (commitTasks == null && completionTasks == null) {
+                return null;
+            }
+            mCommitTasks = null;
+            mCompletionTasks = null;
+
+            TransactionImpl<Txn> parent = mParent;
+            if (parent != null && !mTop) {
+                if (commitTasks != null) {
+                    if (parent.mCommitTasks == null) {
+                        parent.mCommitTasks = commitTasks;
+                    } else {
+                        parent.mCommitTasks.addAll(commitTasks);
+                    }
+                }
+                if (completionTasks != null) {
+                    if (parent.mCompletionTasks == null) {
+                        parent.mCompletionTasks = completionTasks;
+                    } else {
+                        parent.mCompletionTasks.addAll(completionTasks);
+                    }
+                }
+                return null;
+            }
+
+            if (commitTasks == null) {
+                return completionTasks;
+            }
+            if (completionTasks != null) {
+                commitTasks.addAll(completionTasks);
+            }
+            return commitTasks;
+        }
+
         // Caller must hold mLock.
         <S extends Storable> void register(Cursor<S> cursor) {
             if (mCursorList == null) {
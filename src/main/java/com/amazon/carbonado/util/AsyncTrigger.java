@@ -0,0 +1,269 @@
+/*
+ * Copyright 2006-2012 Amazon Technologies, Inc. or its affiliates.
+ * Amazon, Amazon.com and Carbonado are trademarks or registered trademarks
+ * of Amazon Technologies, Inc. or its affiliates.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.amazon.carbonado.util;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import com.amazon.carbonado.PersistException;
+import com.amazon.carbonado.Storable;
+import com.amazon.carbonado.Transaction;
+import com.amazon.carbonado.Trigger;
+
+import com.amazon.carbonado.txn.TransactionScope;
+
+/**
+ * Wraps a trigger such that its "after" methods run asynchronously, off the
+ * thread which performed the operation. This is intended for non-critical
+ * work such as auditing and metrics, which then doesn't add to the latency
+ * of persist operations. The wrapped trigger is passed a copy of the
+ * storable, and the state passed to it is always null. Its "before" and
+ * "failed" methods are never called.
+ *
+ * <p>Asynchronous methods are queued after the enclosing top-level
+ * transaction commits, and they are discarded if it rolls back. If the
+ * transaction isn't managed by a {@link TransactionScope}, which supports
+ * commit callbacks, the methods are instead queued as soon as the operation
+ * completes. If the executor rejects a task, the method runs in the calling
+ * thread instead.
+ */
+public class AsyncTrigger<S extends Storable> extends Trigger<S> {
+    private static final int DEFAULT_QUEUE_SIZE = 10000;
+
+    private static Executor cDefaultExecutor;
+
+    /**
+     * Returns a shared executor with a bounded queue, whose threads are
+     * daemons. If the queue is full, tasks run in the calling thread.
+     */
+    public static synchronized Executor defaultExecutor() {
+        if (cDefaultExecutor == null) {
+            cDefaultExecutor = DaemonExecutors.newFixedPool
+                ("AsyncTrigger", Runtime.getRuntime().availableProcessors(), DEFAULT_QUEUE_SIZE);
+        }
+        return cDefaultExecutor;
+    }
+
+    private final Trigger<? super S> mTrigger;
+    private final Executor mExecutor;
+
+    // Flags for which "after" methods are overridden by the wrapped trigger.
+    private final boolean mInsert;
+    private final boolean mUpdate;
+    private final boolean mDelete;
+
+    /**
+     * Wraps a trigger, using the default executor.
+     *
+     * @param trigger trigger whose "after" methods should run asynchronously
+     */
+    public AsyncTrigger(Trigger<? super S> trigger) {
+        this(trigger, defaultExecutor());
+    }
+
+    /**
+     * @param trigger trigger whose "after" methods should run asynchronously
+     * @param executor runs the "after" methods, which should have a bounded queue
+     */
+    public AsyncTrigger(Trigger<? super S> trigger, Executor executor) {
+        if (trigger == null || executor == null) {
+            throw new IllegalArgumentException();
+        }
+        mTrigger = trigger;
+        mExecutor = executor;
+        mInsert = overrides(trigger, "afterInsert") || overrides(trigger, "afterTryInsert");
+        mUpdate = overrides(trigger, "afterUpdate") || overrides(trigger, "afterTryUpdate");
+        mDelete = overrides(trigger, "afterDelete") || overrides(trigger, "afterTryDelete");
+    }
+
+    @Override
+    public Object beforeInsert(Transaction txn, S storable) {
+        return mInsert ? txn : null;
+    }
+
+    @Override
+    public Object beforeTryInsert(Transaction txn, S storable) {
+        return mInsert ? txn : null;
+    }
+
+    @Override
+    public void afterInsert(S storable, Object state) {
+        if (mInsert) {
+            submit(state, new Task<S>(mTrigger, copy(storable), Task.INSERT));
+        }
+    }
+
+    @Override
+    public void afterTryInsert(S storable, Object state) {
+        if (mInsert) {
+            submit(state, new Task<S>(mTrigger, copy(storable), Task.TRY_INSERT));
+        }
+    }
+
+    @Override
+    public Object beforeUpdate(Transaction txn, S storable) {
+        return mUpdate ? txn : null;
+    }
+
+    @Override
+    public Object beforeTryUpdate(Transaction txn, S storable) {
+        return mUpdate ? txn : null;
+    }
+
+    @Override
+    public void afterUpdate(S storable, Object state) {
+        if (mUpdate) {
+            submit(state, new Task<S>(mTrigger, copy(storable), Task.UPDATE));
+        }
+    }
+
+    @Override
+    public void afterTryUpdate(S storable, Object state) {
+        if (mUpdate) {
+            submit(state, new Task<S>(mTrigger, copy(storable), Task.TRY_UPDATE));
+        }
+    }
+
+    @Override
+    public Object beforeDelete(Transaction txn, S storable) {
+        return mDelete ? txn : null;
+    }
+
+    @Override
+    public Object beforeTryDelete(Transaction txn, S storable) {
+        return mDelete ? txn : null;
+    }
+
+    @Override
+    public void afterDelete(S storable, Object state) {
+        if (mDelete) {
+            submit(state, new Task<S>(mTrigger, copy(storable), Task.DELETE));
+        }
+    }
+
+    @Override
+    public void afterTryDelete(S storable, Object state) {
+        if (mDelete) {
+            submit(state, new Task<S>(mTrigger, copy(storable), Task.TRY_DELETE));
+        }
+    }
+
+    @Override
+    public int hashCode() {
+        return mTrigger.hashCode() * 31;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj instanceof AsyncTrigger) {
+            AsyncTrigger other = (AsyncTrigger) obj;
+            return mTrigger.equals(other.mTrigger) && mExecutor == other.mExecutor;
+        }
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return "AsyncTrigger {trigger=" + mTrigger + '}';
+    }
+
+    /**
+     * @param state transaction passed to the "before" method, if any
+     */
+    private void submit(Object state, final Task<S> task) {
+        if (state instanceof Transaction) {
+            Runnable submitter = new Runnable() {
+                public void run() {
+                    execute(task);
+                }
+            };
+            if (TransactionScope.afterCommit((Transaction) state, submitter)) {
+                return;
+            }
+        }
+        execute(task);
+    }
+
+    private void execute(Task<S> task) {
+        try {
+            mExecutor.execute(task);
+        } catch (RejectedExecutionException e) {
+            task.run();
+        }
+    }
+
+    private static <S extends Storable> S copy(S storable) {
+        // Copy to guard against later modification by the caller.
+        return (S) storable.copy();
+    }
+
+    private static boolean overrides(Trigger<?> trigger, String name) {
+        try {
+            return trigger.getClass().getMethod(name, Object.class, Object.class)
+                .getDeclaringClass() != Trigger.class;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    private static class Task<S> implements Runnable {
+        static final int INSERT = 0, TRY_INSERT = 1, UPDATE = 2, TRY_UPDATE = 3,
+            DELETE = 4, TRY_DELETE = 5;
+
+        private final Trigger<? super S> mTrigger;
+        private final S mStorable;
+        private final int mOp;
+
+        Task(Trigger<? super S> trigger, S storable, int op) {
+            mTrigger = trigger;
+            mStorable = storable;
+            mOp = op;
+        }
+
+        public void run() {
+            try {
+                switch (mOp) {
+                case INSERT:
+                    mTrigger.afterInsert(mStorable, null);
+                    break;
+                case TRY_INSERT:
+                    mTrigger.afterTryInsert(mStorable, null);
+                    break;
+                case UPDATE:
+                    mTrigger.afterUpdate(mStorable, null);
+                    break;
+                case TRY_UPDATE:
+                    mTrigger.afterTryUpdate(mStorable, null);
+                    break;
+                case DELETE:
+                    mTrigger.afterDelete(mStorable, null);
+                    break;
+                case TRY_DELETE: default:
+                    mTrigger.afterTryDelete(mStorable, null);
+                    break;
+                }
+            } catch (PersistException e) {
+                Thread t = Thread.currentThread();
+                t.getUncaughtExceptionHandler().uncaughtException(t, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,339 @@
+/*
+ * Copyright 2006-2012 Amazon Technologies, Inc. or its affiliates.
+ * Amazon, Amazon.com and Carbonado are trademarks or registered trademarks
+ * of Amazon Technologies, Inc. or its affiliates.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.amazon.carbonado.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+
+import java.util.Arrays;
+import java.util.Date;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+
+import com.amazon.carbonado.Query;
+import com.amazon.carbonado.Storable;
+import com.amazon.carbonado.Storage;
+
+/**
+ * Immutable token which records where a page of ordered query results ended,
+ * for resuming with the next page. The token holds only the values of the
+ * ordering properties of the last result, and it can be encoded into a
+ * compact byte array.
+ *
+ * <pre>
+ * Query&lt;Event&gt; query = storage.query("type = ?").with(type).orderBy("date", "-id");
+ * Cursor&lt;Event&gt; page = token == null ? query.fetch()
+ *     : query.fetchAfter(token.toStart(storage));
+ * ...
+ * token = ContinuationToken.forLast(lastEvent, "date", "-id");
+ * </pre>
+ *
+ * <p>The query ordering should be total, by including a key, or else results
+ * which compare as equal to the last one are skipped. Ordering by joined
+ * properties is not supported. Only primitive, String, byte array, BigInteger,
+ * BigDecimal, Date and DateTime values can be encoded, and so decoding a token
+ * never instantiates arbitrary classes. For this reason, tokens are not
+ * serializable, and they should only be passed around in encoded form.
+ *
+ * @see Query#fetchAfter
+ */
+public final class ContinuationToken {
+    private static final byte ENCODING_VERSION = 1;
+
+    private static final byte
+        TYPE_NULL = 0, TYPE_BOOLEAN = 1, TYPE_BYTE = 2, TYPE_SHORT = 3, TYPE_CHAR = 4,
+        TYPE_INT = 5, TYPE_LONG = 6, TYPE_FLOAT = 7, TYPE_DOUBLE = 8, TYPE_STRING = 9,
+        TYPE_BYTES = 10, TYPE_BIG_INTEGER = 11, TYPE_BIG_DECIMAL = 12, TYPE_DATE = 13,
+        TYPE_DATE_TIME = 14;
+
+    /**
+     * Returns a token for resuming after the given result.
+     *
+     * @param last last result of the current page
+     * @param orderProperties properties that the query is ordered by, which
+     * may be prefixed with '+' or '-'
+     * @throws IllegalArgumentException if last is null, if no properties
+     * are given, or if any property is not a member of the storable type
+     */
+    public static ContinuationToken forLast(Storable last, String... orderProperties) {
+        if (last == null || orderProperties == null || orderProperties.length == 0) {
+            throw new IllegalArgumentException();
+        }
+        String[] names = new String[orderProperties.length];
+        Object[] values = new Object[orderProperties.length];
+        for (int i=0; i<names.length; i++) {
+            String name = orderProperties[i];
+            if (name == null) {
+                throw new IllegalArgumentException();
+            }
+            if (name.startsWith("+") || name.startsWith("-")) {
+                name = name.substring(1);
+            }
+            names[i] = name;
+            values[i] = last.getPropertyValue(name);
+        }
+        return new ContinuationToken(names, values);
+    }
+
+    /**
+     * Decodes a token which was encoded by {@link #toBytes}.
+     *
+     * @throws IllegalArgumentException if bytes are malformed
+     */
+    public static ContinuationToken fromBytes(byte[] bytes) {
+        if (bytes == null) {
+            throw new IllegalArgumentException();
+        }
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+            if (in.readByte() != ENCODING_VERSION) {
+                throw new IllegalArgumentException("Unknown continuation token encoding");
+            }
+            int count = in.readUnsignedShort();
+            String[] names = new String[count];
+            Object[] values = new Object[count];
+            for (int i=0; i<count; i++) {
+                names[i] = in.readUTF();
+                values[i] = readValue(in);
+            }
+            if (in.read() >= 0) {
+                throw new IllegalArgumentException("Malformed continuation token");
+            }
+            return new ContinuationToken(names, values);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Malformed continuation token", e);
+        }
+    }
+
+    private final String[] mNames;
+    private final Object[] mValues;
+
+    private ContinuationToken(String[] names, Object[] values) {
+        mNames = names;
+        mValues = values;
+    }
+
+    /**
+     * Returns the names of the ordering properties, without any direction
+     * prefixes.
+     */
+    public String[] getPropertyNames() {
+        return mNames.clone();
+    }
+
+    /**
+     * Returns the values of the ordering properties of the last result.
+     */
+    public Object[] getPropertyValues() {
+        return mValues.clone();
+    }
+
+    /**
+     * Returns a new storable with the ordering properties set, suitable for
+     * passing to {@link Query#fetchAfter}.
+     *
+     * @throws IllegalArgumentException if any property is not a member of the
+     * storable type, or if a value has the wrong type
+     */
+    public <S extends Storable> S toStart(Storage<S> storage) {
+        S start = storage.prepare();
+        for (int i=0; i<mNames.length; i++) {
+            start.setPropertyValue(mNames[i], mValues[i]);
+        }
+        return start;
+    }
+
+    /**
+     * Encodes this token into a byte array, which can be decoded by {@link
+     * #fromBytes}.
+     *
+     * @throws IllegalStateException if a value has a type which cannot be encoded
+     */
+    public byte[] toBytes() {
+        try {
+            ByteArrayOutputStream bout = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bout);
+            out.writeByte(ENCODING_VERSION);
+            out.writeShort(mNames.length);
+            for (int i=0; i<mNames.length; i++) {
+                out.writeUTF(mNames[i]);
+                writeValue(out, mValues[i]);
+            }
+            out.flush();
+            return bout.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(mNames) * 31 + Arrays.deepHashCode(mValues);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj instanceof ContinuationToken) {
+            ContinuationToken other = (ContinuationToken) obj;
+            return Arrays.equals(mNames, other.mNames)
+                && Arrays.deepEquals(mValues, other.mValues);
+        }
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder b = new StringBuilder("ContinuationToken {");
+        for (int i=0; i<mNames.length; i++) {
+            if (i > 0) {
+                b.append(", ");
+            }
+            b.append(mNames[i]).append('=');
+            Object value = mValues[i];
+            if (value instanceof byte[]) {
+                b.append(Arrays.toString((byte[]) value));
+            } else {
+                b.append(value);
+            }
+        }
+        return b.append('}').toString();
+    }
+
+    private static void writeValue(DataOutputStream out, Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(TYPE_NULL);
+        } else if (value instanceof Boolean) {
+            out.writeByte(TYPE_BOOLEAN);
+            out.writeBoolean((Boolean) value);
+        } else if (value instanceof Byte) {
+            out.writeByte(TYPE_BYTE);
+            out.writeByte((Byte) value);
+        } else if (value instanceof Short) {
+            out.writeByte(TYPE_SHORT);
+            out.writeShort((Short) value);
+        } else if (value instanceof Character) {
+            out.writeByte(TYPE_CHAR);
+            out.writeChar((Character) value);
+        } else if (value instanceof Integer) {
+            out.writeByte(TYPE_INT);
+            out.writeInt((Integer) value);
+        } else if (value instanceof Long) {
+            out.writeByte(TYPE_LONG);
+            out.writeLong((Long) value);
+        } else if (value instanceof Float) {
+            out.writeByte(TYPE_FLOAT);
+            out.writeFloat((Float) value);
+        } else if (value instanceof Double) {
+            out.writeByte(TYPE_DOUBLE);
+            out.writeDouble((Double) value);
+        } else if (value instanceof String) {
+            out.writeByte(TYPE_STRING);
+            writeBytes(out, ((String) value).getBytes("UTF-8"));
+        } else if (value instanceof byte[]) {
+            out.writeByte(TYPE_BYTES);
+            writeBytes(out, (byte[]) value);
+        } else if (value instanceof BigInteger) {
+            out.writeByte(TYPE_BIG_INTEGER);
+            writeBytes(out, ((BigInteger) value).toByteArray());
+        } else if (value instanceof BigDecimal) {
+            out.writeByte(TYPE_BIG_DECIMAL);
+            BigDecimal bd = (BigDecimal) value;
+            out.writeInt(bd.scale());
+            writeBytes(out, bd.unscaledValue().toByteArray());
+        } else if (value instanceof Date) {
+            out.writeByte(TYPE_DATE);
+            out.writeLong(((Date) value).getTime());
+        } else if (value instanceof DateTime) {
+            out.writeByte(TYPE_DATE_TIME);
+            DateTime dt = (DateTime) value;
+            out.writeLong(dt.getMillis());
+            out.writeUTF(dt.getZone().getID());
+        } else {
+            throw new IllegalStateException
+                ("Cannot encode value of type " + value.getClass().getName());
+        }
+    }
+
+    private static Object readValue(DataInputStream in) throws IOException {
+        switch (in.readByte()) {
+        case TYPE_NULL:
+            return null;
+        case TYPE_BOOLEAN:
+            return in.readBoolean();
+        case TYPE_BYTE:
+            return in.readByte();
+        case TYPE_SHORT:
+            return in.readShort();
+        case TYPE_CHAR:
+            return in.readChar();
+        case TYPE_INT:
+            return in.readInt();
+        case TYPE_LONG:
+            return in.readLong();
+        case TYPE_FLOAT:
+            return in.readFloat();
+        case TYPE_DOUBLE:
+            return in.readDouble();
+        case TYPE_STRING:
+            return new String(readBytes(in), "UTF-8");
+        case TYPE_BYTES:
+            return readBytes(in);
+        case TYPE_BIG_INTEGER:
+            return new BigInteger(readBytes(in));
+        case TYPE_BIG_DECIMAL:
+            int scale = in.readInt();
+            return new BigDecimal(new BigInteger(readBytes(in)), scale);
+        case TYPE_DATE:
+            return new Date(in.readLong());
+        case TYPE_DATE_TIME:
+            long millis = in.readLong();
+            try {
+                return new DateTime(millis, DateTimeZone.forID(in.readUTF()));
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Unknown time zone");
+            }
+        default:
+            throw new IOException("Unknown value type");
+        }
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > in.available()) {
+            throw new IOException("Malformed length");
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return bytes;
+    }
+}
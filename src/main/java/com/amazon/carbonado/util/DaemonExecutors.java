@@ -0,0 +1,98 @@
+/*
+ * Copyright 2006-2012 Amazon Technologies, Inc. or its affiliates.
+ * Amazon, Amazon.com and Carbonado are trademarks or registered trademarks
+ * of Amazon Technologies, Inc. or its affiliates.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.carbonado.util;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Factory for shared executors whose threads are daemons, and so they don't
+ * prevent the JVM from exiting. Idle threads exit after a minute.
+ */
+public class DaemonExecutors {
+    private static final long KEEP_ALIVE_SECONDS = 60;
+
+    /**
+     * Returns a new executor with a fixed amount of threads and an unbounded
+     * queue.
+     *
+     * @param name prefix for thread names
+     */
+    public static ThreadPoolExecutor newFixedPool(String name, int threads) {
+        return newPool(name, threads, new LinkedBlockingQueue<Runnable>());
+    }
+
+    /**
+     * Returns a new executor with a fixed amount of threads and a bounded
+     * queue. If the queue is full, tasks run in the calling thread.
+     *
+     * @param name prefix for thread names
+     */
+    public static ThreadPoolExecutor newFixedPool(String name, int threads, int queueSize) {
+        ThreadPoolExecutor executor =
+            newPool(name, threads, new ArrayBlockingQueue<Runnable>(queueSize));
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        return executor;
+    }
+
+    /**
+     * Returns a new executor for running tasks after a delay.
+     *
+     * @param name prefix for thread names
+     */
+    public static ScheduledThreadPoolExecutor newScheduledPool(String name, int threads) {
+        return new ScheduledThreadPoolExecutor(threads, newThreadFactory(name));
+    }
+
+    /**
+     * Returns a factory which creates daemon threads, named with the given
+     * prefix and a counter.
+     */
+    public static ThreadFactory newThreadFactory(final String name) {
+        return new ThreadFactory() {
+            private final AtomicInteger mCounter = new AtomicInteger();
+
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, name + '-' + mCounter.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        };
+    }
+
+    private static ThreadPoolExecutor newPool(String name, int threads,
+                                              BlockingQueue<Runnable> queue)
+    {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor
+            (threads, threads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+             queue, newThreadFactory(name));
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private DaemonExecutors() {
+    }
+}